@@ -3,6 +3,7 @@ plugins {
     java
     `maven-publish`
     application // Add a main class for testing loading binaries within the jar
+    id("me.champeau.jmh") version "0.6.6" // Benchmarks in src/jmh, run with ./gradlew jmh
 }
 
 group = "org.valkyrienskies.physics_api_krunch"
@@ -88,6 +89,38 @@ tasks {
             events("passed", "skipped", "failed")
         }
     }
+    // Tick time and memory scaling curves, written to build/results/scaling. See ScalingBenchmarkSuite for the options,
+    // which are passed as project properties like -Pkrunch.scaling.seed=2
+    register<JavaExec>("scalingBenchmark") {
+        group = "benchmark"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.valkyrienskies.physics_api_krunch.ScalingBenchmarkSuite")
+        args(buildDir.resolve("results/scaling").path)
+        systemProperty("java.awt.headless", "true")
+        project.properties.filterKeys { it.startsWith("krunch.scaling.") }.forEach { (key, value) ->
+            systemProperty(key, value.toString())
+        }
+    }
+    // Tick cost against stability of swept solver settings, written to build/results/solver. See SolverSettingsComparison
+    register<JavaExec>("solverComparison") {
+        group = "benchmark"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.valkyrienskies.physics_api_krunch.SolverSettingsComparison")
+        args(buildDir.resolve("results/solver").path)
+        systemProperty("java.awt.headless", "true")
+    }
+    // Resident set and heap timeline over many world, body and voxel create/delete cycles, written to
+    // build/results/soak. Fails on sustained growth. See NativeMemorySoak for the -Pkrunch.soak.* options
+    register<JavaExec>("memorySoak") {
+        group = "benchmark"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.valkyrienskies.physics_api_krunch.NativeMemorySoak")
+        args(buildDir.resolve("results/soak").path)
+        systemProperty("java.awt.headless", "true")
+        project.properties.filterKeys { it.startsWith("krunch.soak.") }.forEach { (key, value) ->
+            systemProperty(key, value.toString())
+        }
+    }
 }
 
 // Publish javadoc and sources to maven
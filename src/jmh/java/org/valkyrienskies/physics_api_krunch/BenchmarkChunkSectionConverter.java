@@ -0,0 +1,122 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link KrunchChunkSectionConverter} against looking up the voxel state of every block in a hash map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkChunkSectionConverter {
+
+    private static final int SECTIONS_PER_BATCH = 256;
+
+    @Param({"4", "8"})
+    public int bitsPerEntry;
+
+    private final Map<String, Byte> voxelStatesByBlockState = new HashMap<>();
+    private KrunchChunkSectionConverter<String> converter;
+    private KrunchPalettedSection<String> mixedSection;
+    private KrunchPalettedSection<String> airSection;
+    private KrunchPalettedSection<String>[] batch;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        final int paletteSize = 1 << bitsPerEntry;
+        final String[] palette = new String[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = "block_" + i;
+            voxelStatesByBlockState.put(palette[i], i % 3 == 0 ? KrunchVoxelStates.AIR_STATE : KrunchVoxelStates.SOLID_STATE);
+        }
+        final String[] airPalette = new String[]{"air_0", "air_1"};
+        voxelStatesByBlockState.put(airPalette[0], KrunchVoxelStates.AIR_STATE);
+        voxelStatesByBlockState.put(airPalette[1], KrunchVoxelStates.AIR_STATE);
+
+        converter = new KrunchChunkSectionConverter<>(voxelStatesByBlockState::get);
+
+        final Random random = new Random(1);
+        mixedSection = new KrunchPalettedSection<>(0, 0, 0, palette, paletteSize, randomData(random, bitsPerEntry, paletteSize), bitsPerEntry);
+        airSection = new KrunchPalettedSection<>(0, 0, 0, airPalette, 2, randomData(random, bitsPerEntry, 2), bitsPerEntry);
+
+        batch = new KrunchPalettedSection[SECTIONS_PER_BATCH];
+        for (int i = 0; i < SECTIONS_PER_BATCH; i++) {
+            batch[i] = new KrunchPalettedSection<>(i, 0, 0, palette, paletteSize, randomData(random, bitsPerEntry, paletteSize), bitsPerEntry);
+        }
+    }
+
+    private static long[] randomData(Random random, int bitsPerEntry, int paletteSize) {
+        final int indicesPerLong = 64 / bitsPerEntry;
+        final long[] data = new long[(4096 + indicesPerLong - 1) / indicesPerLong];
+        for (int i = 0; i < 4096; i++) {
+            final long paletteIndex = random.nextInt(paletteSize);
+            data[i / indicesPerLong] |= paletteIndex << ((i % indicesPerLong) * bitsPerEntry);
+        }
+        return data;
+    }
+
+    /**
+     * The conversion this replaces: unpack every index on its own and look its block state up in a hash map.
+     */
+    @Benchmark
+    public IVoxelShapeUpdate hashLookupPerBlock() {
+        final KrunchPalettedSection<String> section = mixedSection;
+        final DenseVoxelShapeUpdate update = new DenseVoxelShapeUpdate(section.regionX, section.regionY, section.regionZ, false, new byte[4096]);
+        final int indicesPerLong = 64 / section.bitsPerEntry;
+        final long mask = (1L << section.bitsPerEntry) - 1;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    final int index = x | (z << 4) | (y << 8);
+                    final int paletteIndex = (int) ((section.data[index / indicesPerLong] >>> ((index % indicesPerLong) * section.bitsPerEntry)) & mask);
+                    update.setVoxel(x, y, z, voxelStatesByBlockState.get(section.palette[paletteIndex]));
+                }
+            }
+        }
+        return update;
+    }
+
+    @Benchmark
+    public IVoxelShapeUpdate convertSection() {
+        return converter.convertSection(mixedSection, false);
+    }
+
+    @Benchmark
+    public IVoxelShapeUpdate convertAirSection() {
+        return converter.convertSection(airSection, false);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IVoxelShapeUpdate[] convertBatchSequential() {
+        return converter.convertSections(batch, false);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IVoxelShapeUpdate[] convertBatchParallel() {
+        return converter.convertSections(batch, true);
+    }
+}
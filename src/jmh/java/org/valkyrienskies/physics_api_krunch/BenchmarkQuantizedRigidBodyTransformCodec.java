@@ -0,0 +1,112 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.joml.Quaterniond;
+import org.joml.Vector3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.valkyrienskies.physics_api.RigidBodyTransform;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding the transforms of many bodies with {@link QuantizedRigidBodyTransformCodec} against
+ * {@link RigidBodyTransformEncoder}. The setup prints the encoded size of each, since that's what the codec is for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkQuantizedRigidBodyTransformCodec {
+
+    @Param({"100", "10000"})
+    public int bodyCount;
+
+    private int[] rigidBodyIds;
+    private double[] transforms;
+    private RigidBodyTransform[] rigidBodyTransforms;
+    private final QuantizedRigidBodyTransformCodec codec = new QuantizedRigidBodyTransformCodec();
+    private final QuantizedRigidBodyTransformCodec.Snapshot baseline = new QuantizedRigidBodyTransformCodec.Snapshot();
+    private final QuantizedRigidBodyTransformCodec.Snapshot sent = new QuantizedRigidBodyTransformCodec.Snapshot();
+    private final QuantizedRigidBodyTransformCodec.Snapshot received = new QuantizedRigidBodyTransformCodec.Snapshot();
+    private byte[] encodedWithBaseline;
+    private int encodedWithBaselineSize;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        rigidBodyIds = new int[bodyCount];
+        transforms = new double[bodyCount * 7];
+        rigidBodyTransforms = new RigidBodyTransform[bodyCount];
+        for (int i = 0; i < bodyCount; i++) {
+            rigidBodyIds[i] = i;
+            final Quaterniond rotation = new Quaterniond(random.nextGaussian(), random.nextGaussian(),
+                random.nextGaussian(), random.nextGaussian()).normalize();
+            final Vector3d position = new Vector3d(random.nextDouble() * 2000 - 1000, random.nextDouble() * 256,
+                random.nextDouble() * 2000 - 1000);
+            setTransform(i, position, rotation);
+        }
+        codec.encode(rigidBodyIds, transforms, bodyCount, null, baseline);
+
+        // A tenth of the bodies move between the baseline and the benchmarked state
+        for (int i = 0; i < bodyCount; i += 10) {
+            final Quaterniond rotation = new Quaterniond(transforms[i * 7 + 3], transforms[i * 7 + 4],
+                transforms[i * 7 + 5], transforms[i * 7 + 6]).rotateY(0.01);
+            final Vector3d position = new Vector3d(transforms[i * 7] + 0.5, transforms[i * 7 + 1], transforms[i * 7 + 2]);
+            setTransform(i, position, rotation);
+        }
+
+        final int fullSize = codec.encode(rigidBodyIds, transforms, bodyCount, null, sent);
+        encodedWithBaselineSize = codec.encode(rigidBodyIds, transforms, bodyCount, baseline, sent);
+        encodedWithBaseline = Arrays.copyOf(codec.getBuffer(), encodedWithBaselineSize);
+        System.out.println("Bytes for " + bodyCount + " bodies: raw " + bodyCount * RigidBodyTransformEncoder.RIGID_BODY_TRANSFORM_BYTES_SIZE
+            + ", quantized " + fullSize + ", quantized with baseline " + encodedWithBaselineSize);
+    }
+
+    private void setTransform(int index, Vector3d position, Quaterniond rotation) {
+        transforms[index * 7] = position.x;
+        transforms[index * 7 + 1] = position.y;
+        transforms[index * 7 + 2] = position.z;
+        transforms[index * 7 + 3] = rotation.x;
+        transforms[index * 7 + 4] = rotation.y;
+        transforms[index * 7 + 5] = rotation.z;
+        transforms[index * 7 + 6] = rotation.w;
+        rigidBodyTransforms[index] = new RigidBodyTransform(position, rotation);
+    }
+
+    @Benchmark
+    public void encodeRaw(Blackhole blackhole) {
+        for (final RigidBodyTransform rigidBodyTransform : rigidBodyTransforms) {
+            blackhole.consume(RigidBodyTransformEncoder.encodeRigidBodyTransform(rigidBodyTransform));
+        }
+    }
+
+    @Benchmark
+    public int encodeQuantized() {
+        return codec.encode(rigidBodyIds, transforms, bodyCount, null, sent);
+    }
+
+    @Benchmark
+    public int encodeQuantizedWithBaseline() {
+        return codec.encode(rigidBodyIds, transforms, bodyCount, baseline, sent);
+    }
+
+    @Benchmark
+    public int decodeQuantizedWithBaseline() {
+        codec.decode(encodedWithBaseline, 0, encodedWithBaselineSize, baseline, received);
+        return received.size();
+    }
+}
@@ -0,0 +1,96 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a batch of voxel shape updates like the ones sent when a world loads on the calling thread against
+ * encoding it on the common fork join pool, both spread over many rigid bodies and all on one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkVoxelRigidBodyShapeUpdatesEncoder {
+
+    // Sections per rigid body
+    private static final int UPDATES_PER_BODY = 24;
+
+    @Param({"64", "1024"})
+    public int bodyCount;
+
+    private VoxelRigidBodyShapeUpdates[] batch;
+    // The same number of sections, all on one body, like a large ship being loaded
+    private VoxelRigidBodyShapeUpdates[] singleBodyBatch;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        batch = new VoxelRigidBodyShapeUpdates[bodyCount];
+        final IVoxelShapeUpdate[] allUpdates = new IVoxelShapeUpdate[bodyCount * UPDATES_PER_BODY];
+        for (int i = 0; i < bodyCount; i++) {
+            final IVoxelShapeUpdate[] updates = new IVoxelShapeUpdate[UPDATES_PER_BODY];
+            for (int j = 0; j < UPDATES_PER_BODY; j++) {
+                updates[j] = createUpdate(random, i, j);
+            }
+            System.arraycopy(updates, 0, allUpdates, i * UPDATES_PER_BODY, UPDATES_PER_BODY);
+            batch[i] = new VoxelRigidBodyShapeUpdates(i, updates);
+        }
+        singleBodyBatch = new VoxelRigidBodyShapeUpdates[] { new VoxelRigidBodyShapeUpdates(0, allUpdates) };
+    }
+
+    private static IVoxelShapeUpdate createUpdate(final Random random, final int regionX, final int regionY) {
+        if (regionY % 4 == 0) {
+            final SparseVoxelShapeUpdate sparse = new SparseVoxelShapeUpdate(regionX, regionY, 0, false);
+            for (int k = 0; k < 64; k++) {
+                sparse.addUpdate(random.nextInt(16), random.nextInt(16), random.nextInt(16), KrunchVoxelStates.SOLID_STATE);
+            }
+            return sparse;
+        }
+        final byte[] voxels = new byte[4096];
+        for (int k = 0; k < voxels.length; k++) {
+            voxels[k] = random.nextBoolean() ? KrunchVoxelStates.SOLID_STATE : KrunchVoxelStates.AIR_STATE;
+        }
+        return new DenseVoxelShapeUpdate(regionX, regionY, 0, false, voxels);
+    }
+
+    @Benchmark
+    public byte[] encodeSerial() {
+        return VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(batch);
+    }
+
+    @Benchmark
+    public byte[] encodeParallel() {
+        return VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(batch, ForkJoinPool.commonPool(), 0);
+    }
+
+    @Benchmark
+    public byte[] encodeSingleBodySerial() {
+        return VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(singleBodyBatch);
+    }
+
+    @Benchmark
+    public byte[] encodeSingleBodyParallel() {
+        return VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(singleBodyBatch, ForkJoinPool.commonPool(), 0);
+    }
+}
@@ -0,0 +1,190 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix3d;
+import org.joml.Quaterniond;
+import org.joml.Quaterniondc;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBi;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.RigidBodyInertiaData;
+import org.valkyrienskies.physics_api.RigidBodyTransform;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Creates the bodies of a generated benchmark scenario, and sends all of their voxels to Krunch in one batch when it's
+ * done. The position of a body is the center of its voxel at 0, 0, 0, which is the middle of the boxes made by
+ * {@link #addBox}.
+ */
+final class BenchmarkWorldBuilder {
+    static final Vector3dc GRAVITY = new Vector3d(0.0, -10.0, 0.0);
+    static final double TIME_STEP = 1.0 / 60.0;
+
+    private static final AABBic SMALL_VOXEL_REGION = new AABBi(-128, -128, -128, 127, 127, 127);
+
+    private final KrunchNativePhysicsWorldReference physicsWorld;
+    private final ObjectArrayList<VoxelRigidBodyShapeUpdates> shapeUpdates = new ObjectArrayList<>();
+    private final ObjectArrayList<KrunchNativeRigidBodyReference> bodies = new ObjectArrayList<>();
+
+    BenchmarkWorldBuilder(@NotNull final KrunchNativePhysicsWorldReference physicsWorld) {
+        this.physicsWorld = physicsWorld;
+    }
+
+    @NotNull
+    private KrunchNativeRigidBodyReference addBody(@NotNull final Vector3dc position, @NotNull final Quaterniondc rotation,
+        @NotNull final Vector3ic minDefined, @NotNull final Vector3ic maxDefined, @NotNull final AABBic totalVoxelRegion,
+        @NotNull final RigidBodyInertiaData inertiaData, @NotNull final IVoxelShapeUpdate... shape) {
+        final KrunchNativeRigidBodyReference body = physicsWorld.createVoxelRigidBody(0, minDefined, maxDefined, totalVoxelRegion);
+        body.setRigidBodyTransform(new RigidBodyTransform(position, rotation));
+        body.setInertiaData(inertiaData);
+        shapeUpdates.add(new VoxelRigidBodyShapeUpdates(body.getRigidBodyId(), shape));
+        bodies.add(body);
+        return body;
+    }
+
+    /**
+     * Adds a body made of one voxel with a mass of 1.
+     */
+    @NotNull
+    KrunchNativeRigidBodyReference addSingleVoxelBody(@NotNull final Vector3dc position, @NotNull final Quaterniondc rotation) {
+        final SparseVoxelShapeUpdate shape = new SparseVoxelShapeUpdate(0, 0, 0, true);
+        shape.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE);
+        return addBody(position, rotation, new Vector3i(), new Vector3i(), SMALL_VOXEL_REGION,
+            new RigidBodyInertiaData(1.0, new Matrix3d()), shape);
+    }
+
+    /**
+     * Adds a [sizeX] by [sizeY] by [sizeZ] box of voxels centered on [position], so its center of mass is where
+     * Krunch puts it. The bottom layer is solid, and a fraction of [voxelDensity] of the rest is filled.
+     */
+    @NotNull
+    KrunchNativeRigidBodyReference addBox(@NotNull final Vector3dc position, @NotNull final Quaterniondc rotation, final int sizeX,
+        final int sizeY, final int sizeZ, final double voxelDensity, @NotNull final Random random) {
+        final Vector3i min = new Vector3i(-sizeX / 2, -sizeY / 2, -sizeZ / 2);
+        final Vector3i max = new Vector3i(min.x + sizeX - 1, min.y + sizeY - 1, min.z + sizeZ - 1);
+        final ObjectArrayList<IVoxelShapeUpdate> shape = new ObjectArrayList<>();
+        int voxelCount = 0;
+        for (int regionX = min.x >> 4; regionX <= max.x >> 4; regionX++) {
+            for (int regionY = min.y >> 4; regionY <= max.y >> 4; regionY++) {
+                for (int regionZ = min.z >> 4; regionZ <= max.z >> 4; regionZ++) {
+                    final SparseVoxelShapeUpdate region = new SparseVoxelShapeUpdate(regionX, regionY, regionZ, true);
+                    for (int x = Math.max(min.x, regionX << 4); x <= Math.min(max.x, (regionX << 4) + 15); x++) {
+                        for (int y = Math.max(min.y, regionY << 4); y <= Math.min(max.y, (regionY << 4) + 15); y++) {
+                            for (int z = Math.max(min.z, regionZ << 4); z <= Math.min(max.z, (regionZ << 4) + 15); z++) {
+                                if (y == min.y || random.nextDouble() < voxelDensity) {
+                                    region.addUpdate(x & 15, y & 15, z & 15, KrunchVoxelStates.SOLID_STATE);
+                                    voxelCount++;
+                                }
+                            }
+                        }
+                    }
+                    shape.add(region);
+                }
+            }
+        }
+        return addBody(position, rotation, min, max, SMALL_VOXEL_REGION, createBoxInertiaData(voxelCount, sizeX, sizeY, sizeZ),
+            shape.toArray(new IVoxelShapeUpdate[0]));
+    }
+
+    /**
+     * Adds a static body with a single layer of voxels at y = 0, covering at least [width] by [width] voxels starting
+     * at the origin.
+     */
+    @NotNull
+    KrunchNativeRigidBodyReference addFlatGround(final int width) {
+        return addFlatGround(width, new Quaterniond());
+    }
+
+    /**
+     * Adds a static body with a single layer of voxels at y = 0 in its own space, covering at least [width] by [width]
+     * voxels starting at the origin, rotated by [rotation] around the origin.
+     */
+    @NotNull
+    KrunchNativeRigidBodyReference addFlatGround(final int width, @NotNull final Quaterniondc rotation) {
+        final int sections = Math.max(1, (width + 16) / 16);
+        final IVoxelShapeUpdate[] shape = new IVoxelShapeUpdate[sections * sections];
+        for (int sectionX = 0; sectionX < sections; sectionX++) {
+            for (int sectionZ = 0; sectionZ < sections; sectionZ++) {
+                final byte[] voxels = new byte[4096];
+                Arrays.fill(voxels, 0, 256, KrunchVoxelStates.SOLID_STATE);
+                shape[sectionX * sections + sectionZ] = new DenseVoxelShapeUpdate(sectionX, 0, sectionZ, true, voxels);
+            }
+        }
+        return addGround(sections, rotation, shape);
+    }
+
+    /**
+     * Adds a static body whose surface is between 6 and 9 voxels high, covering at least [width] by [width] voxels
+     * starting at the origin.
+     */
+    @NotNull
+    KrunchNativeRigidBodyReference addBumpyTerrain(final int width, @NotNull final Random random) {
+        final int sections = Math.max(1, (width + 16) / 16);
+        final IVoxelShapeUpdate[] shape = new IVoxelShapeUpdate[sections * sections];
+        for (int sectionX = 0; sectionX < sections; sectionX++) {
+            for (int sectionZ = 0; sectionZ < sections; sectionZ++) {
+                final byte[] voxels = new byte[4096];
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        final int height = 6 + random.nextInt(4);
+                        for (int y = 0; y < height; y++) {
+                            voxels[x | z << 4 | y << 8] = KrunchVoxelStates.SOLID_STATE;
+                        }
+                    }
+                }
+                shape[sectionX * sections + sectionZ] = new DenseVoxelShapeUpdate(sectionX, 0, sectionZ, true, voxels);
+            }
+        }
+        return addGround(sections, new Quaterniond(), shape);
+    }
+
+    @NotNull
+    private KrunchNativeRigidBodyReference addGround(final int sections, @NotNull final Quaterniondc rotation,
+        @NotNull final IVoxelShapeUpdate[] shape) {
+        final int maxVoxel = sections * 16 - 1;
+        final KrunchNativeRigidBodyReference ground = addBody(new Vector3d(), rotation, new Vector3i(),
+            new Vector3i(maxVoxel, 15, maxVoxel), new AABBi(0, 0, 0, maxVoxel, 15, maxVoxel),
+            new RigidBodyInertiaData(1.0, new Matrix3d()), shape);
+        ground.setStatic(true);
+        return ground;
+    }
+
+    /**
+     * Sends the voxels of every body to Krunch, applies them without moving anything, and lets the bodies move.
+     */
+    void finish() {
+        physicsWorld.queueVoxelShapeUpdates(shapeUpdates.toArray(new VoxelRigidBodyShapeUpdates[0]));
+        physicsWorld.tick(GRAVITY, TIME_STEP, false);
+        for (final KrunchNativeRigidBodyReference body : bodies) {
+            body.setVoxelTerrainFullyLoaded(true);
+        }
+        shapeUpdates.clear();
+        bodies.clear();
+    }
+
+    /**
+     * @return The inertia data of a solid box of [voxelCount] voxels of mass 1 that's [sizeX] by [sizeY] by [sizeZ]
+     *         voxels
+     */
+    @NotNull
+    static RigidBodyInertiaData createBoxInertiaData(final int voxelCount, final double sizeX, final double sizeY, final double sizeZ) {
+        final double mass = voxelCount;
+        final Matrix3d invMOI = new Matrix3d(
+            12.0 / (mass * (sizeY * sizeY + sizeZ * sizeZ)), 0.0, 0.0,
+            0.0, 12.0 / (mass * (sizeX * sizeX + sizeZ * sizeZ)), 0.0,
+            0.0, 0.0, 12.0 / (mass * (sizeX * sizeX + sizeY * sizeY))
+        );
+        return new RigidBodyInertiaData(1.0 / mass, invMOI);
+    }
+}
@@ -0,0 +1,279 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Quaterniond;
+import org.joml.Vector3d;
+import org.joml.Vector3i;
+import org.joml.primitives.AABBi;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cycles the operations that allocate native memory many times, and fails if the resident set keeps growing with the
+ * number of cycles, which would mean Krunch leaks some of it.
+ *
+ * Every cycle:
+ * <ul>
+ *     <li>Creates worlds with a few bodies, ticks them and deletes them</li>
+ *     <li>Creates bodies in a long-lived world, ticks it and deletes them</li>
+ *     <li>Loads voxel sections into a long-lived terrain body, ticks, and unloads them again, alternating between
+ *     deleting the sections and overwriting them with air</li>
+ * </ul>
+ * Every few cycles it samples the resident set from {@code /proc/self/status} and the Java heap after a collection, and
+ * writes them to {@code soak_timeline.csv} in the output directory, which can be attached to bug reports. After the
+ * warmup cycles it fits a line to the resident set against the cycle, over all of the samples and over the last half of
+ * them. If both slopes are above the limit the growth is sustained rather than a single step, and the soak fails with
+ * exit code 1. The fits are written to {@code soak_summary.txt}.
+ *
+ * Run with {@code ./gradlew memorySoak}, which writes to {@code build/results/soak}. The run can be changed with these
+ * system properties, which the Gradle task forwards from project properties of the same name:
+ * <ul>
+ *     <li>{@code krunch.soak.seed}, default 1</li>
+ *     <li>{@code krunch.soak.cycles}, default 2000</li>
+ *     <li>{@code krunch.soak.warmupCycles}, default 200</li>
+ *     <li>{@code krunch.soak.sampleInterval}, the cycles between samples, default 10</li>
+ *     <li>{@code krunch.soak.worldsPerCycle}, default 4</li>
+ *     <li>{@code krunch.soak.bodiesPerCycle}, default 200</li>
+ *     <li>{@code krunch.soak.sectionsPerCycle}, default 64</li>
+ *     <li>{@code krunch.soak.maxGrowthBytesPerCycle}, default 1024</li>
+ * </ul>
+ * Only Linux has {@code /proc/self/status}. On other platforms the timeline only has the heap, and the soak can't fail.
+ */
+public final class NativeMemorySoak {
+
+    private static final int TERRAIN_SECTIONS = 16;
+
+    private NativeMemorySoak() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Path outputDirectory = Paths.get(args.length > 0 ? args[0] : "build/results/soak");
+        final long seed = Long.getLong("krunch.soak.seed", 1);
+        final int cycles = Integer.getInteger("krunch.soak.cycles", 2000);
+        final int warmupCycles = Integer.getInteger("krunch.soak.warmupCycles", 200);
+        final int sampleInterval = Integer.getInteger("krunch.soak.sampleInterval", 10);
+        final int worldsPerCycle = Integer.getInteger("krunch.soak.worldsPerCycle", 4);
+        final int bodiesPerCycle = Integer.getInteger("krunch.soak.bodiesPerCycle", 200);
+        final int sectionsPerCycle = Math.min(Integer.getInteger("krunch.soak.sectionsPerCycle", 64), TERRAIN_SECTIONS * TERRAIN_SECTIONS);
+        final long maxGrowthBytesPerCycle = Long.getLong("krunch.soak.maxGrowthBytesPerCycle", 1024);
+
+        KrunchBootstrap.INSTANCE.loadNativeBinaries();
+
+        final Random random = new Random(seed);
+        final ObjectArrayList<Sample> samples = new ObjectArrayList<>();
+        final long start = System.nanoTime();
+
+        final KrunchNativePhysicsWorldReference physicsWorld = new KrunchNativePhysicsWorldReference();
+        try {
+            final KrunchNativeRigidBodyReference terrain = createTerrain(physicsWorld);
+            for (int cycle = 0; cycle <= cycles; cycle++) {
+                if (cycle % sampleInterval == 0) {
+                    final Sample sample = new Sample(cycle, (System.nanoTime() - start) / 1_000_000,
+                        ProcessMemory.getResidentSetBytes(), ProcessMemory.getUsedHeapBytes());
+                    samples.add(sample);
+                    System.out.println(String.format(Locale.ROOT, "cycle %7d, %8d ms: rss %8d KiB, heap %8d KiB",
+                        sample.cycle, sample.elapsedMillis, sample.residentSetBytes / 1024, sample.usedHeapBytes / 1024));
+                }
+                if (cycle == cycles) break;
+
+                cycleWorlds(worldsPerCycle, random);
+                cycleBodies(physicsWorld, bodiesPerCycle, random);
+                cycleVoxels(physicsWorld, terrain, sectionsPerCycle, cycle % 2 == 0, random);
+            }
+        } finally {
+            physicsWorld.deletePhysicsWorldResources();
+        }
+
+        final ObjectArrayList<Sample> measured = new ObjectArrayList<>();
+        for (final Sample sample : samples) {
+            if (sample.cycle >= warmupCycles && sample.residentSetBytes >= 0) measured.add(sample);
+        }
+        final List<Sample> lastHalf = measured.subList(measured.size() / 2, measured.size());
+        final double residentSetSlope = fitResidentSetSlope(measured);
+        final double lastHalfResidentSetSlope = fitResidentSetSlope(lastHalf);
+        final double heapSlope = fitHeapSlope(measured);
+        final boolean leaking = residentSetSlope > maxGrowthBytesPerCycle && lastHalfResidentSetSlope > maxGrowthBytesPerCycle;
+
+        Files.createDirectories(outputDirectory);
+        try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputDirectory.resolve("soak_timeline.csv"), StandardCharsets.UTF_8))) {
+            writer.println("cycle,elapsed_ms,rss_bytes,heap_bytes");
+            for (final Sample sample : samples) {
+                writer.println(sample.cycle + "," + sample.elapsedMillis + "," + sample.residentSetBytes + "," + sample.usedHeapBytes);
+            }
+        }
+        try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputDirectory.resolve("soak_summary.txt"), StandardCharsets.UTF_8))) {
+            writer.println("seed: " + seed);
+            writer.println("cycles: " + cycles);
+            writer.println("warmupCycles: " + warmupCycles);
+            writer.println("worldsPerCycle: " + worldsPerCycle);
+            writer.println("bodiesPerCycle: " + bodiesPerCycle);
+            writer.println("sectionsPerCycle: " + sectionsPerCycle);
+            writer.println("maxGrowthBytesPerCycle: " + maxGrowthBytesPerCycle);
+            writer.println("javaVersion: " + System.getProperty("java.version"));
+            writer.println("osArch: " + System.getProperty("os.arch"));
+            writer.println(String.format(Locale.ROOT, "rssGrowthBytesPerCycle: %.1f", residentSetSlope));
+            writer.println(String.format(Locale.ROOT, "lastHalfRssGrowthBytesPerCycle: %.1f", lastHalfResidentSetSlope));
+            writer.println(String.format(Locale.ROOT, "heapGrowthBytesPerCycle: %.1f", heapSlope));
+            writer.println("leaking: " + leaking);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "RSS grows %.1f bytes per cycle, %.1f over the last half, heap %.1f, limit %d",
+            residentSetSlope, lastHalfResidentSetSlope, heapSlope, maxGrowthBytesPerCycle));
+        System.out.println("Wrote " + samples.size() + " samples to " + outputDirectory.toAbsolutePath());
+        if (leaking) {
+            System.err.println("The resident set grew by more than " + maxGrowthBytesPerCycle + " bytes per cycle for the whole soak");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates [count] worlds with a few bodies each, ticks them, and deletes them.
+     */
+    private static void cycleWorlds(final int count, @NotNull final Random random) {
+        for (int i = 0; i < count; i++) {
+            final KrunchNativePhysicsWorldReference physicsWorld = new KrunchNativePhysicsWorldReference();
+            try {
+                physicsWorld.setSettings(new KrunchPhysicsWorldSettings());
+                final BenchmarkWorldBuilder builder = new BenchmarkWorldBuilder(physicsWorld);
+                builder.addFlatGround(16);
+                for (int j = 0; j < 4; j++) {
+                    builder.addBox(new Vector3d(4.0 + j * 4.0, 4.0, 8.0), new Quaterniond(), 3, 3, 3, 1.0, random);
+                }
+                builder.finish();
+                physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, true);
+            } finally {
+                physicsWorld.deletePhysicsWorldResources();
+            }
+        }
+    }
+
+    /**
+     * Creates [count] falling bodies in [physicsWorld], ticks it, and deletes them.
+     */
+    private static void cycleBodies(@NotNull final KrunchNativePhysicsWorldReference physicsWorld, final int count,
+        @NotNull final Random random) {
+        final BenchmarkWorldBuilder builder = new BenchmarkWorldBuilder(physicsWorld);
+        final int[] rigidBodyIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            final Vector3d position = new Vector3d(i % 16 * 4.0, 1000.0 + i / 16 * 4.0, 0.0);
+            rigidBodyIds[i] = builder.addBox(position, new Quaterniond(), 3, 3, 3, 0.5, random).getRigidBodyId();
+        }
+        builder.finish();
+        physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, true);
+        for (final int rigidBodyId : rigidBodyIds) {
+            physicsWorld.deleteRigidBody(rigidBodyId);
+        }
+    }
+
+    /**
+     * Loads [count] random sections of [terrain], ticks, and unloads them again. If [delete] the sections are deleted,
+     * which frees them, otherwise they're overwritten with air, which keeps them allocated until they're loaded again.
+     */
+    private static void cycleVoxels(@NotNull final KrunchNativePhysicsWorldReference physicsWorld,
+        @NotNull final KrunchNativeRigidBodyReference terrain, final int count, final boolean delete,
+        @NotNull final Random random) {
+        final IVoxelShapeUpdate[] load = new IVoxelShapeUpdate[count];
+        final IVoxelShapeUpdate[] unload = new IVoxelShapeUpdate[count];
+        // A random start in the grid of sections, then consecutive sections, so no section is in the batch twice
+        final int first = random.nextInt(TERRAIN_SECTIONS * TERRAIN_SECTIONS);
+        for (int i = 0; i < count; i++) {
+            final int section = (first + i) % (TERRAIN_SECTIONS * TERRAIN_SECTIONS);
+            final int sectionX = section % TERRAIN_SECTIONS;
+            final int sectionZ = section / TERRAIN_SECTIONS;
+            final byte[] voxels = new byte[4096];
+            for (int index = 0; index < voxels.length; index++) {
+                if (random.nextBoolean()) voxels[index] = KrunchVoxelStates.SOLID_STATE;
+            }
+            load[i] = new DenseVoxelShapeUpdate(sectionX, 0, sectionZ, true, voxels);
+            unload[i] = delete ? new DeleteVoxelShapeUpdate(sectionX, 0, sectionZ, true)
+                : new EmptyVoxelShapeUpdate(sectionX, 0, sectionZ, true, true);
+        }
+        physicsWorld.queueVoxelShapeUpdates(new VoxelRigidBodyShapeUpdates[] {
+            new VoxelRigidBodyShapeUpdates(terrain.getRigidBodyId(), load)
+        });
+        physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, false);
+        physicsWorld.queueVoxelShapeUpdates(new VoxelRigidBodyShapeUpdates[] {
+            new VoxelRigidBodyShapeUpdates(terrain.getRigidBodyId(), unload)
+        });
+        physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, false);
+    }
+
+    /**
+     * Creates an empty static body that can hold {@link #TERRAIN_SECTIONS} by {@link #TERRAIN_SECTIONS} sections.
+     */
+    @NotNull
+    private static KrunchNativeRigidBodyReference createTerrain(@NotNull final KrunchNativePhysicsWorldReference physicsWorld) {
+        final int maxVoxel = TERRAIN_SECTIONS * 16 - 1;
+        final KrunchNativeRigidBodyReference terrain = physicsWorld.createVoxelRigidBody(0, new Vector3i(),
+            new Vector3i(maxVoxel, 15, maxVoxel), new AABBi(0, 0, 0, maxVoxel, 15, maxVoxel));
+        terrain.setStatic(true);
+        terrain.setVoxelTerrainFullyLoaded(true);
+        return terrain;
+    }
+
+    private static double fitResidentSetSlope(@NotNull final List<Sample> samples) {
+        final double[] values = new double[samples.size()];
+        for (int i = 0; i < values.length; i++) values[i] = samples.get(i).residentSetBytes;
+        return fitSlope(samples, values);
+    }
+
+    private static double fitHeapSlope(@NotNull final List<Sample> samples) {
+        final double[] values = new double[samples.size()];
+        for (int i = 0; i < values.length; i++) values[i] = samples.get(i).usedHeapBytes;
+        return fitSlope(samples, values);
+    }
+
+    /**
+     * @return The slope of the least squares line through [values] against the cycle of [samples], in bytes per
+     *         cycle, or 0 if there are fewer than 2 samples
+     */
+    private static double fitSlope(@NotNull final List<Sample> samples, @NotNull final double[] values) {
+        final int count = samples.size();
+        if (count < 2) return 0.0;
+        double meanCycle = 0.0;
+        double meanValue = 0.0;
+        for (int i = 0; i < count; i++) {
+            meanCycle += samples.get(i).cycle;
+            meanValue += values[i];
+        }
+        meanCycle /= count;
+        meanValue /= count;
+        double covariance = 0.0;
+        double variance = 0.0;
+        for (int i = 0; i < count; i++) {
+            final double dc = samples.get(i).cycle - meanCycle;
+            covariance += dc * (values[i] - meanValue);
+            variance += dc * dc;
+        }
+        return variance == 0.0 ? 0.0 : covariance / variance;
+    }
+
+    private static final class Sample {
+        private final int cycle;
+        private final long elapsedMillis;
+        private final long residentSetBytes;
+        private final long usedHeapBytes;
+
+        private Sample(final int cycle, final long elapsedMillis, final long residentSetBytes, final long usedHeapBytes) {
+            this.cycle = cycle;
+            this.elapsedMillis = elapsedMillis;
+            this.residentSetBytes = residentSetBytes;
+            this.usedHeapBytes = usedHeapBytes;
+        }
+    }
+}
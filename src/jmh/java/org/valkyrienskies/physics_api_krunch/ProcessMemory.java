@@ -0,0 +1,50 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Reads how much memory this process uses, for the benchmarks that track memory next to the native memory Krunch
+ * allocates.
+ */
+final class ProcessMemory {
+
+    private ProcessMemory() {
+    }
+
+    /**
+     * Collects garbage first, so the result is close to the live heap.
+     *
+     * @return The bytes of the Java heap in use
+     */
+    static long getUsedHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return The resident set size of this process, which includes the memory Krunch allocated, or -1 if it can't be
+     *         read on this platform
+     */
+    static long getResidentSetBytes() {
+        final Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) return -1;
+        try (final BufferedReader reader = Files.newBufferedReader(status, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Like "VmRSS:     123456 kB"
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                }
+            }
+        } catch (final IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
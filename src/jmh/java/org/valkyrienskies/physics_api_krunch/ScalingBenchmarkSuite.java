@@ -0,0 +1,371 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Quaterniond;
+import org.joml.Quaterniondc;
+import org.joml.Vector3d;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how tick time and memory scale with body count, voxel density and contact load, to estimate how many ships
+ * a server can handle and to compare native library updates and settings.
+ *
+ * Every case builds a new physics world from a fixed seed, ticks it through a warmup and then times every measured
+ * tick. The results are written to {@code scaling.csv} and {@code scaling.json} in the output directory, with one row
+ * per case holding the tick time percentiles and how much the heap and the resident set grew. The JSON also holds the
+ * time of every measured tick and the settings the run used.
+ *
+ * Run with {@code ./gradlew scalingBenchmark}, which writes to {@code build/results/scaling}. The run can be changed
+ * with these system properties, which the Gradle task forwards from project properties of the same name:
+ * <ul>
+ *     <li>{@code krunch.scaling.seed}, default 1</li>
+ *     <li>{@code krunch.scaling.warmupTicks}, default 120</li>
+ *     <li>{@code krunch.scaling.measuredTicks}, default 300</li>
+ *     <li>{@code krunch.scaling.maxBodies}, cases with more bodies are skipped, default 10000</li>
+ *     <li>{@code krunch.scaling.subSteps}, {@code krunch.scaling.iterations}, {@code krunch.scaling.solverType} and
+ *     {@code krunch.scaling.maxVoxelShapeCollisionPoints} override the default {@link KrunchPhysicsWorldSettings}</li>
+ * </ul>
+ */
+public final class ScalingBenchmarkSuite {
+
+    private static final int STACK_HEIGHT = 10;
+    private static final double COLLISION_SPEED = 100.0;
+
+    private ScalingBenchmarkSuite() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Path outputDirectory = Paths.get(args.length > 0 ? args[0] : "build/results/scaling");
+        final long seed = Long.getLong("krunch.scaling.seed", 1);
+        final int warmupTicks = Integer.getInteger("krunch.scaling.warmupTicks", 120);
+        final int measuredTicks = Integer.getInteger("krunch.scaling.measuredTicks", 300);
+        final int maxBodies = Integer.getInteger("krunch.scaling.maxBodies", 10000);
+
+        final KrunchPhysicsWorldSettings settings = new KrunchPhysicsWorldSettings();
+        settings.setSubSteps(Integer.getInteger("krunch.scaling.subSteps", settings.getSubSteps()));
+        settings.setIterations(Integer.getInteger("krunch.scaling.iterations", settings.getIterations()));
+        settings.setSolverType(SolverType.valueOf(System.getProperty("krunch.scaling.solverType", settings.getSolverType().name())));
+        settings.setMaxVoxelShapeCollisionPoints(Integer.getInteger("krunch.scaling.maxVoxelShapeCollisionPoints",
+            settings.getMaxVoxelShapeCollisionPoints()));
+
+        KrunchBootstrap.INSTANCE.loadNativeBinaries();
+
+        final List<Case> cases = Arrays.asList(
+            new Case(Scenario.FREE_FALL, 1, 1.0),
+            new Case(Scenario.FREE_FALL, 10, 1.0),
+            new Case(Scenario.FREE_FALL, 100, 1.0),
+            new Case(Scenario.FREE_FALL, 1000, 1.0),
+            new Case(Scenario.FREE_FALL, 10000, 1.0),
+            new Case(Scenario.STACKS, 10, 1.0),
+            new Case(Scenario.STACKS, 100, 1.0),
+            new Case(Scenario.STACKS, 1000, 1.0),
+            new Case(Scenario.PILE, 10, 1.0),
+            new Case(Scenario.PILE, 100, 1.0),
+            new Case(Scenario.PILE, 1000, 1.0),
+            new Case(Scenario.SHIPS_ON_TERRAIN, 1, 1.0),
+            new Case(Scenario.SHIPS_ON_TERRAIN, 10, 1.0),
+            new Case(Scenario.SHIPS_ON_TERRAIN, 100, 1.0),
+            new Case(Scenario.SHIPS_ON_TERRAIN, 10, 0.25),
+            new Case(Scenario.SHIPS_ON_TERRAIN, 10, 0.5),
+            new Case(Scenario.HIGH_SPEED_COLLISIONS, 1, 1.0),
+            new Case(Scenario.HIGH_SPEED_COLLISIONS, 10, 1.0),
+            new Case(Scenario.HIGH_SPEED_COLLISIONS, 100, 1.0),
+            new Case(Scenario.HIGH_SPEED_COLLISIONS, 1000, 1.0)
+        );
+
+        final ObjectArrayList<Result> results = new ObjectArrayList<>();
+        for (final Case benchmarkCase : cases) {
+            if (benchmarkCase.scenario.getBodyCount(benchmarkCase.size) > maxBodies) continue;
+            final Result result = run(benchmarkCase, new Random(seed), settings, warmupTicks, measuredTicks);
+            System.out.println(String.format(Locale.ROOT, "%-22s size %6d density %.2f: %6d bodies, p50 %10.1f us, p99 %10.1f us, rss +%d KiB",
+                benchmarkCase.scenario.getName(), benchmarkCase.size, benchmarkCase.voxelDensity, result.bodyCount,
+                result.getPercentileMicros(0.5), result.getPercentileMicros(0.99), result.rssGrowthBytes / 1024));
+            results.add(result);
+        }
+
+        Files.createDirectories(outputDirectory);
+        try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputDirectory.resolve("scaling.csv"), StandardCharsets.UTF_8))) {
+            writeCsv(writer, results);
+        }
+        try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputDirectory.resolve("scaling.json"), StandardCharsets.UTF_8))) {
+            writeJson(writer, results, seed, warmupTicks, measuredTicks, settings);
+        }
+        System.out.println("Wrote " + results.size() + " cases to " + outputDirectory.toAbsolutePath());
+    }
+
+    @NotNull
+    private static Result run(@NotNull final Case benchmarkCase, @NotNull final Random random,
+        @NotNull final KrunchPhysicsWorldSettings settings, final int warmupTicks, final int measuredTicks) {
+        final long heapBefore = ProcessMemory.getUsedHeapBytes();
+        final long rssBefore = ProcessMemory.getResidentSetBytes();
+
+        final KrunchNativePhysicsWorldReference physicsWorld = new KrunchNativePhysicsWorldReference();
+        try {
+            physicsWorld.setSettings(settings);
+            final long buildStart = System.nanoTime();
+            final BenchmarkWorldBuilder builder = new BenchmarkWorldBuilder(physicsWorld);
+            benchmarkCase.scenario.build(builder, benchmarkCase.size, benchmarkCase.voxelDensity, random);
+            builder.finish();
+            final long buildNanos = System.nanoTime() - buildStart;
+
+            for (int i = 0; i < warmupTicks; i++) {
+                physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, true);
+            }
+            final long[] tickNanos = new long[measuredTicks];
+            for (int i = 0; i < measuredTicks; i++) {
+                final long tickStart = System.nanoTime();
+                physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, true);
+                tickNanos[i] = System.nanoTime() - tickStart;
+            }
+
+            final long heapGrowth = ProcessMemory.getUsedHeapBytes() - heapBefore;
+            final long rssAfter = ProcessMemory.getResidentSetBytes();
+            final long rssGrowth = rssBefore < 0 || rssAfter < 0 ? -1 : rssAfter - rssBefore;
+            return new Result(benchmarkCase, physicsWorld.getRigidBodyCount(), buildNanos, tickNanos, heapGrowth, rssGrowth);
+        } finally {
+            physicsWorld.deletePhysicsWorldResources();
+        }
+    }
+
+    private static void writeCsv(@NotNull final PrintWriter writer, @NotNull final List<Result> results) {
+        writer.println("scenario,size,voxel_density,body_count,build_ms,tick_mean_us,tick_p50_us,tick_p90_us,tick_p99_us,tick_max_us,heap_growth_bytes,rss_growth_bytes");
+        for (final Result result : results) {
+            writer.println(String.format(Locale.ROOT, "%s,%d,%.2f,%d,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d",
+                result.benchmarkCase.scenario.getName(), result.benchmarkCase.size, result.benchmarkCase.voxelDensity,
+                result.bodyCount, result.buildNanos / 1e6, result.getMeanMicros(), result.getPercentileMicros(0.5),
+                result.getPercentileMicros(0.9), result.getPercentileMicros(0.99), result.getPercentileMicros(1.0),
+                result.heapGrowthBytes, result.rssGrowthBytes));
+        }
+    }
+
+    private static void writeJson(@NotNull final PrintWriter writer, @NotNull final List<Result> results, final long seed,
+        final int warmupTicks, final int measuredTicks, @NotNull final KrunchPhysicsWorldSettings settings) {
+        writer.println("{");
+        writer.println("  \"seed\": " + seed + ",");
+        writer.println("  \"warmupTicks\": " + warmupTicks + ",");
+        writer.println("  \"measuredTicks\": " + measuredTicks + ",");
+        writer.println("  \"timeStep\": " + BenchmarkWorldBuilder.TIME_STEP + ",");
+        writer.println("  \"javaVersion\": \"" + System.getProperty("java.version") + "\",");
+        writer.println("  \"osArch\": \"" + System.getProperty("os.arch") + "\",");
+        writer.println("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",");
+        writer.println("  \"settings\": {");
+        writer.println("    \"subSteps\": " + settings.getSubSteps() + ",");
+        writer.println("    \"iterations\": " + settings.getIterations() + ",");
+        writer.println("    \"solverType\": \"" + settings.getSolverType().name() + "\",");
+        writer.println("    \"maxVoxelShapeCollisionPoints\": " + settings.getMaxVoxelShapeCollisionPoints());
+        writer.println("  },");
+        writer.println("  \"cases\": [");
+        for (int i = 0; i < results.size(); i++) {
+            final Result result = results.get(i);
+            writer.println("    {");
+            writer.println("      \"scenario\": \"" + result.benchmarkCase.scenario.getName() + "\",");
+            writer.println("      \"size\": " + result.benchmarkCase.size + ",");
+            writer.println("      \"voxelDensity\": " + result.benchmarkCase.voxelDensity + ",");
+            writer.println("      \"bodyCount\": " + result.bodyCount + ",");
+            writer.println("      \"buildMs\": " + formatDouble(result.buildNanos / 1e6) + ",");
+            writer.println("      \"tickMeanUs\": " + formatDouble(result.getMeanMicros()) + ",");
+            writer.println("      \"tickP50Us\": " + formatDouble(result.getPercentileMicros(0.5)) + ",");
+            writer.println("      \"tickP90Us\": " + formatDouble(result.getPercentileMicros(0.9)) + ",");
+            writer.println("      \"tickP99Us\": " + formatDouble(result.getPercentileMicros(0.99)) + ",");
+            writer.println("      \"tickMaxUs\": " + formatDouble(result.getPercentileMicros(1.0)) + ",");
+            writer.println("      \"heapGrowthBytes\": " + result.heapGrowthBytes + ",");
+            writer.println("      \"rssGrowthBytes\": " + result.rssGrowthBytes + ",");
+            writer.print("      \"tickTimesUs\": [");
+            for (int tick = 0; tick < result.tickNanos.length; tick++) {
+                if (tick != 0) writer.print(", ");
+                writer.print(formatDouble(result.tickNanos[tick] / 1e3));
+            }
+            writer.println("]");
+            writer.println(i == results.size() - 1 ? "    }" : "    },");
+        }
+        writer.println("  ]");
+        writer.println("}");
+    }
+
+    @NotNull
+    private static String formatDouble(final double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    /**
+     * The generated scenarios. [size] is the value the scenario sweeps, which isn't always the number of bodies.
+     */
+    private enum Scenario {
+        /**
+         * [size] single voxel bodies falling through empty space, the cost of bodies that don't touch anything.
+         */
+        FREE_FALL("free_fall") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, final int size, final double voxelDensity, @NotNull final Random random) {
+                final int side = (int) Math.ceil(Math.cbrt(size));
+                for (int i = 0; i < size; i++) {
+                    final Vector3d position = new Vector3d(i % side * 3.0, 1000.0 + i / side / side * 3.0, i / side % side * 3.0);
+                    builder.addSingleVoxelBody(position, randomRotation(random));
+                }
+            }
+
+            @Override
+            int getBodyCount(final int size) {
+                return size;
+            }
+        },
+        /**
+         * [size] single voxel bodies in columns of 10 standing on the ground, every body rests on the one below it.
+         */
+        STACKS("stacks") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, final int size, final double voxelDensity, @NotNull final Random random) {
+                final int columns = (size + STACK_HEIGHT - 1) / STACK_HEIGHT;
+                final int side = (int) Math.ceil(Math.sqrt(columns));
+                builder.addFlatGround(side * 3);
+                for (int i = 0; i < size; i++) {
+                    final int column = i / STACK_HEIGHT;
+                    final Vector3d position = new Vector3d(column % side * 3.0, 1.0 + i % STACK_HEIGHT, column / side * 3.0);
+                    builder.addSingleVoxelBody(position, new Quaterniond());
+                }
+            }
+        },
+        /**
+         * [size] single voxel bodies dropped on top of each other in a narrow area, which settle into a pile during the
+         * warmup.
+         */
+        PILE("pile") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, final int size, final double voxelDensity, @NotNull final Random random) {
+                final int width = Math.max(2, (int) Math.ceil(Math.sqrt(size) / 2));
+                builder.addFlatGround(width);
+                for (int i = 0; i < size; i++) {
+                    final Vector3d position = new Vector3d(random.nextDouble() * width, 2.0 + i * 1.1, random.nextDouble() * width);
+                    builder.addSingleVoxelBody(position, randomRotation(random));
+                }
+            }
+        },
+        /**
+         * [size] ships with a 16 by 4 by 16 hull resting on a bumpy terrain body. A fraction of [voxelDensity] of the
+         * hull above the solid keel is filled.
+         */
+        SHIPS_ON_TERRAIN("ships_on_terrain") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, final int size, final double voxelDensity, @NotNull final Random random) {
+                final int side = (int) Math.ceil(Math.sqrt(size));
+                builder.addBumpyTerrain(side * 20, random);
+                for (int i = 0; i < size; i++) {
+                    final Vector3d position = new Vector3d(i % side * 20.0 + 10.0, 12.0, i / side * 20.0 + 10.0);
+                    builder.addBox(position, new Quaterniond(), 16, 4, 16, voxelDensity, random);
+                }
+            }
+        },
+        /**
+         * [size] pairs of 3 by 3 by 3 voxel bodies fired at each other at 100 meters per second.
+         * Most of the pairs collide during the warmup, so run with fewer warmup ticks to time the impacts.
+         */
+        HIGH_SPEED_COLLISIONS("high_speed_collisions") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, final int size, final double voxelDensity, @NotNull final Random random) {
+                final int side = (int) Math.ceil(Math.sqrt(size));
+                for (int i = 0; i < size; i++) {
+                    final double y = 100.0 + i / side * 6.0;
+                    final double z = i % side * 6.0;
+                    // A little sideways, so the impacts aren't all perfectly head on
+                    final double offset = random.nextDouble() - 0.5;
+                    builder.addBox(new Vector3d(-20.0, y, z), new Quaterniond(), 3, 3, 3, 1.0, random)
+                        .setVelocity(new Vector3d(COLLISION_SPEED, 0.0, 0.0));
+                    builder.addBox(new Vector3d(20.0, y + offset, z + offset), new Quaterniond(), 3, 3, 3, 1.0, random)
+                        .setVelocity(new Vector3d(-COLLISION_SPEED, 0.0, 0.0));
+                }
+            }
+
+            @Override
+            int getBodyCount(final int size) {
+                return size * 2;
+            }
+        };
+
+        private final String name;
+
+        Scenario(@NotNull final String name) {
+            this.name = name;
+        }
+
+        @NotNull
+        String getName() {
+            return name;
+        }
+
+        abstract void build(@NotNull BenchmarkWorldBuilder builder, int size, double voxelDensity, @NotNull Random random);
+
+        /**
+         * @return The number of bodies the scenario creates for [size], used to skip cases that are too large
+         */
+        int getBodyCount(final int size) {
+            // And the ground body
+            return size + 1;
+        }
+
+        @NotNull
+        private static Quaterniondc randomRotation(@NotNull final Random random) {
+            return new Quaterniond().rotateX(random.nextDouble() * Math.PI).rotateY(random.nextDouble() * Math.PI).rotateZ(random.nextDouble() * Math.PI);
+        }
+    }
+
+    private static final class Case {
+        private final Scenario scenario;
+        private final int size;
+        private final double voxelDensity;
+
+        private Case(@NotNull final Scenario scenario, final int size, final double voxelDensity) {
+            this.scenario = scenario;
+            this.size = size;
+            this.voxelDensity = voxelDensity;
+        }
+    }
+
+    private static final class Result {
+        private final Case benchmarkCase;
+        private final int bodyCount;
+        private final long buildNanos;
+        private final long[] tickNanos;
+        private final long[] sortedTickNanos;
+        private final long heapGrowthBytes;
+        private final long rssGrowthBytes;
+
+        private Result(@NotNull final Case benchmarkCase, final int bodyCount, final long buildNanos, @NotNull final long[] tickNanos,
+            final long heapGrowthBytes, final long rssGrowthBytes) {
+            this.benchmarkCase = benchmarkCase;
+            this.bodyCount = bodyCount;
+            this.buildNanos = buildNanos;
+            this.tickNanos = tickNanos;
+            this.sortedTickNanos = tickNanos.clone();
+            Arrays.sort(sortedTickNanos);
+            this.heapGrowthBytes = heapGrowthBytes;
+            this.rssGrowthBytes = rssGrowthBytes;
+        }
+
+        private double getMeanMicros() {
+            if (tickNanos.length == 0) return 0.0;
+            long total = 0;
+            for (final long nanos : tickNanos) total += nanos;
+            return total / 1e3 / tickNanos.length;
+        }
+
+        /**
+         * @return The nearest rank [percentile] of the tick times, between 0 and 1
+         */
+        private double getPercentileMicros(final double percentile) {
+            if (sortedTickNanos.length == 0) return 0.0;
+            final int rank = (int) Math.ceil(percentile * sortedTickNanos.length);
+            return sortedTickNanos[Math.max(0, Math.min(sortedTickNanos.length - 1, rank - 1))] / 1e3;
+        }
+    }
+}
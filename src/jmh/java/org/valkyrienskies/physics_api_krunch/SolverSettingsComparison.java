@@ -0,0 +1,521 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Quaterniond;
+import org.joml.Quaterniondc;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs small standard scenarios with a sweep of {@link KrunchPhysicsWorldSettings}, and measures what every setting
+ * costs per tick against how well it simulates them, so the cheapest settings that stay stable can be picked.
+ *
+ * Every setting runs every {@link Scenario} in a new physics world and records:
+ * <ul>
+ *     <li>The mean tick time</li>
+ *     <li>Penetration, how far a body sank below where it should rest, in meters</li>
+ *     <li>Drift, how far a body that should stay put moved sideways, in meters</li>
+ *     <li>Energy gain, the largest increase of kinetic plus potential energy over the start, as the height in meters
+ *     it would lift the bodies. A stable solver never adds energy</li>
+ *     <li>The error of the scenario against the expected outcome, like the height of a bounce</li>
+ *     <li>Whether it exploded, meaning a body went faster than 50 meters per second or became NaN</li>
+ * </ul>
+ * The error of a setting is the sum of the penetration, drift, energy gain and scenario errors over all scenarios, or
+ * infinite if any of them exploded. Every result is written to {@code solver_comparison.csv}, and every setting with
+ * its total cost and error to {@code solver_pareto.csv}, with the settings no other setting beats in both cost and
+ * error marked as on the Pareto front. The front is also printed.
+ *
+ * Run with {@code ./gradlew solverComparison}, which writes to {@code build/results/solver}. The swept values are
+ * {@link #SOLVER_TYPES}, {@link #SUB_STEPS}, {@link #ITERATIONS}, {@link #SOLVER_ITERATION_WEIGHTS},
+ * {@link #COMPLIANCES} and {@link #MAX_VOXEL_SHAPE_COLLISION_POINTS}. The compliance value is used for the collision,
+ * restitution and dynamic friction compliance together. The voxel shape collision points are swept because a body with
+ * more voxels than that collides using a lower level of detail, which can launch the ship of
+ * {@link Scenario#RESTING_CONTACT} off the ground at the default of 64.
+ */
+public final class SolverSettingsComparison {
+
+    static final SolverType[] SOLVER_TYPES = SolverType.values();
+    static final int[] SUB_STEPS = {5, 10, 20, 40};
+    static final int[] ITERATIONS = {1, 2, 4};
+    static final double[] SOLVER_ITERATION_WEIGHTS = {0.8, 1.0};
+    static final double[] COMPLIANCES = {0.0, 1e-8, 1e-5};
+    static final int[] MAX_VOXEL_SHAPE_COLLISION_POINTS = {64, 2048};
+
+    // Three seconds of simulation per scenario
+    private static final int TICKS = 180;
+    private static final double EXPLOSION_SPEED = 50.0;
+
+    private static final String SETTINGS_CSV_HEADER =
+        "solver_type,sub_steps,iterations,solver_iteration_weight,compliance,max_voxel_shape_collision_points";
+
+    private SolverSettingsComparison() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Path outputDirectory = Paths.get(args.length > 0 ? args[0] : "build/results/solver");
+        KrunchBootstrap.INSTANCE.loadNativeBinaries();
+
+        final ObjectArrayList<SettingResult> results = new ObjectArrayList<>();
+        for (final SolverType solverType : SOLVER_TYPES) {
+            for (final int subSteps : SUB_STEPS) {
+                for (final int iterations : ITERATIONS) {
+                    for (final double weight : SOLVER_ITERATION_WEIGHTS) {
+                        for (final double compliance : COMPLIANCES) {
+                            for (final int maxVoxelShapeCollisionPoints : MAX_VOXEL_SHAPE_COLLISION_POINTS) {
+                                final KrunchPhysicsWorldSettings settings = new KrunchPhysicsWorldSettings();
+                                settings.setSolverType(solverType);
+                                settings.setSubSteps(subSteps);
+                                settings.setIterations(iterations);
+                                settings.setSolverIterationWeight(weight);
+                                settings.setCollisionCompliance(compliance);
+                                settings.setCollisionRestitutionCompliance(compliance);
+                                settings.setDynamicFrictionCompliance(compliance);
+                                settings.setMaxVoxelShapeCollisionPoints(maxVoxelShapeCollisionPoints);
+
+                                final SettingResult result = new SettingResult(settings);
+                                for (final Scenario scenario : Scenario.values()) {
+                                    result.add(runTrial(scenario, settings));
+                                }
+                                results.add(result);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        results.sort(Comparator.comparingDouble(SettingResult::getCostMicros).thenComparingDouble(SettingResult::getError));
+        // Sorted by cost, a setting is on the front if it has less error than every cheaper setting
+        double lowestError = Double.POSITIVE_INFINITY;
+        for (final SettingResult result : results) {
+            if (result.getError() < lowestError) {
+                result.onParetoFront = true;
+                lowestError = result.getError();
+            }
+        }
+
+        Files.createDirectories(outputDirectory);
+        try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputDirectory.resolve("solver_comparison.csv"), StandardCharsets.UTF_8))) {
+            writer.println(SETTINGS_CSV_HEADER + ",scenario,tick_mean_us,penetration_m,drift_m,energy_gain_m,scenario_error,exploded");
+            for (final SettingResult result : results) {
+                for (final Trial trial : result.trials) {
+                    writer.println(String.format(Locale.ROOT, "%s,%s,%.1f,%.5f,%.5f,%.5f,%.5f,%b",
+                        formatSettings(result.settings), trial.scenario.getName(), trial.getMeanTickMicros(), trial.maxPenetration,
+                        trial.maxDrift, trial.getEnergyGainMeters(), trial.getScenarioError(), trial.exploded));
+                }
+            }
+        }
+        try (final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputDirectory.resolve("solver_pareto.csv"), StandardCharsets.UTF_8))) {
+            writer.println(SETTINGS_CSV_HEADER + ",cost_us,error,exploded,pareto_front");
+            for (final SettingResult result : results) {
+                writer.println(String.format(Locale.ROOT, "%s,%.1f,%.5f,%b,%b", formatSettings(result.settings),
+                    result.getCostMicros(), result.getError(), result.hasExploded(), result.onParetoFront));
+            }
+        }
+
+        System.out.println("Pareto front of tick cost against error, cheapest first:");
+        System.out.println(String.format(Locale.ROOT, "%-13s %9s %10s %7s %10s %14s %12s %10s", "solver", "subSteps", "iterations",
+            "weight", "compliance", "voxelPoints", "cost (us)", "error"));
+        for (final SettingResult result : results) {
+            if (!result.onParetoFront) continue;
+            final KrunchPhysicsWorldSettings settings = result.settings;
+            System.out.println(String.format(Locale.ROOT, "%-13s %9d %10d %7.2f %10.0e %14d %12.1f %10.4f", settings.getSolverType().name(),
+                settings.getSubSteps(), settings.getIterations(), settings.getSolverIterationWeight(), settings.getCollisionCompliance(),
+                settings.getMaxVoxelShapeCollisionPoints(), result.getCostMicros(), result.getError()));
+        }
+        System.out.println("Wrote " + results.size() + " settings to " + outputDirectory.toAbsolutePath());
+    }
+
+    @NotNull
+    private static String formatSettings(@NotNull final KrunchPhysicsWorldSettings settings) {
+        return String.format(Locale.ROOT, "%s,%d,%d,%.2f,%.0e,%d", settings.getSolverType().name(), settings.getSubSteps(),
+            settings.getIterations(), settings.getSolverIterationWeight(), settings.getCollisionCompliance(),
+            settings.getMaxVoxelShapeCollisionPoints());
+    }
+
+    @NotNull
+    private static Trial runTrial(@NotNull final Scenario scenario, @NotNull final KrunchPhysicsWorldSettings settings) {
+        final KrunchNativePhysicsWorldReference physicsWorld = new KrunchNativePhysicsWorldReference();
+        try {
+            physicsWorld.setSettings(settings);
+            final BenchmarkWorldBuilder builder = new BenchmarkWorldBuilder(physicsWorld);
+            final ObjectArrayList<KrunchNativeRigidBodyReference> bodies = new ObjectArrayList<>();
+            scenario.build(builder, bodies);
+            builder.finish();
+
+            final Trial trial = new Trial(scenario, bodies.toArray(new KrunchNativeRigidBodyReference[0]));
+            trial.sample(-1);
+            for (int tick = 0; tick < TICKS && !trial.exploded; tick++) {
+                final long tickStart = System.nanoTime();
+                physicsWorld.tick(BenchmarkWorldBuilder.GRAVITY, BenchmarkWorldBuilder.TIME_STEP, true);
+                trial.tickNanos += System.nanoTime() - tickStart;
+                trial.ticks++;
+                trial.sample(tick);
+            }
+            return trial;
+        } finally {
+            physicsWorld.deletePhysicsWorldResources();
+        }
+    }
+
+    private static double length(@NotNull final Vector3dc vector) {
+        return Math.sqrt(vector.x() * vector.x() + vector.y() * vector.y() + vector.z() * vector.z());
+    }
+
+    /**
+     * The standard scenarios. The ground is always the first body, and isn't tracked.
+     */
+    private enum Scenario {
+        /**
+         * A column of 10 single voxel boxes standing on the ground, which should stay exactly where they are.
+         */
+        BOX_STACK("box_stack") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, @NotNull final List<KrunchNativeRigidBodyReference> bodies) {
+                builder.addFlatGround(4);
+                for (int i = 0; i < 10; i++) {
+                    bodies.add(builder.addSingleVoxelBody(new Vector3d(2.0, 1.0 + i, 2.0), new Quaterniond()));
+                }
+            }
+
+            @Override
+            double getPenetration(final int index, @NotNull final Vector3dc position) {
+                return 1.0 + index - position.y();
+            }
+        },
+        /**
+         * A solid 16 by 4 by 16 ship resting on the ground. The scenario error is the fastest it moved during the
+         * second half, in meters per second, which is how much it jitters.
+         */
+        RESTING_CONTACT("resting_contact") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, @NotNull final List<KrunchNativeRigidBodyReference> bodies) {
+                builder.addFlatGround(16);
+                // The bottom of the ship is 2.5 meters below its center
+                bodies.add(builder.addBox(new Vector3d(16.0, 3.0, 16.0), new Quaterniond(), 16, 4, 16, 1.0, new Random(1)));
+            }
+
+            @Override
+            double getPenetration(final int index, @NotNull final Vector3dc position) {
+                return 3.0 - position.y();
+            }
+
+            @Override
+            void onSample(@NotNull final Trial trial, final int tick, @NotNull final Vector3dc position, @NotNull final Vector3dc velocity) {
+                if (tick >= TICKS / 2) trial.scenarioError = Math.max(trial.scenarioError, length(velocity));
+            }
+        },
+        /**
+         * A box with a restitution coefficient of 0.5, as is the ground, dropped from 5 meters above where it rests.
+         * The scenario error is how far the height of the first bounce is from {@code 0.5 * 0.5 * 5} meters,
+         * relative to that height.
+         */
+        RESTITUTION_DROP("restitution_drop") {
+            private static final double RESTITUTION = 0.5;
+            private static final double DROP_HEIGHT = 5.0;
+
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, @NotNull final List<KrunchNativeRigidBodyReference> bodies) {
+                builder.addFlatGround(8).setRestitutionCoefficient(RESTITUTION);
+                final KrunchNativeRigidBodyReference box = builder.addSingleVoxelBody(new Vector3d(4.0, 1.0 + DROP_HEIGHT, 4.0), new Quaterniond());
+                box.setRestitutionCoefficient(RESTITUTION);
+                bodies.add(box);
+            }
+
+            @Override
+            double getPenetration(final int index, @NotNull final Vector3dc position) {
+                return 1.0 - position.y();
+            }
+
+            @Override
+            void onSample(@NotNull final Trial trial, final int tick, @NotNull final Vector3dc position, @NotNull final Vector3dc velocity) {
+                // Moving up for the first time is the bounce, and the apex is the highest point after it
+                if (velocity.y() > 0.0) trial.scenarioFlag = true;
+                if (trial.scenarioFlag) trial.scenarioValue = Math.max(trial.scenarioValue, position.y() - 1.0);
+            }
+
+            @Override
+            double getScenarioError(@NotNull final Trial trial) {
+                final double expectedApex = RESTITUTION * RESTITUTION * DROP_HEIGHT;
+                return Math.abs(trial.scenarioValue - expectedApex) / expectedApex;
+            }
+        },
+        /**
+         * A box on a ramp tilted 20 degrees with a friction coefficient of 0.6, which should stick because
+         * {@code tan(20) < 0.6}. The scenario error is how far it slid, in meters.
+         */
+        FRICTION_RAMP_STICK("friction_ramp_stick") {
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, @NotNull final List<KrunchNativeRigidBodyReference> bodies) {
+                bodies.add(buildRamp(builder, Math.toRadians(20.0), 0.6, 8.0));
+            }
+
+            @Override
+            double getPenetration(final int index, @NotNull final Vector3dc position) {
+                return getRampPenetration(Math.toRadians(20.0), position);
+            }
+
+            @Override
+            double getDrift(@NotNull final Vector3dc start, @NotNull final Vector3dc position) {
+                return 0.0;
+            }
+
+            @Override
+            void onSample(@NotNull final Trial trial, final int tick, @NotNull final Vector3dc position, @NotNull final Vector3dc velocity) {
+                trial.scenarioError = Math.max(trial.scenarioError, trial.getDistanceFromStart(0, position));
+            }
+        },
+        /**
+         * A box on a ramp tilted 30 degrees with a friction coefficient of 0.2, which should slide down with an
+         * acceleration of {@code g * (sin(30) - 0.2 * cos(30))}. The scenario error is how far the distance it slid
+         * is from that, relative to it.
+         */
+        FRICTION_RAMP_SLIDE("friction_ramp_slide") {
+            private static final double FRICTION = 0.2;
+
+            @Override
+            void build(@NotNull final BenchmarkWorldBuilder builder, @NotNull final List<KrunchNativeRigidBodyReference> bodies) {
+                bodies.add(buildRamp(builder, Math.toRadians(30.0), FRICTION, 40.0));
+            }
+
+            @Override
+            double getPenetration(final int index, @NotNull final Vector3dc position) {
+                return getRampPenetration(Math.toRadians(30.0), position);
+            }
+
+            @Override
+            double getDrift(@NotNull final Vector3dc start, @NotNull final Vector3dc position) {
+                return 0.0;
+            }
+
+            @Override
+            void onSample(@NotNull final Trial trial, final int tick, @NotNull final Vector3dc position, @NotNull final Vector3dc velocity) {
+                trial.scenarioValue = trial.getDistanceFromStart(0, position);
+            }
+
+            @Override
+            double getScenarioError(@NotNull final Trial trial) {
+                final double angle = Math.toRadians(30.0);
+                final double acceleration = -BenchmarkWorldBuilder.GRAVITY.y() * (Math.sin(angle) - FRICTION * Math.cos(angle));
+                final double time = trial.ticks * BenchmarkWorldBuilder.TIME_STEP;
+                final double expectedDistance = 0.5 * acceleration * time * time;
+                return Math.abs(trial.scenarioValue - expectedDistance) / expectedDistance;
+            }
+        };
+
+        private final String name;
+
+        Scenario(@NotNull final String name) {
+            this.name = name;
+        }
+
+        @NotNull
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Creates the bodies of the scenario, adding the ones to track to [bodies].
+         */
+        abstract void build(@NotNull BenchmarkWorldBuilder builder, @NotNull List<KrunchNativeRigidBodyReference> bodies);
+
+        /**
+         * @return How far the tracked body at [index] is below where it should rest, negative if it's above
+         */
+        abstract double getPenetration(int index, @NotNull Vector3dc position);
+
+        /**
+         * @return How far a tracked body moved sideways from [start]
+         */
+        double getDrift(@NotNull final Vector3dc start, @NotNull final Vector3dc position) {
+            final double dx = position.x() - start.x();
+            final double dz = position.z() - start.z();
+            return Math.sqrt(dx * dx + dz * dz);
+        }
+
+        /**
+         * Called for the first tracked body after every tick, with [tick] -1 before the first one.
+         */
+        void onSample(@NotNull final Trial trial, final int tick, @NotNull final Vector3dc position, @NotNull final Vector3dc velocity) {
+        }
+
+        double getScenarioError(@NotNull final Trial trial) {
+            return trial.scenarioError;
+        }
+
+        /**
+         * Adds a ramp rotated by [angle] around the z axis, so it rises towards positive x, with a box on its surface
+         * [distance] voxels along it. Both have a friction coefficient of [friction].
+         */
+        @NotNull
+        private static KrunchNativeRigidBodyReference buildRamp(@NotNull final BenchmarkWorldBuilder builder, final double angle,
+            final double friction, final double distance) {
+            final Quaterniondc rotation = new Quaterniond().rotateZ(angle);
+            final KrunchNativeRigidBodyReference ramp = builder.addFlatGround((int) distance + 8, rotation);
+            ramp.setStaticFrictionCoefficient(friction);
+            ramp.setDynamicFrictionCoefficient(friction);
+            final Vector3d position = new Vector3d(distance * Math.cos(angle) - Math.sin(angle), distance * Math.sin(angle) + Math.cos(angle), 8.0);
+            final KrunchNativeRigidBodyReference box = builder.addSingleVoxelBody(position, rotation);
+            box.setStaticFrictionCoefficient(friction);
+            box.setDynamicFrictionCoefficient(friction);
+            return box;
+        }
+
+        private static double getRampPenetration(final double angle, @NotNull final Vector3dc position) {
+            // The height above the ramp surface, which is y in the space of the ramp
+            final double localY = position.y() * Math.cos(angle) - position.x() * Math.sin(angle);
+            return 1.0 - localY;
+        }
+    }
+
+    /**
+     * The measurements of one scenario with one setting.
+     */
+    private static final class Trial {
+        private final Scenario scenario;
+        private final KrunchNativeRigidBodyReference[] bodies;
+        private final double[] startPositions;
+        private final double[] masses;
+        private final double[] transform = new double[7];
+        private final Vector3d position = new Vector3d();
+
+        private long tickNanos = 0;
+        private int ticks = 0;
+        private double startEnergy;
+        private double maxEnergy = Double.NEGATIVE_INFINITY;
+        private double totalMass = 0.0;
+        private double maxPenetration = 0.0;
+        private double maxDrift = 0.0;
+        private boolean exploded = false;
+
+        // Used by the scenario to compute its error
+        private double scenarioValue = 0.0;
+        private double scenarioError = 0.0;
+        private boolean scenarioFlag = false;
+
+        private Trial(@NotNull final Scenario scenario, @NotNull final KrunchNativeRigidBodyReference[] bodies) {
+            this.scenario = scenario;
+            this.bodies = bodies;
+            this.startPositions = new double[bodies.length * 3];
+            this.masses = new double[bodies.length];
+            for (int i = 0; i < bodies.length; i++) {
+                bodies[i].getRigidBodyTransform(transform, 0);
+                System.arraycopy(transform, 0, startPositions, i * 3, 3);
+                masses[i] = 1.0 / bodies[i].getInertiaData().getInvMass();
+                totalMass += masses[i];
+            }
+        }
+
+        @NotNull
+        private Vector3d getStartPosition(final int index, @NotNull final Vector3d output) {
+            return output.set(startPositions[index * 3], startPositions[index * 3 + 1], startPositions[index * 3 + 2]);
+        }
+
+        private double getDistanceFromStart(final int index, @NotNull final Vector3dc position) {
+            final double dx = position.x() - startPositions[index * 3];
+            final double dy = position.y() - startPositions[index * 3 + 1];
+            final double dz = position.z() - startPositions[index * 3 + 2];
+            return Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+
+        /**
+         * Reads the state of every tracked body after [tick], or before the first tick if it's -1.
+         */
+        private void sample(final int tick) {
+            final Vector3d start = new Vector3d();
+            double energy = 0.0;
+            for (int i = 0; i < bodies.length; i++) {
+                final KrunchNativeRigidBodyReference body = bodies[i];
+                body.getRigidBodyTransform(transform, 0);
+                position.set(transform[0], transform[1], transform[2]);
+                final Vector3dc velocity = body.getVelocity();
+                final double mass = masses[i];
+                final double speed = length(velocity);
+                energy += 0.5 * mass * speed * speed - mass * BenchmarkWorldBuilder.GRAVITY.y() * position.y();
+
+                // NaN fails every comparison, so check for it explicitly
+                if (!Double.isFinite(position.x() + position.y() + position.z())
+                    || !Double.isFinite(speed) || speed > EXPLOSION_SPEED) {
+                    exploded = true;
+                }
+                maxPenetration = Math.max(maxPenetration, scenario.getPenetration(i, position));
+                maxDrift = Math.max(maxDrift, scenario.getDrift(getStartPosition(i, start), position));
+                if (i == 0) scenario.onSample(this, tick, position, velocity);
+            }
+            if (tick == -1) startEnergy = energy;
+            maxEnergy = Math.max(maxEnergy, energy);
+        }
+
+        private double getMeanTickMicros() {
+            return ticks == 0 ? 0.0 : tickNanos / 1e3 / ticks;
+        }
+
+        /**
+         * @return The largest energy gained over the start, as the height in meters that would lift all of the
+         *         tracked bodies
+         */
+        private double getEnergyGainMeters() {
+            return Math.max(0.0, maxEnergy - startEnergy) / (totalMass * -BenchmarkWorldBuilder.GRAVITY.y());
+        }
+
+        private double getScenarioError() {
+            return scenario.getScenarioError(this);
+        }
+
+        private double getError() {
+            if (exploded) return Double.POSITIVE_INFINITY;
+            return maxPenetration + maxDrift + getEnergyGainMeters() + getScenarioError();
+        }
+    }
+
+    /**
+     * The trials of every scenario with one setting.
+     */
+    private static final class SettingResult {
+        private final KrunchPhysicsWorldSettings settings;
+        private final ObjectArrayList<Trial> trials = new ObjectArrayList<>();
+        private boolean onParetoFront = false;
+
+        private SettingResult(@NotNull final KrunchPhysicsWorldSettings settings) {
+            this.settings = settings;
+        }
+
+        private void add(@NotNull final Trial trial) {
+            trials.add(trial);
+        }
+
+        /**
+         * @return The sum of the mean tick time of every scenario
+         */
+        private double getCostMicros() {
+            double cost = 0.0;
+            for (final Trial trial : trials) cost += trial.getMeanTickMicros();
+            return cost;
+        }
+
+        private double getError() {
+            double error = 0.0;
+            for (final Trial trial : trials) error += trial.getError();
+            return error;
+        }
+
+        private boolean hasExploded() {
+            for (final Trial trial : trials) {
+                if (trial.exploded) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Walks voxel shape updates encoded by
+ * {@link VoxelRigidBodyShapeUpdatesEncoder#encodeVoxelRigidBodyShapeUpdatesArray(VoxelRigidBodyShapeUpdates[])} in
+ * place, without creating update objects. Unlike
+ * {@link VoxelRigidBodyShapeUpdatesEncoder#decodeVoxelRigidBodyShapeUpdatesArray(byte[])} nothing is allocated per
+ * update, so it's meant for tools that read a lot of encoded updates, like replays and snapshot diffs.
+ *
+ * Usage:
+ * <pre>{@code
+ * cursor.reset(encoded);
+ * while (cursor.nextRigidBody()) {
+ *     while (cursor.nextUpdate()) {
+ *         // Read the current update
+ *     }
+ * }
+ * }</pre>
+ * Moving to the next rigid body skips the updates of the current one that weren't read. The encoded bytes can come from
+ * a byte array, any {@link ByteBuffer}, or a file mapped with {@link #mapFile(Path)}. They're read with absolute gets,
+ * so the position of a given buffer isn't changed.
+ */
+public class EncodedVoxelShapeUpdatesCursor {
+
+    private static final int UPDATE_HEADER_SIZE = 16;
+    private static final int DENSE_DATA_SIZE = 4096;
+    private static final int SPARSE_ENTRY_SIZE = 3;
+    private static final int NO_UPDATE = -1;
+
+    private ByteBuffer buffer;
+    // A view of [buffer] limited to the dense data of the current update, created the first time it's needed
+    private ByteBuffer denseData;
+    // The next byte to read in [buffer]
+    private int position;
+    private int rigidBodyCount;
+    private int rigidBodiesRemaining = 0;
+    private int updatesRemaining = 0;
+
+    private int rigidBodyId;
+    private int updateCount;
+    private int updateType = NO_UPDATE;
+    private int regionX, regionY, regionZ;
+    private int flags;
+    // Where the dense data or the sparse entries of the current update start
+    private int dataPosition;
+    private int sparseUpdateCount;
+
+    /**
+     * Starts walking [encoded] from the beginning.
+     */
+    public void reset(@NotNull byte[] encoded) {
+        // Wrapping makes a buffer nobody else has, so it doesn't need to be duplicated
+        start(ByteBuffer.wrap(encoded));
+    }
+
+    /**
+     * Starts walking the updates encoded in [encoded] from its current position.
+     */
+    public void reset(@NotNull ByteBuffer encoded) {
+        start(encoded.duplicate());
+    }
+
+    private void start(@NotNull ByteBuffer encoded) {
+        buffer = encoded;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        denseData = null;
+        position = encoded.position();
+        rigidBodyCount = buffer.getInt(position);
+        position += 4;
+        rigidBodiesRemaining = rigidBodyCount;
+        updatesRemaining = 0;
+        updateType = NO_UPDATE;
+    }
+
+    /**
+     * Maps the whole file at [path] into memory, for walking encoded updates stored in it. Files larger than 2 GiB
+     * must be split before they can be mapped.
+     */
+    @NotNull
+    public static ByteBuffer mapFile(@NotNull Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Moves to the next rigid body.
+     *
+     * @return False if there are no rigid bodies left
+     */
+    public boolean nextRigidBody() {
+        while (updatesRemaining > 0) nextUpdate();
+        updateType = NO_UPDATE;
+        if (rigidBodiesRemaining == 0) return false;
+        rigidBodiesRemaining--;
+        rigidBodyId = buffer.getInt(position);
+        updateCount = buffer.getInt(position + 4);
+        updatesRemaining = updateCount;
+        position += 8;
+        return true;
+    }
+
+    /**
+     * Moves to the next update of the current rigid body.
+     *
+     * @return False if the current rigid body has no updates left
+     */
+    public boolean nextUpdate() {
+        if (updatesRemaining == 0) {
+            updateType = NO_UPDATE;
+            return false;
+        }
+        updatesRemaining--;
+        regionX = buffer.getInt(position);
+        regionY = buffer.getInt(position + 4);
+        regionZ = buffer.getInt(position + 8);
+        flags = buffer.getInt(position + 12);
+        updateType = flags & 3;
+        position += UPDATE_HEADER_SIZE;
+        dataPosition = position;
+        sparseUpdateCount = 0;
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE) {
+            position += DENSE_DATA_SIZE;
+        } else if (updateType == VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE) {
+            sparseUpdateCount = buffer.getInt(position);
+            dataPosition = position + 4;
+            position = dataPosition + sparseUpdateCount * SPARSE_ENTRY_SIZE;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of rigid bodies in the encoded updates
+     */
+    public int getRigidBodyCount() {
+        return rigidBodyCount;
+    }
+
+    public int getRigidBodyId() {
+        return rigidBodyId;
+    }
+
+    /**
+     * @return The number of updates of the current rigid body
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return One of the update type constants of {@link VoxelRigidBodyShapeUpdatesEncoder}
+     */
+    public int getUpdateType() {
+        ensureUpdate();
+        return updateType;
+    }
+
+    public int getRegionX() {
+        ensureUpdate();
+        return regionX;
+    }
+
+    public int getRegionY() {
+        ensureUpdate();
+        return regionY;
+    }
+
+    public int getRegionZ() {
+        ensureUpdate();
+        return regionZ;
+    }
+
+    public boolean getRunImmediately() {
+        ensureUpdate();
+        return (flags & 4) != 0;
+    }
+
+    /**
+     * Only meaningful for empty updates.
+     */
+    public boolean getOverwriteExistingVoxels() {
+        ensureUpdate();
+        return (flags & 8) != 0;
+    }
+
+    /**
+     * @return A view of the 4096 voxel states of the current dense update, between its position and limit. The view is
+     *         reused by every dense update, so it's only valid until the cursor moves.
+     */
+    @NotNull
+    public ByteBuffer getDenseData() {
+        ensureUpdateType(VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE);
+        if (denseData == null) denseData = buffer.duplicate();
+        denseData.clear();
+        denseData.position(dataPosition);
+        denseData.limit(dataPosition + DENSE_DATA_SIZE);
+        return denseData;
+    }
+
+    /**
+     * @return The state of the voxel at [index] of the current dense update, where the index is
+     *         {@code x | z << 4 | y << 8}
+     */
+    public byte getDenseVoxelState(int index) {
+        ensureUpdateType(VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE);
+        if (index < 0 || index >= DENSE_DATA_SIZE) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + DENSE_DATA_SIZE + " voxels");
+        }
+        return buffer.get(dataPosition + index);
+    }
+
+    /**
+     * Copies the 4096 voxel states of the current dense update into [dest] starting at [offset].
+     */
+    public void copyDenseData(@NotNull byte[] dest, int offset) {
+        getDenseData().get(dest, offset, DENSE_DATA_SIZE);
+    }
+
+    public int getSparseUpdateCount() {
+        ensureUpdateType(VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE);
+        return sparseUpdateCount;
+    }
+
+    /**
+     * @return The index of the [i]th voxel of the current sparse update, {@code x | z << 4 | y << 8}
+     */
+    public int getSparseVoxelIndex(int i) {
+        return buffer.getShort(sparseEntryPosition(i)) & 0xFFF;
+    }
+
+    public int getSparseVoxelX(int i) {
+        return getSparseVoxelIndex(i) & 0xF;
+    }
+
+    public int getSparseVoxelY(int i) {
+        return (getSparseVoxelIndex(i) >> 8) & 0xF;
+    }
+
+    public int getSparseVoxelZ(int i) {
+        return (getSparseVoxelIndex(i) >> 4) & 0xF;
+    }
+
+    public byte getSparseVoxelState(int i) {
+        return buffer.get(sparseEntryPosition(i) + 2);
+    }
+
+    private int sparseEntryPosition(int i) {
+        ensureUpdateType(VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE);
+        if (i < 0 || i >= sparseUpdateCount) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + sparseUpdateCount + " sparse updates");
+        }
+        return dataPosition + i * SPARSE_ENTRY_SIZE;
+    }
+
+    private void ensureUpdate() {
+        if (updateType == NO_UPDATE) {
+            throw new IllegalStateException("The cursor isn't on an update");
+        }
+    }
+
+    private void ensureUpdateType(int expectedType) {
+        ensureUpdate();
+        if (updateType != expectedType) {
+            throw new IllegalStateException("The current update has type " + updateType + ", not " + expectedType);
+        }
+    }
+}
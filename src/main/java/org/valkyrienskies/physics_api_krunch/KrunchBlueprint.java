@@ -0,0 +1,119 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyInertiaData;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A voxel rigid body that has been built once so that it can be spawned many times. These are made and kept by a
+ * {@link KrunchBlueprintCache}.
+ *
+ * The voxel shape updates are stored already encoded by {@link VoxelRigidBodyShapeUpdatesEncoder}, for a single rigid
+ * body, so a copy only needs its rigid body id rewritten.
+ *
+ * The voxels of a spawned copy are applied on the next tick of the physics world, like other queued voxel shape updates.
+ */
+public final class KrunchBlueprint {
+
+    private final Vector3ic minDefined;
+    private final Vector3ic maxDefined;
+    private final byte[] encodedVoxels;
+    private final RigidBodyInertiaData inertiaData;
+    private final Vector3dc collisionShapeOffset;
+
+    protected KrunchBlueprint(@NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined, @NotNull byte[] encodedVoxels,
+                              @NotNull RigidBodyInertiaData inertiaData, @NotNull Vector3dc collisionShapeOffset) {
+        this.minDefined = new Vector3i(minDefined);
+        this.maxDefined = new Vector3i(maxDefined);
+        this.encodedVoxels = encodedVoxels;
+        this.inertiaData = inertiaData;
+        this.collisionShapeOffset = new Vector3d(collisionShapeOffset);
+    }
+
+    /**
+     * Creates a rigid body from this blueprint, and queues its voxels.
+     */
+    @NotNull
+    public RigidBodyReference spawn(@NotNull PhysicsWorldReference physicsWorldReference, int dimension,
+                                    @NotNull AABBic totalVoxelRegion) throws UsingDeletedReferenceException {
+        return spawnCopies(physicsWorldReference, 1, dimension, totalVoxelRegion)[0];
+    }
+
+    /**
+     * Creates [count] rigid bodies from this blueprint, queueing the voxels of all of them together.
+     */
+    @NotNull
+    public RigidBodyReference[] spawnCopies(@NotNull PhysicsWorldReference physicsWorldReference, int count, int dimension,
+                                            @NotNull AABBic totalVoxelRegion) throws UsingDeletedReferenceException {
+        final RigidBodyReference[] rigidBodies = new RigidBodyReference[count];
+        final int[] rigidBodyIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            final RigidBodyReference rigidBody =
+                physicsWorldReference.createVoxelRigidBody(dimension, minDefined, maxDefined, totalVoxelRegion);
+            rigidBody.setInertiaData(inertiaData);
+            rigidBody.setCollisionShapeOffset(collisionShapeOffset);
+            rigidBodies[i] = rigidBody;
+            rigidBodyIds[i] = rigidBody.getRigidBodyId();
+        }
+        queueVoxelShapeUpdates(physicsWorldReference, rigidBodyIds);
+        return rigidBodies;
+    }
+
+    /**
+     * Queues the voxels of this blueprint for every rigid body in [rigidBodyIds], with a single native call. This is
+     * for bodies that already exist, like ones from a {@link KrunchRigidBodyPool}.
+     */
+    public void queueVoxelShapeUpdates(@NotNull PhysicsWorldReference physicsWorldReference, @NotNull int... rigidBodyIds)
+        throws UsingDeletedReferenceException {
+        if (rigidBodyIds.length == 0) return;
+        // Every copy is the encoded array without its length, and with the rigid body id replaced
+        final int copySize = encodedVoxels.length - 4;
+        final byte[] encoded = new byte[4 + copySize * rigidBodyIds.length];
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer.putInt(0, rigidBodyIds.length);
+        for (int i = 0; i < rigidBodyIds.length; i++) {
+            final int offset = 4 + copySize * i;
+            System.arraycopy(encodedVoxels, 4, encoded, offset, copySize);
+            byteBuffer.putInt(offset, rigidBodyIds[i]);
+        }
+        ((KrunchNativePhysicsWorldReference) physicsWorldReference).queueEncodedVoxelShapeUpdates(encoded);
+    }
+
+    @NotNull
+    public Vector3ic getMinDefined() {
+        return minDefined;
+    }
+
+    @NotNull
+    public Vector3ic getMaxDefined() {
+        return maxDefined;
+    }
+
+    @NotNull
+    public RigidBodyInertiaData getInertiaData() {
+        return inertiaData;
+    }
+
+    @NotNull
+    public Vector3dc getCollisionShapeOffset() {
+        return collisionShapeOffset;
+    }
+
+    /**
+     * @return The size of the encoded voxel shape updates, which is what {@link KrunchBlueprintCache} counts against its
+     * budget
+     */
+    public int getEncodedSize() {
+        return encodedVoxels.length;
+    }
+}
@@ -0,0 +1,123 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3dc;
+import org.joml.Vector3ic;
+import org.valkyrienskies.physics_api.RigidBodyInertiaData;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+/**
+ * Keeps {@link KrunchBlueprint}s of schematics that are spawned often, so each spawn copies pre-encoded voxel shape
+ * updates instead of building and encoding them again.
+ *
+ * The cache is bounded by the total encoded size of its blueprints, evicting the least recently used ones first.
+ * It isn't thread safe.
+ */
+public class KrunchBlueprintCache<K> {
+
+    // Iteration order is least recently used first
+    private final Object2ObjectLinkedOpenHashMap<K, KrunchBlueprint> blueprints = new Object2ObjectLinkedOpenHashMap<>();
+    private long maxCachedBytes;
+    private long cachedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public KrunchBlueprintCache(long maxCachedBytes) {
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    /**
+     * @return The blueprint for [key], or null if it isn't cached
+     */
+    @Nullable
+    public KrunchBlueprint get(@NotNull K key) {
+        final KrunchBlueprint blueprint = blueprints.getAndMoveToLast(key);
+        if (blueprint != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return blueprint;
+    }
+
+    /**
+     * Encodes [shapeUpdates] and caches them with the rest of the blueprint under [key], replacing any blueprint
+     * already there. [minDefined] and [maxDefined] are the defined region spawned copies are created with.
+     */
+    @NotNull
+    public KrunchBlueprint put(@NotNull K key, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                               @NotNull IVoxelShapeUpdate[] shapeUpdates, @NotNull RigidBodyInertiaData inertiaData,
+                               @NotNull Vector3dc collisionShapeOffset) {
+        // The rigid body id is rewritten for every copy
+        final byte[] encodedVoxels = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(
+            new VoxelRigidBodyShapeUpdates[] {new VoxelRigidBodyShapeUpdates(0, shapeUpdates)});
+        final KrunchBlueprint blueprint =
+            new KrunchBlueprint(minDefined, maxDefined, encodedVoxels, inertiaData, collisionShapeOffset);
+
+        final KrunchBlueprint replaced = blueprints.putAndMoveToLast(key, blueprint);
+        if (replaced != null) cachedBytes -= replaced.getEncodedSize();
+        cachedBytes += blueprint.getEncodedSize();
+        evictToBudget();
+        return blueprint;
+    }
+
+    /**
+     * @return The removed blueprint, or null if [key] wasn't cached
+     */
+    @Nullable
+    public KrunchBlueprint remove(@NotNull K key) {
+        final KrunchBlueprint removed = blueprints.remove(key);
+        if (removed != null) cachedBytes -= removed.getEncodedSize();
+        return removed;
+    }
+
+    public void clear() {
+        blueprints.clear();
+        cachedBytes = 0;
+    }
+
+    private void evictToBudget() {
+        // Always keep the most recent blueprint, even if it's over budget by itself
+        while (cachedBytes > maxCachedBytes && blueprints.size() > 1) {
+            cachedBytes -= blueprints.removeFirst().getEncodedSize();
+            evictions++;
+        }
+    }
+
+    public int getBlueprintCount() {
+        return blueprints.size();
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public long getMaxCachedBytes() {
+        return maxCachedBytes;
+    }
+
+    /**
+     * Sets the total encoded size of the cached blueprints, evicting blueprints if the cache is now over it.
+     */
+    public void setMaxCachedBytes(long maxCachedBytes) {
+        this.maxCachedBytes = maxCachedBytes;
+        evictToBudget();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+}
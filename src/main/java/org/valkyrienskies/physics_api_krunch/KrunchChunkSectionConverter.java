@@ -0,0 +1,205 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Converts {@link KrunchPalettedSection}s into {@link DenseVoxelShapeUpdate}s and {@link EmptyVoxelShapeUpdate}s.
+ *
+ * The block states of a palette are translated to voxel states once, and the translation is cached by palette
+ * identity, so palettes that only grow (like the ones games use) are not translated again. Packed indices are then
+ * unpacked straight into the voxel data of the update. Sections that are entirely air become an
+ * {@link EmptyVoxelShapeUpdate}, and sections whose palette translates to a single voxel state are filled without
+ * unpacking anything.
+ *
+ * This class is thread safe.
+ */
+public final class KrunchChunkSectionConverter<T> {
+
+    private static final int VOXELS_PER_SECTION = 4096;
+    private static final int PALETTE_CACHE_SIZE = 256;
+
+    private final KrunchVoxelStateMapper<T> voxelStateMapper;
+    // Direct mapped cache of palette translations, indexed by the identity hash code of the palette. Entries are
+    // immutable, so concurrent conversions at worst translate the same palette twice.
+    private final PaletteTranslation[] paletteCache = new PaletteTranslation[PALETTE_CACHE_SIZE];
+
+    private int parallelThreshold = 16;
+
+    public KrunchChunkSectionConverter(@NotNull KrunchVoxelStateMapper<T> voxelStateMapper) {
+        this.voxelStateMapper = voxelStateMapper;
+    }
+
+    /**
+     * The minimum number of sections {@link #convertSections(KrunchPalettedSection[], boolean)} converts in parallel,
+     * smaller batches are converted on the calling thread.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @NotNull
+    public IVoxelShapeUpdate convertSection(@NotNull KrunchPalettedSection<T> section, boolean runImmediately) {
+        return convertSection(
+            section.regionX, section.regionY, section.regionZ, section.palette, section.paletteSize, section.data,
+            section.bitsPerEntry, runImmediately
+        );
+    }
+
+    /**
+     * Converts one section, see {@link KrunchPalettedSection} for the layout of [palette] and [data].
+     *
+     * @return An {@link EmptyVoxelShapeUpdate} that overwrites existing voxels if every block is air, otherwise a
+     *         {@link DenseVoxelShapeUpdate}
+     */
+    @NotNull
+    public IVoxelShapeUpdate convertSection(int regionX, int regionY, int regionZ, @NotNull T[] palette,
+                                            int paletteSize, @NotNull long[] data, int bitsPerEntry,
+                                            boolean runImmediately) {
+        final PaletteTranslation translation = translatePalette(palette, paletteSize);
+
+        if (bitsPerEntry == 0 || translation.uniform) {
+            final byte voxelState = translation.voxelStates[0];
+            if (voxelState == KrunchVoxelStates.AIR_STATE) {
+                return new EmptyVoxelShapeUpdate(regionX, regionY, regionZ, runImmediately, true);
+            }
+            final byte[] voxelData = new byte[VOXELS_PER_SECTION];
+            Arrays.fill(voxelData, voxelState);
+            return new DenseVoxelShapeUpdate(regionX, regionY, regionZ, runImmediately, voxelData);
+        }
+
+        final byte[] voxelData = new byte[VOXELS_PER_SECTION];
+        final boolean allAir = unpackVoxelStates(translation.voxelStates, data, bitsPerEntry, voxelData);
+        if (allAir) {
+            return new EmptyVoxelShapeUpdate(regionX, regionY, regionZ, runImmediately, true);
+        }
+        return new DenseVoxelShapeUpdate(regionX, regionY, regionZ, runImmediately, voxelData);
+    }
+
+    /**
+     * Converts a batch of sections, for example all the sections of the chunks loaded this tick. When [parallel] is
+     * true and the batch is at least {@link #getParallelThreshold()} sections, the sections are converted on the
+     * common fork join pool.
+     *
+     * @return The converted sections, in the same order as [sections]
+     */
+    @NotNull
+    public IVoxelShapeUpdate[] convertSections(@NotNull KrunchPalettedSection<T>[] sections, boolean parallel) {
+        final IVoxelShapeUpdate[] updates = new IVoxelShapeUpdate[sections.length];
+        if (parallel && sections.length >= parallelThreshold) {
+            Arrays.parallelSetAll(updates, i -> convertSection(sections[i], false));
+        } else {
+            for (int i = 0; i < sections.length; i++) {
+                updates[i] = convertSection(sections[i], false);
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Forget all cached palette translations, for example after the voxel state of a block state has changed.
+     */
+    public void clearPaletteCache() {
+        Arrays.fill(paletteCache, null);
+    }
+
+    @NotNull
+    private PaletteTranslation translatePalette(@NotNull T[] palette, int paletteSize) {
+        if (paletteSize <= 0 || paletteSize > palette.length) {
+            throw new IllegalArgumentException("Invalid palette size " + paletteSize + " for palette of length " + palette.length);
+        }
+        final int cacheIndex = System.identityHashCode(palette) & (PALETTE_CACHE_SIZE - 1);
+        final PaletteTranslation cached = paletteCache[cacheIndex];
+        if (cached != null && cached.paletteSize == paletteSize && cached.palette.get() == palette) {
+            return cached;
+        }
+
+        final byte[] voxelStates;
+        final int translatedSize;
+        if (cached != null && cached.paletteSize < paletteSize && cached.palette.get() == palette) {
+            // The palette grew, only translate the new entries
+            voxelStates = Arrays.copyOf(cached.voxelStates, paletteSize);
+            translatedSize = cached.paletteSize;
+        } else {
+            voxelStates = new byte[paletteSize];
+            translatedSize = 0;
+        }
+        for (int i = translatedSize; i < paletteSize; i++) {
+            final T blockState = palette[i];
+            voxelStates[i] = blockState == null ? KrunchVoxelStates.AIR_STATE : voxelStateMapper.getVoxelState(blockState);
+        }
+
+        final PaletteTranslation translation = new PaletteTranslation(palette, paletteSize, voxelStates);
+        paletteCache[cacheIndex] = translation;
+        return translation;
+    }
+
+    /**
+     * Unpacks the palette indices in [data] into [voxelData], translating them through [voxelStates].
+     *
+     * @return True if every unpacked voxel is air
+     */
+    private static boolean unpackVoxelStates(@NotNull byte[] voxelStates, @NotNull long[] data, int bitsPerEntry,
+                                             @NotNull byte[] voxelData) {
+        if (bitsPerEntry < 1 || bitsPerEntry > 32) {
+            throw new IllegalArgumentException("Invalid bits per entry " + bitsPerEntry);
+        }
+        final int indicesPerLong = 64 / bitsPerEntry;
+        final int requiredLongs = (VOXELS_PER_SECTION + indicesPerLong - 1) / indicesPerLong;
+        if (data.length < requiredLongs) {
+            throw new IllegalArgumentException(
+                "Expected at least " + requiredLongs + " longs for " + bitsPerEntry + " bits per entry, got " + data.length
+            );
+        }
+
+        final long mask = (1L << bitsPerEntry) - 1;
+        // Bitwise or of (voxelState ^ AIR_STATE) over every voxel, 0 if every voxel is air
+        int notAir = 0;
+        int voxelIndex = 0;
+        for (int longIndex = 0; voxelIndex < VOXELS_PER_SECTION; longIndex++) {
+            long packed = data[longIndex];
+            final int end = Math.min(voxelIndex + indicesPerLong, VOXELS_PER_SECTION);
+            for (; voxelIndex < end; voxelIndex++) {
+                final byte voxelState = voxelStates[(int) (packed & mask)];
+                voxelData[voxelIndex] = voxelState;
+                notAir |= voxelState ^ KrunchVoxelStates.AIR_STATE;
+                packed >>>= bitsPerEntry;
+            }
+        }
+        return notAir == 0;
+    }
+
+    private static final class PaletteTranslation {
+        // Weak so the cache doesn't keep palettes of unloaded chunks alive
+        final WeakReference<Object> palette;
+        final int paletteSize;
+        final byte[] voxelStates;
+        // True if every palette entry translates to the same voxel state
+        final boolean uniform;
+
+        PaletteTranslation(@Nullable Object palette, int paletteSize, @NotNull byte[] voxelStates) {
+            this.palette = new WeakReference<>(palette);
+            this.paletteSize = paletteSize;
+            this.voxelStates = voxelStates;
+            boolean uniform = true;
+            for (int i = 1; i < paletteSize; i++) {
+                if (voxelStates[i] != voxelStates[0]) {
+                    uniform = false;
+                    break;
+                }
+            }
+            this.uniform = uniform;
+        }
+    }
+}
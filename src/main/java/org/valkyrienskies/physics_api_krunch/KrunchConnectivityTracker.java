@@ -0,0 +1,566 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the pieces a voxel rigid body breaks into when voxels are removed from it, without flood filling the whole
+ * body after every edit.
+ *
+ * The tracker keeps a copy of the voxels of tracked bodies from the voxel shape updates sent to them, and remembers
+ * which connecting voxels were removed. {@link #update()} then starts a breadth first search from every connecting
+ * neighbor of the removed voxels, one voxel per search in turn. Searches that meet are merged, and a search that runs
+ * out of voxels before meeting the others has found a piece that split off. Once a single search is left it only keeps
+ * going until it's larger than every piece that split off, so the piece left in the body is always the largest, and the
+ * work done scales with the size of the smaller pieces rather than the size of the body. If the searches visit more than
+ * {@link #getMaxSearchVoxels()} voxels the whole body is flood filled instead.
+ *
+ * Like {@link KrunchInertiaTracker}, bodies should be tracked before their voxels are sent.
+ */
+public class KrunchConnectivityTracker implements KrunchPhysicsWorldListener {
+
+    private static final int[] NEIGHBOR_OFFSETS = {1, 0, 0, -1, 0, 0, 0, 1, 0, 0, -1, 0, 0, 0, 1, 0, 0, -1};
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final Int2ObjectOpenHashMap<BodyConnectivity> bodies = new Int2ObjectOpenHashMap<>();
+    private final EncodedVoxelShapeUpdatesCursor encodedCursor = new EncodedVoxelShapeUpdatesCursor();
+    private final ObjectArrayList<BodyConnectivity> dirtyBodies = new ObjectArrayList<>();
+    // Whether voxels with a state, indexed as an unsigned byte, hold a body together
+    private final boolean[] connectingStates = new boolean[256];
+    private int maxSearchVoxels = 1 << 16;
+
+    // Scratch space for the searches, reused between updates
+    private final LongArrayList seeds = new LongArrayList();
+    // The search that visited each voxel
+    private final Long2IntOpenHashMap visited = new Long2IntOpenHashMap();
+    // The voxels visited by each search in the order they were visited, which doubles as the queue of the search
+    private final ObjectArrayList<LongArrayList> searchVoxels = new ObjectArrayList<>();
+    // The index in [searchVoxels] of the next voxel each search visits the neighbors of
+    private final IntArrayList searchHeads = new IntArrayList();
+    // Union find over the searches, searches that met are in the same set
+    private final IntArrayList searchParents = new IntArrayList();
+    private int visitedVoxels = 0;
+
+    private long localSearches = 0;
+    private long fullRecomputes = 0;
+    private long splits = 0;
+
+    public KrunchConnectivityTracker(@NotNull PhysicsWorldReference physicsWorldReference) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.physicsWorldReference.addListener(this);
+        connectingStates[KrunchVoxelStates.SOLID_STATE & 0xFF] = true;
+        visited.defaultReturnValue(-1);
+    }
+
+    /**
+     * Stop listening to the physics world.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Starts tracking the voxels of [rigidBody], which is treated as having no voxels yet.
+     */
+    public void track(@NotNull RigidBodyReference rigidBody) {
+        if (!bodies.containsKey(rigidBody.getRigidBodyId())) {
+            bodies.put(rigidBody.getRigidBodyId(), new BodyConnectivity(rigidBody.getRigidBodyId()));
+        }
+    }
+
+    public void untrack(int rigidBodyId) {
+        final BodyConnectivity body = bodies.remove(rigidBodyId);
+        if (body != null && body.dirty) dirtyBodies.remove(body);
+    }
+
+    /**
+     * Checks every body that had connecting voxels removed since the last update. This should be called once per tick.
+     *
+     * @return The pieces that split off of tracked bodies. The largest piece of a split body isn't returned, it's
+     * expected to stay in the original body.
+     */
+    @NotNull
+    public List<KrunchVoxelComponent> update() {
+        final ObjectArrayList<KrunchVoxelComponent> components = new ObjectArrayList<>();
+        for (int i = 0; i < dirtyBodies.size(); i++) {
+            final BodyConnectivity body = dirtyBodies.get(i);
+            body.dirty = false;
+            final int componentsBefore = components.size();
+            findSplits(body, components);
+            body.removedVoxels.clear();
+            if (components.size() != componentsBefore) splits++;
+        }
+        dirtyBodies.clear();
+        return components;
+    }
+
+    private void findSplits(@NotNull BodyConnectivity body, @NotNull List<KrunchVoxelComponent> components) {
+        final LongIterator iterator = body.removedVoxels.iterator();
+        while (iterator.hasNext()) {
+            final long removed = iterator.nextLong();
+            final int x = KrunchVoxelComponent.unpackX(removed);
+            final int y = KrunchVoxelComponent.unpackY(removed);
+            final int z = KrunchVoxelComponent.unpackZ(removed);
+            for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 3) {
+                final int neighborX = x + NEIGHBOR_OFFSETS[i];
+                final int neighborY = y + NEIGHBOR_OFFSETS[i + 1];
+                final int neighborZ = z + NEIGHBOR_OFFSETS[i + 2];
+                if (isConnecting(body, neighborX, neighborY, neighborZ)) {
+                    seeds.add(KrunchVoxelComponent.pack(neighborX, neighborY, neighborZ));
+                }
+            }
+        }
+        // A single neighbor can't be split from anything
+        if (seeds.size() >= 2) {
+            localSearches++;
+            final int componentsBefore = components.size();
+            if (!searchLocally(body, components)) {
+                // Throw away what the local search found, the full recompute finds it again
+                components.subList(componentsBefore, components.size()).clear();
+                fullRecomputes++;
+                recomputeAll(body, components);
+            }
+        }
+        seeds.clear();
+        visited.clear();
+        searchParents.clear();
+    }
+
+    /**
+     * @return False if the searches visited too many voxels
+     */
+    private boolean searchLocally(@NotNull BodyConnectivity body, @NotNull List<KrunchVoxelComponent> components) {
+        int searchCount = 0;
+        for (int i = 0; i < seeds.size(); i++) {
+            final long seed = seeds.getLong(i);
+            if (visited.containsKey(seed)) continue;
+            if (searchVoxels.size() == searchCount) searchVoxels.add(new LongArrayList());
+            visited.put(seed, searchCount);
+            searchVoxels.get(searchCount).add(seed);
+            searchHeads.add(0);
+            searchParents.add(searchCount);
+            searchCount++;
+        }
+
+        final boolean[] finished = new boolean[searchCount];
+        final IntArrayList finishedRoots = new IntArrayList();
+        int largestFinishedSize = 0;
+        int unfinishedGroups = searchCount;
+        visitedVoxels = searchCount;
+        try {
+            while (unfinishedGroups > 1) {
+                for (int search = 0; search < searchCount && unfinishedGroups > 1; search++) {
+                    final LongArrayList voxels = searchVoxels.get(search);
+                    final int head = searchHeads.getInt(search);
+                    if (head == voxels.size() || finished[findSearchRoot(search)]) continue;
+
+                    unfinishedGroups -= visitNextVoxel(body, search);
+                    if (visitedVoxels > maxSearchVoxels) return false;
+
+                    if (head + 1 == voxels.size() && unfinishedGroups > 1) {
+                        final int root = findSearchRoot(search);
+                        if (isGroupExhausted(root, searchCount)) {
+                            // Nothing left to visit, and it never met the other searches
+                            finished[root] = true;
+                            unfinishedGroups--;
+                            finishedRoots.add(root);
+                            largestFinishedSize = Math.max(largestFinishedSize, getGroupSize(root, searchCount));
+                        }
+                    }
+                }
+            }
+
+            // The group that's left hasn't visited all of its piece yet. Keep going until it's larger than every piece
+            // that split off, or it runs out of voxels, so the piece left in the body is always the largest one.
+            int remainingRoot = 0;
+            while (finished[findSearchRoot(remainingRoot)]) remainingRoot++;
+            remainingRoot = findSearchRoot(remainingRoot);
+            int remainingSize = getGroupSize(remainingRoot, searchCount);
+            while (remainingSize <= largestFinishedSize) {
+                boolean visitedAny = false;
+                for (int search = 0; search < searchCount && remainingSize <= largestFinishedSize; search++) {
+                    if (searchHeads.getInt(search) == searchVoxels.get(search).size() || findSearchRoot(search) != remainingRoot) continue;
+                    final int visitedBefore = visitedVoxels;
+                    // The other pieces are finished, so there's nothing left to merge with
+                    visitNextVoxel(body, search);
+                    remainingSize += visitedVoxels - visitedBefore;
+                    visitedAny = true;
+                }
+                if (visitedVoxels > maxSearchVoxels) return false;
+                if (!visitedAny) break;
+            }
+
+            // If the remaining piece ran out first, it's split off instead of the largest finished piece
+            if (remainingSize <= largestFinishedSize) {
+                for (int i = 0; i < finishedRoots.size(); i++) {
+                    if (getGroupSize(finishedRoots.getInt(i), searchCount) == largestFinishedSize) {
+                        finishedRoots.set(i, remainingRoot);
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < finishedRoots.size(); i++) {
+                components.add(createComponent(body, finishedRoots.getInt(i), searchCount));
+            }
+            return true;
+        } finally {
+            for (int search = 0; search < searchCount; search++) {
+                searchVoxels.get(search).clear();
+            }
+            searchHeads.clear();
+        }
+    }
+
+    /**
+     * Visits the neighbors of the next voxel in the queue of [search], merging it with the searches it meets.
+     *
+     * @return The number of groups of searches that were merged away
+     */
+    private int visitNextVoxel(@NotNull BodyConnectivity body, int search) {
+        final LongArrayList voxels = searchVoxels.get(search);
+        final int head = searchHeads.getInt(search);
+        final long pos = voxels.getLong(head);
+        searchHeads.set(search, head + 1);
+        final int x = KrunchVoxelComponent.unpackX(pos);
+        final int y = KrunchVoxelComponent.unpackY(pos);
+        final int z = KrunchVoxelComponent.unpackZ(pos);
+        int merges = 0;
+        for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 3) {
+            final int neighborX = x + NEIGHBOR_OFFSETS[i];
+            final int neighborY = y + NEIGHBOR_OFFSETS[i + 1];
+            final int neighborZ = z + NEIGHBOR_OFFSETS[i + 2];
+            if (!isConnecting(body, neighborX, neighborY, neighborZ)) continue;
+            final long neighbor = KrunchVoxelComponent.pack(neighborX, neighborY, neighborZ);
+            final int other = visited.get(neighbor);
+            if (other == -1) {
+                visited.put(neighbor, search);
+                voxels.add(neighbor);
+                visitedVoxels++;
+            } else {
+                // Finished searches have visited their whole piece, so [other] can't be finished
+                final int root = findSearchRoot(search);
+                final int otherRoot = findSearchRoot(other);
+                if (root != otherRoot) {
+                    searchParents.set(otherRoot, root);
+                    merges++;
+                }
+            }
+        }
+        return merges;
+    }
+
+    private int getGroupSize(int root, int searchCount) {
+        int size = 0;
+        for (int search = 0; search < searchCount; search++) {
+            if (findSearchRoot(search) == root) size += searchVoxels.get(search).size();
+        }
+        return size;
+    }
+
+    private int findSearchRoot(int search) {
+        while (searchParents.getInt(search) != search) {
+            final int parent = searchParents.getInt(search);
+            // Path halving
+            searchParents.set(search, searchParents.getInt(parent));
+            search = parent;
+        }
+        return search;
+    }
+
+    private boolean isGroupExhausted(int root, int searchCount) {
+        for (int search = 0; search < searchCount; search++) {
+            if (searchHeads.getInt(search) != searchVoxels.get(search).size() && findSearchRoot(search) == root) return false;
+        }
+        return true;
+    }
+
+    @NotNull
+    private KrunchVoxelComponent createComponent(@NotNull BodyConnectivity body, int root, int searchCount) {
+        final LongArrayList positions = new LongArrayList();
+        for (int search = 0; search < searchCount; search++) {
+            if (findSearchRoot(search) == root) positions.addAll(searchVoxels.get(search));
+        }
+        return createComponent(body, positions);
+    }
+
+    @NotNull
+    private KrunchVoxelComponent createComponent(@NotNull BodyConnectivity body, @NotNull LongArrayList positions) {
+        final ByteArrayList states = new ByteArrayList(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            final long pos = positions.getLong(i);
+            states.add(getVoxelState(body, KrunchVoxelComponent.unpackX(pos), KrunchVoxelComponent.unpackY(pos),
+                KrunchVoxelComponent.unpackZ(pos)));
+        }
+        return new KrunchVoxelComponent(body.rigidBodyId, positions, states);
+    }
+
+    /**
+     * Flood fills the whole body, and adds every piece but the largest to [components].
+     */
+    private void recomputeAll(@NotNull BodyConnectivity body, @NotNull List<KrunchVoxelComponent> components) {
+        visited.clear();
+        final ObjectArrayList<LongArrayList> pieces = new ObjectArrayList<>();
+        for (final Long2ObjectOpenHashMap.Entry<byte[]> entry : body.sections.long2ObjectEntrySet()) {
+            final long sectionPos = entry.getLongKey();
+            final byte[] section = entry.getValue();
+            final int baseX = KrunchSectionPos.unpackX(sectionPos) << 4;
+            final int baseY = KrunchSectionPos.unpackY(sectionPos) << 4;
+            final int baseZ = KrunchSectionPos.unpackZ(sectionPos) << 4;
+            for (int index = 0; index < 4096; index++) {
+                if (!connectingStates[section[index] & 0xFF]) continue;
+                final long start = KrunchVoxelComponent.pack(baseX + (index & 15), baseY + (index >> 8),
+                    baseZ + ((index >> 4) & 15));
+                if (visited.containsKey(start)) continue;
+
+                // The piece is also the queue of the flood fill
+                final LongArrayList piece = new LongArrayList();
+                visited.put(start, pieces.size());
+                piece.add(start);
+                for (int head = 0; head < piece.size(); head++) {
+                    final long pos = piece.getLong(head);
+                    final int x = KrunchVoxelComponent.unpackX(pos);
+                    final int y = KrunchVoxelComponent.unpackY(pos);
+                    final int z = KrunchVoxelComponent.unpackZ(pos);
+                    for (int i = 0; i < NEIGHBOR_OFFSETS.length; i += 3) {
+                        final int neighborX = x + NEIGHBOR_OFFSETS[i];
+                        final int neighborY = y + NEIGHBOR_OFFSETS[i + 1];
+                        final int neighborZ = z + NEIGHBOR_OFFSETS[i + 2];
+                        if (!isConnecting(body, neighborX, neighborY, neighborZ)) continue;
+                        final long neighbor = KrunchVoxelComponent.pack(neighborX, neighborY, neighborZ);
+                        if (!visited.containsKey(neighbor)) {
+                            visited.put(neighbor, pieces.size());
+                            piece.add(neighbor);
+                        }
+                    }
+                }
+                pieces.add(piece);
+            }
+        }
+
+        int largest = -1;
+        for (int i = 0; i < pieces.size(); i++) {
+            if (largest == -1 || pieces.get(i).size() > pieces.get(largest).size()) largest = i;
+        }
+        for (int i = 0; i < pieces.size(); i++) {
+            if (i != largest) components.add(createComponent(body, pieces.get(i)));
+        }
+    }
+
+    private boolean isConnecting(@NotNull BodyConnectivity body, int x, int y, int z) {
+        return connectingStates[getVoxelState(body, x, y, z) & 0xFF];
+    }
+
+    private static byte getVoxelState(@NotNull BodyConnectivity body, int x, int y, int z) {
+        final byte[] section = body.sections.get(KrunchSectionPos.asLong(x >> 4, y >> 4, z >> 4));
+        if (section == null) return KrunchVoxelStates.AIR_STATE;
+        return section[(x & 15) | ((z & 15) << 4) | ((y & 15) << 8)];
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates update : updates) {
+            final BodyConnectivity body = bodies.get(update.getRigidBodyId());
+            if (body == null) continue;
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                applyUpdate(body, voxelShapeUpdate);
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        // Read in place, so batches queued already encoded, like by KrunchVoxelIngestionPipeline, aren't decoded on the
+        // physics thread
+        encodedCursor.reset(encoded);
+        while (encodedCursor.nextRigidBody()) {
+            final BodyConnectivity body = bodies.get(encodedCursor.getRigidBodyId());
+            if (body == null) continue;
+            while (encodedCursor.nextUpdate()) {
+                applyEncodedUpdate(body, encodedCursor);
+            }
+        }
+    }
+
+    private void applyUpdate(@NotNull BodyConnectivity body, @NotNull IVoxelShapeUpdate update) {
+        final long sectionPos = KrunchSectionPos.asLong(update.getRegionX(), update.getRegionY(), update.getRegionZ());
+        final int baseX = update.getRegionX() << 4;
+        final int baseY = update.getRegionY() << 4;
+        final int baseZ = update.getRegionZ() << 4;
+        byte[] section = body.sections.get(sectionPos);
+
+        if (update instanceof DeleteVoxelShapeUpdate
+            || (update instanceof EmptyVoxelShapeUpdate && ((EmptyVoxelShapeUpdate) update).getOverwriteExistingVoxels())) {
+            if (section != null) {
+                for (int i = 0; i < 4096; i++) {
+                    setVoxel(body, section, i, KrunchVoxelStates.AIR_STATE, baseX, baseY, baseZ);
+                }
+                if (update instanceof DeleteVoxelShapeUpdate) body.sections.remove(sectionPos);
+            }
+            return;
+        }
+
+        if (section == null) {
+            section = newAirSection();
+            body.sections.put(sectionPos, section);
+        }
+        if (update instanceof DenseVoxelShapeUpdate) {
+            final byte[] voxelData = ((DenseVoxelShapeUpdate) update).getVoxelDataRaw();
+            for (int i = 0; i < 4096; i++) {
+                setVoxel(body, section, i, voxelData[i], baseX, baseY, baseZ);
+            }
+        } else if (update instanceof SparseVoxelShapeUpdate) {
+            final SparseVoxelShapeUpdate sparseUpdate = (SparseVoxelShapeUpdate) update;
+            for (int i = 0; i < sparseUpdate.getUpdatesPositions().size(); i++) {
+                setVoxel(body, section, sparseUpdate.getUpdatesPositions().getShort(i) & 0xFFF,
+                    sparseUpdate.getUpdatesTypes().getByte(i), baseX, baseY, baseZ);
+            }
+        }
+    }
+
+    /**
+     * The same as {@link #applyUpdate(BodyConnectivity, IVoxelShapeUpdate)}, for the update the cursor [update] is on.
+     */
+    private void applyEncodedUpdate(@NotNull BodyConnectivity body, @NotNull EncodedVoxelShapeUpdatesCursor update) {
+        final long sectionPos = KrunchSectionPos.asLong(update.getRegionX(), update.getRegionY(), update.getRegionZ());
+        final int baseX = update.getRegionX() << 4;
+        final int baseY = update.getRegionY() << 4;
+        final int baseZ = update.getRegionZ() << 4;
+        final int updateType = update.getUpdateType();
+        byte[] section = body.sections.get(sectionPos);
+
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE
+            || (updateType == VoxelRigidBodyShapeUpdatesEncoder.EMPTY_UPDATE_TYPE && update.getOverwriteExistingVoxels())) {
+            if (section != null) {
+                for (int i = 0; i < 4096; i++) {
+                    setVoxel(body, section, i, KrunchVoxelStates.AIR_STATE, baseX, baseY, baseZ);
+                }
+                if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE) body.sections.remove(sectionPos);
+            }
+            return;
+        }
+
+        if (section == null) {
+            section = newAirSection();
+            body.sections.put(sectionPos, section);
+        }
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE) {
+            for (int i = 0; i < 4096; i++) {
+                setVoxel(body, section, i, update.getDenseVoxelState(i), baseX, baseY, baseZ);
+            }
+        } else if (updateType == VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE) {
+            for (int i = 0; i < update.getSparseUpdateCount(); i++) {
+                setVoxel(body, section, update.getSparseVoxelIndex(i), update.getSparseVoxelState(i), baseX, baseY, baseZ);
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] newAirSection() {
+        final byte[] section = new byte[4096];
+        Arrays.fill(section, KrunchVoxelStates.AIR_STATE);
+        return section;
+    }
+
+    private void setVoxel(@NotNull BodyConnectivity body, @NotNull byte[] section, int index, byte state, int baseX,
+                          int baseY, int baseZ) {
+        final byte oldState = section[index];
+        section[index] = state;
+        if (connectingStates[oldState & 0xFF] && !connectingStates[state & 0xFF]) {
+            // Indices are x | z << 4 | y << 8
+            body.removedVoxels.add(KrunchVoxelComponent.pack(baseX + (index & 15), baseY + (index >> 8),
+                baseZ + ((index >> 4) & 15)));
+            if (!body.dirty) {
+                body.dirty = true;
+                dirtyBodies.add(body);
+            }
+        }
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        untrack(rigidBodyId);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        bodies.clear();
+        dirtyBodies.clear();
+    }
+
+    public boolean isConnectingState(byte voxelState) {
+        return connectingStates[voxelState & 0xFF];
+    }
+
+    /**
+     * Sets whether voxels with [voxelState] hold a body together. By default only solid voxels do. This should be set
+     * up before bodies are tracked.
+     */
+    public void setConnectingState(byte voxelState, boolean connecting) {
+        connectingStates[voxelState & 0xFF] = connecting;
+    }
+
+    public int getMaxSearchVoxels() {
+        return maxSearchVoxels;
+    }
+
+    /**
+     * Sets how many voxels the local searches of a body can visit before the whole body is flood filled instead.
+     */
+    public void setMaxSearchVoxels(int maxSearchVoxels) {
+        this.maxSearchVoxels = maxSearchVoxels;
+    }
+
+    /**
+     * @return The number of times removed voxels were checked with a local search
+     */
+    public long getLocalSearches() {
+        return localSearches;
+    }
+
+    /**
+     * @return The number of local searches that visited too many voxels and fell back to flood filling the body
+     */
+    public long getFullRecomputes() {
+        return fullRecomputes;
+    }
+
+    /**
+     * @return The number of times a body was found to have split
+     */
+    public long getSplits() {
+        return splits;
+    }
+
+    private static final class BodyConnectivity {
+        private final int rigidBodyId;
+        // Our copy of the voxels of the body
+        private final Long2ObjectOpenHashMap<byte[]> sections = new Long2ObjectOpenHashMap<>();
+        // Connecting voxels removed since the last update
+        private final LongOpenHashSet removedVoxels = new LongOpenHashSet();
+        private boolean dirty = false;
+
+        private BodyConnectivity(int rigidBodyId) {
+            this.rigidBodyId = rigidBodyId;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Quaterniond;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+
+import java.util.Arrays;
+
+/**
+ * Ticks a physics world with a fixed time step, no matter how long the frames between calls to
+ * {@link #update(double)} are.
+ *
+ * Frame time is added to an accumulator, and the world is ticked once for every whole time step in it. The transform
+ * of every rigid body before and after the last tick is kept in primitive arrays, so poses can be rendered between
+ * (or extrapolated past) physics ticks without allocating. This lets physics run at a low fixed rate while rendering
+ * stays smooth.
+ *
+ * All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchFixedTimestepDriver implements KrunchPhysicsWorldListener {
+
+    // posX, posY, posZ, rotX, rotY, rotZ, rotW
+    private static final int TRANSFORM_DOUBLES = 7;
+    private static final int NO_SLOT = -1;
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final double fixedTimeStep;
+    private final Vector3d gravity = new Vector3d(0.0, -10.0, 0.0);
+
+    private int maxTicksPerUpdate = 5;
+    private double accumulator = 0.0;
+    private long ticks = 0;
+
+    // Rigid body id to slot in the arrays below
+    private final Int2IntOpenHashMap slotsByRigidBodyId = new Int2IntOpenHashMap();
+    private KrunchNativeRigidBodyReference[] slotBodies = new KrunchNativeRigidBodyReference[16];
+    private double[] previousTransforms = new double[16 * TRANSFORM_DOUBLES];
+    private double[] currentTransforms = new double[16 * TRANSFORM_DOUBLES];
+    private int slotCount = 0;
+
+    public KrunchFixedTimestepDriver(@NotNull PhysicsWorldReference physicsWorldReference, double fixedTimeStep) {
+        if (!(fixedTimeStep > 0.0)) {
+            throw new IllegalArgumentException("Fixed time step must be positive, got " + fixedTimeStep);
+        }
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.fixedTimeStep = fixedTimeStep;
+        this.slotsByRigidBodyId.defaultReturnValue(NO_SLOT);
+        for (int i = 0; i < this.physicsWorldReference.getRigidBodyCount(); i++) {
+            addSlot(this.physicsWorldReference.getRigidBodyAt(i));
+        }
+        this.physicsWorldReference.addListener(this);
+    }
+
+    /**
+     * Stop listening to the physics world.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Adds [frameTime] seconds to the accumulator, and ticks the physics world once for every whole time step in it.
+     * At most {@link #getMaxTicksPerUpdate()} ticks are run, the rest of the accumulated time is dropped so a slow
+     * frame can't make the next frame slower.
+     *
+     * @return The number of ticks run
+     */
+    public int update(double frameTime) {
+        accumulator += frameTime;
+        int ticksRun = 0;
+        while (accumulator >= fixedTimeStep) {
+            if (ticksRun == maxTicksPerUpdate) {
+                accumulator = Math.min(accumulator, fixedTimeStep);
+                break;
+            }
+            tickOnce();
+            accumulator -= fixedTimeStep;
+            ticksRun++;
+        }
+        return ticksRun;
+    }
+
+    private void tickOnce() {
+        physicsWorldReference.tick(gravity, fixedTimeStep, true);
+        ticks++;
+
+        // The current transforms become the previous ones, then read the new current transforms
+        final double[] swap = previousTransforms;
+        previousTransforms = currentTransforms;
+        currentTransforms = swap;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotBodies[slot].isSleeping()) {
+                // Sleeping bodies don't move, skip reading them back
+                System.arraycopy(previousTransforms, slot * TRANSFORM_DOUBLES, currentTransforms, slot * TRANSFORM_DOUBLES, TRANSFORM_DOUBLES);
+            } else {
+                slotBodies[slot].getRigidBodyTransform(currentTransforms, slot * TRANSFORM_DOUBLES);
+            }
+        }
+    }
+
+    /**
+     * Forget the previous transform of a rigid body, so it doesn't appear to slide from its old transform. Call this
+     * after teleporting a rigid body with {@link RigidBodyReference#setRigidBodyTransform}.
+     */
+    public void resetInterpolation(int rigidBodyId) {
+        final int slot = slotsByRigidBodyId.get(rigidBodyId);
+        if (slot == NO_SLOT) return;
+        final int offset = slot * TRANSFORM_DOUBLES;
+        slotBodies[slot].getRigidBodyTransform(currentTransforms, offset);
+        System.arraycopy(currentTransforms, offset, previousTransforms, offset, TRANSFORM_DOUBLES);
+    }
+
+    /**
+     * How far the accumulator is into the next tick, from 0 to 1. Rendering poses at this alpha shows bodies one tick
+     * behind physics, but never shows a predicted pose.
+     */
+    public double getAlpha() {
+        return accumulator / fixedTimeStep;
+    }
+
+    /**
+     * Writes the pose of a rigid body at [alpha] into [positionDest] and [rotationDest] without allocating. An alpha
+     * of 0 is the transform before the last tick and 1 is the transform after it, alpha above 1 extrapolates past the
+     * last tick. Positions are lerped and rotations are slerped.
+     *
+     * @return False if the rigid body isn't in the physics world this drives, in which case the destinations are unchanged
+     */
+    public boolean getPose(int rigidBodyId, double alpha, @NotNull Vector3d positionDest, @NotNull Quaterniond rotationDest) {
+        final int slot = slotsByRigidBodyId.get(rigidBodyId);
+        if (slot == NO_SLOT) return false;
+        final int offset = slot * TRANSFORM_DOUBLES;
+        final double[] from = previousTransforms;
+        final double[] to = currentTransforms;
+
+        positionDest.set(
+            from[offset] + (to[offset] - from[offset]) * alpha,
+            from[offset + 1] + (to[offset + 1] - from[offset + 1]) * alpha,
+            from[offset + 2] + (to[offset + 2] - from[offset + 2]) * alpha
+        );
+
+        final double fromX = from[offset + 3], fromY = from[offset + 4], fromZ = from[offset + 5], fromW = from[offset + 6];
+        double toX = to[offset + 3], toY = to[offset + 4], toZ = to[offset + 5], toW = to[offset + 6];
+        double cosTheta = fromX * toX + fromY * toY + fromZ * toZ + fromW * toW;
+        // Take the shortest path
+        if (cosTheta < 0.0) {
+            cosTheta = -cosTheta;
+            toX = -toX;
+            toY = -toY;
+            toZ = -toZ;
+            toW = -toW;
+        }
+        final double fromScale;
+        final double toScale;
+        if (cosTheta > 0.9995) {
+            // Nearly the same rotation, sin(theta) is too small to divide by so use nlerp
+            fromScale = 1.0 - alpha;
+            toScale = alpha;
+        } else {
+            final double theta = Math.acos(cosTheta);
+            final double invSinTheta = 1.0 / Math.sin(theta);
+            fromScale = Math.sin((1.0 - alpha) * theta) * invSinTheta;
+            toScale = Math.sin(alpha * theta) * invSinTheta;
+        }
+        rotationDest.set(
+            fromX * fromScale + toX * toScale,
+            fromY * fromScale + toY * toScale,
+            fromZ * fromScale + toZ * toScale,
+            fromW * fromScale + toW * toScale
+        ).normalize();
+        return true;
+    }
+
+    /**
+     * Writes the pose of a rigid body at {@link #getAlpha()} into [positionDest] and [rotationDest].
+     */
+    public boolean getInterpolatedPose(int rigidBodyId, @NotNull Vector3d positionDest, @NotNull Quaterniond rotationDest) {
+        return getPose(rigidBodyId, getAlpha(), positionDest, rotationDest);
+    }
+
+    /**
+     * Writes the pose of a rigid body predicted at the current time into [positionDest] and [rotationDest], which
+     * is one tick ahead of {@link #getInterpolatedPose}.
+     */
+    public boolean getExtrapolatedPose(int rigidBodyId, @NotNull Vector3d positionDest, @NotNull Quaterniond rotationDest) {
+        return getPose(rigidBodyId, 1.0 + getAlpha(), positionDest, rotationDest);
+    }
+
+    public double getFixedTimeStep() {
+        return fixedTimeStep;
+    }
+
+    @NotNull
+    public Vector3dc getGravity() {
+        return gravity;
+    }
+
+    public void setGravity(@NotNull Vector3dc gravity) {
+        this.gravity.set(gravity);
+    }
+
+    public int getMaxTicksPerUpdate() {
+        return maxTicksPerUpdate;
+    }
+
+    public void setMaxTicksPerUpdate(int maxTicksPerUpdate) {
+        this.maxTicksPerUpdate = maxTicksPerUpdate;
+    }
+
+    /**
+     * @return The number of ticks run since this driver was created
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    @Override
+    public void onRigidBodyCreated(@NotNull RigidBodyReference rigidBodyReference) {
+        addSlot((KrunchNativeRigidBodyReference) rigidBodyReference);
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        final int slot = slotsByRigidBodyId.remove(rigidBodyId);
+        if (slot == NO_SLOT) return;
+        // Move the last slot into the removed one
+        final int lastSlot = --slotCount;
+        if (slot != lastSlot) {
+            slotBodies[slot] = slotBodies[lastSlot];
+            System.arraycopy(previousTransforms, lastSlot * TRANSFORM_DOUBLES, previousTransforms, slot * TRANSFORM_DOUBLES, TRANSFORM_DOUBLES);
+            System.arraycopy(currentTransforms, lastSlot * TRANSFORM_DOUBLES, currentTransforms, slot * TRANSFORM_DOUBLES, TRANSFORM_DOUBLES);
+            slotsByRigidBodyId.put(slotBodies[slot].getRigidBodyId(), slot);
+        }
+        slotBodies[lastSlot] = null;
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        slotsByRigidBodyId.clear();
+        Arrays.fill(slotBodies, 0, slotCount, null);
+        slotCount = 0;
+    }
+
+    private void addSlot(@NotNull KrunchNativeRigidBodyReference rigidBodyReference) {
+        if (slotCount == slotBodies.length) {
+            slotBodies = Arrays.copyOf(slotBodies, slotCount * 2);
+            previousTransforms = Arrays.copyOf(previousTransforms, slotCount * 2 * TRANSFORM_DOUBLES);
+            currentTransforms = Arrays.copyOf(currentTransforms, slotCount * 2 * TRANSFORM_DOUBLES);
+        }
+        final int slot = slotCount++;
+        slotBodies[slot] = rigidBodyReference;
+        slotsByRigidBodyId.put(rigidBodyReference.getRigidBodyId(), slot);
+        resetInterpolation(rigidBodyReference.getRigidBodyId());
+    }
+}
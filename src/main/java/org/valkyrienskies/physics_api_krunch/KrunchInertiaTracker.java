@@ -0,0 +1,401 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix3d;
+import org.joml.Vector3d;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyInertiaData;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the mass, center of mass and inertia tensor of voxel rigid bodies up to date from the voxel shape updates sent
+ * to them, so a block change costs O(1) instead of a pass over every voxel of the body.
+ *
+ * For every tracked body the tracker keeps the total mass, the first moments and the second moments of its voxels,
+ * adding and subtracting the contribution of each voxel that changes. The moments are taken around the corner of the
+ * first section the body had mass in rather than the voxel origin, since bodies far from the origin, like ships in a
+ * shipyard millions of blocks out, would otherwise lose most of their precision when the parallel axis theorem
+ * subtracts two huge, nearly equal numbers. {@link #flush()} turns those into
+ * {@link RigidBodyInertiaData} and a collision shape offset that puts the center of mass at the body's position, and
+ * should be called once per tick so a body edited many times in a tick only has its inertia data set once.
+ *
+ * Voxels are unit cubes centered on integer voxel coordinates, with a mass per voxel state set by
+ * {@link #setVoxelMass(byte, double)}. The tracker keeps its own copy of the voxels of tracked bodies to know what a
+ * voxel changed from, so bodies should be tracked before their voxels are sent.
+ */
+public class KrunchInertiaTracker implements KrunchPhysicsWorldListener {
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final Int2ObjectOpenHashMap<BodyInertia> bodies = new Int2ObjectOpenHashMap<>();
+    private final EncodedVoxelShapeUpdatesCursor encodedCursor = new EncodedVoxelShapeUpdatesCursor();
+    private final ObjectArrayList<BodyInertia> dirtyBodies = new ObjectArrayList<>();
+    // Mass of a voxel, indexed by its state as an unsigned byte
+    private final double[] voxelMasses = new double[256];
+    private boolean updateCollisionShapeOffsets = true;
+
+    private long voxelChanges = 0;
+    private long inertiaDataUpdates = 0;
+
+    public KrunchInertiaTracker(@NotNull PhysicsWorldReference physicsWorldReference) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.physicsWorldReference.addListener(this);
+        voxelMasses[KrunchVoxelStates.SOLID_STATE & 0xFF] = 1.0;
+    }
+
+    /**
+     * Stop listening to the physics world.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Starts tracking the inertia of [rigidBody], which is treated as having no voxels yet.
+     */
+    public void track(@NotNull RigidBodyReference rigidBody) {
+        if (!bodies.containsKey(rigidBody.getRigidBodyId())) {
+            bodies.put(rigidBody.getRigidBodyId(), new BodyInertia(rigidBody));
+        }
+    }
+
+    public void untrack(int rigidBodyId) {
+        final BodyInertia body = bodies.remove(rigidBodyId);
+        if (body != null && body.dirty) dirtyBodies.remove(body);
+    }
+
+    /**
+     * Sets the inertia data, and the collision shape offset if {@link #getUpdateCollisionShapeOffsets()}, of every body
+     * whose voxels changed since the last flush. Bodies without any mass are left as they are, since they don't have
+     * an inverse mass.
+     */
+    public void flush() {
+        final Vector3d centerOfMass = new Vector3d();
+        for (int i = 0; i < dirtyBodies.size(); i++) {
+            final BodyInertia body = dirtyBodies.get(i);
+            body.dirty = false;
+            final RigidBodyInertiaData inertiaData = computeInertiaData(body);
+            if (inertiaData == null || body.rigidBody.hasBeenDeleted()) continue;
+            body.rigidBody.setInertiaData(inertiaData);
+            if (updateCollisionShapeOffsets) {
+                computeCenterOfMass(body, centerOfMass);
+                body.rigidBody.setCollisionShapeOffset(centerOfMass.negate());
+            }
+            inertiaDataUpdates++;
+        }
+        dirtyBodies.clear();
+    }
+
+    /**
+     * @return The total mass of the voxels of [rigidBodyId], or 0 if it isn't tracked
+     */
+    public double getMass(int rigidBodyId) {
+        final BodyInertia body = bodies.get(rigidBodyId);
+        return body != null ? body.mass : 0.0;
+    }
+
+    /**
+     * Stores the center of mass of [rigidBodyId] in voxel coordinates in [dest].
+     *
+     * @return False if the body isn't tracked or has no mass, in which case [dest] isn't changed
+     */
+    public boolean getCenterOfMass(int rigidBodyId, @NotNull Vector3d dest) {
+        final BodyInertia body = bodies.get(rigidBodyId);
+        if (body == null || body.mass <= 0.0) return false;
+        computeCenterOfMass(body, dest);
+        return true;
+    }
+
+    /**
+     * @return The inertia data of [rigidBodyId] around its center of mass, or null if it isn't tracked or has no mass
+     */
+    @Nullable
+    public RigidBodyInertiaData getInertiaData(int rigidBodyId) {
+        final BodyInertia body = bodies.get(rigidBodyId);
+        return body != null ? computeInertiaData(body) : null;
+    }
+
+    private static void computeCenterOfMass(@NotNull BodyInertia body, @NotNull Vector3d dest) {
+        dest.set(
+            body.originX + body.firstMomentX / body.mass,
+            body.originY + body.firstMomentY / body.mass,
+            body.originZ + body.firstMomentZ / body.mass
+        );
+    }
+
+    @Nullable
+    private static RigidBodyInertiaData computeInertiaData(@NotNull BodyInertia body) {
+        final double mass = body.mass;
+        if (mass <= 0.0) return null;
+        // Relative to the origin of the body, like the moments
+        final double comX = body.firstMomentX / mass;
+        final double comY = body.firstMomentY / mass;
+        final double comZ = body.firstMomentZ / mass;
+
+        // The second moments around the center of mass, by the parallel axis theorem
+        final double xx = body.secondMomentXX - mass * comX * comX;
+        final double yy = body.secondMomentYY - mass * comY * comY;
+        final double zz = body.secondMomentZZ - mass * comZ * comZ;
+        final double xy = body.secondMomentXY - mass * comX * comY;
+        final double xz = body.secondMomentXZ - mass * comX * comZ;
+        final double yz = body.secondMomentYZ - mass * comY * comZ;
+        // Every voxel is a unit cube, which adds mass / 6 around each of its own axes
+        final double cubeInertia = mass / 6.0;
+
+        final Matrix3d invMOI = new Matrix3d(
+            yy + zz + cubeInertia, -xy, -xz,
+            -xy, xx + zz + cubeInertia, -yz,
+            -xz, -yz, xx + yy + cubeInertia
+        ).invert();
+        return new RigidBodyInertiaData(1.0 / mass, invMOI);
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates update : updates) {
+            final BodyInertia body = bodies.get(update.getRigidBodyId());
+            if (body == null) continue;
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                applyUpdate(body, voxelShapeUpdate);
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        // Read in place, so batches queued already encoded, like by KrunchVoxelIngestionPipeline, aren't decoded on the
+        // physics thread
+        encodedCursor.reset(encoded);
+        while (encodedCursor.nextRigidBody()) {
+            final BodyInertia body = bodies.get(encodedCursor.getRigidBodyId());
+            if (body == null) continue;
+            while (encodedCursor.nextUpdate()) {
+                applyEncodedUpdate(body, encodedCursor);
+            }
+        }
+    }
+
+    private void applyUpdate(@NotNull BodyInertia body, @NotNull IVoxelShapeUpdate update) {
+        final long sectionPos = KrunchSectionPos.asLong(update.getRegionX(), update.getRegionY(), update.getRegionZ());
+        final int baseX = update.getRegionX() << 4;
+        final int baseY = update.getRegionY() << 4;
+        final int baseZ = update.getRegionZ() << 4;
+        byte[] section = body.sections.get(sectionPos);
+
+        if (update instanceof DeleteVoxelShapeUpdate
+            || (update instanceof EmptyVoxelShapeUpdate && ((EmptyVoxelShapeUpdate) update).getOverwriteExistingVoxels())) {
+            if (section != null) {
+                for (int i = 0; i < 4096; i++) {
+                    setVoxel(body, section, i, KrunchVoxelStates.AIR_STATE, baseX, baseY, baseZ);
+                }
+                if (update instanceof DeleteVoxelShapeUpdate) body.sections.remove(sectionPos);
+            }
+            return;
+        }
+
+        if (section == null) {
+            section = newAirSection();
+            body.sections.put(sectionPos, section);
+        }
+        if (update instanceof DenseVoxelShapeUpdate) {
+            final byte[] voxelData = ((DenseVoxelShapeUpdate) update).getVoxelDataRaw();
+            for (int i = 0; i < 4096; i++) {
+                setVoxel(body, section, i, voxelData[i], baseX, baseY, baseZ);
+            }
+        } else if (update instanceof SparseVoxelShapeUpdate) {
+            final ShortArrayList positions = ((SparseVoxelShapeUpdate) update).getUpdatesPositions();
+            final ByteArrayList states = ((SparseVoxelShapeUpdate) update).getUpdatesTypes();
+            for (int i = 0; i < positions.size(); i++) {
+                setVoxel(body, section, positions.getShort(i) & 0xFFF, states.getByte(i), baseX, baseY, baseZ);
+            }
+        }
+    }
+
+    /**
+     * The same as {@link #applyUpdate(BodyInertia, IVoxelShapeUpdate)}, for the update the cursor [update] is on.
+     */
+    private void applyEncodedUpdate(@NotNull BodyInertia body, @NotNull EncodedVoxelShapeUpdatesCursor update) {
+        final long sectionPos = KrunchSectionPos.asLong(update.getRegionX(), update.getRegionY(), update.getRegionZ());
+        final int baseX = update.getRegionX() << 4;
+        final int baseY = update.getRegionY() << 4;
+        final int baseZ = update.getRegionZ() << 4;
+        final int updateType = update.getUpdateType();
+        byte[] section = body.sections.get(sectionPos);
+
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE
+            || (updateType == VoxelRigidBodyShapeUpdatesEncoder.EMPTY_UPDATE_TYPE && update.getOverwriteExistingVoxels())) {
+            if (section != null) {
+                for (int i = 0; i < 4096; i++) {
+                    setVoxel(body, section, i, KrunchVoxelStates.AIR_STATE, baseX, baseY, baseZ);
+                }
+                if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE) body.sections.remove(sectionPos);
+            }
+            return;
+        }
+
+        if (section == null) {
+            section = newAirSection();
+            body.sections.put(sectionPos, section);
+        }
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE) {
+            for (int i = 0; i < 4096; i++) {
+                setVoxel(body, section, i, update.getDenseVoxelState(i), baseX, baseY, baseZ);
+            }
+        } else if (updateType == VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE) {
+            for (int i = 0; i < update.getSparseUpdateCount(); i++) {
+                setVoxel(body, section, update.getSparseVoxelIndex(i), update.getSparseVoxelState(i), baseX, baseY, baseZ);
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] newAirSection() {
+        final byte[] section = new byte[4096];
+        Arrays.fill(section, KrunchVoxelStates.AIR_STATE);
+        return section;
+    }
+
+    private void setVoxel(@NotNull BodyInertia body, @NotNull byte[] section, int index, byte state, int baseX, int baseY,
+                          int baseZ) {
+        final byte oldState = section[index];
+        if (oldState == state) return;
+        section[index] = state;
+        final double massChange = voxelMasses[state & 0xFF] - voxelMasses[oldState & 0xFF];
+        if (massChange == 0.0) return;
+        // Indices are x | z << 4 | y << 8
+        addVoxelMass(body, massChange, baseX + (index & 15), baseY + (index >> 8), baseZ + ((index >> 4) & 15));
+        voxelChanges++;
+    }
+
+    private void addVoxelMass(@NotNull BodyInertia body, double mass, int voxelX, int voxelY, int voxelZ) {
+        if (!body.hasOrigin) {
+            body.originX = voxelX & ~15;
+            body.originY = voxelY & ~15;
+            body.originZ = voxelZ & ~15;
+            body.hasOrigin = true;
+        }
+        // Small enough to be exact, however far the body is from the voxel origin
+        final double x = voxelX - body.originX;
+        final double y = voxelY - body.originY;
+        final double z = voxelZ - body.originZ;
+        body.mass += mass;
+        body.firstMomentX += mass * x;
+        body.firstMomentY += mass * y;
+        body.firstMomentZ += mass * z;
+        body.secondMomentXX += mass * x * x;
+        body.secondMomentYY += mass * y * y;
+        body.secondMomentZZ += mass * z * z;
+        body.secondMomentXY += mass * x * y;
+        body.secondMomentXZ += mass * x * z;
+        body.secondMomentYZ += mass * y * z;
+        if (!body.dirty) {
+            body.dirty = true;
+            dirtyBodies.add(body);
+        }
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        untrack(rigidBodyId);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        bodies.clear();
+        dirtyBodies.clear();
+    }
+
+    public double getVoxelMass(byte voxelState) {
+        return voxelMasses[voxelState & 0xFF];
+    }
+
+    /**
+     * Sets the mass of voxels with [voxelState]. By default solid voxels have a mass of 1 and every other state has no
+     * mass. Changing a mass goes over the voxels of every tracked body, so this should be set up before bodies are
+     * tracked.
+     */
+    public void setVoxelMass(byte voxelState, double mass) {
+        final double massChange = mass - voxelMasses[voxelState & 0xFF];
+        voxelMasses[voxelState & 0xFF] = mass;
+        if (massChange == 0.0) return;
+        for (final BodyInertia body : bodies.values()) {
+            for (final Long2ObjectOpenHashMap.Entry<byte[]> entry : body.sections.long2ObjectEntrySet()) {
+                final long sectionPos = entry.getLongKey();
+                final byte[] section = entry.getValue();
+                final int baseX = KrunchSectionPos.unpackX(sectionPos) << 4;
+                final int baseY = KrunchSectionPos.unpackY(sectionPos) << 4;
+                final int baseZ = KrunchSectionPos.unpackZ(sectionPos) << 4;
+                for (int i = 0; i < 4096; i++) {
+                    if (section[i] != voxelState) continue;
+                    addVoxelMass(body, massChange, baseX + (i & 15), baseY + (i >> 8), baseZ + ((i >> 4) & 15));
+                }
+            }
+        }
+    }
+
+    public boolean getUpdateCollisionShapeOffsets() {
+        return updateCollisionShapeOffsets;
+    }
+
+    /**
+     * Sets whether {@link #flush()} also sets the collision shape offset of bodies, to move their center of mass to
+     * their position.
+     */
+    public void setUpdateCollisionShapeOffsets(boolean updateCollisionShapeOffsets) {
+        this.updateCollisionShapeOffsets = updateCollisionShapeOffsets;
+    }
+
+    /**
+     * @return The number of voxel changes that changed the mass of a body
+     */
+    public long getVoxelChanges() {
+        return voxelChanges;
+    }
+
+    /**
+     * @return The number of times {@link #flush()} set the inertia data of a body
+     */
+    public long getInertiaDataUpdates() {
+        return inertiaDataUpdates;
+    }
+
+    private static final class BodyInertia {
+        private final RigidBodyReference rigidBody;
+        // Our copy of the voxels of the body, to know what a voxel changed from
+        private final Long2ObjectOpenHashMap<byte[]> sections = new Long2ObjectOpenHashMap<>();
+        // The moments are around this voxel position, the corner of the first section the body had mass in
+        private boolean hasOrigin = false;
+        private int originX;
+        private int originY;
+        private int originZ;
+        private double mass;
+        private double firstMomentX;
+        private double firstMomentY;
+        private double firstMomentZ;
+        private double secondMomentXX;
+        private double secondMomentYY;
+        private double secondMomentZZ;
+        private double secondMomentXY;
+        private double secondMomentXZ;
+        private double secondMomentYZ;
+        private boolean dirty = false;
+
+        private BodyInertia(@NotNull RigidBodyReference rigidBody) {
+            this.rigidBody = rigidBody;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+/**
+ * Simulates rigid bodies in several physics worlds, and moves rigid bodies between them. The base of
+ * {@link KrunchTieredPhysicsWorld} and {@link KrunchShardedPhysicsWorld}, which decide which physics world each rigid
+ * body belongs in.
+ *
+ * Krunch can't move a rigid body out of the physics world it was created in, so moving a rigid body creates a copy of
+ * it in the new physics world with the same transform, velocity, omega, inertia, material properties and voxels, and
+ * deletes the old one, see {@link KrunchRigidBodyCopier}. The voxels are copied from a {@link KrunchVoxelShapeSnapshots}
+ * kept for every physics world. Rigid bodies are referred to by handles, which stay valid when they move. Rigid bodies
+ * in different physics worlds can't collide with each other, so terrain should be created with
+ * {@link #createSharedVoxelRigidBody}, which creates it in every physics world.
+ *
+ * @param <T> The type of the rigid body handles
+ */
+public abstract class KrunchMultiPhysicsWorld<T extends KrunchMultiWorldRigidBody> {
+
+    protected final KrunchNativePhysicsWorldReference[] physicsWorlds;
+    // The voxels of the rigid bodies of each physics world that aren't shared, copied when they move
+    private final KrunchVoxelShapeSnapshots[] voxelSnapshots;
+
+    // Handles by handle id
+    protected final Int2ObjectOpenHashMap<T> rigidBodies = new Int2ObjectOpenHashMap<>();
+    private int nextHandleId = 0;
+    private boolean hasBeenDeleted = false;
+
+    private long migrations = 0;
+
+    /**
+     * Creates a physics world for each of [settings].
+     */
+    protected KrunchMultiPhysicsWorld(@NotNull KrunchPhysicsWorldSettingsc[] settings) throws OutOfMemoryError {
+        this.physicsWorlds = new KrunchNativePhysicsWorldReference[settings.length];
+        this.voxelSnapshots = new KrunchVoxelShapeSnapshots[settings.length];
+        for (int i = 0; i < physicsWorlds.length; i++) {
+            physicsWorlds[i] = new KrunchNativePhysicsWorldReference();
+            physicsWorlds[i].setSettings(settings[i]);
+            voxelSnapshots[i] = new KrunchVoxelShapeSnapshots();
+            physicsWorlds[i].addListener(voxelSnapshots[i]);
+        }
+    }
+
+    /**
+     * Creates the handle of a new rigid body, which the caller fills in.
+     */
+    @NotNull
+    protected abstract T createHandle(int handleId, boolean shared, int dimension, @NotNull Vector3ic minDefined,
+                                      @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion);
+
+    /**
+     * @return The physics world at [index]. Rigid bodies should be created through this class instead of directly in
+     *         the physics world, otherwise they can't be moved.
+     */
+    @NotNull
+    public PhysicsWorldReference getPhysicsWorld(int index) {
+        return physicsWorlds[index];
+    }
+
+    /**
+     * Creates a voxel rigid body in the physics world at [index].
+     */
+    @NotNull
+    protected T createVoxelRigidBodyIn(int index, int dimension, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                                       @NotNull AABBic totalVoxelRegion) throws OutOfMemoryError, UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        final T rigidBody = createHandle(nextHandleId++, false, dimension, minDefined, maxDefined, totalVoxelRegion);
+        rigidBody.setPhysicsWorldIndex(index);
+        final KrunchNativeRigidBodyReference nativeRigidBody = physicsWorlds[index].createVoxelRigidBody(dimension, minDefined,
+            maxDefined, totalVoxelRegion);
+        voxelSnapshots[index].track(nativeRigidBody.getRigidBodyId());
+        rigidBody.setNativeRigidBody(0, nativeRigidBody);
+        rigidBodies.put(rigidBody.getHandleId(), rigidBody);
+        return rigidBody;
+    }
+
+    /**
+     * Creates a voxel rigid body in every physics world, so rigid bodies collide with it no matter which physics world
+     * they're in. Voxel updates sent through {@link #queueVoxelShapeUpdates} go to every copy; other state, like the
+     * transform, must be set on each copy from {@link KrunchMultiWorldRigidBody#getRigidBody(int)}. Shared rigid bodies
+     * are never moved.
+     */
+    @NotNull
+    public T createSharedVoxelRigidBody(int dimension, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                                        @NotNull AABBic totalVoxelRegion) throws OutOfMemoryError, UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        final T rigidBody = createHandle(nextHandleId++, true, dimension, minDefined, maxDefined, totalVoxelRegion);
+        for (int i = 0; i < physicsWorlds.length; i++) {
+            rigidBody.setNativeRigidBody(i, physicsWorlds[i].createVoxelRigidBody(dimension, minDefined, maxDefined, totalVoxelRegion));
+        }
+        rigidBodies.put(rigidBody.getHandleId(), rigidBody);
+        return rigidBody;
+    }
+
+    /**
+     * @return The rigid body with the handle id [handleId], or null if there is none
+     */
+    @Nullable
+    public T getRigidBody(int handleId) {
+        return rigidBodies.get(handleId);
+    }
+
+    public int getRigidBodyCount() {
+        return rigidBodies.size();
+    }
+
+    public boolean deleteRigidBody(@NotNull T rigidBody) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        if (rigidBodies.remove(rigidBody.getHandleId()) == null) return false;
+        if (rigidBody.isShared()) {
+            for (int i = 0; i < physicsWorlds.length; i++) {
+                physicsWorlds[i].deleteRigidBody(rigidBody.getNativeRigidBody(i).getRigidBodyId());
+            }
+        } else {
+            physicsWorlds[rigidBody.getPhysicsWorldIndex()].deleteRigidBody(rigidBody.getNativeRigidBody(0).getRigidBodyId());
+        }
+        rigidBody.markDeleted();
+        return true;
+    }
+
+    /**
+     * Queues voxel shape updates to the physics world each rigid body is in. The rigid body ids of [updates] must be
+     * handle ids, see {@link KrunchMultiWorldRigidBody#getHandleId()}.
+     */
+    public void queueVoxelShapeUpdates(@NotNull VoxelRigidBodyShapeUpdates[] updates) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        final ObjectArrayList<VoxelRigidBodyShapeUpdates>[] updatesByWorld = newUpdatesByWorld();
+        for (final VoxelRigidBodyShapeUpdates bodyUpdates : updates) {
+            final T rigidBody = rigidBodies.get(bodyUpdates.getRigidBodyId());
+            if (rigidBody == null) {
+                throw new IllegalArgumentException("No rigid body with handle id " + bodyUpdates.getRigidBodyId());
+            }
+            if (rigidBody.isShared()) {
+                for (int i = 0; i < physicsWorlds.length; i++) {
+                    updatesByWorld[i].add(new VoxelRigidBodyShapeUpdates(rigidBody.getNativeRigidBody(i).getRigidBodyId(), bodyUpdates.getShapeUpdates()));
+                }
+            } else {
+                updatesByWorld[rigidBody.getPhysicsWorldIndex()].add(new VoxelRigidBodyShapeUpdates(rigidBody.getNativeRigidBody(0).getRigidBodyId(), bodyUpdates.getShapeUpdates()));
+            }
+        }
+        for (int i = 0; i < physicsWorlds.length; i++) {
+            if (!updatesByWorld[i].isEmpty()) {
+                physicsWorlds[i].queueVoxelShapeUpdates(updatesByWorld[i].toArray(new VoxelRigidBodyShapeUpdates[0]));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObjectArrayList<VoxelRigidBodyShapeUpdates>[] newUpdatesByWorld() {
+        final ObjectArrayList<VoxelRigidBodyShapeUpdates>[] updatesByWorld = new ObjectArrayList[physicsWorlds.length];
+        for (int i = 0; i < physicsWorlds.length; i++) {
+            updatesByWorld[i] = new ObjectArrayList<>();
+        }
+        return updatesByWorld;
+    }
+
+    /**
+     * Moves [rigidBody], which must not be shared, to the physics world at [index], recreating it there with the same
+     * state and voxels. Voxel updates queued to it that haven't been applied by a tick yet are moved with it.
+     */
+    protected void moveRigidBody(@NotNull T rigidBody, int index) throws OutOfMemoryError, UsingDeletedReferenceException {
+        final int oldIndex = rigidBody.getPhysicsWorldIndex();
+        final KrunchNativeRigidBodyReference source = rigidBody.getNativeRigidBody(0);
+        final KrunchNativeRigidBodyReference destination = physicsWorlds[index].createVoxelRigidBody(rigidBody.getDimension(),
+            rigidBody.getMinDefined(), rigidBody.getMaxDefined(), rigidBody.getTotalVoxelRegion());
+        voxelSnapshots[index].track(destination.getRigidBodyId());
+        KrunchRigidBodyCopier.copyRigidBody(source, voxelSnapshots[oldIndex].getSections(source.getRigidBodyId()), destination);
+        physicsWorlds[oldIndex].deleteRigidBody(source.getRigidBodyId());
+
+        rigidBody.setNativeRigidBody(0, destination);
+        rigidBody.setPhysicsWorldIndex(index);
+        migrations++;
+    }
+
+    /**
+     * @return The number of rigid bodies moved to another physics world since this was created
+     */
+    public long getMigrations() {
+        return migrations;
+    }
+
+    public void deletePhysicsWorldResources() {
+        if (hasBeenDeleted) return;
+        hasBeenDeleted = true;
+        for (final KrunchNativePhysicsWorldReference physicsWorld : physicsWorlds) {
+            physicsWorld.deletePhysicsWorldResources();
+        }
+        for (final T rigidBody : rigidBodies.values()) {
+            rigidBody.markDeleted();
+        }
+        rigidBodies.clear();
+    }
+
+    public boolean hasBeenDeleted() {
+        return hasBeenDeleted;
+    }
+
+    protected void ensureResourcesNotDeleted() throws UsingDeletedReferenceException {
+        if (hasBeenDeleted) throw new UsingDeletedReferenceException("The physics world has already been deleted!");
+    }
+}
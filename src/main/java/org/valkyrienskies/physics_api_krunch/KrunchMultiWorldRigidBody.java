@@ -0,0 +1,137 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBi;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+
+/**
+ * A stable handle to a rigid body in a {@link KrunchMultiPhysicsWorld}.
+ *
+ * Moving a rigid body to another physics world recreates it there, which gives it a new rigid body id and a new
+ * {@link RigidBodyReference}. The handle and its {@link #getHandleId()} stay the same, so game code should keep the
+ * handle and get the current reference from {@link #getRigidBody()} when it needs it.
+ */
+public abstract class KrunchMultiWorldRigidBody {
+
+    private final int handleId;
+    private final boolean shared;
+    // The arguments the rigid body was created with, used to recreate it in another physics world
+    private final int dimension;
+    private final Vector3ic minDefined;
+    private final Vector3ic maxDefined;
+    private final AABBic totalVoxelRegion;
+
+    private int physicsWorldIndex;
+    private boolean deleted = false;
+    // Shared rigid bodies have one rigid body per physics world, other rigid bodies only use index 0
+    private final KrunchNativeRigidBodyReference[] rigidBodies;
+
+    protected KrunchMultiWorldRigidBody(int handleId, boolean shared, int physicsWorldCount, int dimension,
+                                        @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                                        @NotNull AABBic totalVoxelRegion) {
+        this.handleId = handleId;
+        this.shared = shared;
+        this.dimension = dimension;
+        this.minDefined = new Vector3i(minDefined);
+        this.maxDefined = new Vector3i(maxDefined);
+        this.totalVoxelRegion = new AABBi(totalVoxelRegion);
+        this.rigidBodies = new KrunchNativeRigidBodyReference[shared ? physicsWorldCount : 1];
+    }
+
+    /**
+     * @return An id that never changes, unlike the rigid body id of {@link #getRigidBody()}
+     */
+    public int getHandleId() {
+        return handleId;
+    }
+
+    /**
+     * @return True if this rigid body exists in every physics world, like terrain
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return The rigid body in its current physics world. For shared rigid bodies this is the one in physics world 0.
+     */
+    @NotNull
+    public RigidBodyReference getRigidBody() throws UsingDeletedReferenceException {
+        ensureNotDeleted();
+        return rigidBodies[0];
+    }
+
+    /**
+     * @return The copy of this shared rigid body in the physics world at [physicsWorldIndex]
+     */
+    @NotNull
+    public RigidBodyReference getRigidBody(int physicsWorldIndex) throws UsingDeletedReferenceException {
+        ensureNotDeleted();
+        if (!shared) {
+            if (physicsWorldIndex != this.physicsWorldIndex) {
+                throw new IllegalArgumentException("Rigid body " + handleId + " is in physics world " + this.physicsWorldIndex
+                    + ", not " + physicsWorldIndex);
+            }
+            return rigidBodies[0];
+        }
+        return rigidBodies[physicsWorldIndex];
+    }
+
+    public boolean hasBeenDeleted() {
+        return deleted || rigidBodies[0].hasBeenDeleted();
+    }
+
+    private void ensureNotDeleted() throws UsingDeletedReferenceException {
+        if (deleted) throw new UsingDeletedReferenceException("The rigid body has been deleted!");
+    }
+
+    /**
+     * @return The index of the physics world this rigid body is simulated in. Shared rigid bodies are always in 0.
+     */
+    protected int getPhysicsWorldIndex() {
+        return physicsWorldIndex;
+    }
+
+    protected void setPhysicsWorldIndex(int physicsWorldIndex) {
+        this.physicsWorldIndex = physicsWorldIndex;
+    }
+
+    protected int getDimension() {
+        return dimension;
+    }
+
+    @NotNull
+    protected Vector3ic getMinDefined() {
+        return minDefined;
+    }
+
+    @NotNull
+    protected Vector3ic getMaxDefined() {
+        return maxDefined;
+    }
+
+    @NotNull
+    protected AABBic getTotalVoxelRegion() {
+        return totalVoxelRegion;
+    }
+
+    /**
+     * @return The rigid body in the current physics world, or for shared rigid bodies the rigid body at [index]
+     */
+    @NotNull
+    protected KrunchNativeRigidBodyReference getNativeRigidBody(int index) {
+        return rigidBodies[index];
+    }
+
+    protected void setNativeRigidBody(int index, @NotNull KrunchNativeRigidBodyReference rigidBody) {
+        rigidBodies[index] = rigidBody;
+    }
+
+    protected void markDeleted() {
+        deleted = true;
+    }
+}
@@ -0,0 +1,135 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frees the native world of a {@link KrunchNativePhysicsWorldReference} that was garbage collected without
+ * {@link KrunchNativePhysicsWorldReference#deletePhysicsWorldResources()} being called, which would otherwise leak its
+ * native memory for the rest of the process, like when a mod reloads or an exception skips the delete.
+ *
+ * This works like {@code java.lang.ref.Cleaner}, which needs Java 9: every world has a phantom reference that only
+ * holds its native pointer, and a daemon thread frees the pointer once the world is collected. Worlds are still meant
+ * to be deleted explicitly, since a collection can take arbitrarily long to happen.
+ *
+ * With leak tracking on, the stack trace of every world's creation is recorded, and printed when the world is freed by
+ * this instead of explicitly. Turn it on with {@link #setLeakTrackingEnabled} or the {@code krunch.trackWorldLeaks}
+ * system property. Recording the stack trace makes creating worlds slower, so it's off by default.
+ */
+final class KrunchNativePhysicsWorldCleaner {
+
+    private static final ReferenceQueue<KrunchNativePhysicsWorldReference> QUEUE = new ReferenceQueue<>();
+    // A phantom reference is only enqueued if it's still reachable itself, so every registered one is kept here until
+    // its world is freed
+    private static final Set<Registration> REGISTRATIONS = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong EXPLICITLY_FREED_COUNT = new AtomicLong();
+    private static final AtomicLong LEAKED_COUNT = new AtomicLong();
+
+    private static volatile boolean leakTrackingEnabled = Boolean.getBoolean("krunch.trackWorldLeaks");
+
+    static {
+        final Thread thread = new Thread(KrunchNativePhysicsWorldCleaner::reclaimLeakedWorlds, "Krunch Physics World Cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private KrunchNativePhysicsWorldCleaner() {
+    }
+
+    /**
+     * Registers [physicsWorld], so its native world at [physicsWorldPointer] is freed when it's collected unless
+     * {@link Registration#onExplicitlyFreed()} is called first.
+     */
+    @NotNull
+    static Registration register(@NotNull final KrunchNativePhysicsWorldReference physicsWorld, final long physicsWorldPointer) {
+        final Throwable allocationSite = leakTrackingEnabled ? new Throwable("Krunch physics world created here") : null;
+        final Registration registration = new Registration(physicsWorld, physicsWorldPointer, allocationSite);
+        REGISTRATIONS.add(registration);
+        return registration;
+    }
+
+    static boolean isLeakTrackingEnabled() {
+        return leakTrackingEnabled;
+    }
+
+    /**
+     * Only affects worlds created after this is called.
+     */
+    static void setLeakTrackingEnabled(final boolean enabled) {
+        leakTrackingEnabled = enabled;
+    }
+
+    /**
+     * @return The number of worlds whose native world hasn't been freed yet
+     */
+    static int getLiveWorldCount() {
+        return REGISTRATIONS.size();
+    }
+
+    /**
+     * @return The number of worlds freed by {@link KrunchNativePhysicsWorldReference#deletePhysicsWorldResources()}
+     */
+    static long getExplicitlyFreedWorldCount() {
+        return EXPLICITLY_FREED_COUNT.get();
+    }
+
+    /**
+     * @return The number of worlds that were collected without being deleted, and freed by this instead
+     */
+    static long getLeakedWorldCount() {
+        return LEAKED_COUNT.get();
+    }
+
+    private static void reclaimLeakedWorlds() {
+        while (true) {
+            final Registration registration;
+            try {
+                registration = (Registration) QUEUE.remove();
+            } catch (final InterruptedException e) {
+                continue;
+            }
+            // Unregistered registrations were freed explicitly, and are cleared so they're never enqueued, but check
+            // anyways so a world is never freed twice
+            if (!REGISTRATIONS.remove(registration)) continue;
+            KrunchNativePhysicsWorldReference.deleteKrunchNativePhysicsWorld(registration.physicsWorldPointer);
+            LEAKED_COUNT.incrementAndGet();
+            if (registration.allocationSite != null) {
+                System.err.println("A Krunch physics world was garbage collected without deletePhysicsWorldResources() being called, freed its native memory");
+                registration.allocationSite.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The phantom reference of one world. Must not reference the world, or it would never be collected.
+     */
+    static final class Registration extends PhantomReference<KrunchNativePhysicsWorldReference> {
+        private final long physicsWorldPointer;
+        @Nullable
+        private final Throwable allocationSite;
+
+        private Registration(@NotNull final KrunchNativePhysicsWorldReference physicsWorld, final long physicsWorldPointer,
+            @Nullable final Throwable allocationSite) {
+            super(physicsWorld, QUEUE);
+            this.physicsWorldPointer = physicsWorldPointer;
+            this.allocationSite = allocationSite;
+        }
+
+        /**
+         * Called after the native world was freed by deleting it, so it isn't freed again when it's collected.
+         */
+        void onExplicitlyFreed() {
+            if (REGISTRATIONS.remove(this)) {
+                clear();
+                EXPLICITLY_FREED_COUNT.incrementAndGet();
+            }
+        }
+    }
+}
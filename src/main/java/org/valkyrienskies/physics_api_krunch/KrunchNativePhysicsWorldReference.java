@@ -1,13 +1,20 @@
 package org.valkyrienskies.physics_api_krunch;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Vector3dc;
 import org.joml.Vector3ic;
 import org.joml.primitives.AABBic;
 import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
 import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
 import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
 /**
  * This class points to a physics world in Krunch Native.
  */
@@ -16,12 +23,42 @@ class KrunchNativePhysicsWorldReference implements PhysicsWorldReference {
     // The null_ptr in C++.
     private static final long DELETED_PHYSICS_WORLD_POINTER = 0;
 
+    private static final KrunchPhysicsWorldListener[] NO_LISTENERS = new KrunchPhysicsWorldListener[0];
+
+    // Whether listeners of a class only override onVoxelShapeUpdatesQueued, so encoded batches are decoded for them
+    private static final ClassValue<Boolean> NEEDS_DECODED_UPDATES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("onEncodedVoxelShapeUpdatesQueued", byte[].class).getDeclaringClass() == KrunchPhysicsWorldListener.class
+                    && type.getMethod("onVoxelShapeUpdatesQueued", VoxelRigidBodyShapeUpdates[].class).getDeclaringClass() != KrunchPhysicsWorldListener.class;
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    // Never set. keepAlive reads it, so the JIT can't remove the read or the use of its argument
+    private static volatile Object keepAliveSink;
+
     private long physicsWorldPointer;
     private boolean hasBeenDeleted;
+    // Frees the native world if this is collected without being deleted
+    private final KrunchNativePhysicsWorldCleaner.Registration cleanerRegistration;
+    // Replaced instead of modified, so listeners can add or remove listeners while being called
+    private KrunchPhysicsWorldListener[] listeners = NO_LISTENERS;
+
+    // The canonical reference of every live rigid body, by rigid body id
+    private final Int2ObjectOpenHashMap<KrunchNativeRigidBodyReference> rigidBodiesById = new Int2ObjectOpenHashMap<>();
+    // The same references packed into an array, so they can be iterated without allocating
+    private KrunchNativeRigidBodyReference[] rigidBodies = new KrunchNativeRigidBodyReference[16];
+    private int rigidBodyCount = 0;
+    private long encodedBatchesDecoded = 0;
 
     protected KrunchNativePhysicsWorldReference() throws OutOfMemoryError {
         this.physicsWorldPointer = createKrunchNativePhysicsWorld();
         this.hasBeenDeleted = false;
+        this.cleanerRegistration = KrunchNativePhysicsWorldCleaner.register(this, physicsWorldPointer);
     }
 
     @NotNull
@@ -29,20 +66,114 @@ class KrunchNativePhysicsWorldReference implements PhysicsWorldReference {
     public KrunchNativeRigidBodyReference createVoxelRigidBody(int dimension, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion) throws OutOfMemoryError, UsingDeletedReferenceException {
         ensureResourcesNotDeleted();
         final int rigidBodyUniqueId = createVoxelRigidBody(physicsWorldPointer, dimension, minDefined.x(), minDefined.y(), minDefined.z(), maxDefined.x(), maxDefined.y(), maxDefined.z(), totalVoxelRegion.minX(), totalVoxelRegion.minY(), totalVoxelRegion.minZ(), totalVoxelRegion.maxX(), totalVoxelRegion.maxY(), totalVoxelRegion.maxZ());
-        return new KrunchNativeRigidBodyReference(this, rigidBodyUniqueId);
+        keepAlive(this);
+        final KrunchNativeRigidBodyReference rigidBodyReference = new KrunchNativeRigidBodyReference(this, rigidBodyUniqueId);
+        registerRigidBody(rigidBodyReference);
+        for (final KrunchPhysicsWorldListener listener : listeners) {
+            listener.onRigidBodyCreated(rigidBodyReference);
+        }
+        return rigidBodyReference;
+    }
+
+    /**
+     * @return The canonical reference to the live rigid body with id [rigidBodyId], or null if there is none
+     */
+    @Nullable
+    public KrunchNativeRigidBodyReference getRigidBody(int rigidBodyId) {
+        return rigidBodiesById.get(rigidBodyId);
+    }
+
+    /**
+     * @return The number of live rigid bodies
+     */
+    public int getRigidBodyCount() {
+        return rigidBodyCount;
+    }
+
+    /**
+     * Gets a live rigid body by index, for iterating over rigid bodies without allocating. Indices go from 0 to
+     * {@link #getRigidBodyCount()} - 1. Deleting a rigid body moves the last rigid body into its index, so iterate
+     * backwards when deleting rigid bodies in the loop.
+     */
+    @NotNull
+    public KrunchNativeRigidBodyReference getRigidBodyAt(int index) {
+        if (index < 0 || index >= rigidBodyCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + rigidBodyCount + " rigid bodies");
+        }
+        return rigidBodies[index];
+    }
+
+    /**
+     * Calls [action] on every live rigid body, without allocating.
+     */
+    public void forEachRigidBody(@NotNull Consumer<? super RigidBodyReference> action) {
+        for (int i = rigidBodyCount - 1; i >= 0; i--) {
+            action.accept(rigidBodies[i]);
+        }
     }
 
     @Override
     public void queueVoxelShapeUpdates(@NotNull VoxelRigidBodyShapeUpdates[] array) throws UsingDeletedReferenceException {
         ensureResourcesNotDeleted();
-        final byte[] encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(array);
+        // Batches of at least DEFAULT_PARALLEL_ENCODE_THRESHOLD_BYTES, like the terrain sent when a world loads or every
+        // section of a large ship, are split by section and encoded on the common pool. This thread waits for them
+        final byte[] encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(array, ForkJoinPool.commonPool());
         queueVoxelShapeUpdates(physicsWorldPointer, encoded);
+        keepAlive(this);
+        for (final KrunchPhysicsWorldListener listener : listeners) {
+            listener.onVoxelShapeUpdatesQueued(array);
+        }
+    }
+
+    /**
+     * Queues voxel shape updates that were already encoded by {@link VoxelRigidBodyShapeUpdatesEncoder}. This lets
+     * callers do the encoding ahead of time, off of the physics thread.
+     */
+    protected void queueEncodedVoxelShapeUpdates(@NotNull byte[] encoded) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        queueVoxelShapeUpdates(physicsWorldPointer, encoded);
+        keepAlive(this);
+        VoxelRigidBodyShapeUpdates[] decoded = null;
+        for (final KrunchPhysicsWorldListener listener : listeners) {
+            if (NEEDS_DECODED_UPDATES.get(listener.getClass())) {
+                if (decoded == null) {
+                    decoded = VoxelRigidBodyShapeUpdatesEncoder.decodeVoxelRigidBodyShapeUpdatesArray(encoded);
+                    encodedBatchesDecoded++;
+                }
+                listener.onVoxelShapeUpdatesQueued(decoded);
+            } else {
+                listener.onEncodedVoxelShapeUpdatesQueued(encoded);
+            }
+        }
+    }
+
+    /**
+     * @return The number of encoded batches decoded for listeners that only take decoded updates
+     */
+    long getEncodedBatchesDecoded() {
+        return encodedBatchesDecoded;
     }
 
     @Override
     public void tick(@NotNull Vector3dc gravity, double timeStep, boolean simulatePhysics) throws UsingDeletedReferenceException {
+        tickWithoutListeners(gravity, timeStep, simulatePhysics);
+        notifyPhysicsWorldTicked();
+    }
+
+    /**
+     * Ticks without calling {@link KrunchPhysicsWorldListener#onPhysicsWorldTicked()}, for worlds ticked on another
+     * thread that call {@link #notifyPhysicsWorldTicked()} from their own thread afterwards.
+     */
+    void tickWithoutListeners(@NotNull Vector3dc gravity, double timeStep, boolean simulatePhysics) throws UsingDeletedReferenceException {
         ensureResourcesNotDeleted();
         tick(physicsWorldPointer, gravity.x(), gravity.y(), gravity.z(), timeStep, simulatePhysics);
+        keepAlive(this);
+    }
+
+    void notifyPhysicsWorldTicked() {
+        for (final KrunchPhysicsWorldListener listener : listeners) {
+            listener.onPhysicsWorldTicked();
+        }
     }
 
     public void setSettings(@NotNull KrunchPhysicsWorldSettingsc settingsWrapper) throws UsingDeletedReferenceException {
@@ -53,21 +184,70 @@ class KrunchNativePhysicsWorldReference implements PhysicsWorldReference {
             settingsWrapper.getSpeculativeContactDistance(), settingsWrapper.getSolverType().getSolverName(),
             settingsWrapper.getMaxCollisionPoints(), settingsWrapper.getMaxCollisionPointDepth(),
             settingsWrapper.getMaxDePenetrationSpeed(), settingsWrapper.getMaxVoxelShapeCollisionPoints());
+        keepAlive(this);
     }
 
     @Override
     public void deletePhysicsWorldResources() {
         if (!hasBeenDeleted) {
             deleteKrunchNativePhysicsWorld(physicsWorldPointer);
+            // Otherwise the cleaner could free the world a second time if this was collected during the delete
+            keepAlive(this);
+            cleanerRegistration.onExplicitlyFreed();
             physicsWorldPointer = DELETED_PHYSICS_WORLD_POINTER;
             hasBeenDeleted = true;
+            for (int i = 0; i < rigidBodyCount; i++) {
+                rigidBodies[i].markDeleted();
+                rigidBodies[i] = null;
+            }
+            rigidBodiesById.clear();
+            rigidBodyCount = 0;
+            for (final KrunchPhysicsWorldListener listener : listeners) {
+                listener.onPhysicsWorldDeleted();
+            }
         }
     }
 
     @Override
     public boolean deleteRigidBody(int rigidBodyId) throws UsingDeletedReferenceException {
         ensureResourcesNotDeleted();
-        return deleteRigidBody(physicsWorldPointer, rigidBodyId);
+        final boolean deleted = deleteRigidBody(physicsWorldPointer, rigidBodyId);
+        keepAlive(this);
+        if (deleted) {
+            unregisterRigidBody(rigidBodyId);
+            for (final KrunchPhysicsWorldListener listener : listeners) {
+                listener.onRigidBodyDeleted(rigidBodyId);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Used by {@link KrunchNativeRigidBodyReference} before it adds a force or torque, or sets the transform, velocity,
+     * omega, inertia or collision shape of a rigid body.
+     */
+    protected void onRigidBodyDisturbed(int rigidBodyId) {
+        for (final KrunchPhysicsWorldListener listener : listeners) {
+            listener.onRigidBodyDisturbed(rigidBodyId);
+        }
+    }
+
+    public void addListener(@NotNull KrunchPhysicsWorldListener listener) {
+        final KrunchPhysicsWorldListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    public void removeListener(@NotNull KrunchPhysicsWorldListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                final KrunchPhysicsWorldListener[] newListeners = new KrunchPhysicsWorldListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                listeners = newListeners;
+                return;
+            }
+        }
     }
 
     @Override
@@ -75,6 +255,27 @@ class KrunchNativePhysicsWorldReference implements PhysicsWorldReference {
         return hasBeenDeleted;
     }
 
+    private void registerRigidBody(@NotNull KrunchNativeRigidBodyReference rigidBodyReference) {
+        if (rigidBodyCount == rigidBodies.length) {
+            rigidBodies = Arrays.copyOf(rigidBodies, rigidBodies.length * 2);
+        }
+        rigidBodyReference.setRegistryIndex(rigidBodyCount);
+        rigidBodies[rigidBodyCount++] = rigidBodyReference;
+        rigidBodiesById.put(rigidBodyReference.getRigidBodyId(), rigidBodyReference);
+    }
+
+    private void unregisterRigidBody(int rigidBodyId) {
+        final KrunchNativeRigidBodyReference removed = rigidBodiesById.remove(rigidBodyId);
+        if (removed == null) return;
+        removed.markDeleted();
+        // Move the last rigid body into the removed one's index
+        final int index = removed.getRegistryIndex();
+        final KrunchNativeRigidBodyReference last = rigidBodies[--rigidBodyCount];
+        rigidBodies[index] = last;
+        last.setRegistryIndex(index);
+        rigidBodies[rigidBodyCount] = null;
+    }
+
     private void ensureResourcesNotDeleted() throws UsingDeletedReferenceException {
         if (hasBeenDeleted())
             throw new UsingDeletedReferenceException("The underlying physics world has already been deleted!");
@@ -87,10 +288,26 @@ class KrunchNativePhysicsWorldReference implements PhysicsWorldReference {
         return physicsWorldPointer;
     }
 
+    /**
+     * Keeps [physicsWorld] reachable until this is called, which must be after every native call that uses its
+     * pointer. Once the pointer has been read the JIT may consider the world unreachable, even in the middle of the
+     * native call, and {@link KrunchNativePhysicsWorldCleaner} would then free the native world while it's being used.
+     * Java 9 has {@code Reference.reachabilityFence} for this, but we target Java 8, and an empty method would be
+     * inlined away, so this compares against a volatile field instead.
+     */
+    static void keepAlive(@NotNull KrunchNativePhysicsWorldReference physicsWorld) {
+        if (keepAliveSink == physicsWorld) {
+            throw new IllegalStateException();
+        }
+    }
+
     // region Native Functions
     private static native long createKrunchNativePhysicsWorld() throws OutOfMemoryError;
 
-    private static native void deleteKrunchNativePhysicsWorld(long physicsWorldPointer);
+    /**
+     * Used by {@link KrunchNativePhysicsWorldCleaner}.
+     */
+    static native void deleteKrunchNativePhysicsWorld(long physicsWorldPointer);
 
     private static native int createVoxelRigidBody(long physicsWorldPointer, int dimension, int minDefinedX, int minDefinedY, int minDefinedZ, int maxDefinedX, int maxDefinedY, int maxDefinedZ, int totalVoxelRegionMinX, int totalVoxelRegionMinY, int totalVoxelRegionMinZ, int totalVoxelRegionMaxX, int totalVoxelRegionMaxY, int totalVoxelRegionMaxZ) throws OutOfMemoryError;
 
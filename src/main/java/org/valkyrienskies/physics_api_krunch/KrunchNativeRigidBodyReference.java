@@ -14,6 +14,8 @@ import org.valkyrienskies.physics_api.RigidBodyReference;
 import org.valkyrienskies.physics_api.RigidBodyTransform;
 import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,6 +24,9 @@ import java.util.List;
  *
  * Note this class doesn't store a direct pointer to the rigid body; instead it stores a pointer to the physics world
  * the rigid body exists in; as well as the unique id belonging to the rigid body it points to.
+ *
+ * Every native call is followed by {@link KrunchNativePhysicsWorldReference#keepAlive}, so the physics world can't be
+ * freed by its cleaner while the call is using it.
  */
 class KrunchNativeRigidBodyReference implements RigidBodyReference {
 
@@ -35,6 +40,11 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
     // The index of the rigid body in the rigid body vector of the physics world.
     // This index can change because the physics world is allowed to change where rigid bodies are stored.
     private int cachedRigidBodyIndex;
+    // The index of this reference in the rigid body array of [physicsWorldReference]
+    private int registryIndex;
+    // Reused by [getRigidBodyTransform(double[], int)], so reading the transform every tick doesn't allocate
+    private ByteBuffer transformBuffer;
+    private boolean sleeping = false;
 
     public static final int VOXEL_STATE_RIGID_BODY_NOT_VOXEL = -1;
     public static final int VOXEL_STATE_UNLOADED = -2;
@@ -54,74 +64,105 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
     @Override
     public double getDynamicFrictionCoefficient() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getDynamicFrictionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getDynamicFrictionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setDynamicFrictionCoefficient(double coefficient) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         setDynamicFrictionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, coefficient);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public boolean isStatic() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getIsStatic(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getIsStatic(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setStatic(boolean isStatic) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         setStatic(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, isStatic);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public double getRestitutionCoefficient() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getRestitutionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getRestitutionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setRestitutionCoefficient(double coefficient) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         setRestitutionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, coefficient);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public double getStaticFrictionCoefficient() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getStaticFrictionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getStaticFrictionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setStaticFrictionCoefficient(double coefficient) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         setStaticFrictionCoefficient(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, coefficient);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @NotNull
     @Override
     public Vector3dc getCollisionShapeOffset() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getCollisionShapeOffset(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getCollisionShapeOffset(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setCollisionShapeOffset(@NotNull Vector3dc offset) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        physicsWorldReference.onRigidBodyDisturbed(rigidBodyUniqueId);
         setCollisionShapeOffset(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, offset.x(), offset.y(), offset.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public boolean isVoxelTerrainFullyLoaded() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getIsVoxelTerrainFullyLoaded(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getIsVoxelTerrainFullyLoaded(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setVoxelTerrainFullyLoaded(boolean isVoxelTerrainFullyLoaded) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         setIsVoxelTerrainFullyLoaded(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, isVoxelTerrainFullyLoaded);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @NotNull
@@ -130,14 +171,17 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         final byte[] encoded = new byte[RigidBodyInertiaDataEncoder.RIGID_BODY_INERTIA_DATA_BYTES_SIZE];
         getInertiaData(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, encoded);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         return RigidBodyInertiaDataEncoder.decodeRigidBodyInertiaData(encoded);
     }
 
     @Override
     public void setInertiaData(@NotNull RigidBodyInertiaData rigidBodyInertiaData) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        physicsWorldReference.onRigidBodyDisturbed(rigidBodyUniqueId);
         final byte[] encoded = RigidBodyInertiaDataEncoder.encodeRigidBodyInertiaData(rigidBodyInertiaData);
         setInertiaData(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, encoded);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @NotNull
@@ -146,26 +190,50 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         final byte[] encoded = new byte[RigidBodyTransformEncoder.RIGID_BODY_TRANSFORM_BYTES_SIZE];
         getRigidBodyTransform(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, encoded);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         return RigidBodyTransformEncoder.decodeRigidBodyTransform(encoded);
     }
 
+    /**
+     * Writes the transform of this rigid body into [output] starting at [offset], as posX, posY, posZ, rotX, rotY,
+     * rotZ, rotW. Unlike {@link #getRigidBodyTransform()} this doesn't allocate.
+     */
+    protected void getRigidBodyTransform(@NotNull double[] output, int offset) throws UsingDeletedReferenceException {
+        updateCachedIndexAndEnsureReferenceNotDeleted();
+        if (transformBuffer == null) {
+            transformBuffer = ByteBuffer.allocate(RigidBodyTransformEncoder.RIGID_BODY_TRANSFORM_BYTES_SIZE);
+            transformBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        getRigidBodyTransform(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, transformBuffer.array());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        RigidBodyTransformEncoder.decodeRigidBodyTransform(transformBuffer, output, offset);
+    }
+
     @Override
     public void setRigidBodyTransform(@NotNull RigidBodyTransform rigidBodyTransform) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        physicsWorldReference.onRigidBodyDisturbed(rigidBodyUniqueId);
         final byte[] encoded = RigidBodyTransformEncoder.encodeRigidBodyTransform(rigidBodyTransform);
         setRigidBodyTransform(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, encoded);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public double getCollisionShapeScaling() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getCollisionShapeScaling(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getCollisionShapeScaling(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setCollisionShapeScaling(double scaling) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        physicsWorldReference.onRigidBodyDisturbed(rigidBodyUniqueId);
         setCollisionShapeScaling(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, scaling);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     private void updateCachedIndexAndEnsureReferenceNotDeleted() throws UsingDeletedReferenceException {
@@ -178,6 +246,52 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         return getCachedHasBeenDeleted();
     }
 
+    /**
+     * Used by {@link KrunchNativePhysicsWorldReference} once the rigid body or its physics world has been deleted.
+     */
+    protected void markDeleted() {
+        cachedRigidBodyIndex = DELETED_CACHED_RIGID_BODY_INDEX_IN_PHYSICS_WORLD;
+    }
+
+    private void disturbIfNonZero(@NotNull Vector3dc vector) {
+        if (vector.x() != 0.0 || vector.y() != 0.0 || vector.z() != 0.0) {
+            physicsWorldReference.onRigidBodyDisturbed(rigidBodyUniqueId);
+        }
+    }
+
+    /**
+     * True while {@link KrunchSleepManager} has put this rigid body to sleep. Code that reads back the state of rigid
+     * bodies every tick can skip sleeping ones, since they don't move.
+     */
+    protected boolean isSleeping() {
+        return sleeping;
+    }
+
+    protected void setSleeping(boolean sleeping) {
+        this.sleeping = sleeping;
+    }
+
+    protected int getRegistryIndex() {
+        return registryIndex;
+    }
+
+    protected void setRegistryIndex(int registryIndex) {
+        this.registryIndex = registryIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KrunchNativeRigidBodyReference)) return false;
+        final KrunchNativeRigidBodyReference other = (KrunchNativeRigidBodyReference) o;
+        return rigidBodyUniqueId == other.rigidBodyUniqueId && physicsWorldReference == other.physicsWorldReference;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(physicsWorldReference) + rigidBodyUniqueId;
+    }
+
     private void updateCachedIndex() {
         if (getCachedHasBeenDeleted()) return;
 
@@ -188,6 +302,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         } else {
             // Update the cached rigid body index
             cachedRigidBodyIndex = getCachedRigidBodyIndex(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         }
     }
 
@@ -208,56 +323,78 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
     @Override
     public Vector3dc getVelocity() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getVelocity(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getVelocity(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setVelocity(@NotNull Vector3dc velocity) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(velocity);
         setVelocity(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, velocity.x(), velocity.y(), velocity.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @NotNull
     @Override
     public Vector3dc getOmega() throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getOmega(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getOmega(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     @Override
     public void setOmega(@NotNull Vector3dc omega) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(omega);
         setOmega(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, omega.x(), omega.y(), omega.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public void addInvariantForceAtPosToNextPhysTick(@NotNull Vector3dc forcePosInLocal, @NotNull Vector3dc invariantForce) {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(invariantForce);
         addInvariantForceAtPosToNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, forcePosInLocal.x(), forcePosInLocal.y(), forcePosInLocal.z(), invariantForce.x(), invariantForce.y(), invariantForce.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public void addInvariantForceToNextPhysTick(@NotNull Vector3dc invariantForce) {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(invariantForce);
         addInvariantForceToNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, invariantForce.x(), invariantForce.y(), invariantForce.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public void addInvariantTorqueToNextPhysTick(@NotNull Vector3dc invariantTorque) {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(invariantTorque);
         addInvariantTorqueToNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, invariantTorque.x(), invariantTorque.y(), invariantTorque.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public void addRotDependentForceToNextPhysTick(@NotNull Vector3dc rotDepForce) {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(rotDepForce);
         addRotDependentForceToNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, rotDepForce.x(), rotDepForce.y(), rotDepForce.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
     public void addRotDependentTorqueToNextPhysTick(@NotNull Vector3dc rotDepTorque) {
         updateCachedIndexAndEnsureReferenceNotDeleted();
+        disturbIfNonZero(rotDepTorque);
         addRotDependentTorqueToNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, rotDepTorque.x(), rotDepTorque.y(), rotDepTorque.z());
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
     }
 
     @Override
@@ -265,6 +402,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         final double[] output = new double[6];
         boolean success = getAABB(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         if (!success) return false;
         outputBB.minX = output[0];
         outputBB.minY = output[1];
@@ -275,11 +413,27 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         return true;
     }
 
+    /**
+     * Writes the AABB of this rigid body into the first 6 elements of [output], as minX, minY, minZ, maxX, maxY, maxZ.
+     * Unlike {@link #getAABB(AABBd)} this doesn't allocate.
+     *
+     * @return False if the rigid body has no voxels, in which case [output] is left unspecified
+     */
+    protected boolean getAABB(@NotNull double[] output) throws UsingDeletedReferenceException {
+        updateCachedIndexAndEnsureReferenceNotDeleted();
+        try {
+            return getAABB(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
+    }
+
     @Override
     public boolean getVoxelShapeAABB(@NotNull AABBi outputBB) {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         final int[] output = new int[6];
         boolean success = getVoxelShapeAABB(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         if (!success) return false;
         outputBB.minX = output[0];
         outputBB.minY = output[1];
@@ -294,6 +448,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         double[] output = new double[3];
         getTotalInvariantForcesNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         return new Vector3d(output[0], output[1], output[2]);
     }
 
@@ -301,6 +456,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         double[] output = new double[3];
         getTotalInvariantTorquesNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         return new Vector3d(output[0], output[1], output[2]);
     }
 
@@ -308,6 +464,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         double[] output = new double[3];
         getTotalRotDependentForcesNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         return new Vector3d(output[0], output[1], output[2]);
     }
 
@@ -315,6 +472,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         updateCachedIndexAndEnsureReferenceNotDeleted();
         double[] output = new double[3];
         getTotalRotDependentTorquesNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         return new Vector3d(output[0], output[1], output[2]);
     }
 
@@ -323,6 +481,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         int invariantForcesCount = getInvariantForcesAtPosNextPhysTickCount(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
         double[] output = new double[invariantForcesCount * 6];
         getInvariantForcesAtPosNextPhysTick(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, output);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         List<Pair<Vector3dc, Vector3dc>> toReturn = new ArrayList<>();
 
         for (int i = 0; i < invariantForcesCount; i++) {
@@ -342,7 +501,11 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
      */
     protected int getVoxelState(int posX, int posY, int posZ) throws UsingDeletedReferenceException {
         updateCachedIndexAndEnsureReferenceNotDeleted();
-        return getVoxelState(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, posX, posY, posZ);
+        try {
+            return getVoxelState(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, posX, posY, posZ);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     protected List<Vector3ic> getSolidSetVoxels() throws UsingDeletedReferenceException {
@@ -350,6 +513,7 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
         final int voxelsSize = getSolidSetVoxelsSize(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
         final int[] setVoxels = new int[voxelsSize * 3];
         getSolidSetVoxels(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex, setVoxels);
+        KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
         final List<Vector3ic> toReturn = new ArrayList<>(voxelsSize);
         for (int i = 0; i < voxelsSize; i++) {
             toReturn.add(new Vector3i(setVoxels[i * 3], setVoxels[(i * 3) + 1], setVoxels[(i * 3) + 2]));
@@ -358,7 +522,11 @@ class KrunchNativeRigidBodyReference implements RigidBodyReference {
     }
 
     protected boolean isStaticUnsafe() throws IllegalArgumentException {
-        return getIsStatic(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        try {
+            return getIsStatic(physicsWorldReference.getPhysicsWorldPointer(), rigidBodyUniqueId, cachedRigidBodyIndex);
+        } finally {
+            KrunchNativePhysicsWorldReference.keepAlive(physicsWorldReference);
+        }
     }
 
     // region Native Functions
@@ -0,0 +1,38 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A 16x16x16 chunk section stored the way games store it: a palette of block states, and the palette index of every
+ * block bit-packed into longs.
+ *
+ * Indices are packed [bitsPerEntry] bits at a time starting from the lowest bits of each long, and an index never
+ * spans two longs, so every long holds 64 / bitsPerEntry indices. Blocks are ordered by x, then z, then y, which
+ * matches the voxel order of {@code DenseVoxelShapeUpdate}. A [bitsPerEntry] of 0 means every block is palette
+ * entry 0, and [data] is ignored.
+ *
+ * Sections using a global palette can pass the whole block state registry as [palette], the translation of it is cached
+ * by {@link KrunchChunkSectionConverter} like any other palette.
+ */
+public final class KrunchPalettedSection<T> {
+    public final int regionX;
+    public final int regionY;
+    public final int regionZ;
+    @NotNull
+    public final T[] palette;
+    public final int paletteSize;
+    @NotNull
+    public final long[] data;
+    public final int bitsPerEntry;
+
+    public KrunchPalettedSection(int regionX, int regionY, int regionZ, @NotNull T[] palette, int paletteSize,
+                                 @NotNull long[] data, int bitsPerEntry) {
+        this.regionX = regionX;
+        this.regionY = regionY;
+        this.regionZ = regionZ;
+        this.palette = palette;
+        this.paletteSize = paletteSize;
+        this.data = data;
+        this.bitsPerEntry = bitsPerEntry;
+    }
+}
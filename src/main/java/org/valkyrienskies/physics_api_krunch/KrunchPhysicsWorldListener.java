@@ -0,0 +1,47 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+/**
+ * Receives events from a {@link KrunchNativePhysicsWorldReference}. Listeners are called on the thread that made the
+ * call to the physics world. {@link KrunchShardedPhysicsWorld} ticks its shards on an executor, but calls
+ * {@link #onPhysicsWorldTicked()} of every shard on the thread that ticked it, so listeners don't need to be thread safe.
+ */
+public interface KrunchPhysicsWorldListener {
+
+    default void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+    }
+
+    /**
+     * Called when voxel shape updates that were already encoded by {@link VoxelRigidBodyShapeUpdatesEncoder} are
+     * queued. Listeners that need the voxels should read them in place with an {@link EncodedVoxelShapeUpdatesCursor}.
+     * Listeners that only override {@link #onVoxelShapeUpdatesQueued(VoxelRigidBodyShapeUpdates[])} get the updates
+     * decoded instead, which the physics world does once per batch for all of them, and only if there are any.
+     */
+    default void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+    }
+
+    /**
+     * Called after the physics world has finished a tick, so listeners can read back the new state of its bodies.
+     */
+    default void onPhysicsWorldTicked() {
+    }
+
+    default void onRigidBodyCreated(@NotNull RigidBodyReference rigidBodyReference) {
+    }
+
+    /**
+     * Called before a non-zero force, torque, velocity or omega is applied to a rigid body, and before its transform,
+     * inertia or collision shape is set.
+     */
+    default void onRigidBodyDisturbed(int rigidBodyId) {
+    }
+
+    default void onRigidBodyDeleted(int rigidBodyId) {
+    }
+
+    default void onPhysicsWorldDeleted() {
+    }
+}
@@ -0,0 +1,296 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3dc;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+
+/**
+ * Adjusts {@link KrunchPhysicsWorldSettingsc#getSubSteps()}, {@link KrunchPhysicsWorldSettingsc#getIterations()} and
+ * {@link KrunchPhysicsWorldSettingsc#getMaxVoxelShapeCollisionPoints()} so that ticks stay within a time budget.
+ *
+ * Quality is a level from 0 to {@link #getQualityLevels()}, each setting is interpolated between its minimum at level 0
+ * and its maximum at the top level. The governor starts at the top level, with the settings it was created with as the
+ * maximums, so it only ever lowers quality below what the caller asked for. The governor keeps a smoothed tick time; when it stays above the budget for
+ * {@link #getDowngradeAfterTicks()} ticks the level goes down, and when it stays below
+ * {@link #getUpgradeThreshold()} of the budget for {@link #getUpgradeAfterTicks()} ticks the level goes up. Between
+ * the two thresholds nothing changes, which keeps the level from oscillating. Settings are only sent to Krunch when
+ * one of the values changes.
+ *
+ * All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchQualityGovernor {
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    // The settings sent to Krunch, only the governed values are changed
+    private final KrunchPhysicsWorldSettings settings;
+
+    private int minSubSteps;
+    private int maxSubSteps;
+    private int minIterations;
+    private int maxIterations;
+    private int minMaxVoxelShapeCollisionPoints;
+    private int maxMaxVoxelShapeCollisionPoints;
+    private int qualityLevels = 8;
+
+    private long tickBudgetNanos = 10_000_000L;
+    private double upgradeThreshold = 0.6;
+    private int downgradeAfterTicks = 5;
+    private int upgradeAfterTicks = 100;
+    private double smoothingFactor = 0.1;
+
+    private int qualityLevel;
+    private double smoothedTickTimeNanos = -1.0;
+    private long lastTickTimeNanos = 0;
+    private int ticksOverBudget = 0;
+    private int ticksUnderThreshold = 0;
+
+    private long downgrades = 0;
+    private long upgrades = 0;
+    private long settingsApplied = 0;
+
+    /**
+     * @param initialSettings The settings applied at the top quality level, which the governor starts at. The minimums
+     *                        default to 8 sub-steps, the fewest iterations the solver works well with, and 16 voxel
+     *                        shape collision points, or the values of this if they're lower.
+     */
+    public KrunchQualityGovernor(@NotNull PhysicsWorldReference physicsWorldReference,
+                                 @NotNull KrunchPhysicsWorldSettingsc initialSettings) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.settings = new KrunchPhysicsWorldSettings(
+            initialSettings.getSubSteps(), initialSettings.getIterations(), initialSettings.getSolverIterationWeight(),
+            initialSettings.getCollisionCompliance(), initialSettings.getCollisionRestitutionCompliance(),
+            initialSettings.getDynamicFrictionCompliance(), initialSettings.getSpeculativeContactDistance(),
+            initialSettings.getSolverType(), initialSettings.getMaxCollisionPoints(),
+            initialSettings.getMaxCollisionPointDepth(), initialSettings.getMaxDePenetrationSpeed(),
+            initialSettings.getMaxVoxelShapeCollisionPoints()
+        );
+        this.maxSubSteps = initialSettings.getSubSteps();
+        this.maxIterations = initialSettings.getIterations();
+        this.maxMaxVoxelShapeCollisionPoints = initialSettings.getMaxVoxelShapeCollisionPoints();
+        this.minSubSteps = Math.min(8, maxSubSteps);
+        this.minIterations = Math.min(getSolverMinIterations(initialSettings.getSolverType()), maxIterations);
+        this.minMaxVoxelShapeCollisionPoints = Math.min(16, maxMaxVoxelShapeCollisionPoints);
+        this.qualityLevel = qualityLevels;
+        applyQualityLevel();
+    }
+
+    /**
+     * Ticks the physics world and records how long it took.
+     */
+    public void tick(@NotNull Vector3dc gravity, double timeStep, boolean simulatePhysics) {
+        final long start = System.nanoTime();
+        physicsWorldReference.tick(gravity, timeStep, simulatePhysics);
+        recordTickTime(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the wall time of a tick that was run elsewhere, for example by {@link KrunchFixedTimestepDriver}, and
+     * changes the quality level if needed.
+     */
+    public void recordTickTime(long tickTimeNanos) {
+        lastTickTimeNanos = tickTimeNanos;
+        if (smoothedTickTimeNanos < 0.0) {
+            smoothedTickTimeNanos = tickTimeNanos;
+        } else {
+            smoothedTickTimeNanos += (tickTimeNanos - smoothedTickTimeNanos) * smoothingFactor;
+        }
+
+        if (smoothedTickTimeNanos > tickBudgetNanos) {
+            ticksUnderThreshold = 0;
+            if (++ticksOverBudget >= downgradeAfterTicks && qualityLevel > 0) {
+                qualityLevel--;
+                downgrades++;
+                onQualityLevelChanged();
+            }
+        } else if (smoothedTickTimeNanos < tickBudgetNanos * upgradeThreshold) {
+            ticksOverBudget = 0;
+            if (++ticksUnderThreshold >= upgradeAfterTicks && qualityLevel < qualityLevels) {
+                qualityLevel++;
+                upgrades++;
+                onQualityLevelChanged();
+            }
+        } else {
+            ticksOverBudget = 0;
+            ticksUnderThreshold = 0;
+        }
+    }
+
+    private void onQualityLevelChanged() {
+        ticksOverBudget = 0;
+        ticksUnderThreshold = 0;
+        // The smoothed time was measured with the old settings
+        smoothedTickTimeNanos = -1.0;
+        applyQualityLevel();
+    }
+
+    private void applyQualityLevel() {
+        final int subSteps = interpolate(minSubSteps, maxSubSteps, qualityLevel);
+        final int iterations = interpolate(minIterations, maxIterations, qualityLevel);
+        final int maxVoxelShapeCollisionPoints = interpolate(minMaxVoxelShapeCollisionPoints, maxMaxVoxelShapeCollisionPoints, qualityLevel);
+        if (settingsApplied != 0 && subSteps == settings.getSubSteps() && iterations == settings.getIterations()
+            && maxVoxelShapeCollisionPoints == settings.getMaxVoxelShapeCollisionPoints()) {
+            return;
+        }
+        settings.setSubSteps(subSteps);
+        settings.setIterations(iterations);
+        settings.setMaxVoxelShapeCollisionPoints(maxVoxelShapeCollisionPoints);
+        physicsWorldReference.setSettings(settings);
+        settingsApplied++;
+    }
+
+    private int interpolate(int min, int max, int level) {
+        return min + (int) Math.round((max - min) * (double) level / qualityLevels);
+    }
+
+    private int closestLevelForSubSteps(int subSteps) {
+        int closestLevel = 0;
+        for (int level = 1; level <= qualityLevels; level++) {
+            if (Math.abs(interpolate(minSubSteps, maxSubSteps, level) - subSteps)
+                < Math.abs(interpolate(minSubSteps, maxSubSteps, closestLevel) - subSteps)) {
+                closestLevel = level;
+            }
+        }
+        return closestLevel;
+    }
+
+    /**
+     * @return The fewest iterations [solverType] works well with, from the ranges in
+     *         {@link KrunchPhysicsWorldSettingsc#getIterations()}
+     */
+    private static int getSolverMinIterations(@NotNull SolverType solverType) {
+        return solverType == SolverType.JACOBI ? 2 : 1;
+    }
+
+    /**
+     * Sets the range of each governed setting. [minIterations] and [maxIterations] are raised to the fewest iterations
+     * the solver works well with. The quality level is moved to the one with the closest number of sub-steps to the
+     * current settings.
+     */
+    public void setBounds(int minSubSteps, int maxSubSteps, int minIterations, int maxIterations,
+                          int minMaxVoxelShapeCollisionPoints, int maxMaxVoxelShapeCollisionPoints) {
+        if (minSubSteps < 1 || minSubSteps > maxSubSteps || minIterations < 1 || minIterations > maxIterations
+            || minMaxVoxelShapeCollisionPoints < 1 || minMaxVoxelShapeCollisionPoints > maxMaxVoxelShapeCollisionPoints) {
+            throw new IllegalArgumentException("Invalid bounds");
+        }
+        this.minSubSteps = minSubSteps;
+        this.maxSubSteps = maxSubSteps;
+        this.minIterations = Math.max(minIterations, getSolverMinIterations(settings.getSolverType()));
+        this.maxIterations = Math.max(maxIterations, this.minIterations);
+        this.minMaxVoxelShapeCollisionPoints = minMaxVoxelShapeCollisionPoints;
+        this.maxMaxVoxelShapeCollisionPoints = maxMaxVoxelShapeCollisionPoints;
+        this.qualityLevel = closestLevelForSubSteps(settings.getSubSteps());
+        applyQualityLevel();
+    }
+
+    /**
+     * Forces the quality level, for example to start at the lowest level when a lot of bodies are about to be loaded.
+     */
+    public void setQualityLevel(int qualityLevel) {
+        if (qualityLevel < 0 || qualityLevel > qualityLevels) {
+            throw new IllegalArgumentException("Quality level must be between 0 and " + qualityLevels + ", got " + qualityLevel);
+        }
+        this.qualityLevel = qualityLevel;
+        onQualityLevelChanged();
+    }
+
+    public int getQualityLevel() {
+        return qualityLevel;
+    }
+
+    public int getQualityLevels() {
+        return qualityLevels;
+    }
+
+    /**
+     * Sets the number of quality levels above level 0. The quality level is moved to the one with the closest number
+     * of sub-steps to the current settings.
+     */
+    public void setQualityLevels(int qualityLevels) {
+        if (qualityLevels < 1) {
+            throw new IllegalArgumentException("There must be at least 1 quality level, got " + qualityLevels);
+        }
+        this.qualityLevels = qualityLevels;
+        this.qualityLevel = closestLevelForSubSteps(settings.getSubSteps());
+        applyQualityLevel();
+    }
+
+    /**
+     * @return The settings currently applied to the physics world
+     */
+    @NotNull
+    public KrunchPhysicsWorldSettingsc getSettings() {
+        return settings;
+    }
+
+    public long getTickBudgetNanos() {
+        return tickBudgetNanos;
+    }
+
+    public void setTickBudgetNanos(long tickBudgetNanos) {
+        this.tickBudgetNanos = tickBudgetNanos;
+    }
+
+    /**
+     * The fraction of the tick budget the smoothed tick time must stay under before quality goes up.
+     */
+    public double getUpgradeThreshold() {
+        return upgradeThreshold;
+    }
+
+    public void setUpgradeThreshold(double upgradeThreshold) {
+        this.upgradeThreshold = upgradeThreshold;
+    }
+
+    public int getDowngradeAfterTicks() {
+        return downgradeAfterTicks;
+    }
+
+    public void setDowngradeAfterTicks(int downgradeAfterTicks) {
+        this.downgradeAfterTicks = downgradeAfterTicks;
+    }
+
+    public int getUpgradeAfterTicks() {
+        return upgradeAfterTicks;
+    }
+
+    public void setUpgradeAfterTicks(int upgradeAfterTicks) {
+        this.upgradeAfterTicks = upgradeAfterTicks;
+    }
+
+    /**
+     * How much of each new tick time goes into the smoothed tick time, from 0 (never changes) to 1 (no smoothing).
+     */
+    public double getSmoothingFactor() {
+        return smoothingFactor;
+    }
+
+    public void setSmoothingFactor(double smoothingFactor) {
+        this.smoothingFactor = smoothingFactor;
+    }
+
+    /**
+     * @return The smoothed tick time since the last quality change, or -1 if no tick has been recorded since then
+     */
+    public double getSmoothedTickTimeNanos() {
+        return smoothedTickTimeNanos;
+    }
+
+    public long getLastTickTimeNanos() {
+        return lastTickTimeNanos;
+    }
+
+    public long getDowngrades() {
+        return downgrades;
+    }
+
+    public long getUpgrades() {
+        return upgrades;
+    }
+
+    /**
+     * @return The number of times settings were sent to Krunch, including the first time in the constructor
+     */
+    public long getSettingsApplied() {
+        return settingsApplied;
+    }
+}
@@ -0,0 +1,96 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import org.jetbrains.annotations.NotNull;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+/**
+ * Copies the state of a rigid body into another rigid body, which can be in another physics world. Used to move rigid
+ * bodies between physics worlds, since Krunch can't move a rigid body out of the world it was created in.
+ */
+final class KrunchRigidBodyCopier {
+
+    private static final int SECTION_VOXELS = 16 * 16 * 16;
+    // A sparse update costs 3 bytes per voxel, a dense update costs 1 byte per voxel of the section
+    private static final int MAX_SPARSE_VOXELS = SECTION_VOXELS / 3;
+
+    private KrunchRigidBodyCopier() {}
+
+    /**
+     * Copies the transform, velocity, omega, inertia, material properties, collision shape and voxels of [source]
+     * into [destination]. [destination] must be a voxel rigid body created with the same defined region and total
+     * voxel region as [source], and shouldn't have any voxels yet. The voxels are queued to the physics world of
+     * [destination], so like other voxel shape updates they're applied on its next tick.
+     *
+     * Krunch has no way to read the voxels of a rigid body in bulk, so they're copied from [sourceSections], the
+     * sections of [source] kept by a {@link KrunchVoxelShapeSnapshots}. Those include updates queued to [source] that
+     * haven't been applied by a tick yet, so they aren't lost when [source] is deleted right after.
+     */
+    static void copyRigidBody(@NotNull KrunchNativeRigidBodyReference source, @NotNull Long2ObjectMap<byte[]> sourceSections,
+                              @NotNull KrunchNativeRigidBodyReference destination) {
+        // Sleeping bodies are only static because they're sleeping
+        destination.setStatic(source.isStatic() && !source.isSleeping());
+        destination.setRigidBodyTransform(source.getRigidBodyTransform());
+        destination.setInertiaData(source.getInertiaData());
+        destination.setVelocity(source.getVelocity());
+        destination.setOmega(source.getOmega());
+        destination.setStaticFrictionCoefficient(source.getStaticFrictionCoefficient());
+        destination.setDynamicFrictionCoefficient(source.getDynamicFrictionCoefficient());
+        destination.setRestitutionCoefficient(source.getRestitutionCoefficient());
+        destination.setCollisionShapeOffset(source.getCollisionShapeOffset());
+        destination.setCollisionShapeScaling(source.getCollisionShapeScaling());
+
+        final IVoxelShapeUpdate[] voxelShape = createVoxelShape(sourceSections);
+        if (voxelShape.length != 0) {
+            final KrunchNativePhysicsWorldReference destinationWorld = (KrunchNativePhysicsWorldReference) destination.getPhysicsWorldReference();
+            destinationWorld.queueVoxelShapeUpdates(new VoxelRigidBodyShapeUpdates[] {
+                new VoxelRigidBodyShapeUpdates(destination.getRigidBodyId(), voxelShape)
+            });
+        }
+        // Set after the voxels, otherwise the rigid body could move before its voxels are loaded
+        destination.setVoxelTerrainFullyLoaded(source.isVoxelTerrainFullyLoaded());
+    }
+
+    /**
+     * Turns [sections] into voxel shape updates that recreate them. Sections without voxels become empty updates, so
+     * they stay loaded in the copy.
+     */
+    @NotNull
+    static IVoxelShapeUpdate[] createVoxelShape(@NotNull Long2ObjectMap<byte[]> sections) {
+        final IVoxelShapeUpdate[] updates = new IVoxelShapeUpdate[sections.size()];
+        int i = 0;
+        for (final Long2ObjectMap.Entry<byte[]> entry : sections.long2ObjectEntrySet()) {
+            final long sectionPos = entry.getLongKey();
+            updates[i++] = createSectionUpdate(KrunchSectionPos.unpackX(sectionPos), KrunchSectionPos.unpackY(sectionPos),
+                KrunchSectionPos.unpackZ(sectionPos), entry.getValue());
+        }
+        return updates;
+    }
+
+    @NotNull
+    private static IVoxelShapeUpdate createSectionUpdate(int sectionX, int sectionY, int sectionZ, @NotNull byte[] states) {
+        int nonAirVoxels = 0;
+        for (int index = 0; index < SECTION_VOXELS; index++) {
+            if (states[index] != KrunchVoxelStates.AIR_STATE) nonAirVoxels++;
+        }
+
+        if (nonAirVoxels == 0) {
+            return new EmptyVoxelShapeUpdate(sectionX, sectionY, sectionZ, true, true);
+        }
+        if (nonAirVoxels <= MAX_SPARSE_VOXELS) {
+            final SparseVoxelShapeUpdate sparseUpdate = new SparseVoxelShapeUpdate(sectionX, sectionY, sectionZ, true);
+            for (int index = 0; index < SECTION_VOXELS; index++) {
+                if (states[index] != KrunchVoxelStates.AIR_STATE) {
+                    sparseUpdate.addUpdate(index & 15, index >> 8, (index >> 4) & 15, states[index]);
+                }
+            }
+            return sparseUpdate;
+        }
+        return new DenseVoxelShapeUpdate(sectionX, sectionY, sectionZ, true, states.clone());
+    }
+}
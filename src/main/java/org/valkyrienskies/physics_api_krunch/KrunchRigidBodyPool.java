@@ -0,0 +1,387 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Quaterniond;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBi;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.RigidBodyTransform;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * Recycles rigid bodies that are created and deleted often, like debris, instead of deleting them.
+ *
+ * Bodies from {@link #acquire(int, Vector3ic, Vector3ic, AABBic)} are given back with {@link #release(RigidBodyReference)},
+ * which parks them: they're made static, moved to {@link #getParkingPosition()}, and every section they have is deleted
+ * with a {@link DeleteVoxelShapeUpdate}. The next acquire with the same dimension and voxel regions gets a parked body
+ * back, which keeps its rigid body id and skips creating a native body. Parked bodies are deleted for real once there
+ * are more than {@link #getMaxParkedBodies()} of them, or after they have been parked for
+ * {@link #getIdleTimeoutTicks()} ticks.
+ *
+ * Only bodies created by the pool can be released to it, since the pool has to know which sections to delete.
+ */
+public class KrunchRigidBodyPool implements KrunchPhysicsWorldListener {
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    // Every body created by the pool that hasn't been deleted, parked or not
+    private final Int2ObjectOpenHashMap<PooledRigidBody> pooledBodies = new Int2ObjectOpenHashMap<>();
+    // Parked bodies by their creation arguments, most recently parked last
+    private final Object2ObjectOpenHashMap<PoolKey, ArrayDeque<PooledRigidBody>> parkedBodies = new Object2ObjectOpenHashMap<>();
+    private final ObjectArrayList<PooledRigidBody> expiredBodies = new ObjectArrayList<>();
+    private final Vector3d parkingPosition = new Vector3d(0.0, -1.0e6, 0.0);
+
+    // Properties of a newly created body, restored when a parked body is handed out
+    private double defaultStaticFriction;
+    private double defaultDynamicFriction;
+    private double defaultRestitution;
+    private final Vector3d defaultCollisionShapeOffset = new Vector3d();
+    private double defaultCollisionShapeScaling;
+    private boolean defaultsCaptured = false;
+
+    private int maxParkedBodies = 256;
+    private long idleTimeoutTicks = 20 * 60;
+
+    private long tick = 0;
+    private int parkedBodyCount = 0;
+    private long createdBodies = 0;
+    private long reusedBodies = 0;
+    private long deletedBodies = 0;
+
+    public KrunchRigidBodyPool(@NotNull PhysicsWorldReference physicsWorldReference) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.physicsWorldReference.addListener(this);
+    }
+
+    /**
+     * Stop listening to the physics world. Parked bodies are left as they are.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Gets a body with these creation arguments, reusing a parked one if there is one. Reused bodies aren't static,
+     * have no velocity, have the friction, restitution and collision shape of a new body, and have no voxels. Like new
+     * bodies, their transform, inertia data and voxels should be set by the caller.
+     */
+    @NotNull
+    public RigidBodyReference acquire(int dimension, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                                      @NotNull AABBic totalVoxelRegion) throws UsingDeletedReferenceException {
+        final ArrayDeque<PooledRigidBody> parked = parkedBodies.get(new PoolKey(dimension, minDefined, maxDefined, totalVoxelRegion));
+        if (parked != null) {
+            final PooledRigidBody pooledBody = parked.pollLast();
+            // Empty deques are removed, so the map doesn't keep a deque for every shape ever parked
+            if (parked.isEmpty()) parkedBodies.remove(pooledBody.key);
+            parkedBodyCount--;
+            pooledBody.parked = false;
+            unpark(pooledBody.rigidBody);
+            reusedBodies++;
+            return pooledBody.rigidBody;
+        }
+
+        final KrunchNativeRigidBodyReference rigidBody =
+            physicsWorldReference.createVoxelRigidBody(dimension, minDefined, maxDefined, totalVoxelRegion);
+        if (!defaultsCaptured) {
+            captureDefaults(rigidBody);
+        }
+        pooledBodies.put(rigidBody.getRigidBodyId(),
+            new PooledRigidBody(rigidBody, new PoolKey(dimension, minDefined, maxDefined, totalVoxelRegion)));
+        createdBodies++;
+        return rigidBody;
+    }
+
+    /**
+     * Parks [rigidBody] so it can be handed out again, or deletes it if the pool is full.
+     *
+     * @throws IllegalArgumentException if [rigidBody] wasn't created by this pool, or is already parked
+     */
+    public void release(@NotNull RigidBodyReference rigidBody) throws UsingDeletedReferenceException {
+        final PooledRigidBody pooledBody = pooledBodies.get(rigidBody.getRigidBodyId());
+        if (pooledBody == null || pooledBody.rigidBody != rigidBody) {
+            throw new IllegalArgumentException("Rigid body " + rigidBody.getRigidBodyId() + " wasn't created by this pool");
+        }
+        if (pooledBody.parked) {
+            throw new IllegalArgumentException("Rigid body " + rigidBody.getRigidBodyId() + " is already parked");
+        }
+        if (parkedBodyCount >= maxParkedBodies) {
+            deleteRigidBody(pooledBody);
+            return;
+        }
+
+        park(pooledBody);
+        pooledBody.parked = true;
+        pooledBody.parkedTick = tick;
+        ArrayDeque<PooledRigidBody> parked = parkedBodies.get(pooledBody.key);
+        if (parked == null) {
+            parked = new ArrayDeque<>();
+            parkedBodies.put(pooledBody.key, parked);
+        }
+        parked.addLast(pooledBody);
+        parkedBodyCount++;
+    }
+
+    /**
+     * Deletes bodies that have been parked for longer than {@link #getIdleTimeoutTicks()}. This should be called once
+     * per tick.
+     */
+    public void update() {
+        tick++;
+        if (parkedBodyCount == 0) return;
+        final ObjectIterator<ArrayDeque<PooledRigidBody>> iterator = parkedBodies.values().iterator();
+        while (iterator.hasNext()) {
+            final ArrayDeque<PooledRigidBody> parked = iterator.next();
+            // The oldest parked bodies are first
+            while (!parked.isEmpty() && tick - parked.peekFirst().parkedTick > idleTimeoutTicks) {
+                expiredBodies.add(parked.pollFirst());
+                parkedBodyCount--;
+            }
+            if (parked.isEmpty()) iterator.remove();
+        }
+        for (int i = 0; i < expiredBodies.size(); i++) {
+            deleteRigidBody(expiredBodies.get(i));
+        }
+        expiredBodies.clear();
+    }
+
+    private void park(@NotNull PooledRigidBody pooledBody) {
+        final KrunchNativeRigidBodyReference rigidBody = pooledBody.rigidBody;
+        // Setting the transform wakes the body up, so make it static after
+        rigidBody.setRigidBodyTransform(new RigidBodyTransform(parkingPosition, new Quaterniond()));
+        rigidBody.setVelocity(new Vector3d());
+        rigidBody.setOmega(new Vector3d());
+        rigidBody.setStatic(true);
+        rigidBody.setVoxelTerrainFullyLoaded(false);
+
+        if (!pooledBody.sections.isEmpty()) {
+            final IVoxelShapeUpdate[] deletes = new IVoxelShapeUpdate[pooledBody.sections.size()];
+            final LongIterator iterator = pooledBody.sections.iterator();
+            for (int i = 0; i < deletes.length; i++) {
+                final long sectionPos = iterator.nextLong();
+                deletes[i] = new DeleteVoxelShapeUpdate(KrunchSectionPos.unpackX(sectionPos),
+                    KrunchSectionPos.unpackY(sectionPos), KrunchSectionPos.unpackZ(sectionPos), true);
+            }
+            // Our listener clears the sections of the body
+            physicsWorldReference.queueVoxelShapeUpdates(
+                new VoxelRigidBodyShapeUpdates[] {new VoxelRigidBodyShapeUpdates(rigidBody.getRigidBodyId(), deletes)});
+        }
+    }
+
+    private void unpark(@NotNull KrunchNativeRigidBodyReference rigidBody) {
+        rigidBody.setStatic(false);
+        rigidBody.setStaticFrictionCoefficient(defaultStaticFriction);
+        rigidBody.setDynamicFrictionCoefficient(defaultDynamicFriction);
+        rigidBody.setRestitutionCoefficient(defaultRestitution);
+        rigidBody.setCollisionShapeOffset(defaultCollisionShapeOffset);
+        rigidBody.setCollisionShapeScaling(defaultCollisionShapeScaling);
+    }
+
+    private void captureDefaults(@NotNull KrunchNativeRigidBodyReference rigidBody) {
+        defaultStaticFriction = rigidBody.getStaticFrictionCoefficient();
+        defaultDynamicFriction = rigidBody.getDynamicFrictionCoefficient();
+        defaultRestitution = rigidBody.getRestitutionCoefficient();
+        defaultCollisionShapeOffset.set(rigidBody.getCollisionShapeOffset());
+        defaultCollisionShapeScaling = rigidBody.getCollisionShapeScaling();
+        defaultsCaptured = true;
+    }
+
+    private void deleteRigidBody(@NotNull PooledRigidBody pooledBody) {
+        // Our listener removes the body from the pool
+        physicsWorldReference.deleteRigidBody(pooledBody.rigidBody.getRigidBodyId());
+        deletedBodies++;
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates update : updates) {
+            final PooledRigidBody pooledBody = pooledBodies.get(update.getRigidBodyId());
+            if (pooledBody == null) continue;
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                final long sectionPos = KrunchSectionPos.asLong(voxelShapeUpdate.getRegionX(),
+                    voxelShapeUpdate.getRegionY(), voxelShapeUpdate.getRegionZ());
+                if (voxelShapeUpdate instanceof DeleteVoxelShapeUpdate) {
+                    pooledBody.sections.remove(sectionPos);
+                } else {
+                    pooledBody.sections.add(sectionPos);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        if (pooledBodies.isEmpty()) return;
+        VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encoded,
+            (rigidBodyId, updateType, regionX, regionY, regionZ, runImmediately, overwriteExistingVoxels) -> {
+                final PooledRigidBody pooledBody = pooledBodies.get(rigidBodyId);
+                if (pooledBody == null) return;
+                final long sectionPos = KrunchSectionPos.asLong(regionX, regionY, regionZ);
+                if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE) {
+                    pooledBody.sections.remove(sectionPos);
+                } else {
+                    pooledBody.sections.add(sectionPos);
+                }
+            });
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        final PooledRigidBody pooledBody = pooledBodies.remove(rigidBodyId);
+        if (pooledBody != null && pooledBody.parked) {
+            // Deleted by someone else while parked
+            final ArrayDeque<PooledRigidBody> parked = parkedBodies.get(pooledBody.key);
+            if (parked != null && parked.remove(pooledBody)) {
+                parkedBodyCount--;
+                if (parked.isEmpty()) parkedBodies.remove(pooledBody.key);
+            }
+        }
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        pooledBodies.clear();
+        parkedBodies.clear();
+        parkedBodyCount = 0;
+    }
+
+    /**
+     * @return True if [rigidBody] is parked in this pool
+     */
+    public boolean isParked(@NotNull RigidBodyReference rigidBody) {
+        final PooledRigidBody pooledBody = pooledBodies.get(rigidBody.getRigidBodyId());
+        return pooledBody != null && pooledBody.parked;
+    }
+
+    public int getParkedBodyCount() {
+        return parkedBodyCount;
+    }
+
+    /**
+     * @return The number of different creation arguments that have parked bodies
+     */
+    public int getParkedShapeCount() {
+        return parkedBodies.size();
+    }
+
+    /**
+     * @return The number of bodies the pool created because there wasn't a parked body to reuse
+     */
+    public long getCreatedBodies() {
+        return createdBodies;
+    }
+
+    /**
+     * @return The number of bodies handed out again instead of creating a new one
+     */
+    public long getReusedBodies() {
+        return reusedBodies;
+    }
+
+    /**
+     * @return The number of bodies the pool deleted, because it was full or they were idle for too long
+     */
+    public long getDeletedBodies() {
+        return deletedBodies;
+    }
+
+    public int getMaxParkedBodies() {
+        return maxParkedBodies;
+    }
+
+    /**
+     * Sets how many bodies can be parked at once. Bodies released while the pool is full are deleted.
+     */
+    public void setMaxParkedBodies(int maxParkedBodies) {
+        this.maxParkedBodies = maxParkedBodies;
+    }
+
+    public long getIdleTimeoutTicks() {
+        return idleTimeoutTicks;
+    }
+
+    /**
+     * Sets how many calls to {@link #update()} a body can stay parked before it's deleted.
+     */
+    public void setIdleTimeoutTicks(long idleTimeoutTicks) {
+        this.idleTimeoutTicks = idleTimeoutTicks;
+    }
+
+    @NotNull
+    public Vector3dc getParkingPosition() {
+        return parkingPosition;
+    }
+
+    /**
+     * Sets where parked bodies are moved to. This should be far away from everything else in the world, parked bodies
+     * have no voxels but still have a place in the broadphase.
+     */
+    public void setParkingPosition(@NotNull Vector3dc parkingPosition) {
+        this.parkingPosition.set(parkingPosition);
+    }
+
+    private static final class PooledRigidBody {
+        private final KrunchNativeRigidBodyReference rigidBody;
+        private final PoolKey key;
+        // The sections the body has been sent, which are deleted when it's parked
+        private final LongOpenHashSet sections = new LongOpenHashSet();
+        private boolean parked = false;
+        private long parkedTick;
+
+        private PooledRigidBody(@NotNull KrunchNativeRigidBodyReference rigidBody, @NotNull PoolKey key) {
+            this.rigidBody = rigidBody;
+            this.key = key;
+        }
+    }
+
+    private static final class PoolKey {
+        private final int dimension;
+        private final Vector3i minDefined;
+        private final Vector3i maxDefined;
+        private final AABBi totalVoxelRegion;
+
+        private PoolKey(int dimension, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                        @NotNull AABBic totalVoxelRegion) {
+            this.dimension = dimension;
+            this.minDefined = new Vector3i(minDefined);
+            this.maxDefined = new Vector3i(maxDefined);
+            this.totalVoxelRegion = new AABBi(totalVoxelRegion);
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PoolKey)) return false;
+            final PoolKey other = (PoolKey) o;
+            final AABBi region = totalVoxelRegion;
+            final AABBi otherRegion = other.totalVoxelRegion;
+            return dimension == other.dimension && minDefined.equals(other.minDefined)
+                && maxDefined.equals(other.maxDefined)
+                && region.minX == otherRegion.minX && region.minY == otherRegion.minY && region.minZ == otherRegion.minZ
+                && region.maxX == otherRegion.maxX && region.maxY == otherRegion.maxY && region.maxZ == otherRegion.maxZ;
+        }
+
+        @Override
+        public int hashCode() {
+            final AABBi region = totalVoxelRegion;
+            return Objects.hash(dimension, minDefined, maxDefined, region.minX, region.minY, region.minZ, region.maxX,
+                region.maxY, region.maxZ);
+        }
+    }
+}
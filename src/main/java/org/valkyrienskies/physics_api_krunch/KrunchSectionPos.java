@@ -0,0 +1,55 @@
+package org.valkyrienskies.physics_api_krunch;
+
+/**
+ * Packs the coordinates of a 16x16x16 voxel section into a single long, so that sections can be stored in primitive
+ * collections without boxing.
+ *
+ * The layout is | 22 bits x | 22 bits z | 20 bits y |, which covers every section a voxel rigid body can define.
+ */
+public final class KrunchSectionPos {
+
+    private static final int X_BITS = 22;
+    private static final int Z_BITS = 22;
+    private static final int Y_BITS = 20;
+
+    private static final long X_MASK = (1L << X_BITS) - 1;
+    private static final long Z_MASK = (1L << Z_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+
+    private static final int Z_OFFSET = Y_BITS;
+    private static final int X_OFFSET = Y_BITS + Z_BITS;
+
+    private KrunchSectionPos() {
+    }
+
+    public static long asLong(int sectionX, int sectionY, int sectionZ) {
+        return ((sectionX & X_MASK) << X_OFFSET) | ((sectionZ & Z_MASK) << Z_OFFSET) | (sectionY & Y_MASK);
+    }
+
+    public static int unpackX(long packed) {
+        // Shift left then right to sign extend
+        return (int) (packed << (64 - X_OFFSET - X_BITS) >> (64 - X_BITS));
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << (64 - Z_OFFSET - Z_BITS) >> (64 - Z_BITS));
+    }
+
+    /**
+     * @return The coordinate of the section that contains the voxel coordinate [voxelCoordinate]
+     */
+    public static int voxelToSection(int voxelCoordinate) {
+        return voxelCoordinate >> 4;
+    }
+
+    /**
+     * @return The coordinate of the section that contains the world position [position]
+     */
+    public static int positionToSection(double position) {
+        return ((int) Math.floor(position)) >> 4;
+    }
+}
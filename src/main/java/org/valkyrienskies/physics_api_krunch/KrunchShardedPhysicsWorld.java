@@ -0,0 +1,454 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBd;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits rigid bodies that can't interact with each other into separate physics worlds, and ticks those worlds in
+ * parallel.
+ *
+ * A Krunch physics world ticks on one thread, so a server with groups of ships far apart from each other would
+ * otherwise be limited to one core. {@link #updateShards()} groups rigid bodies into clusters: two rigid bodies are in
+ * the same cluster if their AABBs, grown by {@link #getMargin()} and by how far they move in
+ * {@link #getVelocityLookAheadTime()} seconds, overlap. Every cluster is kept in a single shard, so rigid bodies that
+ * could collide are always simulated together. When clusters join, the rigid bodies of the smaller parts are moved
+ * into the shard that holds most of the cluster; when a shard holds more than its share of rigid bodies, whole
+ * clusters are moved to the least loaded shard.
+ *
+ * Moving a rigid body to another shard recreates it there with the same state and voxels, see
+ * {@link KrunchMultiPhysicsWorld}. Rigid bodies are referred to by {@link KrunchShardedRigidBody} handles, which stay
+ * valid when they move. Terrain should be created with {@link #createSharedVoxelRigidBody}, which creates it in every
+ * shard. The physics world indices of the base class are shards.
+ *
+ * All methods must be called from one thread, the shards are only ticked on other threads inside {@link #tick}. The
+ * {@link KrunchPhysicsWorldListener#onPhysicsWorldTicked()} of every shard is called on the thread that called
+ * {@link #tick}, after every shard has finished, so listeners are never called on the executor.
+ */
+public class KrunchShardedPhysicsWorld extends KrunchMultiPhysicsWorld<KrunchShardedRigidBody> {
+
+    private final ExecutorService executor;
+    private final ShardTick[] shardTicks;
+    private final Future<?>[] shardTickFutures;
+    // Which shards were ticked successfully by the current tick, their listeners are called once every shard finished
+    private final boolean[] shardsTicked;
+    // The number of rigid bodies in each shard that aren't shared
+    private final int[] shardLoads;
+
+    private double margin = 8.0;
+    private double velocityLookAheadTime = 1.0;
+    private double loadImbalance = 0.25;
+
+    // Reused by [updateShards]
+    private final ObjectArrayList<KrunchShardedRigidBody> clusterBodies = new ObjectArrayList<>();
+    private double[] bounds = new double[0];
+    private int[] sortedByMinX = new int[0];
+    private int[] clusterParents = new int[0];
+    // Cluster index by root rigid body
+    private int[] clusterIndices = new int[0];
+    // Indexed by cluster index
+    private int[] clusterSizes = new int[0];
+    private int[] clusterShards = new int[0];
+    private int[] sortedClusters = new int[0];
+    // The number of rigid bodies of each cluster in each shard, indexed by cluster index * shard count + shard
+    private int[] clusterShardVotes = new int[0];
+    private final int[] newShardLoads;
+    private final IntArrayList activeBodies = new IntArrayList();
+    private final IntArrayList clusterRoots = new IntArrayList();
+    private final AABBd aabbTemp = new AABBd();
+    private final double[] transformTemp = new double[7];
+
+    private int clusterCount = 0;
+
+    /**
+     * @param shardCount The number of physics worlds to split rigid bodies between, typically the number of cores
+     *                   available for physics
+     * @param executor   Runs the ticks of every shard except the first, which is ticked on the calling thread
+     */
+    public KrunchShardedPhysicsWorld(int shardCount, @NotNull ExecutorService executor, @NotNull KrunchPhysicsWorldSettingsc settings)
+        throws OutOfMemoryError {
+        super(createShardSettings(shardCount, settings));
+        this.executor = executor;
+        this.shardTicks = new ShardTick[shardCount];
+        this.shardTickFutures = new Future<?>[shardCount];
+        this.shardsTicked = new boolean[shardCount];
+        this.shardLoads = new int[shardCount];
+        this.newShardLoads = new int[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            shardTicks[shard] = new ShardTick(physicsWorlds[shard]);
+        }
+    }
+
+    @NotNull
+    private static KrunchPhysicsWorldSettingsc[] createShardSettings(int shardCount, @NotNull KrunchPhysicsWorldSettingsc settings) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 shard, got " + shardCount);
+        }
+        final KrunchPhysicsWorldSettingsc[] shardSettings = new KrunchPhysicsWorldSettingsc[shardCount];
+        Arrays.fill(shardSettings, settings);
+        return shardSettings;
+    }
+
+    public int getShardCount() {
+        return physicsWorlds.length;
+    }
+
+    /**
+     * @return The number of rigid bodies in [shard], not counting shared rigid bodies
+     */
+    public int getShardLoad(int shard) {
+        return shardLoads[shard];
+    }
+
+    public void setSettings(@NotNull KrunchPhysicsWorldSettingsc settings) throws UsingDeletedReferenceException {
+        for (final KrunchNativePhysicsWorldReference shard : physicsWorlds) {
+            shard.setSettings(settings);
+        }
+    }
+
+    /**
+     * Creates a voxel rigid body in the least loaded shard. It's moved to the shard of its cluster on the next
+     * {@link #updateShards()}.
+     */
+    @NotNull
+    public KrunchShardedRigidBody createVoxelRigidBody(int dimension, @NotNull Vector3ic minDefined, @NotNull Vector3ic maxDefined,
+                                                       @NotNull AABBic totalVoxelRegion) throws OutOfMemoryError, UsingDeletedReferenceException {
+        final int shard = leastLoadedShard();
+        final KrunchShardedRigidBody rigidBody = createVoxelRigidBodyIn(shard, dimension, minDefined, maxDefined, totalVoxelRegion);
+        shardLoads[shard]++;
+        return rigidBody;
+    }
+
+    @NotNull
+    @Override
+    protected KrunchShardedRigidBody createHandle(int handleId, boolean shared, int dimension, @NotNull Vector3ic minDefined,
+                                                  @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion) {
+        return new KrunchShardedRigidBody(handleId, shared, physicsWorlds.length, dimension, minDefined, maxDefined, totalVoxelRegion);
+    }
+
+    @Override
+    public boolean deleteRigidBody(@NotNull KrunchShardedRigidBody rigidBody) throws UsingDeletedReferenceException {
+        if (!super.deleteRigidBody(rigidBody)) return false;
+        if (!rigidBody.isShared()) shardLoads[rigidBody.getShard()]--;
+        return true;
+    }
+
+    /**
+     * Ticks every shard that has rigid bodies in parallel, and waits for them to finish. Shards with only shared rigid
+     * bodies aren't ticked, their queued voxel updates are applied on their next tick.
+     */
+    public void tick(@NotNull Vector3dc gravity, double timeStep, boolean simulatePhysics) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        for (int shard = 1; shard < physicsWorlds.length; shard++) {
+            if (shardLoads[shard] == 0) continue;
+            shardTicks[shard].set(gravity, timeStep, simulatePhysics);
+            shardTickFutures[shard] = executor.submit(shardTicks[shard]);
+        }
+        RuntimeException tickException = null;
+        if (shardLoads[0] != 0 || physicsWorlds.length == 1) {
+            try {
+                physicsWorlds[0].tickWithoutListeners(gravity, timeStep, simulatePhysics);
+                shardsTicked[0] = true;
+            } catch (final RuntimeException e) {
+                tickException = e;
+            }
+        }
+        // Wait for every shard even if one failed, so no shard is still ticking when this returns
+        for (int shard = 1; shard < physicsWorlds.length; shard++) {
+            final Future<?> future = shardTickFutures[shard];
+            if (future == null) continue;
+            shardTickFutures[shard] = null;
+            try {
+                future.get();
+                shardsTicked[shard] = true;
+            } catch (final ExecutionException e) {
+                if (tickException == null) tickException = new RuntimeException("Failed to tick shard " + shard, e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (tickException == null) tickException = new RuntimeException("Interrupted while ticking shard " + shard, e);
+            }
+        }
+        // Listeners aren't thread safe, so they're called here instead of on the executor
+        for (int shard = 0; shard < physicsWorlds.length; shard++) {
+            if (!shardsTicked[shard]) continue;
+            shardsTicked[shard] = false;
+            physicsWorlds[shard].notifyPhysicsWorldTicked();
+        }
+        if (tickException != null) throw tickException;
+    }
+
+    /**
+     * Recomputes the clusters and moves rigid bodies between shards so that every cluster is in one shard and the
+     * shards are balanced. This should be called regularly, but it doesn't need to be every tick as long as
+     * {@link #getVelocityLookAheadTime()} covers the time between calls.
+     *
+     * @return The number of rigid bodies moved to another shard
+     */
+    public int updateShards() throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        collectClusterBodies();
+        final int bodyCount = clusterBodies.size();
+        findClusters(bodyCount);
+        return assignClustersToShards(bodyCount);
+    }
+
+    private void collectClusterBodies() {
+        clusterBodies.clear();
+        for (final KrunchShardedRigidBody rigidBody : rigidBodies.values()) {
+            if (!rigidBody.isShared()) clusterBodies.add(rigidBody);
+        }
+        final int bodyCount = clusterBodies.size();
+        if (sortedByMinX.length < bodyCount) {
+            final int capacity = Math.max(bodyCount, sortedByMinX.length * 2);
+            bounds = new double[capacity * 6];
+            sortedByMinX = new int[capacity];
+            clusterParents = new int[capacity];
+            clusterIndices = new int[capacity];
+            clusterSizes = new int[capacity];
+            clusterShards = new int[capacity];
+            sortedClusters = new int[capacity];
+        }
+
+        // Grow every AABB by the margin and by the distance the rigid body moves within the look ahead time
+        for (int i = 0; i < bodyCount; i++) {
+            final KrunchNativeRigidBodyReference rigidBody = clusterBodies.get(i).getNativeRigidBody(0);
+            if (!rigidBody.getAABB(aabbTemp)) {
+                // No voxels, so just use the position
+                rigidBody.getRigidBodyTransform(transformTemp, 0);
+                aabbTemp.minX = aabbTemp.maxX = transformTemp[0];
+                aabbTemp.minY = aabbTemp.maxY = transformTemp[1];
+                aabbTemp.minZ = aabbTemp.maxZ = transformTemp[2];
+            }
+            final Vector3dc velocity = rigidBody.getVelocity();
+            final int offset = i * 6;
+            bounds[offset] = aabbTemp.minX - margin - Math.abs(velocity.x()) * velocityLookAheadTime;
+            bounds[offset + 1] = aabbTemp.minY - margin - Math.abs(velocity.y()) * velocityLookAheadTime;
+            bounds[offset + 2] = aabbTemp.minZ - margin - Math.abs(velocity.z()) * velocityLookAheadTime;
+            bounds[offset + 3] = aabbTemp.maxX + margin + Math.abs(velocity.x()) * velocityLookAheadTime;
+            bounds[offset + 4] = aabbTemp.maxY + margin + Math.abs(velocity.y()) * velocityLookAheadTime;
+            bounds[offset + 5] = aabbTemp.maxZ + margin + Math.abs(velocity.z()) * velocityLookAheadTime;
+            sortedByMinX[i] = i;
+            clusterParents[i] = i;
+        }
+    }
+
+    /**
+     * Joins the rigid bodies with overlapping bounds into clusters, by sweeping along the x-axis.
+     */
+    private void findClusters(int bodyCount) {
+        final double[] bounds = this.bounds;
+        IntArrays.quickSort(sortedByMinX, 0, bodyCount, (a, b) -> Double.compare(bounds[a * 6], bounds[b * 6]));
+        activeBodies.clear();
+        for (int sortedIndex = 0; sortedIndex < bodyCount; sortedIndex++) {
+            final int body = sortedByMinX[sortedIndex];
+            final int offset = body * 6;
+            // Remove the active rigid bodies that end before this one starts, they can't overlap anything after it
+            for (int i = activeBodies.size() - 1; i >= 0; i--) {
+                final int other = activeBodies.getInt(i);
+                if (bounds[other * 6 + 3] < bounds[offset]) {
+                    activeBodies.set(i, activeBodies.getInt(activeBodies.size() - 1));
+                    activeBodies.popInt();
+                } else if (bounds[other * 6 + 1] <= bounds[offset + 4] && bounds[other * 6 + 4] >= bounds[offset + 1]
+                    && bounds[other * 6 + 2] <= bounds[offset + 5] && bounds[other * 6 + 5] >= bounds[offset + 2]) {
+                    union(body, other);
+                }
+            }
+            activeBodies.add(body);
+        }
+    }
+
+    private int findRoot(int body) {
+        int root = body;
+        while (clusterParents[root] != root) root = clusterParents[root];
+        // Path compression
+        while (clusterParents[body] != root) {
+            final int next = clusterParents[body];
+            clusterParents[body] = root;
+            body = next;
+        }
+        return root;
+    }
+
+    private void union(int a, int b) {
+        final int rootA = findRoot(a);
+        final int rootB = findRoot(b);
+        if (rootA != rootB) clusterParents[rootB] = rootA;
+    }
+
+    private int assignClustersToShards(int bodyCount) {
+        // Number the clusters, and count how many rigid bodies of each cluster are in each shard
+        clusterRoots.clear();
+        for (int body = 0; body < bodyCount; body++) {
+            final int root = findRoot(body);
+            if (root == body) {
+                clusterIndices[root] = clusterRoots.size();
+                clusterRoots.add(root);
+            }
+        }
+        clusterCount = clusterRoots.size();
+        if (clusterShardVotes.length < clusterCount * physicsWorlds.length) {
+            clusterShardVotes = new int[Math.max(clusterCount * physicsWorlds.length, clusterShardVotes.length * 2)];
+        }
+        Arrays.fill(clusterShardVotes, 0, clusterCount * physicsWorlds.length, 0);
+        Arrays.fill(clusterSizes, 0, clusterCount, 0);
+        for (int body = 0; body < bodyCount; body++) {
+            final int cluster = clusterIndices[findRoot(body)];
+            clusterSizes[cluster]++;
+            clusterShardVotes[cluster * physicsWorlds.length + clusterBodies.get(body).getShard()]++;
+        }
+
+        // Place the largest clusters first, so small clusters fill in the gaps
+        final int[] clusterSizes = this.clusterSizes;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            sortedClusters[cluster] = cluster;
+        }
+        IntArrays.quickSort(sortedClusters, 0, clusterCount, (a, b) -> Integer.compare(clusterSizes[b], clusterSizes[a]));
+
+        final int maxShardLoad = (int) Math.ceil((double) bodyCount / physicsWorlds.length * (1.0 + loadImbalance));
+        Arrays.fill(newShardLoads, 0);
+        for (int i = 0; i < clusterCount; i++) {
+            final int cluster = sortedClusters[i];
+            final int majorityShard = majorityShard(cluster);
+            int shard = majorityShard;
+            // Move the cluster if its shard is full and it would fit better elsewhere
+            if (newShardLoads[majorityShard] + clusterSizes[cluster] > maxShardLoad) {
+                final int leastLoadedShard = leastLoaded(newShardLoads);
+                if (newShardLoads[leastLoadedShard] < newShardLoads[majorityShard]) shard = leastLoadedShard;
+            }
+            clusterShards[cluster] = shard;
+            newShardLoads[shard] += clusterSizes[cluster];
+        }
+
+        int moved = 0;
+        for (int body = 0; body < bodyCount; body++) {
+            final int shard = clusterShards[clusterIndices[findRoot(body)]];
+            final KrunchShardedRigidBody rigidBody = clusterBodies.get(body);
+            if (rigidBody.getShard() != shard) {
+                moveToShard(rigidBody, shard);
+                moved++;
+            }
+        }
+        clusterBodies.clear();
+        return moved;
+    }
+
+    /**
+     * @return The shard that holds the most rigid bodies of [cluster]
+     */
+    private int majorityShard(int cluster) {
+        final int offset = cluster * physicsWorlds.length;
+        int majorityShard = 0;
+        for (int shard = 1; shard < physicsWorlds.length; shard++) {
+            if (clusterShardVotes[offset + shard] > clusterShardVotes[offset + majorityShard]) majorityShard = shard;
+        }
+        return majorityShard;
+    }
+
+    private static int leastLoaded(@NotNull int[] loads) {
+        int leastLoaded = 0;
+        for (int shard = 1; shard < loads.length; shard++) {
+            if (loads[shard] < loads[leastLoaded]) leastLoaded = shard;
+        }
+        return leastLoaded;
+    }
+
+    private int leastLoadedShard() {
+        return leastLoaded(shardLoads);
+    }
+
+    /**
+     * Moves [rigidBody] to the physics world of [shard], recreating it there with the same state and voxels, including
+     * voxel updates that haven't been applied by a tick yet.
+     */
+    private void moveToShard(@NotNull KrunchShardedRigidBody rigidBody, int shard) throws OutOfMemoryError, UsingDeletedReferenceException {
+        final int oldShard = rigidBody.getShard();
+        moveRigidBody(rigidBody, shard);
+        shardLoads[oldShard]--;
+        shardLoads[shard]++;
+    }
+
+    /**
+     * How far apart, in addition to the velocity margin, two rigid bodies can be and still be put in the same cluster.
+     */
+    public double getMargin() {
+        return margin;
+    }
+
+    public void setMargin(double margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * The AABB of every rigid body is grown by how far it moves in this many seconds when clustering, so rigid bodies
+     * that are about to meet are put in the same shard before they do.
+     */
+    public double getVelocityLookAheadTime() {
+        return velocityLookAheadTime;
+    }
+
+    public void setVelocityLookAheadTime(double velocityLookAheadTime) {
+        this.velocityLookAheadTime = velocityLookAheadTime;
+    }
+
+    /**
+     * How far over an even split of the rigid bodies, as a fraction, a shard can be before clusters are moved out of it.
+     */
+    public double getLoadImbalance() {
+        return loadImbalance;
+    }
+
+    public void setLoadImbalance(double loadImbalance) {
+        this.loadImbalance = loadImbalance;
+    }
+
+    /**
+     * @return The number of clusters found by the last {@link #updateShards()}
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    @Override
+    public void deletePhysicsWorldResources() {
+        super.deletePhysicsWorldResources();
+        Arrays.fill(shardLoads, 0);
+    }
+
+    /**
+     * Ticks one shard on the executor, without calling its listeners. Reused every tick so ticking doesn't allocate a
+     * task per shard.
+     */
+    private static final class ShardTick implements Runnable {
+        private final KrunchNativePhysicsWorldReference physicsWorld;
+        private final Vector3d gravity = new Vector3d();
+        private double timeStep;
+        private boolean simulatePhysics;
+
+        ShardTick(@NotNull KrunchNativePhysicsWorldReference physicsWorld) {
+            this.physicsWorld = physicsWorld;
+        }
+
+        void set(@NotNull Vector3dc gravity, double timeStep, boolean simulatePhysics) {
+            this.gravity.set(gravity);
+            this.timeStep = timeStep;
+            this.simulatePhysics = simulatePhysics;
+        }
+
+        @Override
+        public void run() {
+            physicsWorld.tickWithoutListeners(gravity, timeStep, simulatePhysics);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBic;
+
+/**
+ * A stable handle to a rigid body in a {@link KrunchShardedPhysicsWorld}, which stays valid when the rigid body moves
+ * to another shard. The physics world indices of {@link #getRigidBody(int)} are shards.
+ */
+public class KrunchShardedRigidBody extends KrunchMultiWorldRigidBody {
+
+    protected KrunchShardedRigidBody(int handleId, boolean shared, int shardCount, int dimension, @NotNull Vector3ic minDefined,
+                                     @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion) {
+        super(handleId, shared, shardCount, dimension, minDefined, maxDefined, totalVoxelRegion);
+    }
+
+    /**
+     * @return The shard this rigid body is currently simulated in. Shared rigid bodies are always in shard 0.
+     */
+    public int getShard() {
+        return getPhysicsWorldIndex();
+    }
+}
@@ -0,0 +1,449 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.primitives.AABBd;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+/**
+ * Puts resting rigid bodies to sleep, and wakes them up when something interacts with them.
+ *
+ * A body falls asleep once its velocity and omega have stayed under the sleep thresholds for every tick of the last
+ * {@link #getSleepWindowTicks()} ticks. Sleeping bodies are made static, so Krunch doesn't solve for them, and
+ * {@link KrunchBootstrap#isRigidBodySleeping(RigidBodyReference)} lets game code skip reading back their state or
+ * applying forces to them. A sleeping body wakes up when a force is applied to it, its transform or velocity is set,
+ * its voxels change, or the AABB of an awake body starts overlapping its AABB. Deleting a managed body, or disturbing it
+ * (for example by teleporting it away), wakes the sleeping bodies next to where it was, since they could be resting on
+ * it. Voxel updates to bodies this doesn't manage (like terrain, which is expected to have an identity transform) wake
+ * sleeping bodies next to the updated section.
+ *
+ * The work done by {@link #update()} scales with the number of awake bodies; sleeping bodies are kept in a grid so
+ * awake bodies only check the sleeping bodies near them.
+ *
+ * All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchSleepManager implements KrunchPhysicsWorldListener {
+
+    private static final Vector3dc ZERO = new Vector3d();
+    // Bodies that cover more grid cells than this are checked against every awake body instead
+    private static final int MAX_GRID_CELLS_PER_BODY = 4096;
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+
+    // Managed bodies by rigid body id
+    private final Int2ObjectOpenHashMap<SleepState> bodies = new Int2ObjectOpenHashMap<>();
+    private final ObjectArrayList<SleepState> awakeBodies = new ObjectArrayList<>();
+    // Sleeping bodies by the sections their AABB covers
+    private final Long2ObjectOpenHashMap<ObjectArrayList<SleepState>> sleepingGrid = new Long2ObjectOpenHashMap<>();
+    // Sleeping bodies too large to put in the grid
+    private final ObjectArrayList<SleepState> oversizedSleepingBodies = new ObjectArrayList<>();
+    // Sleeping bodies found by wakeOverlapping that can't be woken while iterating the grid
+    private final ObjectArrayList<SleepState> bodiesToWake = new ObjectArrayList<>();
+    private final AABBd aabbTemp = new AABBd();
+
+    private double linearSleepThreshold = 0.05;
+    private double angularSleepThreshold = 0.05;
+    private int sleepWindowTicks = 60;
+    private double wakeMargin = 0.1;
+
+    private int sleepingBodyCount = 0;
+    private long sleeps = 0;
+    private long wakes = 0;
+
+    public KrunchSleepManager(@NotNull PhysicsWorldReference physicsWorldReference) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.physicsWorldReference.addListener(this);
+    }
+
+    /**
+     * Stop listening to the physics world, and wake every sleeping body.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+        if (!physicsWorldReference.hasBeenDeleted()) {
+            for (final SleepState state : bodies.values()) {
+                if (state.sleeping) wake(state);
+            }
+        }
+    }
+
+    /**
+     * Lets [rigidBody] be put to sleep. It must be a dynamic (non-static) body.
+     */
+    public void addBody(@NotNull RigidBodyReference rigidBody) {
+        if (bodies.containsKey(rigidBody.getRigidBodyId())) return;
+        final SleepState state = new SleepState((KrunchNativeRigidBodyReference) rigidBody);
+        bodies.put(rigidBody.getRigidBodyId(), state);
+        addAwake(state);
+    }
+
+    /**
+     * Stops managing a body, waking it up if it's sleeping.
+     */
+    public void removeBody(int rigidBodyId) {
+        final SleepState state = bodies.get(rigidBodyId);
+        if (state == null) return;
+        if (state.sleeping) wake(state);
+        removeAwake(state);
+        bodies.remove(rigidBodyId);
+    }
+
+    /**
+     * Call this after every tick. Puts bodies that have been resting for long enough to sleep, and wakes up sleeping
+     * bodies that awake bodies have moved into.
+     */
+    public void update() {
+        final double linearThresholdSq = linearSleepThreshold * linearSleepThreshold;
+        final double angularThresholdSq = angularSleepThreshold * angularSleepThreshold;
+
+        // Iterate backwards, bodies that fall asleep are swapped with the last body
+        for (int i = awakeBodies.size() - 1; i >= 0; i--) {
+            final SleepState state = awakeBodies.get(i);
+            final KrunchNativeRigidBodyReference rigidBody = state.rigidBody;
+
+            final Vector3dc velocity = rigidBody.getVelocity();
+            final Vector3dc omega = rigidBody.getOmega();
+            final double speedSq = velocity.x() * velocity.x() + velocity.y() * velocity.y() + velocity.z() * velocity.z();
+            final double angularSpeedSq = omega.x() * omega.x() + omega.y() * omega.y() + omega.z() * omega.z();
+            if (speedSq <= linearThresholdSq && angularSpeedSq <= angularThresholdSq) {
+                state.calmTicks++;
+            } else {
+                state.calmTicks = 0;
+            }
+
+            // Remember where the body is, so its neighbours can be woken if it's deleted or teleported away
+            state.setAABB(rigidBody.getAABB(aabbTemp) ? aabbTemp : null);
+
+            // Only moving bodies wake their neighbours, otherwise two calm bodies touching each other would keep
+            // waking each other up
+            if (state.calmTicks == 0) wakeAround(state);
+
+            if (state.calmTicks >= sleepWindowTicks) {
+                sleep(state);
+            }
+        }
+    }
+
+    private void sleep(@NotNull SleepState state) {
+        final KrunchNativeRigidBodyReference rigidBody = state.rigidBody;
+        rigidBody.setStatic(true);
+        rigidBody.setVelocity(ZERO);
+        rigidBody.setOmega(ZERO);
+        rigidBody.setSleeping(true);
+        state.sleeping = true;
+        removeAwake(state);
+        sleepingBodyCount++;
+        sleeps++;
+
+        // No voxels means nothing can overlap it
+        state.setAABB(rigidBody.getAABB(aabbTemp) ? aabbTemp : null);
+        if (Double.isNaN(state.minX)) return;
+
+        final int minSectionX = KrunchSectionPos.positionToSection(state.minX);
+        final int minSectionY = KrunchSectionPos.positionToSection(state.minY);
+        final int minSectionZ = KrunchSectionPos.positionToSection(state.minZ);
+        final int maxSectionX = KrunchSectionPos.positionToSection(state.maxX);
+        final int maxSectionY = KrunchSectionPos.positionToSection(state.maxY);
+        final int maxSectionZ = KrunchSectionPos.positionToSection(state.maxZ);
+        final long cells = (long) (maxSectionX - minSectionX + 1) * (maxSectionY - minSectionY + 1) * (maxSectionZ - minSectionZ + 1);
+        if (cells > MAX_GRID_CELLS_PER_BODY) {
+            state.oversized = true;
+            oversizedSleepingBodies.add(state);
+            return;
+        }
+        state.oversized = false;
+        for (int x = minSectionX; x <= maxSectionX; x++) {
+            for (int y = minSectionY; y <= maxSectionY; y++) {
+                for (int z = minSectionZ; z <= maxSectionZ; z++) {
+                    final long cell = KrunchSectionPos.asLong(x, y, z);
+                    ObjectArrayList<SleepState> cellBodies = sleepingGrid.get(cell);
+                    if (cellBodies == null) {
+                        cellBodies = new ObjectArrayList<>(2);
+                        sleepingGrid.put(cell, cellBodies);
+                    }
+                    cellBodies.add(state);
+                }
+            }
+        }
+    }
+
+    private void wake(@NotNull SleepState state) {
+        state.sleeping = false;
+        state.calmTicks = 0;
+        sleepingBodyCount--;
+        wakes++;
+        removeFromGrid(state);
+        addAwake(state);
+        state.rigidBody.setSleeping(false);
+        state.rigidBody.setStatic(false);
+    }
+
+    private void removeFromGrid(@NotNull SleepState state) {
+        if (Double.isNaN(state.minX)) return;
+        if (state.oversized) {
+            oversizedSleepingBodies.remove(state);
+            return;
+        }
+        final int maxSectionX = KrunchSectionPos.positionToSection(state.maxX);
+        final int maxSectionY = KrunchSectionPos.positionToSection(state.maxY);
+        final int maxSectionZ = KrunchSectionPos.positionToSection(state.maxZ);
+        for (int x = KrunchSectionPos.positionToSection(state.minX); x <= maxSectionX; x++) {
+            for (int y = KrunchSectionPos.positionToSection(state.minY); y <= maxSectionY; y++) {
+                for (int z = KrunchSectionPos.positionToSection(state.minZ); z <= maxSectionZ; z++) {
+                    final long cell = KrunchSectionPos.asLong(x, y, z);
+                    final ObjectArrayList<SleepState> cellBodies = sleepingGrid.get(cell);
+                    if (cellBodies == null) continue;
+                    cellBodies.remove(state);
+                    if (cellBodies.isEmpty()) sleepingGrid.remove(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes every sleeping body whose AABB overlaps the last known AABB of [state], grown by the wake margin.
+     */
+    private void wakeAround(@NotNull SleepState state) {
+        if (sleepingBodyCount == 0 || Double.isNaN(state.minX)) return;
+        wakeOverlapping(
+            state.minX - wakeMargin, state.minY - wakeMargin, state.minZ - wakeMargin,
+            state.maxX + wakeMargin, state.maxY + wakeMargin, state.maxZ + wakeMargin
+        );
+    }
+
+    /**
+     * Wakes every sleeping body whose AABB overlaps the given box.
+     */
+    private void wakeOverlapping(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        for (int i = oversizedSleepingBodies.size() - 1; i >= 0; i--) {
+            final SleepState state = oversizedSleepingBodies.get(i);
+            if (state.overlaps(minX, minY, minZ, maxX, maxY, maxZ)) wake(state);
+        }
+        final int minSectionX = KrunchSectionPos.positionToSection(minX);
+        final int minSectionY = KrunchSectionPos.positionToSection(minY);
+        final int minSectionZ = KrunchSectionPos.positionToSection(minZ);
+        final int maxSectionX = KrunchSectionPos.positionToSection(maxX);
+        final int maxSectionY = KrunchSectionPos.positionToSection(maxY);
+        final int maxSectionZ = KrunchSectionPos.positionToSection(maxZ);
+        final long cells = (long) (maxSectionX - minSectionX + 1) * (maxSectionY - minSectionY + 1) * (maxSectionZ - minSectionZ + 1);
+        if (cells > sleepingGrid.size()) {
+            // Cheaper to go through the occupied cells than the covered ones. A body can be in several cells, so it's
+            // flagged the first time it's found.
+            for (final ObjectArrayList<SleepState> cellBodies : sleepingGrid.values()) {
+                for (final SleepState state : cellBodies) {
+                    if (!state.queuedToWake && state.overlaps(minX, minY, minZ, maxX, maxY, maxZ)) {
+                        state.queuedToWake = true;
+                        bodiesToWake.add(state);
+                    }
+                }
+            }
+            for (final SleepState state : bodiesToWake) {
+                state.queuedToWake = false;
+                wake(state);
+            }
+            bodiesToWake.clear();
+            return;
+        }
+        for (int x = minSectionX; x <= maxSectionX; x++) {
+            for (int y = minSectionY; y <= maxSectionY; y++) {
+                for (int z = minSectionZ; z <= maxSectionZ; z++) {
+                    final ObjectArrayList<SleepState> cellBodies = sleepingGrid.get(KrunchSectionPos.asLong(x, y, z));
+                    if (cellBodies == null) continue;
+                    // Waking removes the body from this list
+                    for (int i = cellBodies.size() - 1; i >= 0 && i < cellBodies.size(); i--) {
+                        final SleepState state = cellBodies.get(i);
+                        if (state.overlaps(minX, minY, minZ, maxX, maxY, maxZ)) wake(state);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addAwake(@NotNull SleepState state) {
+        state.awakeIndex = awakeBodies.size();
+        awakeBodies.add(state);
+    }
+
+    private void removeAwake(@NotNull SleepState state) {
+        if (state.awakeIndex < 0) return;
+        final SleepState last = awakeBodies.pop();
+        if (last != state) {
+            awakeBodies.set(state.awakeIndex, last);
+            last.awakeIndex = state.awakeIndex;
+        }
+        state.awakeIndex = -1;
+    }
+
+    private void onVoxelShapeUpdate(int rigidBodyId, int regionX, int regionY, int regionZ) {
+        final SleepState state = bodies.get(rigidBodyId);
+        if (state != null) {
+            if (state.sleeping) wake(state);
+        } else if (sleepingBodyCount != 0) {
+            // Another body, like terrain, changed. Wake the bodies that could be resting on the changed section. Voxels
+            // are centered on integer positions, so the section spans half a voxel past its corners.
+            final double minX = regionX * 16.0 - 0.5 - wakeMargin;
+            final double minY = regionY * 16.0 - 0.5 - wakeMargin;
+            final double minZ = regionZ * 16.0 - 0.5 - wakeMargin;
+            final double size = 16.0 + 2.0 * wakeMargin;
+            wakeOverlapping(minX, minY, minZ, minX + size, minY + size, minZ + size);
+        }
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates bodyUpdates : updates) {
+            for (final IVoxelShapeUpdate update : bodyUpdates.getShapeUpdates()) {
+                onVoxelShapeUpdate(bodyUpdates.getRigidBodyId(), update.getRegionX(), update.getRegionY(), update.getRegionZ());
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encoded,
+            (rigidBodyId, updateType, regionX, regionY, regionZ, runImmediately, overwriteExistingVoxels) ->
+                onVoxelShapeUpdate(rigidBodyId, regionX, regionY, regionZ)
+        );
+    }
+
+    @Override
+    public void onRigidBodyDisturbed(int rigidBodyId) {
+        final SleepState state = bodies.get(rigidBodyId);
+        if (state == null) return;
+        if (state.sleeping) wake(state);
+        // This is called before the body is changed, so bodies resting on it are woken before it can move away
+        wakeAround(state);
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        final SleepState state = bodies.remove(rigidBodyId);
+        if (state == null) return;
+        if (state.sleeping) {
+            removeFromGrid(state);
+            sleepingBodyCount--;
+        } else {
+            removeAwake(state);
+        }
+        wakeAround(state);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        bodies.clear();
+        awakeBodies.clear();
+        sleepingGrid.clear();
+        oversizedSleepingBodies.clear();
+        sleepingBodyCount = 0;
+    }
+
+    public boolean isSleeping(int rigidBodyId) {
+        final SleepState state = bodies.get(rigidBodyId);
+        return state != null && state.sleeping;
+    }
+
+    public int getAwakeBodyCount() {
+        return awakeBodies.size();
+    }
+
+    public int getSleepingBodyCount() {
+        return sleepingBodyCount;
+    }
+
+    /**
+     * @return The number of times a body has been put to sleep
+     */
+    public long getSleeps() {
+        return sleeps;
+    }
+
+    /**
+     * @return The number of times a sleeping body has been woken up
+     */
+    public long getWakes() {
+        return wakes;
+    }
+
+    /**
+     * The speed in meters per second a body must stay under to fall asleep.
+     */
+    public double getLinearSleepThreshold() {
+        return linearSleepThreshold;
+    }
+
+    public void setLinearSleepThreshold(double linearSleepThreshold) {
+        this.linearSleepThreshold = linearSleepThreshold;
+    }
+
+    /**
+     * The angular speed in radians per second a body must stay under to fall asleep.
+     */
+    public double getAngularSleepThreshold() {
+        return angularSleepThreshold;
+    }
+
+    public void setAngularSleepThreshold(double angularSleepThreshold) {
+        this.angularSleepThreshold = angularSleepThreshold;
+    }
+
+    public int getSleepWindowTicks() {
+        return sleepWindowTicks;
+    }
+
+    public void setSleepWindowTicks(int sleepWindowTicks) {
+        this.sleepWindowTicks = sleepWindowTicks;
+    }
+
+    /**
+     * How far apart two AABBs can be and still count as overlapping when waking bodies.
+     */
+    public double getWakeMargin() {
+        return wakeMargin;
+    }
+
+    public void setWakeMargin(double wakeMargin) {
+        this.wakeMargin = wakeMargin;
+    }
+
+    private static final class SleepState {
+        final KrunchNativeRigidBodyReference rigidBody;
+        int calmTicks = 0;
+        boolean sleeping = false;
+        int awakeIndex = -1;
+        // The AABB of the body when it fell asleep, or at the last update while it's awake. NaN if it had no voxels
+        // or hasn't been updated yet.
+        double minX = Double.NaN, minY, minZ, maxX, maxY, maxZ;
+        boolean oversized;
+        boolean queuedToWake = false;
+
+        SleepState(@NotNull KrunchNativeRigidBodyReference rigidBody) {
+            this.rigidBody = rigidBody;
+        }
+
+        void setAABB(@Nullable AABBd aabb) {
+            if (aabb == null) {
+                minX = Double.NaN;
+                return;
+            }
+            minX = aabb.minX;
+            minY = aabb.minY;
+            minZ = aabb.minZ;
+            maxX = aabb.maxX;
+            maxY = aabb.maxY;
+            maxZ = aabb.maxZ;
+        }
+
+        boolean overlaps(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+            return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY
+                && this.minZ <= maxZ && this.maxZ >= minZ;
+        }
+    }
+}
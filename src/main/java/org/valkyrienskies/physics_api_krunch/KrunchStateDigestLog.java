@@ -0,0 +1,259 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The state digests recorded by a {@link KrunchStateHasher}, one per tick, optionally with the digest of every body.
+ *
+ * Two logs recorded from runs that should be identical, like a server and a replay or the same scene on two native
+ * builds, can be compared with {@link #findFirstDivergence(KrunchStateDigestLog, KrunchStateDigestLog)}. Logs are
+ * written and read with {@link #writeTo(OutputStream)} and {@link #readFrom(InputStream)}, so runs in different
+ * processes can be compared.
+ */
+public class KrunchStateDigestLog {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int NO_BODY_DIGESTS = -1;
+
+    private final LongArrayList ticks = new LongArrayList();
+    private final LongArrayList digests = new LongArrayList();
+    // Where the body digests of each entry start, or NO_BODY_DIGESTS
+    private final IntArrayList bodyDigestStarts = new IntArrayList();
+    private final IntArrayList bodyDigestCounts = new IntArrayList();
+    // Sorted by id within each entry
+    private final IntArrayList bodyIds = new IntArrayList();
+    private final LongArrayList bodyDigests = new LongArrayList();
+
+    /**
+     * Adds the digest of [tick]. If [rigidBodyIds] isn't null the first [bodyCount] ids, which must be sorted, are
+     * stored with their digests from [rigidBodyDigests].
+     */
+    public void add(long tick, long digest, @Nullable int[] rigidBodyIds, @Nullable long[] rigidBodyDigests, int bodyCount) {
+        if (!ticks.isEmpty() && tick <= ticks.getLong(ticks.size() - 1)) {
+            throw new IllegalArgumentException("Ticks must be added in increasing order");
+        }
+        ticks.add(tick);
+        digests.add(digest);
+        if (rigidBodyIds == null || rigidBodyDigests == null) {
+            bodyDigestStarts.add(NO_BODY_DIGESTS);
+            bodyDigestCounts.add(0);
+            return;
+        }
+        bodyDigestStarts.add(bodyIds.size());
+        bodyDigestCounts.add(bodyCount);
+        for (int i = 0; i < bodyCount; i++) {
+            bodyIds.add(rigidBodyIds[i]);
+            bodyDigests.add(rigidBodyDigests[i]);
+        }
+    }
+
+    public int size() {
+        return ticks.size();
+    }
+
+    public long getTick(int index) {
+        return ticks.getLong(index);
+    }
+
+    public long getDigest(int index) {
+        return digests.getLong(index);
+    }
+
+    public boolean hasBodyDigests(int index) {
+        return bodyDigestStarts.getInt(index) != NO_BODY_DIGESTS;
+    }
+
+    /**
+     * @return The index of the entry for [tick], or -1 if there is none
+     */
+    public int indexOfTick(long tick) {
+        int low = 0;
+        int high = ticks.size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midTick = ticks.getLong(mid);
+            if (midTick < tick) {
+                low = mid + 1;
+            } else if (midTick > tick) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public void clear() {
+        ticks.clear();
+        digests.clear();
+        bodyDigestStarts.clear();
+        bodyDigestCounts.clear();
+        bodyIds.clear();
+        bodyDigests.clear();
+    }
+
+    public void writeTo(@NotNull OutputStream outputStream) throws IOException {
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(size());
+        for (int i = 0; i < size(); i++) {
+            output.writeLong(ticks.getLong(i));
+            output.writeLong(digests.getLong(i));
+            final int start = bodyDigestStarts.getInt(i);
+            if (start == NO_BODY_DIGESTS) {
+                output.writeInt(NO_BODY_DIGESTS);
+                continue;
+            }
+            final int count = bodyDigestCounts.getInt(i);
+            output.writeInt(count);
+            for (int j = start; j < start + count; j++) {
+                output.writeInt(bodyIds.getInt(j));
+                output.writeLong(bodyDigests.getLong(j));
+            }
+        }
+        output.flush();
+    }
+
+    @NotNull
+    public static KrunchStateDigestLog readFrom(@NotNull InputStream inputStream) throws IOException {
+        final DataInputStream input = new DataInputStream(inputStream);
+        final int version = input.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported state digest log version " + version);
+        }
+        final KrunchStateDigestLog log = new KrunchStateDigestLog();
+        final int size = input.readInt();
+        int[] ids = new int[0];
+        long[] bodyDigests = new long[0];
+        for (int i = 0; i < size; i++) {
+            final long tick = input.readLong();
+            final long digest = input.readLong();
+            final int count = input.readInt();
+            if (count == NO_BODY_DIGESTS) {
+                log.add(tick, digest, null, null, 0);
+                continue;
+            }
+            if (count > ids.length) {
+                ids = new int[count];
+                bodyDigests = new long[count];
+            }
+            for (int j = 0; j < count; j++) {
+                ids[j] = input.readInt();
+                bodyDigests[j] = input.readLong();
+            }
+            log.add(tick, digest, ids, bodyDigests, count);
+        }
+        return log;
+    }
+
+    /**
+     * Finds the first tick recorded in both logs whose digests differ. Ticks only recorded in one of the logs are
+     * skipped.
+     *
+     * @return The divergence, or null if every tick recorded in both logs matches
+     */
+    @Nullable
+    public static Divergence findFirstDivergence(@NotNull KrunchStateDigestLog a, @NotNull KrunchStateDigestLog b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            final long tickA = a.getTick(i);
+            final long tickB = b.getTick(j);
+            if (tickA < tickB) {
+                i++;
+            } else if (tickA > tickB) {
+                j++;
+            } else if (a.getDigest(i) == b.getDigest(j)) {
+                i++;
+                j++;
+            } else {
+                return new Divergence(tickA, a.getDigest(i), b.getDigest(j), differingBodies(a, i, b, j));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The ids of bodies whose digests differ or that only exist in one of the entries, empty if either entry
+     *         has no body digests
+     */
+    @NotNull
+    private static int[] differingBodies(@NotNull KrunchStateDigestLog a, int indexA, @NotNull KrunchStateDigestLog b, int indexB) {
+        final IntArrayList differing = new IntArrayList();
+        if (!a.hasBodyDigests(indexA) || !b.hasBodyDigests(indexB)) return differing.toIntArray();
+        int i = a.bodyDigestStarts.getInt(indexA);
+        int j = b.bodyDigestStarts.getInt(indexB);
+        final int endA = i + a.bodyDigestCounts.getInt(indexA);
+        final int endB = j + b.bodyDigestCounts.getInt(indexB);
+        while (i < endA || j < endB) {
+            final int idA = i < endA ? a.bodyIds.getInt(i) : Integer.MAX_VALUE;
+            final int idB = j < endB ? b.bodyIds.getInt(j) : Integer.MAX_VALUE;
+            if (i < endA && (j == endB || idA < idB)) {
+                differing.add(idA);
+                i++;
+            } else if (j < endB && (i == endA || idB < idA)) {
+                differing.add(idB);
+                j++;
+            } else {
+                if (a.bodyDigests.getLong(i) != b.bodyDigests.getLong(j)) differing.add(idA);
+                i++;
+                j++;
+            }
+        }
+        return differing.toIntArray();
+    }
+
+    /**
+     * The first tick at which two digest logs differ.
+     */
+    public static final class Divergence {
+        private final long tick;
+        private final long digestA;
+        private final long digestB;
+        private final int[] differingRigidBodyIds;
+
+        private Divergence(long tick, long digestA, long digestB, @NotNull int[] differingRigidBodyIds) {
+            this.tick = tick;
+            this.digestA = digestA;
+            this.digestB = digestB;
+            this.differingRigidBodyIds = differingRigidBodyIds;
+        }
+
+        public long getTick() {
+            return tick;
+        }
+
+        public long getDigestA() {
+            return digestA;
+        }
+
+        public long getDigestB() {
+            return digestB;
+        }
+
+        /**
+         * @return The sorted ids of the bodies that differ at {@link #getTick()}, empty if body digests weren't
+         *         recorded for that tick in both logs
+         */
+        @NotNull
+        public int[] getDifferingRigidBodyIds() {
+            return differingRigidBodyIds;
+        }
+
+        @Override
+        public String toString() {
+            return "Divergence{tick=" + tick + ", digestA=" + Long.toHexString(digestA) + ", digestB="
+                + Long.toHexString(digestB) + ", differingRigidBodyIds=" + Arrays.toString(differingRigidBodyIds) + "}";
+        }
+    }
+}
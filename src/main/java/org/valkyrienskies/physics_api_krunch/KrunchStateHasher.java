@@ -0,0 +1,146 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3dc;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+
+import java.util.Arrays;
+
+/**
+ * Hashes the state of every live rigid body of a physics world into one 64 bit digest, so two runs that should be
+ * identical can be checked for divergence without storing their full state.
+ *
+ * The digest covers the id, transform, velocity and omega of every body in increasing id order, hashed from the raw
+ * bits of the doubles, so any difference at all changes it. It's a fast non-cryptographic hash, not meant to resist
+ * tampering. If a {@link KrunchStateDigestLog} is given the digest is added to it after every tick of the physics world,
+ * with the digest of every body too if {@link #setRecordBodyDigests(boolean)} is enabled. To hash a
+ * {@link KrunchShardedPhysicsWorld} per shard, create one hasher for each {@link KrunchShardedPhysicsWorld#getPhysicsWorld(int)}.
+ *
+ * All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchStateHasher implements KrunchPhysicsWorldListener {
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long SEED = 0x27D4EB2F165667C5L;
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    @Nullable
+    private final KrunchStateDigestLog log;
+
+    private boolean recordBodyDigests = false;
+    private long tick = 0;
+
+    // Reused by every digest
+    private int[] rigidBodyIds = new int[16];
+    private long[] rigidBodyDigests = new long[16];
+    private int rigidBodyCount = 0;
+    private final double[] transformTemp = new double[7];
+
+    /**
+     * @param log Where to record the digest after every tick, or null to only compute digests with {@link #computeDigest()}
+     */
+    public KrunchStateHasher(@NotNull PhysicsWorldReference physicsWorldReference, @Nullable KrunchStateDigestLog log) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.log = log;
+        this.physicsWorldReference.addListener(this);
+    }
+
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * @return The digest of the current state of the physics world
+     */
+    public long computeDigest() {
+        final int count = physicsWorldReference.getRigidBodyCount();
+        if (count > rigidBodyIds.length) {
+            final int newLength = Math.max(count, rigidBodyIds.length * 2);
+            rigidBodyIds = new int[newLength];
+            rigidBodyDigests = new long[newLength];
+        }
+        for (int i = 0; i < count; i++) {
+            rigidBodyIds[i] = physicsWorldReference.getRigidBodyAt(i).getRigidBodyId();
+        }
+        Arrays.sort(rigidBodyIds, 0, count);
+        rigidBodyCount = count;
+
+        long digest = mix(SEED, count);
+        for (int i = 0; i < count; i++) {
+            final long bodyDigest = computeBodyDigest(physicsWorldReference.getRigidBody(rigidBodyIds[i]));
+            rigidBodyDigests[i] = bodyDigest;
+            digest = mix(digest, bodyDigest);
+        }
+        return finish(digest);
+    }
+
+    private long computeBodyDigest(@NotNull KrunchNativeRigidBodyReference rigidBody) {
+        long digest = mix(SEED, rigidBody.getRigidBodyId());
+        rigidBody.getRigidBodyTransform(transformTemp, 0);
+        for (final double value : transformTemp) {
+            digest = mix(digest, Double.doubleToRawLongBits(value));
+        }
+        final Vector3dc velocity = rigidBody.getVelocity();
+        digest = mix(digest, Double.doubleToRawLongBits(velocity.x()));
+        digest = mix(digest, Double.doubleToRawLongBits(velocity.y()));
+        digest = mix(digest, Double.doubleToRawLongBits(velocity.z()));
+        final Vector3dc omega = rigidBody.getOmega();
+        digest = mix(digest, Double.doubleToRawLongBits(omega.x()));
+        digest = mix(digest, Double.doubleToRawLongBits(omega.y()));
+        digest = mix(digest, Double.doubleToRawLongBits(omega.z()));
+        return finish(digest);
+    }
+
+    private static long mix(long digest, long value) {
+        return Long.rotateLeft(digest ^ (value * PRIME_2), 31) * PRIME_1;
+    }
+
+    // The finalizer of MurmurHash3, so every input bit affects every output bit
+    private static long finish(long digest) {
+        digest ^= digest >>> 33;
+        digest *= 0xFF51AFD7ED558CCDL;
+        digest ^= digest >>> 33;
+        digest *= 0xC4CEB9FE1A85EC53L;
+        digest ^= digest >>> 33;
+        return digest;
+    }
+
+    @Override
+    public void onPhysicsWorldTicked() {
+        tick++;
+        if (log == null) return;
+        final long digest = computeDigest();
+        if (recordBodyDigests) {
+            log.add(tick, digest, rigidBodyIds, rigidBodyDigests, rigidBodyCount);
+        } else {
+            log.add(tick, digest, null, null, 0);
+        }
+    }
+
+    /**
+     * @return The number of ticks of the physics world since this hasher was created, the tick recorded in the log
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    @Nullable
+    public KrunchStateDigestLog getLog() {
+        return log;
+    }
+
+    /**
+     * Whether the digest of every body is recorded in the log along with the digest of the world, so
+     * {@link KrunchStateDigestLog#findFirstDivergence(KrunchStateDigestLog, KrunchStateDigestLog)} can tell which bodies
+     * differ. This costs 12 bytes per body per tick.
+     */
+    public boolean isRecordBodyDigests() {
+        return recordBodyDigests;
+    }
+
+    public void setRecordBodyDigests(boolean recordBodyDigests) {
+        this.recordBodyDigests = recordBodyDigests;
+    }
+}
@@ -0,0 +1,24 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.Nullable;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+
+/**
+ * Supplies terrain sections to a {@link KrunchTerrainStreamer}.
+ *
+ * This is called from the streamer's background executor, not from the physics thread, so implementations must be
+ * thread safe.
+ */
+@FunctionalInterface
+public interface KrunchTerrainSectionProvider {
+    /**
+     * @return A {@link DenseVoxelShapeUpdate} or {@link EmptyVoxelShapeUpdate} for the section at the given section
+     *         coordinates, or null if the section isn't available yet. Sections that return null are requested again
+     *         once a body sweeps different sections, {@link KrunchTerrainStreamer#markSectionAvailable} is called, or
+     *         {@link KrunchTerrainStreamer#getMissRetryTicks()} ticks have passed.
+     */
+    @Nullable
+    IVoxelShapeUpdate provideTerrainSection(int dimension, int sectionX, int sectionY, int sectionZ);
+}
@@ -0,0 +1,489 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3dc;
+import org.joml.primitives.AABBd;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Streams terrain sections into terrain rigid bodies ahead of the bodies moving through them.
+ *
+ * Every call to {@link #update(double)} predicts the region each tracked body sweeps over the next
+ * {@link #getLookAheadTicks()} ticks, requests the missing sections from a {@link KrunchTerrainSectionProvider} on a
+ * background executor, and sends finished sections to Krunch within a per-tick budget. It also sets
+ * {@link RigidBodyReference#setVoxelTerrainFullyLoaded(boolean)} on tracked bodies, so a body only moves once the
+ * terrain around it has been loaded.
+ *
+ * When the provider doesn't have a section yet, the miss is remembered, and the section isn't requested again until it
+ * newly enters the sections a body sweeps, {@link #markSectionAvailable} is called for it, or
+ * {@link #getMissRetryTicks()} ticks have passed.
+ *
+ * Terrain bodies are expected to have an identity transform, so that their voxel coordinates are world coordinates.
+ * Terrain sections deleted with a {@link DeleteVoxelShapeUpdate}, for example by {@link KrunchVoxelMemoryTracker}, are
+ * requested again when a tracked body comes near them.
+ *
+ * All methods except the provider callbacks must be called from the thread that ticks the physics world.
+ */
+public class KrunchTerrainStreamer implements KrunchPhysicsWorldListener {
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final KrunchTerrainSectionProvider sectionProvider;
+    private final Executor executor;
+
+    // Terrain state by dimension
+    private final Int2ObjectOpenHashMap<TerrainDimension> terrainDimensions = new Int2ObjectOpenHashMap<>();
+    // Tracked bodies by rigid body id
+    private final Int2ObjectOpenHashMap<TrackedBody> trackedBodies = new Int2ObjectOpenHashMap<>();
+    // Sections finished by the executor, waiting to be sent to Krunch
+    private final ConcurrentLinkedQueue<StreamedSection> streamedSections = new ConcurrentLinkedQueue<>();
+    private final ObjectArrayList<byte[]> sectionsToSend = new ObjectArrayList<>();
+    private final AABBd aabbTemp = new AABBd();
+
+    private int lookAheadTicks = 20;
+    private int sectionMargin = 1;
+    private int maxSectionsPerTick = 64;
+    private int maxBytesPerTick = 1 << 20;
+    private int maxRequestsInFlight = 256;
+    private int missRetryTicks = 100;
+
+    private long tick = 0;
+    private int requestsInFlight = 0;
+    private long sectionsSent = 0;
+    private long bytesSent = 0;
+
+    public KrunchTerrainStreamer(@NotNull PhysicsWorldReference physicsWorldReference,
+                                 @NotNull KrunchTerrainSectionProvider sectionProvider, @NotNull Executor executor) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.sectionProvider = sectionProvider;
+        this.executor = executor;
+        this.physicsWorldReference.addListener(this);
+    }
+
+    /**
+     * Stop listening to the physics world. Sections that are still being provided are dropped.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Sets the rigid body that terrain sections of [dimension] are streamed into. Only sections with a y coordinate
+     * between [minSectionY] and [maxSectionY] (inclusive) are requested.
+     */
+    public void setTerrainBody(int dimension, @NotNull RigidBodyReference terrainBody, int minSectionY, int maxSectionY) {
+        terrainDimensions.put(dimension, new TerrainDimension(dimension, terrainBody.getRigidBodyId(), minSectionY, maxSectionY));
+    }
+
+    public void removeTerrainBody(int dimension) {
+        terrainDimensions.remove(dimension);
+    }
+
+    /**
+     * Start streaming terrain around [rigidBody], which lives in [dimension].
+     */
+    public void trackBody(@NotNull RigidBodyReference rigidBody, int dimension) {
+        trackedBodies.put(rigidBody.getRigidBodyId(), new TrackedBody(rigidBody, dimension));
+    }
+
+    public void untrackBody(int rigidBodyId) {
+        trackedBodies.remove(rigidBodyId);
+    }
+
+    /**
+     * Marks a terrain section as unloaded. It will be requested again when a tracked body comes near it.
+     */
+    public void markSectionUnloaded(int dimension, int sectionX, int sectionY, int sectionZ) {
+        final TerrainDimension terrainDimension = terrainDimensions.get(dimension);
+        if (terrainDimension != null) {
+            final long sectionPos = KrunchSectionPos.asLong(sectionX, sectionY, sectionZ);
+            terrainDimension.loadedSections.remove(sectionPos);
+            terrainDimension.missedSections.remove(sectionPos);
+        }
+    }
+
+    /**
+     * Tells the streamer that the provider now has a section it didn't have before, so it's requested again on the
+     * next update instead of waiting for the miss to expire.
+     */
+    public void markSectionAvailable(int dimension, int sectionX, int sectionY, int sectionZ) {
+        final TerrainDimension terrainDimension = terrainDimensions.get(dimension);
+        if (terrainDimension != null) {
+            terrainDimension.missedSections.remove(KrunchSectionPos.asLong(sectionX, sectionY, sectionZ));
+        }
+    }
+
+    public boolean isSectionLoaded(int dimension, int sectionX, int sectionY, int sectionZ) {
+        final TerrainDimension terrainDimension = terrainDimensions.get(dimension);
+        return terrainDimension != null && terrainDimension.loadedSections.contains(KrunchSectionPos.asLong(sectionX, sectionY, sectionZ));
+    }
+
+    /**
+     * Sends finished sections to Krunch, requests the sections tracked bodies will need, and updates whether tracked
+     * bodies have their terrain fully loaded. This should be called once per tick, before ticking the physics world.
+     *
+     * @param timeStep The time step of the upcoming physics ticks, used to predict how far bodies move
+     */
+    public void update(double timeStep) throws UsingDeletedReferenceException {
+        tick++;
+        sendStreamedSections();
+
+        for (final TrackedBody trackedBody : trackedBodies.values()) {
+            final TerrainDimension terrainDimension = terrainDimensions.get(trackedBody.dimension);
+            if (terrainDimension == null || trackedBody.rigidBody.hasBeenDeleted()) continue;
+            if (!trackedBody.rigidBody.getAABB(aabbTemp)) continue;
+            final Vector3dc velocity = trackedBody.rigidBody.getVelocity();
+
+            // Request the sections swept over the look ahead period, then gate on the sections swept this tick
+            requestSweptSections(terrainDimension, trackedBody, velocity, lookAheadTicks * timeStep);
+            trackedBody.coverage = computeSweptCoverage(terrainDimension, velocity, timeStep);
+
+            final boolean isFullyLoaded = trackedBody.coverage >= 1.0;
+            if (trackedBody.fullyLoadedState != (isFullyLoaded ? 1 : 0)) {
+                trackedBody.rigidBody.setVoxelTerrainFullyLoaded(isFullyLoaded);
+                trackedBody.fullyLoadedState = isFullyLoaded ? 1 : 0;
+            }
+        }
+    }
+
+    private void sendStreamedSections() {
+        int sectionsBudget = maxSectionsPerTick;
+        int bytesBudget = maxBytesPerTick;
+        while (sectionsBudget > 0) {
+            final StreamedSection streamedSection = streamedSections.peek();
+            if (streamedSection == null) break;
+            // Always let at least one section through, otherwise a section bigger than the budget would never be sent
+            if (streamedSection.encoded != null && !sectionsToSend.isEmpty() && streamedSection.encoded.length > bytesBudget) break;
+            streamedSections.poll();
+            requestsInFlight--;
+
+            final TerrainDimension terrainDimension = terrainDimensions.get(streamedSection.dimension);
+            if (terrainDimension == null || terrainDimension.terrainBodyId != streamedSection.terrainBodyId) continue;
+            terrainDimension.requestedSections.remove(streamedSection.sectionPos);
+            // The provider didn't have this section yet, remember that so it isn't asked again every tick
+            if (streamedSection.encoded == null) {
+                terrainDimension.missedSections.put(streamedSection.sectionPos, tick);
+                continue;
+            }
+            if (!terrainDimension.loadedSections.add(streamedSection.sectionPos)) continue;
+
+            sectionsToSend.add(streamedSection.encoded);
+            sectionsBudget--;
+            bytesBudget -= streamedSection.encoded.length;
+        }
+
+        if (!sectionsToSend.isEmpty()) {
+            final byte[] merged = VoxelRigidBodyShapeUpdatesEncoder.mergeEncodedVoxelRigidBodyShapeUpdatesArrays(sectionsToSend);
+            physicsWorldReference.queueEncodedVoxelShapeUpdates(merged);
+            sectionsSent += sectionsToSend.size();
+            bytesSent += merged.length;
+            sectionsToSend.clear();
+        }
+    }
+
+    private void requestSweptSections(@NotNull TerrainDimension terrainDimension, @NotNull TrackedBody trackedBody,
+                                      @NotNull Vector3dc velocity, double sweepTime) {
+        final int minX = sweptMinSection(aabbTemp.minX, velocity.x() * sweepTime);
+        final int minY = Math.max(sweptMinSection(aabbTemp.minY, velocity.y() * sweepTime), terrainDimension.minSectionY);
+        final int minZ = sweptMinSection(aabbTemp.minZ, velocity.z() * sweepTime);
+        final int maxX = sweptMaxSection(aabbTemp.maxX, velocity.x() * sweepTime);
+        final int maxY = Math.min(sweptMaxSection(aabbTemp.maxY, velocity.y() * sweepTime), terrainDimension.maxSectionY);
+        final int maxZ = sweptMaxSection(aabbTemp.maxZ, velocity.z() * sweepTime);
+
+        requestLoop:
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int y = minY; y <= maxY; y++) {
+                    if (requestsInFlight >= maxRequestsInFlight) break requestLoop;
+                    final long sectionPos = KrunchSectionPos.asLong(x, y, z);
+                    if (terrainDimension.loadedSections.contains(sectionPos)) continue;
+                    final long missTick = terrainDimension.missedSections.get(sectionPos);
+                    if (missTick != -1) {
+                        // Missed sections are only retried early when they weren't swept by this body last time
+                        if (trackedBody.wasSwept(x, y, z) && tick - missTick < missRetryTicks) continue;
+                        terrainDimension.missedSections.remove(sectionPos);
+                    }
+                    if (!terrainDimension.requestedSections.add(sectionPos)) continue;
+                    requestSection(terrainDimension, x, y, z, sectionPos);
+                }
+            }
+        }
+        trackedBody.setSweptSections(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    private double computeSweptCoverage(@NotNull TerrainDimension terrainDimension, @NotNull Vector3dc velocity, double sweepTime) {
+        final int minX = sweptMinSection(aabbTemp.minX, velocity.x() * sweepTime);
+        final int minY = Math.max(sweptMinSection(aabbTemp.minY, velocity.y() * sweepTime), terrainDimension.minSectionY);
+        final int minZ = sweptMinSection(aabbTemp.minZ, velocity.z() * sweepTime);
+        final int maxX = sweptMaxSection(aabbTemp.maxX, velocity.x() * sweepTime);
+        final int maxY = Math.min(sweptMaxSection(aabbTemp.maxY, velocity.y() * sweepTime), terrainDimension.maxSectionY);
+        final int maxZ = sweptMaxSection(aabbTemp.maxZ, velocity.z() * sweepTime);
+
+        int totalSections = 0;
+        int loadedSections = 0;
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int y = minY; y <= maxY; y++) {
+                    totalSections++;
+                    if (terrainDimension.loadedSections.contains(KrunchSectionPos.asLong(x, y, z))) loadedSections++;
+                }
+            }
+        }
+        // A body entirely above or below the terrain doesn't need any sections
+        if (totalSections == 0) return 1.0;
+        return ((double) loadedSections) / totalSections;
+    }
+
+    private int sweptMinSection(double min, double displacement) {
+        return KrunchSectionPos.positionToSection(min + Math.min(displacement, 0.0)) - sectionMargin;
+    }
+
+    private int sweptMaxSection(double max, double displacement) {
+        return KrunchSectionPos.positionToSection(max + Math.max(displacement, 0.0)) + sectionMargin;
+    }
+
+    private void requestSection(@NotNull TerrainDimension terrainDimension, int sectionX, int sectionY, int sectionZ, long sectionPos) {
+        final int dimension = terrainDimension.dimension;
+        final int terrainBodyId = terrainDimension.terrainBodyId;
+        requestsInFlight++;
+        try {
+            executor.execute(() -> {
+                byte[] encoded = null;
+                try {
+                    final IVoxelShapeUpdate section = sectionProvider.provideTerrainSection(dimension, sectionX, sectionY, sectionZ);
+                    if (section != null) {
+                        final VoxelRigidBodyShapeUpdates[] updates = {
+                            new VoxelRigidBodyShapeUpdates(terrainBodyId, new IVoxelShapeUpdate[]{section})
+                        };
+                        encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(updates);
+                    }
+                } finally {
+                    // Always report back, otherwise a failing provider would leave the section requested forever
+                    streamedSections.add(new StreamedSection(dimension, terrainBodyId, sectionPos, encoded));
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // The task will never report back, so the section must not stay requested
+            requestsInFlight--;
+            terrainDimension.requestedSections.remove(sectionPos);
+            throw e;
+        }
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates update : updates) {
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                if (voxelShapeUpdate instanceof DeleteVoxelShapeUpdate) {
+                    onTerrainSectionDeleted(update.getRigidBodyId(), voxelShapeUpdate.getRegionX(),
+                        voxelShapeUpdate.getRegionY(), voxelShapeUpdate.getRegionZ());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encoded,
+            (rigidBodyId, updateType, regionX, regionY, regionZ, runImmediately, overwriteExistingVoxels) -> {
+                if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE) {
+                    onTerrainSectionDeleted(rigidBodyId, regionX, regionY, regionZ);
+                }
+            });
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        trackedBodies.remove(rigidBodyId);
+        for (final TerrainDimension terrainDimension : terrainDimensions.values()) {
+            if (terrainDimension.terrainBodyId == rigidBodyId) {
+                terrainDimensions.remove(terrainDimension.dimension);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        trackedBodies.clear();
+        terrainDimensions.clear();
+    }
+
+    private void onTerrainSectionDeleted(int rigidBodyId, int sectionX, int sectionY, int sectionZ) {
+        for (final TerrainDimension terrainDimension : terrainDimensions.values()) {
+            if (terrainDimension.terrainBodyId == rigidBodyId) {
+                terrainDimension.loadedSections.remove(KrunchSectionPos.asLong(sectionX, sectionY, sectionZ));
+            }
+        }
+    }
+
+    /**
+     * @return The fraction of the sections [rigidBodyId] will sweep this tick that are loaded, or -1 if the body isn't
+     *         tracked
+     */
+    public double getCoverage(int rigidBodyId) {
+        final TrackedBody trackedBody = trackedBodies.get(rigidBodyId);
+        return trackedBody != null ? trackedBody.coverage : -1.0;
+    }
+
+    public int getRequestsInFlight() {
+        return requestsInFlight;
+    }
+
+    public long getSectionsSent() {
+        return sectionsSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getLookAheadTicks() {
+        return lookAheadTicks;
+    }
+
+    public void setLookAheadTicks(int lookAheadTicks) {
+        this.lookAheadTicks = lookAheadTicks;
+    }
+
+    public int getSectionMargin() {
+        return sectionMargin;
+    }
+
+    /**
+     * Sets how many extra sections around the swept region are loaded, in every direction.
+     */
+    public void setSectionMargin(int sectionMargin) {
+        this.sectionMargin = sectionMargin;
+    }
+
+    public int getMaxSectionsPerTick() {
+        return maxSectionsPerTick;
+    }
+
+    public void setMaxSectionsPerTick(int maxSectionsPerTick) {
+        this.maxSectionsPerTick = maxSectionsPerTick;
+    }
+
+    public int getMaxBytesPerTick() {
+        return maxBytesPerTick;
+    }
+
+    public void setMaxBytesPerTick(int maxBytesPerTick) {
+        this.maxBytesPerTick = maxBytesPerTick;
+    }
+
+    public int getMissRetryTicks() {
+        return missRetryTicks;
+    }
+
+    /**
+     * Sets how many ticks a section the provider didn't have is skipped for, if nothing else causes it to be
+     * requested again.
+     */
+    public void setMissRetryTicks(int missRetryTicks) {
+        this.missRetryTicks = missRetryTicks;
+    }
+
+    /**
+     * @return The number of sections the provider didn't have, that aren't requested until they're retried
+     */
+    public int getMissedSectionCount() {
+        int count = 0;
+        for (final TerrainDimension terrainDimension : terrainDimensions.values()) {
+            count += terrainDimension.missedSections.size();
+        }
+        return count;
+    }
+
+    public int getMaxRequestsInFlight() {
+        return maxRequestsInFlight;
+    }
+
+    public void setMaxRequestsInFlight(int maxRequestsInFlight) {
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    private static final class TerrainDimension {
+        private final int dimension;
+        private final int terrainBodyId;
+        private final int minSectionY;
+        private final int maxSectionY;
+        private final LongOpenHashSet loadedSections = new LongOpenHashSet();
+        // Sections that have been requested from the provider but haven't been sent yet
+        private final LongOpenHashSet requestedSections = new LongOpenHashSet();
+        // The tick the provider last didn't have each section
+        private final Long2LongOpenHashMap missedSections = new Long2LongOpenHashMap();
+
+        private TerrainDimension(int dimension, int terrainBodyId, int minSectionY, int maxSectionY) {
+            this.dimension = dimension;
+            this.terrainBodyId = terrainBodyId;
+            this.minSectionY = minSectionY;
+            this.maxSectionY = maxSectionY;
+            missedSections.defaultReturnValue(-1);
+        }
+    }
+
+    private static final class TrackedBody {
+        private final RigidBodyReference rigidBody;
+        private final int dimension;
+        // -1 until we've set isVoxelTerrainFullyLoaded, then 0 or 1
+        private int fullyLoadedState = -1;
+        private double coverage = 0.0;
+        // The sections swept by this body last update, as min x, y, z and max x, y, z
+        private final int[] sweptSections = new int[6];
+        private boolean hasSweptSections = false;
+
+        private TrackedBody(@NotNull RigidBodyReference rigidBody, int dimension) {
+            this.rigidBody = rigidBody;
+            this.dimension = dimension;
+        }
+
+        /**
+         * @return True if the section at [x], [y], [z] was swept by this body last update
+         */
+        private boolean wasSwept(int x, int y, int z) {
+            return hasSweptSections && x >= sweptSections[0] && y >= sweptSections[1] && z >= sweptSections[2]
+                && x <= sweptSections[3] && y <= sweptSections[4] && z <= sweptSections[5];
+        }
+
+        private void setSweptSections(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            sweptSections[0] = minX;
+            sweptSections[1] = minY;
+            sweptSections[2] = minZ;
+            sweptSections[3] = maxX;
+            sweptSections[4] = maxY;
+            sweptSections[5] = maxZ;
+            hasSweptSections = true;
+        }
+    }
+
+    private static final class StreamedSection {
+        private final int dimension;
+        private final int terrainBodyId;
+        private final long sectionPos;
+        // Null if the provider didn't have the section
+        @Nullable
+        private final byte[] encoded;
+
+        private StreamedSection(int dimension, int terrainBodyId, long sectionPos, @Nullable byte[] encoded) {
+            this.dimension = dimension;
+            this.terrainBodyId = terrainBodyId;
+            this.sectionPos = sectionPos;
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3dc;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBic;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simulates rigid bodies in several physics worlds of decreasing fidelity, and moves rigid bodies between them.
+ *
+ * Krunch settings apply to a whole physics world, so fidelity can't be lowered for a single rigid body. Instead tier 0
+ * is a high fidelity physics world, and every tier after it is a cheaper physics world, by default with fewer sub-steps
+ * and iterations and the {@link SolverType#GAUSS_SEIDEL} solver. {@link #updateTiers(List)} puts every rigid body in
+ * the tier for its distance to the nearest observer, and {@link #setPinnedTier} keeps important rigid bodies in a tier
+ * no matter how far they are.
+ *
+ * Migrating a rigid body creates a copy of it in the new tier and deletes the old one, see {@link KrunchMultiPhysicsWorld}.
+ * Rigid bodies are referred to by {@link KrunchTieredRigidBody} handles, which stay valid across migrations. Rigid bodies
+ * in different tiers can't collide with each other, so terrain should be created with
+ * {@link #createSharedVoxelRigidBody}, which creates it in every tier. The physics world indices of the base class are
+ * tiers.
+ *
+ * All methods must be called from the thread that ticks the physics worlds.
+ */
+public class KrunchTieredPhysicsWorld extends KrunchMultiPhysicsWorld<KrunchTieredRigidBody> {
+
+    /**
+     * Returned by {@link KrunchTieredRigidBody#getPinnedTier()} for rigid bodies that are placed by distance.
+     */
+    public static final int NOT_PINNED = -1;
+
+    // The maximum distance to an observer of each tier except the last one, which has no maximum
+    private final double[] tierDistances;
+    private double hysteresis = 0.1;
+
+    // Filled by [updateTiers], migrations are done after iterating over the handles
+    private final ObjectArrayList<KrunchTieredRigidBody> migratingRigidBodies = new ObjectArrayList<>();
+    private final IntArrayList migrationTiers = new IntArrayList();
+    private final double[] positionTemp = new double[7];
+
+    /**
+     * Creates a high fidelity tier with default settings, and [lowFidelityTiers] tiers with
+     * {@link #createLowFidelitySettings()}.
+     */
+    public KrunchTieredPhysicsWorld(int lowFidelityTiers) throws OutOfMemoryError {
+        this(createDefaultTierSettings(lowFidelityTiers));
+    }
+
+    /**
+     * Creates a tier for each of [tierSettings], from the highest fidelity to the lowest.
+     */
+    public KrunchTieredPhysicsWorld(@NotNull KrunchPhysicsWorldSettingsc... tierSettings) throws OutOfMemoryError {
+        super(checkTierCount(tierSettings));
+        this.tierDistances = new double[tierSettings.length - 1];
+        for (int tier = 0; tier < tierDistances.length; tier++) {
+            tierDistances[tier] = 128.0 * (tier + 1);
+        }
+    }
+
+    @NotNull
+    private static KrunchPhysicsWorldSettingsc[] checkTierCount(@NotNull KrunchPhysicsWorldSettingsc[] tierSettings) {
+        if (tierSettings.length < 2) {
+            throw new IllegalArgumentException("There must be at least 2 tiers, got " + tierSettings.length);
+        }
+        return tierSettings;
+    }
+
+    @NotNull
+    private static KrunchPhysicsWorldSettingsc[] createDefaultTierSettings(int lowFidelityTiers) {
+        if (lowFidelityTiers < 1) {
+            throw new IllegalArgumentException("There must be at least 1 low fidelity tier, got " + lowFidelityTiers);
+        }
+        final KrunchPhysicsWorldSettingsc[] tierSettings = new KrunchPhysicsWorldSettingsc[lowFidelityTiers + 1];
+        tierSettings[0] = new KrunchPhysicsWorldSettings();
+        Arrays.fill(tierSettings, 1, tierSettings.length, createLowFidelitySettings());
+        return tierSettings;
+    }
+
+    /**
+     * @return Settings for distant rigid bodies, that trade accuracy for speed
+     */
+    @NotNull
+    public static KrunchPhysicsWorldSettings createLowFidelitySettings() {
+        final KrunchPhysicsWorldSettings settings = new KrunchPhysicsWorldSettings();
+        settings.setSubSteps(5);
+        settings.setIterations(1);
+        settings.setSolverType(SolverType.GAUSS_SEIDEL);
+        return settings;
+    }
+
+    public int getTierCount() {
+        return physicsWorlds.length;
+    }
+
+    public void setTierSettings(int tier, @NotNull KrunchPhysicsWorldSettingsc settings) throws UsingDeletedReferenceException {
+        physicsWorlds[tier].setSettings(settings);
+    }
+
+    /**
+     * Creates a voxel rigid body in [tier].
+     */
+    @NotNull
+    public KrunchTieredRigidBody createVoxelRigidBody(int tier, int dimension, @NotNull Vector3ic minDefined,
+                                                      @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion)
+        throws OutOfMemoryError, UsingDeletedReferenceException {
+        return createVoxelRigidBodyIn(tier, dimension, minDefined, maxDefined, totalVoxelRegion);
+    }
+
+    @NotNull
+    @Override
+    protected KrunchTieredRigidBody createHandle(int handleId, boolean shared, int dimension, @NotNull Vector3ic minDefined,
+                                                 @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion) {
+        return new KrunchTieredRigidBody(handleId, shared, physicsWorlds.length, dimension, minDefined, maxDefined, totalVoxelRegion);
+    }
+
+    /**
+     * Ticks the physics world of every tier.
+     */
+    public void tick(@NotNull Vector3dc gravity, double timeStep, boolean simulatePhysics) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        for (final KrunchNativePhysicsWorldReference physicsWorld : physicsWorlds) {
+            physicsWorld.tick(gravity, timeStep, simulatePhysics);
+        }
+    }
+
+    /**
+     * Moves every rigid body that isn't shared or pinned to the tier for its distance to the nearest of [observers].
+     * A rigid body only moves to a lower fidelity tier once it's more than {@link #getHysteresis()} past the distance
+     * of its tier, so rigid bodies near a tier boundary don't keep migrating back and forth.
+     *
+     * @return The number of rigid bodies migrated
+     */
+    public int updateTiers(@NotNull List<? extends Vector3dc> observers) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        for (final KrunchTieredRigidBody rigidBody : rigidBodies.values()) {
+            if (rigidBody.isShared() || rigidBody.getPinnedTier() != NOT_PINNED) continue;
+            final int tier = rigidBody.getTier();
+            final double distanceSq = distanceSqToNearestObserver(rigidBody.getNativeRigidBody(0), observers);
+            // Moving to a higher fidelity tier happens as soon as the rigid body is close enough
+            final int closerTier = tierForDistanceSq(distanceSq, 1.0);
+            final int fartherTier = tierForDistanceSq(distanceSq, 1.0 + hysteresis);
+            if (closerTier < tier) {
+                migratingRigidBodies.add(rigidBody);
+                migrationTiers.add(closerTier);
+            } else if (fartherTier > tier) {
+                migratingRigidBodies.add(rigidBody);
+                migrationTiers.add(fartherTier);
+            }
+        }
+        final int migrated = migratingRigidBodies.size();
+        for (int i = 0; i < migrated; i++) {
+            migrate(migratingRigidBodies.get(i), migrationTiers.getInt(i));
+        }
+        migratingRigidBodies.clear();
+        migrationTiers.clear();
+        return migrated;
+    }
+
+    private double distanceSqToNearestObserver(@NotNull KrunchNativeRigidBodyReference rigidBody, @NotNull List<? extends Vector3dc> observers) {
+        rigidBody.getRigidBodyTransform(positionTemp, 0);
+        double nearestDistanceSq = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < observers.size(); i++) {
+            final Vector3dc observer = observers.get(i);
+            final double dx = positionTemp[0] - observer.x();
+            final double dy = positionTemp[1] - observer.y();
+            final double dz = positionTemp[2] - observer.z();
+            nearestDistanceSq = Math.min(nearestDistanceSq, dx * dx + dy * dy + dz * dz);
+        }
+        return nearestDistanceSq;
+    }
+
+    private int tierForDistanceSq(double distanceSq, double distanceScale) {
+        for (int tier = 0; tier < tierDistances.length; tier++) {
+            final double maxDistance = tierDistances[tier] * distanceScale;
+            if (distanceSq <= maxDistance * maxDistance) return tier;
+        }
+        return tierDistances.length;
+    }
+
+    /**
+     * Keeps [rigidBody] in [tier] no matter how far it is from observers, migrating it now if needed. Pass
+     * {@link #NOT_PINNED} to place it by distance again on the next {@link #updateTiers(List)}.
+     */
+    public void setPinnedTier(@NotNull KrunchTieredRigidBody rigidBody, int tier) throws UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        if (rigidBody.isShared()) {
+            throw new IllegalArgumentException("Shared rigid bodies are in every tier");
+        }
+        if (tier != NOT_PINNED && (tier < 0 || tier >= physicsWorlds.length)) {
+            throw new IllegalArgumentException("Tier must be between 0 and " + (physicsWorlds.length - 1) + ", got " + tier);
+        }
+        // Checked before pinning, so a bad tier doesn't stay pinned after throwing
+        rigidBody.setPinnedTier(tier);
+        if (tier != NOT_PINNED) migrate(rigidBody, tier);
+    }
+
+    /**
+     * Moves [rigidBody] to the physics world of [tier]. The rigid body is recreated there with the same transform,
+     * velocity, omega, inertia, material properties and voxels, then deleted from its old tier. Its handle stays the
+     * same, but it gets a new {@link org.valkyrienskies.physics_api.RigidBodyReference}. Voxel updates queued this tick
+     * that haven't been applied yet are moved with it.
+     *
+     * This creates a voxel shape update for every loaded section of the rigid body, so it is slow for large rigid bodies.
+     */
+    public void migrate(@NotNull KrunchTieredRigidBody rigidBody, int tier) throws OutOfMemoryError, UsingDeletedReferenceException {
+        ensureResourcesNotDeleted();
+        if (rigidBody.hasBeenDeleted()) {
+            throw new UsingDeletedReferenceException("The tiered rigid body has been deleted!");
+        }
+        if (rigidBody.isShared()) {
+            throw new IllegalArgumentException("Shared rigid bodies are in every tier");
+        }
+        if (tier < 0 || tier >= physicsWorlds.length) {
+            throw new IllegalArgumentException("Tier must be between 0 and " + (physicsWorlds.length - 1) + ", got " + tier);
+        }
+        if (tier == rigidBody.getTier()) return;
+
+        moveRigidBody(rigidBody, tier);
+    }
+
+    /**
+     * Sets the maximum distance to an observer of each tier except the last, which holds every rigid body farther than
+     * the last distance. Distances must be increasing.
+     */
+    public void setTierDistances(@NotNull double... tierDistances) {
+        if (tierDistances.length != this.tierDistances.length) {
+            throw new IllegalArgumentException("Expected " + this.tierDistances.length + " distances, got " + tierDistances.length);
+        }
+        for (int tier = 1; tier < tierDistances.length; tier++) {
+            if (tierDistances[tier] <= tierDistances[tier - 1]) {
+                throw new IllegalArgumentException("Tier distances must be increasing");
+            }
+        }
+        System.arraycopy(tierDistances, 0, this.tierDistances, 0, tierDistances.length);
+    }
+
+    public double getTierDistance(int tier) {
+        return tierDistances[tier];
+    }
+
+    /**
+     * How far past the distance of its tier, as a fraction of that distance, a rigid body must be before it's moved to
+     * a lower fidelity tier.
+     */
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    public void setHysteresis(double hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+}
@@ -0,0 +1,38 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3ic;
+import org.joml.primitives.AABBic;
+
+/**
+ * A stable handle to a rigid body in a {@link KrunchTieredPhysicsWorld}, which stays valid when the rigid body
+ * migrates to another tier. The physics world indices of {@link #getRigidBody(int)} are tiers.
+ */
+public class KrunchTieredRigidBody extends KrunchMultiWorldRigidBody {
+
+    private int pinnedTier = KrunchTieredPhysicsWorld.NOT_PINNED;
+
+    protected KrunchTieredRigidBody(int handleId, boolean shared, int tierCount, int dimension, @NotNull Vector3ic minDefined,
+                                    @NotNull Vector3ic maxDefined, @NotNull AABBic totalVoxelRegion) {
+        super(handleId, shared, tierCount, dimension, minDefined, maxDefined, totalVoxelRegion);
+    }
+
+    /**
+     * @return The tier this rigid body is currently simulated in, 0 being the highest fidelity. Shared rigid bodies
+     *         are always in tier 0.
+     */
+    public int getTier() {
+        return getPhysicsWorldIndex();
+    }
+
+    /**
+     * @return The tier this rigid body is kept in no matter how far it is, or {@link KrunchTieredPhysicsWorld#NOT_PINNED}
+     */
+    public int getPinnedTier() {
+        return pinnedTier;
+    }
+
+    protected void setPinnedTier(int pinnedTier) {
+        this.pinnedTier = pinnedTier;
+    }
+}
@@ -0,0 +1,195 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+
+import java.util.Arrays;
+
+/**
+ * Tells a {@link Callback} which subscribed rigid bodies moved during a tick, so game code doesn't have to read back
+ * the transform of every body to find the few that moved.
+ *
+ * Each subscription has a position and a rotation threshold. After every tick of the physics world the transform of
+ * each subscribed body is compared to the last transform reported for it, and bodies that moved or turned further than
+ * their threshold are reported together in one call to the callback. Small movements therefore add up until they pass
+ * the threshold, they're never lost. Bodies put to sleep by {@link KrunchSleepManager} can't move, so they're skipped.
+ *
+ * Comparing the transforms doesn't allocate. All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchTransformChangeNotifier implements KrunchPhysicsWorldListener {
+
+    private static final int TRANSFORM_SIZE = 7;
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final Callback callback;
+
+    // Subscriptions packed into parallel arrays, removed subscriptions are swapped with the last one
+    private final Int2IntOpenHashMap subscriptionIndices = new Int2IntOpenHashMap();
+    private KrunchNativeRigidBodyReference[] rigidBodies = new KrunchNativeRigidBodyReference[16];
+    private double[] positionThresholdsSq = new double[16];
+    // The cosine of half the rotation threshold, compared against the dot product of two rotations
+    private double[] rotationThresholdDots = new double[16];
+    private double[] reportedTransforms = new double[16 * TRANSFORM_SIZE];
+    private int subscriptionCount = 0;
+
+    // Passed to the callback, reused every tick
+    private int[] movedRigidBodyIds = new int[16];
+    private double[] movedTransforms = new double[16 * TRANSFORM_SIZE];
+    private final double[] transformTemp = new double[TRANSFORM_SIZE];
+
+    private long comparisons = 0;
+    private long reports = 0;
+
+    public KrunchTransformChangeNotifier(@NotNull PhysicsWorldReference physicsWorldReference, @NotNull Callback callback) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.callback = callback;
+        this.subscriptionIndices.defaultReturnValue(-1);
+        this.physicsWorldReference.addListener(this);
+    }
+
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Reports [rigidBody] whenever its position moves more than [positionThreshold] meters, or its rotation turns more
+     * than [rotationThreshold] radians, away from the last reported transform. Its current transform counts as
+     * reported. Subscribing a body again changes its thresholds.
+     */
+    public void subscribe(@NotNull RigidBodyReference rigidBody, double positionThreshold, double rotationThreshold) {
+        if (positionThreshold < 0 || rotationThreshold < 0) {
+            throw new IllegalArgumentException("Thresholds can't be negative");
+        }
+        int index = subscriptionIndices.get(rigidBody.getRigidBodyId());
+        if (index < 0) {
+            if (subscriptionCount == rigidBodies.length) grow();
+            index = subscriptionCount++;
+            rigidBodies[index] = (KrunchNativeRigidBodyReference) rigidBody;
+            rigidBodies[index].getRigidBodyTransform(reportedTransforms, index * TRANSFORM_SIZE);
+            subscriptionIndices.put(rigidBody.getRigidBodyId(), index);
+        }
+        positionThresholdsSq[index] = positionThreshold * positionThreshold;
+        rotationThresholdDots[index] = Math.cos(Math.min(rotationThreshold, Math.PI) / 2.0);
+    }
+
+    public void unsubscribe(int rigidBodyId) {
+        final int index = subscriptionIndices.get(rigidBodyId);
+        if (index < 0) return;
+        subscriptionIndices.remove(rigidBodyId);
+        final int last = --subscriptionCount;
+        if (index != last) {
+            rigidBodies[index] = rigidBodies[last];
+            positionThresholdsSq[index] = positionThresholdsSq[last];
+            rotationThresholdDots[index] = rotationThresholdDots[last];
+            System.arraycopy(reportedTransforms, last * TRANSFORM_SIZE, reportedTransforms, index * TRANSFORM_SIZE, TRANSFORM_SIZE);
+            subscriptionIndices.put(rigidBodies[index].getRigidBodyId(), index);
+        }
+        rigidBodies[last] = null;
+    }
+
+    public boolean isSubscribed(int rigidBodyId) {
+        return subscriptionIndices.containsKey(rigidBodyId);
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptionCount;
+    }
+
+    /**
+     * Reads the last transform reported for [rigidBodyId] into [output] starting at [offset], in the same layout as
+     * the callback.
+     *
+     * @return False if the body isn't subscribed
+     */
+    public boolean getReportedTransform(int rigidBodyId, @NotNull double[] output, int offset) {
+        final int index = subscriptionIndices.get(rigidBodyId);
+        if (index < 0) return false;
+        System.arraycopy(reportedTransforms, index * TRANSFORM_SIZE, output, offset, TRANSFORM_SIZE);
+        return true;
+    }
+
+    @Override
+    public void onPhysicsWorldTicked() {
+        int movedCount = 0;
+        final double[] transform = transformTemp;
+        for (int i = 0; i < subscriptionCount; i++) {
+            final KrunchNativeRigidBodyReference rigidBody = rigidBodies[i];
+            if (rigidBody.isSleeping()) continue;
+            rigidBody.getRigidBodyTransform(transform, 0);
+            comparisons++;
+
+            final int offset = i * TRANSFORM_SIZE;
+            final double dx = transform[0] - reportedTransforms[offset];
+            final double dy = transform[1] - reportedTransforms[offset + 1];
+            final double dz = transform[2] - reportedTransforms[offset + 2];
+            final double rotationDot = transform[3] * reportedTransforms[offset + 3] + transform[4] * reportedTransforms[offset + 4]
+                + transform[5] * reportedTransforms[offset + 5] + transform[6] * reportedTransforms[offset + 6];
+            // q and -q are the same rotation, so the sign of the dot product doesn't matter
+            if (dx * dx + dy * dy + dz * dz <= positionThresholdsSq[i] && Math.abs(rotationDot) >= rotationThresholdDots[i]) {
+                continue;
+            }
+
+            System.arraycopy(transform, 0, reportedTransforms, offset, TRANSFORM_SIZE);
+            if (movedCount == movedRigidBodyIds.length) {
+                movedRigidBodyIds = Arrays.copyOf(movedRigidBodyIds, movedCount * 2);
+                movedTransforms = Arrays.copyOf(movedTransforms, movedCount * 2 * TRANSFORM_SIZE);
+            }
+            movedRigidBodyIds[movedCount] = rigidBody.getRigidBodyId();
+            System.arraycopy(transform, 0, movedTransforms, movedCount * TRANSFORM_SIZE, TRANSFORM_SIZE);
+            movedCount++;
+        }
+        if (movedCount != 0) {
+            reports += movedCount;
+            callback.onRigidBodiesMoved(movedRigidBodyIds, movedTransforms, movedCount);
+        }
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        unsubscribe(rigidBodyId);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        subscriptionIndices.clear();
+        Arrays.fill(rigidBodies, 0, subscriptionCount, null);
+        subscriptionCount = 0;
+    }
+
+    private void grow() {
+        final int newLength = rigidBodies.length * 2;
+        rigidBodies = Arrays.copyOf(rigidBodies, newLength);
+        positionThresholdsSq = Arrays.copyOf(positionThresholdsSq, newLength);
+        rotationThresholdDots = Arrays.copyOf(rotationThresholdDots, newLength);
+        reportedTransforms = Arrays.copyOf(reportedTransforms, newLength * TRANSFORM_SIZE);
+    }
+
+    /**
+     * @return The number of times the transform of a subscribed body has been compared to its reported transform
+     */
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    /**
+     * @return The number of times a body has been reported to the callback
+     */
+    public long getReports() {
+        return reports;
+    }
+
+    @FunctionalInterface
+    public interface Callback {
+        /**
+         * Called once after a tick in which at least one subscribed body moved past its thresholds. Both arrays are
+         * reused after this returns, so copy anything that must be kept.
+         *
+         * @param rigidBodyIds The ids of the bodies that moved, only the first [count] are valid
+         * @param transforms The new transforms of those bodies, 7 doubles per body as posX, posY, posZ, rotX, rotY,
+         *                   rotZ, rotW
+         */
+        void onRigidBodiesMoved(@NotNull int[] rigidBodyIds, @NotNull double[] transforms, int count);
+    }
+}
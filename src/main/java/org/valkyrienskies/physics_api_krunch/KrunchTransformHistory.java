@@ -0,0 +1,265 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.primitives.AABBd;
+import org.joml.primitives.AABBdc;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+
+import java.util.Arrays;
+
+/**
+ * Records the transform and AABB of tracked rigid bodies after every tick, so game code can ask where a body was a few
+ * ticks ago, like when checking a hit against what a lagging client saw.
+ *
+ * Ticks are numbered from 0, the state of the world when this was created, and each tick of the physics world adds
+ * one. The last {@link #getCapacityTicks()} ticks of each body are kept in ring buffers inside one array that's
+ * allocated up front for {@link #getMaxBodies()} bodies, so memory use doesn't depend on how long the game runs and
+ * neither recording nor querying allocates. Recording costs one transform and AABB read per tracked body per tick.
+ *
+ * All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchTransformHistory implements KrunchPhysicsWorldListener {
+
+    private static final int TRANSFORM_SIZE = 7;
+    private static final int AABB_SIZE = 6;
+    // posX, posY, posZ, rotX, rotY, rotZ, rotW, minX, minY, minZ, maxX, maxY, maxZ
+    private static final int ENTRY_SIZE = TRANSFORM_SIZE + AABB_SIZE;
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final int maxBodies;
+    private final int capacityTicks;
+
+    // Slot s holds the ring buffer of one body, tick t is at entry t % capacityTicks
+    private final double[] history;
+    private final KrunchNativeRigidBodyReference[] slotBodies;
+    // The first tick recorded for the body in each slot
+    private final long[] slotFirstTicks;
+    private final Int2IntOpenHashMap slotsByRigidBodyId = new Int2IntOpenHashMap();
+    // Slots in use packed at the front so recording only goes through tracked bodies, free slots after them
+    private final int[] slots;
+    private final int[] slotPositions;
+    private int trackedBodyCount = 0;
+    private final double[] aabbTemp = new double[AABB_SIZE];
+
+    private long currentTick = 0;
+
+    public KrunchTransformHistory(@NotNull PhysicsWorldReference physicsWorldReference, int maxBodies, int capacityTicks) {
+        if (maxBodies <= 0 || capacityTicks <= 0) {
+            throw new IllegalArgumentException("maxBodies and capacityTicks must be positive");
+        }
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.maxBodies = maxBodies;
+        this.capacityTicks = capacityTicks;
+        this.history = new double[Math.multiplyExact(Math.multiplyExact(maxBodies, capacityTicks), ENTRY_SIZE)];
+        this.slotBodies = new KrunchNativeRigidBodyReference[maxBodies];
+        this.slotFirstTicks = new long[maxBodies];
+        this.slots = new int[maxBodies];
+        this.slotPositions = new int[maxBodies];
+        for (int i = 0; i < maxBodies; i++) {
+            slots[i] = i;
+            slotPositions[i] = i;
+        }
+        this.slotsByRigidBodyId.defaultReturnValue(-1);
+        this.physicsWorldReference.addListener(this);
+    }
+
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Starts recording [rigidBody], beginning with its transform and AABB right now as the current tick.
+     *
+     * @throws IllegalStateException If {@link #getMaxBodies()} bodies are already tracked
+     */
+    public void track(@NotNull RigidBodyReference rigidBody) {
+        if (slotsByRigidBodyId.containsKey(rigidBody.getRigidBodyId())) return;
+        if (trackedBodyCount == maxBodies) {
+            throw new IllegalStateException("Already tracking " + maxBodies + " rigid bodies");
+        }
+        final int slot = slots[trackedBodyCount++];
+        slotBodies[slot] = (KrunchNativeRigidBodyReference) rigidBody;
+        slotFirstTicks[slot] = currentTick;
+        slotsByRigidBodyId.put(rigidBody.getRigidBodyId(), slot);
+        record(slot);
+    }
+
+    /**
+     * Stops recording a body and forgets its history.
+     */
+    public void untrack(int rigidBodyId) {
+        final int slot = slotsByRigidBodyId.remove(rigidBodyId);
+        if (slot < 0) return;
+        slotBodies[slot] = null;
+        // Swap the slot with the last slot in use
+        final int position = slotPositions[slot];
+        final int lastSlot = slots[--trackedBodyCount];
+        slots[position] = lastSlot;
+        slotPositions[lastSlot] = position;
+        slots[trackedBodyCount] = slot;
+        slotPositions[slot] = trackedBodyCount;
+    }
+
+    public boolean isTracked(int rigidBodyId) {
+        return slotsByRigidBodyId.containsKey(rigidBodyId);
+    }
+
+    public int getTrackedBodyCount() {
+        return trackedBodyCount;
+    }
+
+    /**
+     * @return The tick the latest recorded state belongs to
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return The oldest tick still recorded for [rigidBodyId], or -1 if it isn't tracked
+     */
+    public long getOldestTick(int rigidBodyId) {
+        final int slot = slotsByRigidBodyId.get(rigidBodyId);
+        if (slot < 0) return -1;
+        return oldestTick(slot);
+    }
+
+    /**
+     * Writes the transform of [rigidBodyId] at [tick] into [output] starting at [offset], as posX, posY, posZ, rotX,
+     * rotY, rotZ, rotW. A fractional [tick] interpolates between the two ticks around it, so a time in seconds can be
+     * converted by dividing it by the time step.
+     *
+     * @return False if the body isn't tracked or [tick] isn't recorded, in which case [output] is left unchanged
+     */
+    public boolean poseAt(int rigidBodyId, double tick, @NotNull double[] output, int offset) {
+        final int slot = slotsByRigidBodyId.get(rigidBodyId);
+        // Also false for NaN
+        if (slot < 0 || !(tick >= oldestTick(slot) && tick <= currentTick)) return false;
+
+        final long tick0 = (long) Math.floor(tick);
+        final double t = tick - tick0;
+        final int entry0 = entryIndex(slot, tick0);
+        if (t == 0.0) {
+            System.arraycopy(history, entry0, output, offset, TRANSFORM_SIZE);
+            return true;
+        }
+        final int entry1 = entryIndex(slot, tick0 + 1);
+        for (int i = 0; i < 3; i++) {
+            output[offset + i] = history[entry0 + i] + (history[entry1 + i] - history[entry0 + i]) * t;
+        }
+
+        // Normalized lerp, the rotation between two ticks is small enough for it to be close to slerp
+        double dot = 0.0;
+        for (int i = 3; i < TRANSFORM_SIZE; i++) dot += history[entry0 + i] * history[entry1 + i];
+        final double sign = dot < 0.0 ? -1.0 : 1.0;
+        double lengthSq = 0.0;
+        for (int i = 3; i < TRANSFORM_SIZE; i++) {
+            final double component = history[entry0 + i] * (1.0 - t) + history[entry1 + i] * sign * t;
+            output[offset + i] = component;
+            lengthSq += component * component;
+        }
+        final double invLength = 1.0 / Math.sqrt(lengthSq);
+        for (int i = 3; i < TRANSFORM_SIZE; i++) output[offset + i] *= invLength;
+        return true;
+    }
+
+    /**
+     * Sets [output] to the AABB of [rigidBodyId] at [tick].
+     *
+     * @return False if the body isn't tracked, [tick] isn't recorded, or the body had no voxels at [tick]
+     */
+    public boolean getAABBAt(int rigidBodyId, long tick, @NotNull AABBd output) {
+        final int slot = slotsByRigidBodyId.get(rigidBodyId);
+        if (slot < 0 || tick < oldestTick(slot) || tick > currentTick) return false;
+        final int entry = entryIndex(slot, tick) + TRANSFORM_SIZE;
+        if (Double.isNaN(history[entry])) return false;
+        output.minX = history[entry];
+        output.minY = history[entry + 1];
+        output.minZ = history[entry + 2];
+        output.maxX = history[entry + 3];
+        output.maxY = history[entry + 4];
+        output.maxZ = history[entry + 5];
+        return true;
+    }
+
+    /**
+     * Replaces the contents of [output] with the ids of the tracked bodies whose AABB overlapped [box] at [tick].
+     * Bodies without a recorded state at [tick] are skipped.
+     *
+     * @return The number of bodies found
+     */
+    public int queryOverlapping(long tick, @NotNull AABBdc box, @NotNull IntArrayList output) {
+        output.clear();
+        if (tick > currentTick) return 0;
+        for (int i = 0; i < trackedBodyCount; i++) {
+            final int slot = slots[i];
+            if (tick < oldestTick(slot)) continue;
+            final int entry = entryIndex(slot, tick) + TRANSFORM_SIZE;
+            // Comparisons with NaN are false, so bodies without voxels never overlap
+            if (history[entry] <= box.maxX() && history[entry + 3] >= box.minX()
+                && history[entry + 1] <= box.maxY() && history[entry + 4] >= box.minY()
+                && history[entry + 2] <= box.maxZ() && history[entry + 5] >= box.minZ()) {
+                output.add(slotBodies[slot].getRigidBodyId());
+            }
+        }
+        return output.size();
+    }
+
+    @Override
+    public void onPhysicsWorldTicked() {
+        currentTick++;
+        for (int i = 0; i < trackedBodyCount; i++) {
+            record(slots[i]);
+        }
+    }
+
+    private void record(int slot) {
+        final int entry = entryIndex(slot, currentTick);
+        final KrunchNativeRigidBodyReference rigidBody = slotBodies[slot];
+        rigidBody.getRigidBodyTransform(history, entry);
+        // The native side writes the AABB at the start of the array, so it goes through a temporary
+        if (rigidBody.getAABB(aabbTemp)) {
+            System.arraycopy(aabbTemp, 0, history, entry + TRANSFORM_SIZE, AABB_SIZE);
+        } else {
+            Arrays.fill(history, entry + TRANSFORM_SIZE, entry + ENTRY_SIZE, Double.NaN);
+        }
+    }
+
+    private long oldestTick(int slot) {
+        return Math.max(slotFirstTicks[slot], currentTick - capacityTicks + 1);
+    }
+
+    private int entryIndex(int slot, long tick) {
+        return (slot * capacityTicks + (int) (tick % capacityTicks)) * ENTRY_SIZE;
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        untrack(rigidBodyId);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        while (trackedBodyCount != 0) {
+            untrack(slotBodies[slots[0]].getRigidBodyId());
+        }
+    }
+
+    public int getMaxBodies() {
+        return maxBodies;
+    }
+
+    public int getCapacityTicks() {
+        return capacityTicks;
+    }
+
+    /**
+     * @return The size of the preallocated history in bytes
+     */
+    public long getHistoryBytes() {
+        return (long) history.length * Double.BYTES;
+    }
+}
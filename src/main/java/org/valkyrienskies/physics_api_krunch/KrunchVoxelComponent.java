@@ -0,0 +1,158 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+
+/**
+ * A set of connected voxels that has split off of a rigid body, found by {@link KrunchConnectivityTracker}.
+ *
+ * Voxels keep the coordinates they had in the original body. Creating a rigid body with {@link #getMin()} and
+ * {@link #getMax()} as its defined region, the voxels from {@link #createShapeUpdates()}, and the transform and
+ * collision shape offset of the original body puts the piece exactly where it was.
+ */
+public final class KrunchVoxelComponent {
+
+    // Voxel positions are packed as | 26 bits x | 26 bits z | 12 bits y |, which covers the same x and z as
+    // KrunchSectionPos, so bodies at shipyard coordinates fit
+    private static final int X_BITS = 26;
+    private static final int Z_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long X_MASK = (1L << X_BITS) - 1;
+    private static final long Z_MASK = (1L << Z_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+    private static final int Z_OFFSET = Y_BITS;
+    private static final int X_OFFSET = Y_BITS + Z_BITS;
+
+    private final int rigidBodyId;
+    private final LongArrayList positions;
+    private final ByteArrayList states;
+    private final Vector3i min = new Vector3i(Integer.MAX_VALUE);
+    private final Vector3i max = new Vector3i(Integer.MIN_VALUE);
+
+    protected KrunchVoxelComponent(int rigidBodyId, @NotNull LongArrayList positions, @NotNull ByteArrayList states) {
+        this.rigidBodyId = rigidBodyId;
+        this.positions = positions;
+        this.states = states;
+        for (int i = 0; i < positions.size(); i++) {
+            final long pos = positions.getLong(i);
+            min.x = Math.min(min.x, unpackX(pos));
+            min.y = Math.min(min.y, unpackY(pos));
+            min.z = Math.min(min.z, unpackZ(pos));
+            max.x = Math.max(max.x, unpackX(pos));
+            max.y = Math.max(max.y, unpackY(pos));
+            max.z = Math.max(max.z, unpackZ(pos));
+        }
+    }
+
+    /**
+     * @return The id of the rigid body these voxels split off of
+     */
+    public int getRigidBodyId() {
+        return rigidBodyId;
+    }
+
+    public int getVoxelCount() {
+        return positions.size();
+    }
+
+    public int getVoxelX(int index) {
+        return unpackX(positions.getLong(index));
+    }
+
+    public int getVoxelY(int index) {
+        return unpackY(positions.getLong(index));
+    }
+
+    public int getVoxelZ(int index) {
+        return unpackZ(positions.getLong(index));
+    }
+
+    public byte getVoxelState(int index) {
+        return states.getByte(index);
+    }
+
+    /**
+     * @return The smallest voxel coordinates of the component, inclusive
+     */
+    @NotNull
+    public Vector3ic getMin() {
+        return min;
+    }
+
+    /**
+     * @return The largest voxel coordinates of the component, inclusive
+     */
+    @NotNull
+    public Vector3ic getMax() {
+        return max;
+    }
+
+    /**
+     * @return Updates that add the voxels of this component to a new rigid body
+     */
+    @NotNull
+    public IVoxelShapeUpdate[] createShapeUpdates() {
+        return createSparseUpdates(false);
+    }
+
+    /**
+     * @return Updates that remove the voxels of this component from the original rigid body
+     */
+    @NotNull
+    public IVoxelShapeUpdate[] createRemovalShapeUpdates() {
+        return createSparseUpdates(true);
+    }
+
+    @NotNull
+    private IVoxelShapeUpdate[] createSparseUpdates(boolean removal) {
+        final Long2ObjectOpenHashMap<SparseVoxelShapeUpdate> updates = new Long2ObjectOpenHashMap<>();
+        for (int i = 0; i < positions.size(); i++) {
+            final long pos = positions.getLong(i);
+            final int x = unpackX(pos);
+            final int y = unpackY(pos);
+            final int z = unpackZ(pos);
+            final long sectionPos = KrunchSectionPos.asLong(x >> 4, y >> 4, z >> 4);
+            SparseVoxelShapeUpdate update = updates.get(sectionPos);
+            if (update == null) {
+                update = new SparseVoxelShapeUpdate(x >> 4, y >> 4, z >> 4, true);
+                updates.put(sectionPos, update);
+            }
+            update.addUpdate(x & 15, y & 15, z & 15, removal ? KrunchVoxelStates.AIR_STATE : states.getByte(i));
+        }
+        return updates.values().toArray(new IVoxelShapeUpdate[0]);
+    }
+
+    /**
+     * @throws IllegalArgumentException If a coordinate doesn't fit, rather than wrapping onto another voxel
+     */
+    protected static long pack(int x, int y, int z) {
+        if (!fits(x, X_BITS) || !fits(y, Y_BITS) || !fits(z, Z_BITS)) {
+            throw new IllegalArgumentException("Voxel (" + x + ", " + y + ", " + z + ") is outside of the range connectivity can be tracked in");
+        }
+        return ((x & X_MASK) << X_OFFSET) | ((z & Z_MASK) << Z_OFFSET) | (y & Y_MASK);
+    }
+
+    private static boolean fits(int value, int bits) {
+        return value >= -(1 << (bits - 1)) && value < (1 << (bits - 1));
+    }
+
+    protected static int unpackX(long packed) {
+        // Shift left then right to sign extend
+        return (int) (packed << (64 - X_OFFSET - X_BITS) >> (64 - X_BITS));
+    }
+
+    protected static int unpackY(long packed) {
+        return (int) (packed << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    protected static int unpackZ(long packed) {
+        return (int) (packed << (64 - Z_OFFSET - Z_BITS) >> (64 - Z_BITS));
+    }
+}
@@ -0,0 +1,211 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.UsingDeletedReferenceException;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Encodes voxel shape updates on a background executor, so encoding doesn't add to the time the physics thread spends
+ * on a tick.
+ *
+ * Updates given to {@link #submit(VoxelRigidBodyShapeUpdates[])} during a tick are encoded on the executor while the
+ * physics world ticks, and {@link #flush()} at the start of the next tick sends the finished batches to Krunch, which
+ * only costs a native call. Batches are always sent in the order they were submitted, so a batch that's still being
+ * encoded holds back the batches after it until the next flush. Updates that must be applied by the upcoming tick,
+ * like ones with runImmediately set that game code expects to see right away, should be followed by {@link #fence()},
+ * which sends every submitted batch before returning.
+ *
+ * Usage, once per tick:
+ * <pre>{@code
+ * pipeline.flush();
+ * physicsWorld.tick(gravity, timeStep, true);
+ * // Game logic submits updates, which are encoded while the next tick is prepared
+ * }</pre>
+ *
+ * All methods must be called from the thread that ticks the physics world.
+ */
+public class KrunchVoxelIngestionPipeline implements KrunchPhysicsWorldListener {
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final Executor executor;
+
+    // Submitted batches in order, the ones at the front may be done encoding
+    private final ArrayDeque<PendingBatch> pendingBatches = new ArrayDeque<>();
+    private final ObjectArrayList<byte[]> batchesToSend = new ObjectArrayList<>();
+
+    private long batchesSent = 0;
+    private long bytesSent = 0;
+    private long fences = 0;
+    private long batchesEncodedByFence = 0;
+
+    public KrunchVoxelIngestionPipeline(@NotNull PhysicsWorldReference physicsWorldReference, @NotNull Executor executor) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.executor = executor;
+        this.physicsWorldReference.addListener(this);
+    }
+
+    /**
+     * Stop listening to the physics world. Batches that haven't been sent are dropped.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+        pendingBatches.clear();
+    }
+
+    /**
+     * Starts encoding [updates] on the executor. They're sent to Krunch by a later {@link #flush()} or
+     * {@link #fence()}. [updates] must not be modified until then.
+     */
+    public void submit(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        final PendingBatch batch = new PendingBatch(updates);
+        pendingBatches.add(batch);
+        executor.execute(batch);
+    }
+
+    /**
+     * Sends the batches at the front of the queue that are done encoding, without waiting for the others.
+     *
+     * @return The number of batches sent
+     */
+    public int flush() throws UsingDeletedReferenceException {
+        while (!pendingBatches.isEmpty() && pendingBatches.peek().isDone()) {
+            batchesToSend.add(pendingBatches.poll().getEncoded());
+        }
+        return sendBatches();
+    }
+
+    /**
+     * Sends every submitted batch. Batches the executor hasn't started on yet are encoded on the calling thread, and
+     * batches it's encoding are waited for.
+     *
+     * @return The number of batches sent
+     */
+    public int fence() throws UsingDeletedReferenceException {
+        fences++;
+        while (!pendingBatches.isEmpty()) {
+            final PendingBatch batch = pendingBatches.poll();
+            if (batch.encode()) batchesEncodedByFence++;
+            batchesToSend.add(batch.awaitEncoded());
+        }
+        return sendBatches();
+    }
+
+    private int sendBatches() {
+        final int batchCount = batchesToSend.size();
+        if (batchCount == 0) return 0;
+        final byte[] merged = batchCount == 1
+            ? batchesToSend.get(0)
+            : VoxelRigidBodyShapeUpdatesEncoder.mergeEncodedVoxelRigidBodyShapeUpdatesArrays(batchesToSend);
+        batchesToSend.clear();
+        physicsWorldReference.queueEncodedVoxelShapeUpdates(merged);
+        batchesSent += batchCount;
+        bytesSent += merged.length;
+        return batchCount;
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        // The pipeline only listens for the physics world being deleted, it must not cause its own batches to be decoded
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        pendingBatches.clear();
+    }
+
+    /**
+     * @return The number of submitted batches that haven't been sent yet
+     */
+    public int getPendingBatchCount() {
+        return pendingBatches.size();
+    }
+
+    public long getBatchesSent() {
+        return batchesSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getFences() {
+        return fences;
+    }
+
+    /**
+     * @return The number of batches that were encoded on the calling thread by {@link #fence()} because the executor
+     *         hadn't started on them yet. If this keeps growing the executor is too busy.
+     */
+    public long getBatchesEncodedByFence() {
+        return batchesEncodedByFence;
+    }
+
+    /**
+     * A batch of updates that's encoded by whichever of the executor and {@link #fence()} gets to it first.
+     */
+    private static final class PendingBatch implements Runnable {
+        private final VoxelRigidBodyShapeUpdates[] updates;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile byte[] encoded;
+        private volatile RuntimeException failure;
+
+        private PendingBatch(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+            this.updates = updates;
+        }
+
+        @Override
+        public void run() {
+            encode();
+        }
+
+        /**
+         * @return True if this call encoded the batch, false if another thread already claimed it
+         */
+        private boolean encode() {
+            if (!claimed.compareAndSet(false, true)) return false;
+            try {
+                encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(updates);
+            } catch (final RuntimeException e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+            return true;
+        }
+
+        private boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @NotNull
+        private byte[] awaitEncoded() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return getEncoded();
+        }
+
+        @NotNull
+        private byte[] getEncoded() {
+            if (failure != null) {
+                throw new IllegalStateException("Failed to encode voxel shape updates", failure);
+            }
+            return encoded;
+        }
+    }
+}
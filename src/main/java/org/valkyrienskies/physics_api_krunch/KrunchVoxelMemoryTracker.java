@@ -0,0 +1,427 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3dc;
+import org.valkyrienskies.physics_api.PhysicsWorldReference;
+import org.valkyrienskies.physics_api.RigidBodyReference;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.Comparator;
+
+/**
+ * Estimates how much native memory the voxel sections of a physics world use, from the voxel shape updates sent to
+ * it, and keeps that estimate under a budget by deleting the terrain sections that have been far away from every
+ * dynamic body for the longest.
+ *
+ * Only bodies marked with {@link #setEvictable(int, boolean)} have sections evicted, everything else is only counted.
+ * Like {@link KrunchTerrainStreamer}, evictable bodies are expected to have an identity transform.
+ */
+public class KrunchVoxelMemoryTracker implements KrunchPhysicsWorldListener {
+
+    // Rough estimates of the native bytes a resident section uses: the voxel data, plus bookkeeping that grows with how
+    // much of the section is set. They aren't measured, so treat budgets as approximate
+    public static final int ESTIMATED_EMPTY_SECTION_BYTES = 6464;
+    public static final int ESTIMATED_SPARSE_SECTION_BYTES = 7424;
+    public static final int ESTIMATED_DENSE_SECTION_BYTES = 8448;
+
+    private static final Comparator<ResidentSection> EVICTION_ORDER = (a, b) -> {
+        // Least recently relevant first, then farthest away first
+        if (a.lastRelevantTick != b.lastRelevantTick) return Long.compare(a.lastRelevantTick, b.lastRelevantTick);
+        return Double.compare(b.distanceSq, a.distanceSq);
+    };
+
+    private final KrunchNativePhysicsWorldReference physicsWorldReference;
+    private final Int2ObjectOpenHashMap<BodyVoxelMemory> bodies = new Int2ObjectOpenHashMap<>();
+    // Dynamic bodies, sections close to these are relevant
+    private final Int2ObjectOpenHashMap<RigidBodyReference> relevanceSources = new Int2ObjectOpenHashMap<>();
+    private final ObjectArrayList<ResidentSection> evictionCandidates = new ObjectArrayList<>();
+    private double[] relevanceSourcePositions = new double[0];
+    private int relevanceSourceCount = 0;
+    // The sections the relevance sources are in, without duplicates, as x, y, z triples
+    private final LongOpenHashSet relevanceSourceSectionSet = new LongOpenHashSet();
+    private int[] relevanceSourceSections = new int[0];
+    private int relevanceSourceSectionCount = 0;
+
+    private long maxResidentBytes = Long.MAX_VALUE;
+    private double evictionTargetFraction = 0.9;
+    private int relevanceRadius = 8;
+    private int relevanceUpdateInterval = 20;
+
+    private long tick = 0;
+    private long lastRelevanceUpdateTick = Long.MIN_VALUE;
+    private long residentSections = 0;
+    private long residentBytes = 0;
+    private long evictedSections = 0;
+    private long evictedBytes = 0;
+
+    public KrunchVoxelMemoryTracker(@NotNull PhysicsWorldReference physicsWorldReference) {
+        this.physicsWorldReference = (KrunchNativePhysicsWorldReference) physicsWorldReference;
+        this.physicsWorldReference.addListener(this);
+    }
+
+    /**
+     * Stop tracking the physics world.
+     */
+    public void close() {
+        physicsWorldReference.removeListener(this);
+    }
+
+    /**
+     * Sets whether the sections of [rigidBodyId] may be deleted to stay under the memory budget.
+     */
+    public void setEvictable(int rigidBodyId, boolean evictable) {
+        getOrCreateBodyVoxelMemory(rigidBodyId).evictable = evictable;
+    }
+
+    /**
+     * Sections of evictable bodies close to [rigidBody] are kept loaded.
+     */
+    public void addDynamicBody(@NotNull RigidBodyReference rigidBody) {
+        relevanceSources.put(rigidBody.getRigidBodyId(), rigidBody);
+    }
+
+    public void removeDynamicBody(int rigidBodyId) {
+        relevanceSources.remove(rigidBodyId);
+    }
+
+    /**
+     * Updates which sections are relevant, and evicts sections if the world is over its memory budget. This should be
+     * called once per tick.
+     */
+    public void update() {
+        tick++;
+        final boolean overBudget = residentBytes > maxResidentBytes;
+        if (overBudget || tick - lastRelevanceUpdateTick >= relevanceUpdateInterval) {
+            updateRelevance();
+        }
+        if (overBudget) {
+            evictSections();
+        }
+    }
+
+    private void updateRelevance() {
+        lastRelevanceUpdateTick = tick;
+        if (relevanceSourcePositions.length < relevanceSources.size() * 3) {
+            relevanceSourcePositions = new double[relevanceSources.size() * 3];
+        }
+        relevanceSourceCount = 0;
+        for (final RigidBodyReference relevanceSource : relevanceSources.values()) {
+            if (relevanceSource.hasBeenDeleted()) continue;
+            final Vector3dc position = relevanceSource.getRigidBodyTransform().getPosition();
+            relevanceSourcePositions[relevanceSourceCount * 3] = position.x();
+            relevanceSourcePositions[relevanceSourceCount * 3 + 1] = position.y();
+            relevanceSourcePositions[relevanceSourceCount * 3 + 2] = position.z();
+            relevanceSourceCount++;
+        }
+
+        // Sources in the same section make the same sections relevant, so each section is only checked once
+        relevanceSourceSectionSet.clear();
+        if (relevanceSourceSections.length < relevanceSourceCount * 3) {
+            relevanceSourceSections = new int[relevanceSourceCount * 3];
+        }
+        relevanceSourceSectionCount = 0;
+        for (int i = 0; i < relevanceSourceCount; i++) {
+            final int sectionX = KrunchSectionPos.positionToSection(relevanceSourcePositions[i * 3]);
+            final int sectionY = KrunchSectionPos.positionToSection(relevanceSourcePositions[i * 3 + 1]);
+            final int sectionZ = KrunchSectionPos.positionToSection(relevanceSourcePositions[i * 3 + 2]);
+            if (!relevanceSourceSectionSet.add(KrunchSectionPos.asLong(sectionX, sectionY, sectionZ))) continue;
+            relevanceSourceSections[relevanceSourceSectionCount * 3] = sectionX;
+            relevanceSourceSections[relevanceSourceSectionCount * 3 + 1] = sectionY;
+            relevanceSourceSections[relevanceSourceSectionCount * 3 + 2] = sectionZ;
+            relevanceSourceSectionCount++;
+        }
+        if (relevanceSourceSectionCount == 0) return;
+
+        // Range check the loaded sections against the sources, rather than looking up every section in the radius of
+        // every source, which is (2 * relevanceRadius + 1)^3 lookups per source even when few sections are loaded
+        for (final BodyVoxelMemory body : bodies.values()) {
+            if (!body.evictable) continue;
+            for (final ResidentSection section : body.sections.values()) {
+                if (isNearRelevanceSource(section.sectionPos)) section.lastRelevantTick = tick;
+            }
+        }
+    }
+
+    private boolean isNearRelevanceSource(long sectionPos) {
+        final int x = KrunchSectionPos.unpackX(sectionPos);
+        final int y = KrunchSectionPos.unpackY(sectionPos);
+        final int z = KrunchSectionPos.unpackZ(sectionPos);
+        for (int i = 0; i < relevanceSourceSectionCount; i++) {
+            if (Math.abs(relevanceSourceSections[i * 3] - x) <= relevanceRadius
+                && Math.abs(relevanceSourceSections[i * 3 + 1] - y) <= relevanceRadius
+                && Math.abs(relevanceSourceSections[i * 3 + 2] - z) <= relevanceRadius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictSections() {
+        // Never evict sections that are relevant right now, even if that means staying over budget
+        for (final BodyVoxelMemory body : bodies.values()) {
+            if (!body.evictable) continue;
+            for (final ResidentSection section : body.sections.values()) {
+                if (section.lastRelevantTick >= lastRelevanceUpdateTick) continue;
+                section.distanceSq = distanceSqToNearestRelevanceSource(section.sectionPos);
+                evictionCandidates.add(section);
+            }
+        }
+        evictionCandidates.sort(EVICTION_ORDER);
+
+        final long targetBytes = (long) (maxResidentBytes * evictionTargetFraction);
+        long bytesAfterEviction = residentBytes;
+        int sectionsToEvict = 0;
+        while (sectionsToEvict < evictionCandidates.size() && bytesAfterEviction > targetBytes) {
+            bytesAfterEviction -= evictionCandidates.get(sectionsToEvict).bytes;
+            sectionsToEvict++;
+        }
+
+        if (sectionsToEvict > 0) {
+            // Group the deletes by body, sorting by body keeps every body's sections together
+            final ObjectArrayList<ResidentSection> evicted = new ObjectArrayList<>(evictionCandidates.subList(0, sectionsToEvict));
+            evicted.sort(Comparator.comparingInt(section -> section.rigidBodyId));
+            final ObjectArrayList<VoxelRigidBodyShapeUpdates> updates = new ObjectArrayList<>();
+            int start = 0;
+            while (start < evicted.size()) {
+                final int rigidBodyId = evicted.get(start).rigidBodyId;
+                int end = start;
+                while (end < evicted.size() && evicted.get(end).rigidBodyId == rigidBodyId) end++;
+                final IVoxelShapeUpdate[] deletes = new IVoxelShapeUpdate[end - start];
+                for (int i = start; i < end; i++) {
+                    final long sectionPos = evicted.get(i).sectionPos;
+                    deletes[i - start] = new DeleteVoxelShapeUpdate(KrunchSectionPos.unpackX(sectionPos),
+                        KrunchSectionPos.unpackY(sectionPos), KrunchSectionPos.unpackZ(sectionPos), false);
+                }
+                updates.add(new VoxelRigidBodyShapeUpdates(rigidBodyId, deletes));
+                start = end;
+            }
+
+            final long bytesBeforeEviction = residentBytes;
+            // Our listener removes the deleted sections from the accounting
+            physicsWorldReference.queueVoxelShapeUpdates(updates.toArray(new VoxelRigidBodyShapeUpdates[0]));
+            evictedSections += sectionsToEvict;
+            evictedBytes += bytesBeforeEviction - residentBytes;
+        }
+        evictionCandidates.clear();
+    }
+
+    private double distanceSqToNearestRelevanceSource(long sectionPos) {
+        final double centerX = (KrunchSectionPos.unpackX(sectionPos) << 4) + 8.0;
+        final double centerY = (KrunchSectionPos.unpackY(sectionPos) << 4) + 8.0;
+        final double centerZ = (KrunchSectionPos.unpackZ(sectionPos) << 4) + 8.0;
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < relevanceSourceCount; i++) {
+            final double dx = relevanceSourcePositions[i * 3] - centerX;
+            final double dy = relevanceSourcePositions[i * 3 + 1] - centerY;
+            final double dz = relevanceSourcePositions[i * 3 + 2] - centerZ;
+            nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+        }
+        return nearest;
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates update : updates) {
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                final int updateType;
+                boolean overwriteExistingVoxels = false;
+                if (voxelShapeUpdate instanceof EmptyVoxelShapeUpdate) {
+                    updateType = VoxelRigidBodyShapeUpdatesEncoder.EMPTY_UPDATE_TYPE;
+                    overwriteExistingVoxels = ((EmptyVoxelShapeUpdate) voxelShapeUpdate).getOverwriteExistingVoxels();
+                } else if (voxelShapeUpdate instanceof DenseVoxelShapeUpdate) {
+                    updateType = VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE;
+                } else if (voxelShapeUpdate instanceof SparseVoxelShapeUpdate) {
+                    updateType = VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE;
+                } else {
+                    updateType = VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE;
+                }
+                recordUpdate(update.getRigidBodyId(), updateType, voxelShapeUpdate.getRegionX(),
+                    voxelShapeUpdate.getRegionY(), voxelShapeUpdate.getRegionZ(), overwriteExistingVoxels);
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encoded,
+            (rigidBodyId, updateType, regionX, regionY, regionZ, runImmediately, overwriteExistingVoxels) ->
+                recordUpdate(rigidBodyId, updateType, regionX, regionY, regionZ, overwriteExistingVoxels));
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        final BodyVoxelMemory body = bodies.remove(rigidBodyId);
+        if (body != null) {
+            residentSections -= body.sections.size();
+            residentBytes -= body.residentBytes;
+        }
+        relevanceSources.remove(rigidBodyId);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        bodies.clear();
+        relevanceSources.clear();
+        residentSections = 0;
+        residentBytes = 0;
+    }
+
+    private void recordUpdate(int rigidBodyId, int updateType, int regionX, int regionY, int regionZ, boolean overwriteExistingVoxels) {
+        final BodyVoxelMemory body = getOrCreateBodyVoxelMemory(rigidBodyId);
+        final long sectionPos = KrunchSectionPos.asLong(regionX, regionY, regionZ);
+        final ResidentSection existing = body.sections.get(sectionPos);
+
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE) {
+            if (existing != null) {
+                body.sections.remove(sectionPos);
+                setSectionBytes(body, existing, 0);
+                residentSections--;
+            }
+            return;
+        }
+
+        final int estimatedBytes;
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE) {
+            estimatedBytes = ESTIMATED_DENSE_SECTION_BYTES;
+        } else if (updateType == VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE) {
+            // Sparse updates to a dense section don't make it any smaller
+            estimatedBytes = existing != null ? Math.max(existing.bytes, ESTIMATED_SPARSE_SECTION_BYTES) : ESTIMATED_SPARSE_SECTION_BYTES;
+        } else {
+            // Empty updates that don't overwrite leave existing sections alone
+            if (existing != null && !overwriteExistingVoxels) return;
+            estimatedBytes = ESTIMATED_EMPTY_SECTION_BYTES;
+        }
+
+        if (existing != null) {
+            setSectionBytes(body, existing, estimatedBytes);
+        } else {
+            // New sections count as relevant, so that they aren't evicted as soon as they're loaded
+            final ResidentSection section = new ResidentSection(rigidBodyId, sectionPos, tick);
+            body.sections.put(sectionPos, section);
+            setSectionBytes(body, section, estimatedBytes);
+            residentSections++;
+        }
+    }
+
+    private void setSectionBytes(@NotNull BodyVoxelMemory body, @NotNull ResidentSection section, int bytes) {
+        body.residentBytes += bytes - section.bytes;
+        residentBytes += bytes - section.bytes;
+        section.bytes = bytes;
+    }
+
+    @NotNull
+    private BodyVoxelMemory getOrCreateBodyVoxelMemory(int rigidBodyId) {
+        BodyVoxelMemory body = bodies.get(rigidBodyId);
+        if (body == null) {
+            body = new BodyVoxelMemory();
+            bodies.put(rigidBodyId, body);
+        }
+        return body;
+    }
+
+    public long getResidentSections() {
+        return residentSections;
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getResidentSections(int rigidBodyId) {
+        final BodyVoxelMemory body = bodies.get(rigidBodyId);
+        return body != null ? body.sections.size() : 0;
+    }
+
+    public long getResidentBytes(int rigidBodyId) {
+        final BodyVoxelMemory body = bodies.get(rigidBodyId);
+        return body != null ? body.residentBytes : 0;
+    }
+
+    public boolean isSectionResident(int rigidBodyId, int sectionX, int sectionY, int sectionZ) {
+        final BodyVoxelMemory body = bodies.get(rigidBodyId);
+        return body != null && body.sections.containsKey(KrunchSectionPos.asLong(sectionX, sectionY, sectionZ));
+    }
+
+    public long getEvictedSections() {
+        return evictedSections;
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    public long getMaxResidentBytes() {
+        return maxResidentBytes;
+    }
+
+    /**
+     * Sets the estimated number of bytes the world's sections may use before sections are evicted.
+     */
+    public void setMaxResidentBytes(long maxResidentBytes) {
+        this.maxResidentBytes = maxResidentBytes;
+    }
+
+    public double getEvictionTargetFraction() {
+        return evictionTargetFraction;
+    }
+
+    /**
+     * Sets the fraction of {@link #getMaxResidentBytes()} eviction frees down to. Freeing a bit more than needed avoids
+     * evicting sections every tick.
+     */
+    public void setEvictionTargetFraction(double evictionTargetFraction) {
+        this.evictionTargetFraction = evictionTargetFraction;
+    }
+
+    public int getRelevanceRadius() {
+        return relevanceRadius;
+    }
+
+    /**
+     * Sets the distance, in sections, around a dynamic body in which sections are relevant.
+     */
+    public void setRelevanceRadius(int relevanceRadius) {
+        this.relevanceRadius = relevanceRadius;
+    }
+
+    public int getRelevanceUpdateInterval() {
+        return relevanceUpdateInterval;
+    }
+
+    /**
+     * Sets how many ticks pass between updates of which sections are relevant, while under budget.
+     */
+    public void setRelevanceUpdateInterval(int relevanceUpdateInterval) {
+        this.relevanceUpdateInterval = relevanceUpdateInterval;
+    }
+
+    private static final class BodyVoxelMemory {
+        private final Long2ObjectOpenHashMap<ResidentSection> sections = new Long2ObjectOpenHashMap<>();
+        private long residentBytes = 0;
+        private boolean evictable = false;
+    }
+
+    private static final class ResidentSection {
+        private final int rigidBodyId;
+        private final long sectionPos;
+        private int bytes = 0;
+        private long lastRelevantTick;
+        // Only used while sorting eviction candidates
+        private double distanceSq;
+
+        private ResidentSection(int rigidBodyId, long sectionPos, long lastRelevantTick) {
+            this.rigidBodyId = rigidBodyId;
+            this.sectionPos = sectionPos;
+            this.lastRelevantTick = lastRelevantTick;
+        }
+    }
+}
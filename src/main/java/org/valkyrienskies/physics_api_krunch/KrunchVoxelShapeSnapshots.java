@@ -0,0 +1,133 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates;
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate;
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
+
+import java.util.Arrays;
+
+/**
+ * Keeps a copy of the loaded sections of tracked rigid bodies in one physics world, from the voxel shape updates queued
+ * to it. Used by {@link KrunchRigidBodyCopier} to copy the voxels of a rigid body, since Krunch has no way to read them
+ * in bulk.
+ *
+ * Updates are applied to the copy when they're queued, not when the physics world ticks, so the copy also has the
+ * updates that are still waiting for the next tick.
+ */
+final class KrunchVoxelShapeSnapshots implements KrunchPhysicsWorldListener {
+
+    private static final int SECTION_VOXELS = 16 * 16 * 16;
+
+    // The sections of every tracked rigid body by section position, sections that aren't loaded aren't in the map
+    private final Int2ObjectOpenHashMap<Long2ObjectOpenHashMap<byte[]>> rigidBodies = new Int2ObjectOpenHashMap<>();
+    private final EncodedVoxelShapeUpdatesCursor encodedCursor = new EncodedVoxelShapeUpdatesCursor();
+
+    /**
+     * Start keeping a copy of the voxels of [rigidBodyId]. It must not have any voxels yet.
+     */
+    void track(int rigidBodyId) {
+        rigidBodies.put(rigidBodyId, new Long2ObjectOpenHashMap<>());
+    }
+
+    /**
+     * @return The loaded sections of [rigidBodyId] by {@link KrunchSectionPos} position, or null if it isn't tracked
+     */
+    @Nullable
+    Long2ObjectMap<byte[]> getSections(int rigidBodyId) {
+        return rigidBodies.get(rigidBodyId);
+    }
+
+    @Override
+    public void onVoxelShapeUpdatesQueued(@NotNull VoxelRigidBodyShapeUpdates[] updates) {
+        for (final VoxelRigidBodyShapeUpdates update : updates) {
+            final Long2ObjectOpenHashMap<byte[]> sections = rigidBodies.get(update.getRigidBodyId());
+            if (sections == null) continue;
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                applyUpdate(sections, voxelShapeUpdate);
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedVoxelShapeUpdatesQueued(@NotNull byte[] encoded) {
+        encodedCursor.reset(encoded);
+        while (encodedCursor.nextRigidBody()) {
+            final Long2ObjectOpenHashMap<byte[]> sections = rigidBodies.get(encodedCursor.getRigidBodyId());
+            if (sections == null) continue;
+            while (encodedCursor.nextUpdate()) {
+                applyEncodedUpdate(sections, encodedCursor);
+            }
+        }
+    }
+
+    private static void applyUpdate(@NotNull Long2ObjectOpenHashMap<byte[]> sections, @NotNull IVoxelShapeUpdate update) {
+        final long sectionPos = KrunchSectionPos.asLong(update.getRegionX(), update.getRegionY(), update.getRegionZ());
+        if (update instanceof DeleteVoxelShapeUpdate) {
+            sections.remove(sectionPos);
+            return;
+        }
+        final byte[] section = getOrCreateSection(sections, sectionPos);
+        if (update instanceof EmptyVoxelShapeUpdate) {
+            if (((EmptyVoxelShapeUpdate) update).getOverwriteExistingVoxels()) Arrays.fill(section, KrunchVoxelStates.AIR_STATE);
+        } else if (update instanceof DenseVoxelShapeUpdate) {
+            System.arraycopy(((DenseVoxelShapeUpdate) update).getVoxelDataRaw(), 0, section, 0, SECTION_VOXELS);
+        } else if (update instanceof SparseVoxelShapeUpdate) {
+            final ShortArrayList positions = ((SparseVoxelShapeUpdate) update).getUpdatesPositions();
+            final ByteArrayList states = ((SparseVoxelShapeUpdate) update).getUpdatesTypes();
+            for (int i = 0; i < positions.size(); i++) {
+                section[positions.getShort(i) & 0xFFF] = states.getByte(i);
+            }
+        }
+    }
+
+    private static void applyEncodedUpdate(@NotNull Long2ObjectOpenHashMap<byte[]> sections, @NotNull EncodedVoxelShapeUpdatesCursor update) {
+        final long sectionPos = KrunchSectionPos.asLong(update.getRegionX(), update.getRegionY(), update.getRegionZ());
+        final int updateType = update.getUpdateType();
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DELETE_UPDATE_TYPE) {
+            sections.remove(sectionPos);
+            return;
+        }
+        final byte[] section = getOrCreateSection(sections, sectionPos);
+        if (updateType == VoxelRigidBodyShapeUpdatesEncoder.EMPTY_UPDATE_TYPE) {
+            if (update.getOverwriteExistingVoxels()) Arrays.fill(section, KrunchVoxelStates.AIR_STATE);
+        } else if (updateType == VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE) {
+            update.copyDenseData(section, 0);
+        } else if (updateType == VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE) {
+            for (int i = 0; i < update.getSparseUpdateCount(); i++) {
+                section[update.getSparseVoxelIndex(i)] = update.getSparseVoxelState(i);
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] getOrCreateSection(@NotNull Long2ObjectOpenHashMap<byte[]> sections, long sectionPos) {
+        byte[] section = sections.get(sectionPos);
+        if (section == null) {
+            section = new byte[SECTION_VOXELS];
+            Arrays.fill(section, KrunchVoxelStates.AIR_STATE);
+            sections.put(sectionPos, section);
+        }
+        return section;
+    }
+
+    @Override
+    public void onRigidBodyDeleted(int rigidBodyId) {
+        rigidBodies.remove(rigidBodyId);
+    }
+
+    @Override
+    public void onPhysicsWorldDeleted() {
+        rigidBodies.clear();
+    }
+}
@@ -0,0 +1,15 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Maps a game block state to one of the voxel states registered with Krunch, such as
+ * {@code KrunchVoxelStates.SOLID_STATE}.
+ *
+ * Used by {@link KrunchChunkSectionConverter}, which calls this once per palette entry rather than once per block. It
+ * may be called from several threads at once when converting sections in parallel.
+ */
+@FunctionalInterface
+public interface KrunchVoxelStateMapper<T> {
+    byte getVoxelState(@NotNull T blockState);
+}
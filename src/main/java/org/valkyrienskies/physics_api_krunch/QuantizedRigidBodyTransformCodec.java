@@ -0,0 +1,395 @@
+package org.valkyrienskies.physics_api_krunch;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A compact encoding of rigid body transforms for sending them over the network, where {@link RigidBodyTransformEncoder}
+ * is the encoding for sending them to Krunch.
+ *
+ * Positions are quantized to {@link #getPositionResolution()} steps per meter, relative to an origin. Rotations are
+ * quantized with the smallest three method: the largest component of the quaternion is left out and recomputed from the
+ * other three, which are stored with {@link #getRotationBits()} bits each. On top of that, a body that is in the
+ * baseline {@link Snapshot} only has the difference to its baseline state written, as variable length integers, and
+ * nothing at all for the parts of its transform that didn't change.
+ *
+ * The baseline has to be a snapshot the receiver already decoded, usually the last one it acknowledged, and the
+ * sender and receiver have to use the same one. The codec doesn't keep track of that, callers keep the snapshots
+ * written by {@link #encode(int[], double[], int, Snapshot, Snapshot)} and {@link #decode(byte[], int, int, Snapshot, Snapshot)}
+ * by sequence number.
+ *
+ * Transforms are passed as 7 doubles per body, as posX, posY, posZ, rotX, rotY, rotZ, rotW, the same layout as
+ * {@link RigidBodyTransformEncoder#decodeRigidBodyTransform(java.nio.ByteBuffer, double[], int)}.
+ */
+public class QuantizedRigidBodyTransformCodec {
+
+    private static final int FLAG_HAS_BASELINE = 1;
+    private static final int FLAG_POSITION_CHANGED = 2;
+    private static final int FLAG_ROTATION_CHANGED = 4;
+    // The rotation is written whole instead of as a difference, because the largest component changed
+    private static final int FLAG_ROTATION_ABSOLUTE = 8;
+
+    private static final double SQRT_2 = Math.sqrt(2.0);
+
+    private final double positionResolution;
+    private final int rotationBits;
+    private final int rotationMax;
+    private final int packedRotationBytes;
+    private double originX;
+    private double originY;
+    private double originZ;
+
+    // Reused by every encode
+    private byte[] buffer = new byte[1024];
+    private int position;
+    // The quantized state of the body being written or read
+    private final long[] quantized = new long[7];
+
+    /**
+     * @param positionResolution The number of position steps per meter, the position error is at most half a step
+     * @param rotationBits The number of bits each of the three stored quaternion components is quantized to
+     */
+    public QuantizedRigidBodyTransformCodec(double positionResolution, int rotationBits) {
+        if (rotationBits < 2 || rotationBits > 20) {
+            throw new IllegalArgumentException("rotationBits must be between 2 and 20, got " + rotationBits);
+        }
+        this.positionResolution = positionResolution;
+        this.rotationBits = rotationBits;
+        this.rotationMax = (1 << rotationBits) - 1;
+        this.packedRotationBytes = (2 + 3 * rotationBits + 7) / 8;
+    }
+
+    /**
+     * Creates a codec with millimeter positions and 15 bit rotation components.
+     */
+    public QuantizedRigidBodyTransformCodec() {
+        this(1024.0, 15);
+    }
+
+    /**
+     * Encodes the first [count] bodies of [rigidBodyIds] and [transforms] into {@link #getBuffer()}, as differences to
+     * [baseline] for bodies in it. The quantized state of every written body is stored in [sent], which is cleared
+     * first.
+     *
+     * @return The number of bytes written
+     */
+    public int encode(@NotNull int[] rigidBodyIds, @NotNull double[] transforms, int count, @Nullable Snapshot baseline,
+                      @NotNull Snapshot sent) {
+        position = 0;
+        sent.clear();
+        writeUnsignedVarLong(count);
+        int previousId = 0;
+        for (int i = 0; i < count; i++) {
+            final int rigidBodyId = rigidBodyIds[i];
+            quantize(transforms, i * 7, quantized);
+            sent.add(rigidBodyId, quantized);
+
+            // Ids are written as the difference to the previous id, which is small when they're sorted
+            writeSignedVarLong((long) rigidBodyId - previousId);
+            previousId = rigidBodyId;
+
+            final int baselineIndex = baseline != null ? baseline.indexOf(rigidBodyId) : -1;
+            if (baselineIndex == -1) {
+                ensureCapacity(1);
+                buffer[position++] = (byte) (FLAG_POSITION_CHANGED | FLAG_ROTATION_CHANGED | FLAG_ROTATION_ABSOLUTE);
+                writeSignedVarLong(quantized[0]);
+                writeSignedVarLong(quantized[1]);
+                writeSignedVarLong(quantized[2]);
+                writePackedRotation(quantized);
+                continue;
+            }
+
+            final long[] baselineStates = baseline.states;
+            final int base = baselineIndex * 7;
+            final boolean positionChanged = quantized[0] != baselineStates[base] || quantized[1] != baselineStates[base + 1]
+                || quantized[2] != baselineStates[base + 2];
+            final boolean rotationChanged = quantized[3] != baselineStates[base + 3] || quantized[4] != baselineStates[base + 4]
+                || quantized[5] != baselineStates[base + 5] || quantized[6] != baselineStates[base + 6];
+            final boolean rotationAbsolute = quantized[3] != baselineStates[base + 3];
+            int flags = FLAG_HAS_BASELINE;
+            if (positionChanged) flags |= FLAG_POSITION_CHANGED;
+            if (rotationChanged) flags |= FLAG_ROTATION_CHANGED;
+            if (rotationAbsolute) flags |= FLAG_ROTATION_ABSOLUTE;
+            ensureCapacity(1);
+            buffer[position++] = (byte) flags;
+
+            if (positionChanged) {
+                writeSignedVarLong(quantized[0] - baselineStates[base]);
+                writeSignedVarLong(quantized[1] - baselineStates[base + 1]);
+                writeSignedVarLong(quantized[2] - baselineStates[base + 2]);
+            }
+            if (rotationAbsolute) {
+                writePackedRotation(quantized);
+            } else if (rotationChanged) {
+                writeSignedVarLong(quantized[4] - baselineStates[base + 4]);
+                writeSignedVarLong(quantized[5] - baselineStates[base + 5]);
+                writeSignedVarLong(quantized[6] - baselineStates[base + 6]);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Decodes [length] bytes of [encoded] starting at [offset], written by {@link #encode(int[], double[], int, Snapshot, Snapshot)}
+     * with [baseline], into [received], which is cleared first. Use {@link #getTransform(Snapshot, int, double[], int)}
+     * to get the transforms out of [received].
+     */
+    public void decode(@NotNull byte[] encoded, int offset, int length, @Nullable Snapshot baseline, @NotNull Snapshot received) {
+        final byte[] previousBuffer = buffer;
+        buffer = encoded;
+        position = offset;
+        received.clear();
+        try {
+            final int count = (int) readUnsignedVarLong();
+            int rigidBodyId = 0;
+            for (int i = 0; i < count; i++) {
+                rigidBodyId += (int) readSignedVarLong();
+                final int flags = buffer[position++];
+
+                if ((flags & FLAG_HAS_BASELINE) == 0) {
+                    quantized[0] = readSignedVarLong();
+                    quantized[1] = readSignedVarLong();
+                    quantized[2] = readSignedVarLong();
+                    readPackedRotation(quantized);
+                } else {
+                    final int baselineIndex = baseline != null ? baseline.indexOf(rigidBodyId) : -1;
+                    if (baselineIndex == -1) {
+                        throw new IllegalArgumentException("Rigid body " + rigidBodyId + " was encoded against a baseline that doesn't have it");
+                    }
+                    System.arraycopy(baseline.states, baselineIndex * 7, quantized, 0, 7);
+                    if ((flags & FLAG_POSITION_CHANGED) != 0) {
+                        quantized[0] += readSignedVarLong();
+                        quantized[1] += readSignedVarLong();
+                        quantized[2] += readSignedVarLong();
+                    }
+                    if ((flags & FLAG_ROTATION_ABSOLUTE) != 0) {
+                        readPackedRotation(quantized);
+                    } else if ((flags & FLAG_ROTATION_CHANGED) != 0) {
+                        quantized[4] += readSignedVarLong();
+                        quantized[5] += readSignedVarLong();
+                        quantized[6] += readSignedVarLong();
+                    }
+                }
+                received.add(rigidBodyId, quantized);
+            }
+            if (position - offset != length) {
+                throw new IllegalArgumentException("Decoded " + (position - offset) + " bytes, expected " + length);
+            }
+        } finally {
+            buffer = previousBuffer;
+        }
+    }
+
+    /**
+     * Writes the transform of the body at [index] of [snapshot] into [output] starting at [offset]. For a snapshot
+     * filled by {@link #encode(int[], double[], int, Snapshot, Snapshot)} this is the transform the receiver decodes.
+     */
+    public void getTransform(@NotNull Snapshot snapshot, int index, @NotNull double[] output, int offset) {
+        final long[] states = snapshot.states;
+        final int base = index * 7;
+        output[offset] = originX + states[base] / positionResolution;
+        output[offset + 1] = originY + states[base + 1] / positionResolution;
+        output[offset + 2] = originZ + states[base + 2] / positionResolution;
+
+        final int largest = (int) states[base + 3];
+        final double a = dequantizeComponent(states[base + 4]);
+        final double b = dequantizeComponent(states[base + 5]);
+        final double c = dequantizeComponent(states[base + 6]);
+        final double largestValue = Math.sqrt(Math.max(0.0, 1.0 - a * a - b * b - c * c));
+        int component = 0;
+        for (int i = 0; i < 4; i++) {
+            final double value;
+            if (i == largest) {
+                value = largestValue;
+            } else {
+                value = component == 0 ? a : component == 1 ? b : c;
+                component++;
+            }
+            output[offset + 3 + i] = value;
+        }
+    }
+
+    private void quantize(@NotNull double[] transforms, int offset, @NotNull long[] dest) {
+        dest[0] = Math.round((transforms[offset] - originX) * positionResolution);
+        dest[1] = Math.round((transforms[offset + 1] - originY) * positionResolution);
+        dest[2] = Math.round((transforms[offset + 2] - originZ) * positionResolution);
+
+        final double x = transforms[offset + 3];
+        final double y = transforms[offset + 4];
+        final double z = transforms[offset + 5];
+        final double w = transforms[offset + 6];
+        final double length = Math.sqrt(x * x + y * y + z * z + w * w);
+        int largest = 0;
+        double largestAbs = Math.abs(x);
+        if (Math.abs(y) > largestAbs) { largest = 1; largestAbs = Math.abs(y); }
+        if (Math.abs(z) > largestAbs) { largest = 2; largestAbs = Math.abs(z); }
+        if (Math.abs(w) > largestAbs) { largest = 3; }
+        // q and -q are the same rotation, pick the one where the left out component is positive
+        final double largestValue = largest == 0 ? x : largest == 1 ? y : largest == 2 ? z : w;
+        final double scale = (largestValue < 0.0 ? -1.0 : 1.0) / length;
+
+        dest[3] = largest;
+        int component = 4;
+        if (largest != 0) dest[component++] = quantizeComponent(x * scale);
+        if (largest != 1) dest[component++] = quantizeComponent(y * scale);
+        if (largest != 2) dest[component++] = quantizeComponent(z * scale);
+        if (largest != 3) dest[component] = quantizeComponent(w * scale);
+    }
+
+    // The components that aren't the largest are between -1 / sqrt(2) and 1 / sqrt(2)
+    private long quantizeComponent(double value) {
+        final double normalized = Math.min(1.0, Math.max(0.0, (value * SQRT_2 + 1.0) * 0.5));
+        return Math.round(normalized * rotationMax);
+    }
+
+    private double dequantizeComponent(long quantized) {
+        return ((double) quantized / rotationMax * 2.0 - 1.0) / SQRT_2;
+    }
+
+    private void writePackedRotation(@NotNull long[] state) {
+        final long packed = state[3] | (state[4] << 2) | (state[5] << (2 + rotationBits)) | (state[6] << (2 + 2 * rotationBits));
+        ensureCapacity(packedRotationBytes);
+        for (int i = 0; i < packedRotationBytes; i++) {
+            buffer[position++] = (byte) (packed >>> (i * 8));
+        }
+    }
+
+    private void readPackedRotation(@NotNull long[] dest) {
+        long packed = 0;
+        for (int i = 0; i < packedRotationBytes; i++) {
+            packed |= (buffer[position++] & 0xFFL) << (i * 8);
+        }
+        dest[3] = packed & 3;
+        dest[4] = (packed >>> 2) & rotationMax;
+        dest[5] = (packed >>> (2 + rotationBits)) & rotationMax;
+        dest[6] = (packed >>> (2 + 2 * rotationBits)) & rotationMax;
+    }
+
+    private void writeSignedVarLong(long value) {
+        // Zigzag so small negative values are small too
+        writeUnsignedVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUnsignedVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private long readSignedVarLong() {
+        final long value = readUnsignedVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readUnsignedVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+
+    /**
+     * The buffer {@link #encode(int[], double[], int, Snapshot, Snapshot)} writes into. This is reused and may be
+     * replaced by a larger one by the next encode, so copy or send it before encoding again.
+     */
+    @NotNull
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Sets the origin positions are quantized relative to, which should be close to the bodies so the quantized
+     * positions stay small. The sender and receiver must use the same origin.
+     */
+    public void setOrigin(double originX, double originY, double originZ) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+    }
+
+    public double getPositionResolution() {
+        return positionResolution;
+    }
+
+    public int getRotationBits() {
+        return rotationBits;
+    }
+
+    /**
+     * The quantized transforms of a set of bodies, as written or read by one encode or decode, to be used as the
+     * baseline of later ones.
+     */
+    public static final class Snapshot {
+        private final Int2IntOpenHashMap indices = new Int2IntOpenHashMap();
+        private int[] rigidBodyIds = new int[16];
+        // Per body: position x, y, z, the index of the largest rotation component, and the other three components
+        private long[] states = new long[16 * 7];
+        private int size = 0;
+
+        public Snapshot() {
+            indices.defaultReturnValue(-1);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getRigidBodyId(int index) {
+            return rigidBodyIds[index];
+        }
+
+        /**
+         * @return The index of [rigidBodyId] in this snapshot, or -1 if it isn't in it
+         */
+        public int indexOf(int rigidBodyId) {
+            return indices.get(rigidBodyId);
+        }
+
+        public void clear() {
+            indices.clear();
+            size = 0;
+        }
+
+        /**
+         * Makes this snapshot a copy of [other], so a snapshot can be kept as a baseline while [other] is reused.
+         */
+        public void set(@NotNull Snapshot other) {
+            clear();
+            for (int i = 0; i < other.size; i++) {
+                add(other.rigidBodyIds[i], other.states, i * 7);
+            }
+        }
+
+        private void add(int rigidBodyId, @NotNull long[] state) {
+            add(rigidBodyId, state, 0);
+        }
+
+        private void add(int rigidBodyId, @NotNull long[] source, int sourceOffset) {
+            if (size == rigidBodyIds.length) {
+                rigidBodyIds = Arrays.copyOf(rigidBodyIds, size * 2);
+                states = Arrays.copyOf(states, size * 2 * 7);
+            }
+            rigidBodyIds[size] = rigidBodyId;
+            System.arraycopy(source, sourceOffset, states, size * 7, 7);
+            indices.put(rigidBodyId, size);
+            size++;
+        }
+    }
+}
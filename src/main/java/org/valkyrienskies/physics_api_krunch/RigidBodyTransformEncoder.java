@@ -54,4 +54,14 @@ public class RigidBodyTransformEncoder {
         return new RigidBodyTransform(pos, rot);
     }
 
+    /**
+     * Decodes the transform in [byteBuffer] into [output] starting at [offset], as posX, posY, posZ, rotX, rotY, rotZ,
+     * rotW. This reads [byteBuffer] with absolute gets, so it doesn't allocate or change the buffer's position.
+     */
+    public static void decodeRigidBodyTransform(@NotNull ByteBuffer byteBuffer, @NotNull double[] output, int offset) {
+        for (int i = 0; i < 7; i++) {
+            output[offset + i] = byteBuffer.getDouble(i * 8);
+        }
+    }
+
 }
@@ -10,8 +10,27 @@ import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class VoxelRigidBodyShapeUpdatesEncoder {
+
+    // The update types stored in the bottom 2 bits of the fourth int of an encoded update
+    public static final int EMPTY_UPDATE_TYPE = 0;
+    public static final int DENSE_UPDATE_TYPE = 1;
+    public static final int SPARSE_UPDATE_TYPE = 2;
+    public static final int DELETE_UPDATE_TYPE = 3;
+
+    // Batches smaller than this many encoded bytes aren't worth splitting across threads
+    public static final int DEFAULT_PARALLEL_ENCODE_THRESHOLD_BYTES = 1 << 20;
+    // Encode tasks covering fewer bytes than this aren't split further
+    private static final int PARALLEL_ENCODE_TASK_BYTES = 1 << 16;
+
+    private static final ThreadLocal<EncodedVoxelShapeUpdatesCursor> HEADER_CURSOR =
+        ThreadLocal.withInitial(EncodedVoxelShapeUpdatesCursor::new);
+
     private static int getVoxelShapeUpdateSize(@NotNull IVoxelShapeUpdate voxelShapeUpdate) {
         if (voxelShapeUpdate instanceof EmptyVoxelShapeUpdate) {
             return 16; // 16 bytes is the min size
@@ -43,17 +62,17 @@ public class VoxelRigidBodyShapeUpdatesEncoder {
         outputBuffer.putInt(update.getRegionZ()); // 4 bytes for regionZ
         // fourthInt is | 6 bits data | 2 bits update type |
         if (update instanceof EmptyVoxelShapeUpdate) {
-            int fourthInt = 0;
+            int fourthInt = EMPTY_UPDATE_TYPE;
             if (update.getRunImmediately()) fourthInt |= 4;
             if (((EmptyVoxelShapeUpdate) update).getOverwriteExistingVoxels()) fourthInt |= 8;
             outputBuffer.putInt(fourthInt); // 4 bytes
         } else if (update instanceof DenseVoxelShapeUpdate) {
-            int fourthInt = 1;
+            int fourthInt = DENSE_UPDATE_TYPE;
             if (update.getRunImmediately()) fourthInt |= 4;
             outputBuffer.putInt(fourthInt); // 4 bytes
             outputBuffer.put(((DenseVoxelShapeUpdate) update).getVoxelDataRaw()); // 4096 bytes
         } else if (update instanceof SparseVoxelShapeUpdate) {
-            int fourthInt = 2;
+            int fourthInt = SPARSE_UPDATE_TYPE;
             if (update.getRunImmediately()) fourthInt |= 4;
             outputBuffer.putInt(fourthInt); // 4 bytes
             final SparseVoxelShapeUpdate sparseVoxelShapeUpdate = (SparseVoxelShapeUpdate) update;
@@ -66,7 +85,7 @@ public class VoxelRigidBodyShapeUpdatesEncoder {
                 outputBuffer.put(singleUpdateData);
             }
         } else if (update instanceof DeleteVoxelShapeUpdate) {
-            int fourthInt = 3;
+            int fourthInt = DELETE_UPDATE_TYPE;
             if (update.getRunImmediately()) fourthInt |= 4;
             outputBuffer.putInt(fourthInt); // 4 bytes
         } else {
@@ -96,6 +115,141 @@ public class VoxelRigidBodyShapeUpdatesEncoder {
         return outputBuffer.array();
     }
 
+    /**
+     * Encodes [array] like {@link #encodeVoxelRigidBodyShapeUpdatesArray(VoxelRigidBodyShapeUpdates[])}, but on [pool]
+     * when the encoded size is at least {@link #DEFAULT_PARALLEL_ENCODE_THRESHOLD_BYTES}.
+     */
+    @NotNull
+    public static byte[] encodeVoxelRigidBodyShapeUpdatesArray(@NotNull VoxelRigidBodyShapeUpdates[] array, @NotNull ForkJoinPool pool) {
+        return encodeVoxelRigidBodyShapeUpdatesArray(array, pool, DEFAULT_PARALLEL_ENCODE_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Encodes [array] into the same bytes as {@link #encodeVoxelRigidBodyShapeUpdatesArray(VoxelRigidBodyShapeUpdates[])}.
+     * If the encoded size is at least [parallelThresholdBytes] the updates are split into groups that are encoded on
+     * [pool] at the same time, each into its own part of the output, otherwise it's encoded on the calling thread.
+     * Groups are split by update rather than by rigid body, so one body with many sections is still spread over [pool].
+     */
+    @NotNull
+    public static byte[] encodeVoxelRigidBodyShapeUpdatesArray(@NotNull VoxelRigidBodyShapeUpdates[] array, @NotNull ForkJoinPool pool,
+                                                               int parallelThresholdBytes) {
+        long size = 4; // Add 4 bytes for array.length
+        int updateCount = 0;
+        for (final VoxelRigidBodyShapeUpdates update : array) {
+            size += 8; // 4 bytes for update.rigidBodyId, and 4 bytes for update.shapeUpdates.length
+            for (final IVoxelShapeUpdate voxelShapeUpdate : update.getShapeUpdates()) {
+                size += getVoxelShapeUpdateSize(voxelShapeUpdate);
+            }
+            updateCount += update.getShapeUpdates().length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Encoded voxel shape updates would take " + size + " bytes, more than fit in an array");
+        }
+
+        final byte[] output = new byte[(int) size];
+        final ByteBuffer outputBuffer = ByteBuffer.wrap(output);
+        outputBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        outputBuffer.putInt(array.length);
+        if (size < parallelThresholdBytes || updateCount < 2) {
+            for (final VoxelRigidBodyShapeUpdates update : array) {
+                writeVoxelRigidBodyShapeUpdatesToByteBuf(update, outputBuffer);
+            }
+            return output;
+        }
+
+        // The updates of every body are numbered one after another. bodyStarts[i] is the number of the first update of
+        // rigid body i, and updateOffsets[k] is where update k starts in the output, with one more entry at the end of
+        // each. The body headers are only 8 bytes each, so they're written here and the tasks only write updates
+        final int[] bodyStarts = new int[array.length + 1];
+        final int[] updateOffsets = new int[updateCount + 1];
+        int offset = 4;
+        int updateIndex = 0;
+        for (int i = 0; i < array.length; i++) {
+            final IVoxelShapeUpdate[] shapeUpdates = array[i].getShapeUpdates();
+            outputBuffer.putInt(offset, array[i].getRigidBodyId());
+            outputBuffer.putInt(offset + 4, shapeUpdates.length);
+            offset += 8;
+            bodyStarts[i] = updateIndex;
+            for (final IVoxelShapeUpdate voxelShapeUpdate : shapeUpdates) {
+                updateOffsets[updateIndex++] = offset;
+                offset += getVoxelShapeUpdateSize(voxelShapeUpdate);
+            }
+        }
+        bodyStarts[array.length] = updateCount;
+        updateOffsets[updateCount] = offset;
+
+        pool.invoke(new EncodeTask(array, bodyStarts, updateOffsets, output, 0, updateCount));
+        return output;
+    }
+
+    /**
+     * Encodes the updates numbered from [from] to [to] into their part of [output], splitting into two tasks while that
+     * part is large enough.
+     */
+    private static final class EncodeTask extends RecursiveAction {
+        private final VoxelRigidBodyShapeUpdates[] array;
+        private final int[] bodyStarts;
+        private final int[] updateOffsets;
+        private final byte[] output;
+        private final int from;
+        private final int to;
+
+        EncodeTask(@NotNull VoxelRigidBodyShapeUpdates[] array, @NotNull int[] bodyStarts, @NotNull int[] updateOffsets,
+                   @NotNull byte[] output, int from, int to) {
+            this.array = array;
+            this.bodyStarts = bodyStarts;
+            this.updateOffsets = updateOffsets;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1 || updateOffsets[to] - updateOffsets[from] <= PARALLEL_ENCODE_TASK_BYTES) {
+                final ByteBuffer outputBuffer = ByteBuffer.wrap(output);
+                outputBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                // Any body starting at or before [from], the loop below moves on to the one that has update [from]
+                int body = Arrays.binarySearch(bodyStarts, from);
+                if (body < 0) body = -body - 2;
+                for (int k = from; k < to; k++) {
+                    while (bodyStarts[body + 1] <= k) body++;
+                    // Updates of the next body start after its header, so the position is set for every update
+                    outputBuffer.position(updateOffsets[k]);
+                    writeIVoxelShapeUpdateByteBuf(array[body].getShapeUpdates()[k - bodyStarts[body]], outputBuffer);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new EncodeTask(array, bodyStarts, updateOffsets, output, from, middle),
+                new EncodeTask(array, bodyStarts, updateOffsets, output, middle, to));
+        }
+    }
+
+    /**
+     * Merges arrays encoded by {@link #encodeVoxelRigidBodyShapeUpdatesArray(VoxelRigidBodyShapeUpdates[])} into a
+     * single encoded array, so that they can be sent to Krunch with one native call.
+     */
+    @NotNull
+    public static byte[] mergeEncodedVoxelRigidBodyShapeUpdatesArrays(@NotNull List<byte[]> encodedArrays) {
+        // Every encoded array starts with 4 bytes for its length, the merged array only needs one of those
+        int size = 4;
+        int arrayLength = 0;
+        for (final byte[] encoded : encodedArrays) {
+            size += encoded.length - 4;
+            arrayLength += ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        }
+
+        final byte[] merged = new byte[size];
+        ByteBuffer.wrap(merged).order(ByteOrder.LITTLE_ENDIAN).putInt(arrayLength);
+        int offset = 4;
+        for (final byte[] encoded : encodedArrays) {
+            System.arraycopy(encoded, 4, merged, offset, encoded.length - 4);
+            offset += encoded.length - 4;
+        }
+        return merged;
+    }
+
     public static VoxelRigidBodyShapeUpdates[] decodeVoxelRigidBodyShapeUpdatesArray(@NotNull byte[] encoded) {
         final ByteBuffer byteBuffer = ByteBuffer.wrap(encoded);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -115,17 +269,17 @@ public class VoxelRigidBodyShapeUpdatesEncoder {
                 final boolean updateImmediately = (fourthInt & 4) != 0;
                 final int updateType = fourthInt & 3;
                 switch (updateType) {
-                    case 0: // EmptyVoxelShapeUpdate
+                    case EMPTY_UPDATE_TYPE:
                         final boolean overwriteExistingVoxels = (fourthInt & 8) != 0;
                         updatesArray[j] = new EmptyVoxelShapeUpdate(regionX, regionY, regionZ, updateImmediately, overwriteExistingVoxels);
                         break;
-                    case 1: // DenseVoxelShapeUpdate
+                    case DENSE_UPDATE_TYPE:
                         // TODO: We could make this faster by not initializing the array, but I don't want to deal with JNI for now
                         final byte[] voxelDataRaw = new byte[4096];
                         copyFromByteBufferToByteArray(byteBuffer, voxelDataRaw, 4096);
                         updatesArray[j] = new DenseVoxelShapeUpdate(regionX, regionY, regionZ, updateImmediately, voxelDataRaw);
                         break;
-                    case 2: // SparseVoxelShapeUpdate
+                    case SPARSE_UPDATE_TYPE:
                         final SparseVoxelShapeUpdate sparseVoxelShapeUpdate = new SparseVoxelShapeUpdate(regionX, regionY, regionZ, updateImmediately);
                         final int sparseUpdatesSize = byteBuffer.getInt();
                         for (int k = 0; k < sparseUpdatesSize; k++) {
@@ -138,7 +292,7 @@ public class VoxelRigidBodyShapeUpdatesEncoder {
                         }
                         updatesArray[j] = sparseVoxelShapeUpdate;
                         break;
-                    case 3: // DeleteVoxelShapeUpdate
+                    case DELETE_UPDATE_TYPE:
                         final DeleteVoxelShapeUpdate deleteVoxelShapeUpdate = new DeleteVoxelShapeUpdate(regionX, regionY, regionZ, updateImmediately);
                         updatesArray[j] = deleteVoxelShapeUpdate;
                         break;
@@ -152,6 +306,42 @@ public class VoxelRigidBodyShapeUpdatesEncoder {
         return toReturn;
     }
 
+    /**
+     * Walks an array encoded by {@link #encodeVoxelRigidBodyShapeUpdatesArray(VoxelRigidBodyShapeUpdates[])} and passes
+     * the header of every update to [visitor], skipping over the voxel data without decoding it.
+     */
+    public static void visitEncodedVoxelShapeUpdateHeaders(@NotNull byte[] encoded, @NotNull EncodedVoxelShapeUpdateHeaderVisitor visitor) {
+        // Listeners call this for every encoded batch, so reuse a cursor per thread. It's taken out while in use, so a
+        // visitor that visits another array gets its own
+        EncodedVoxelShapeUpdatesCursor cursor = HEADER_CURSOR.get();
+        final boolean reused = cursor != null;
+        if (reused) {
+            HEADER_CURSOR.set(null);
+        } else {
+            cursor = new EncodedVoxelShapeUpdatesCursor();
+        }
+        try {
+            cursor.reset(encoded);
+            while (cursor.nextRigidBody()) {
+                while (cursor.nextUpdate()) {
+                    visitor.visit(cursor.getRigidBodyId(), cursor.getUpdateType(), cursor.getRegionX(), cursor.getRegionY(),
+                        cursor.getRegionZ(), cursor.getRunImmediately(), cursor.getOverwriteExistingVoxels());
+                }
+            }
+        } finally {
+            if (reused) HEADER_CURSOR.set(cursor);
+        }
+    }
+
+    @FunctionalInterface
+    public interface EncodedVoxelShapeUpdateHeaderVisitor {
+        /**
+         * @param updateType One of the update type constants of {@link VoxelRigidBodyShapeUpdatesEncoder}
+         * @param overwriteExistingVoxels Only meaningful for empty updates
+         */
+        void visit(int rigidBodyId, int updateType, int regionX, int regionY, int regionZ, boolean runImmediately, boolean overwriteExistingVoxels);
+    }
+
     private static void copyFromByteBufferToByteArray(ByteBuffer src, byte[] dest, int bytesToCopy) {
         final int oldPosition = src.position();
         final byte[] backingArray = src.array();
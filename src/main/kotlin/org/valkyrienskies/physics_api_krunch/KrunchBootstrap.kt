@@ -1,6 +1,7 @@
 package org.valkyrienskies.physics_api_krunch
 
 import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.RigidBodyReference
 import org.valkyrienskies.physics_api_krunch.shared_library_loader.KrunchPhysicsAPISharedLibraryLoader
 
 /**
@@ -15,6 +16,59 @@ object KrunchBootstrap {
         physicsWorldReference.setSettings(settingsWrapper)
     }
 
+    /**
+     * @return The canonical reference to the live rigid body with id [rigidBodyId], or null if there is none
+     */
+    fun getRigidBody(physicsWorldReference: PhysicsWorldReference, rigidBodyId: Int): RigidBodyReference? {
+        physicsWorldReference as KrunchNativePhysicsWorldReference
+        return physicsWorldReference.getRigidBody(rigidBodyId)
+    }
+
+    fun getRigidBodyCount(physicsWorldReference: PhysicsWorldReference): Int {
+        physicsWorldReference as KrunchNativePhysicsWorldReference
+        return physicsWorldReference.rigidBodyCount
+    }
+
+    /**
+     * Gets a live rigid body by index, see [KrunchNativePhysicsWorldReference.getRigidBodyAt].
+     */
+    fun getRigidBodyAt(physicsWorldReference: PhysicsWorldReference, index: Int): RigidBodyReference {
+        physicsWorldReference as KrunchNativePhysicsWorldReference
+        return physicsWorldReference.getRigidBodyAt(index)
+    }
+
+    /**
+     * @return True if [KrunchSleepManager] has put [rigidBodyReference] to sleep. Sleeping bodies don't move, so their
+     *         state doesn't need to be read back every tick.
+     */
+    fun isRigidBodySleeping(rigidBodyReference: RigidBodyReference): Boolean {
+        rigidBodyReference as KrunchNativeRigidBodyReference
+        return rigidBodyReference.isSleeping
+    }
+
+    /**
+     * Records where every physics world created from now on was created, and prints it if the world is garbage
+     * collected without being deleted. See [KrunchNativePhysicsWorldCleaner].
+     */
+    fun setWorldLeakTrackingEnabled(enabled: Boolean) {
+        KrunchNativePhysicsWorldCleaner.setLeakTrackingEnabled(enabled)
+    }
+
+    /**
+     * @return The number of physics worlds whose native memory hasn't been freed yet
+     */
+    fun getLiveWorldCount(): Int = KrunchNativePhysicsWorldCleaner.getLiveWorldCount()
+
+    /**
+     * @return The number of physics worlds freed by [PhysicsWorldReference.deletePhysicsWorldResources]
+     */
+    fun getExplicitlyFreedWorldCount(): Long = KrunchNativePhysicsWorldCleaner.getExplicitlyFreedWorldCount()
+
+    /**
+     * @return The number of physics worlds that were garbage collected without being deleted, and freed then
+     */
+    fun getLeakedWorldCount(): Long = KrunchNativePhysicsWorldCleaner.getLeakedWorldCount()
+
     fun loadNativeBinaries() {
         val nativeLoader = KrunchPhysicsAPISharedLibraryLoader()
         // TODO: Check if the cpu supports AVX. AVX makes Krunch ~10% faster from my testing
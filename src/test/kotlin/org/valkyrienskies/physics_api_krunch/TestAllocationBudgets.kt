@@ -0,0 +1,256 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Matrix3d
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBd
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.RigidBodyInertiaData
+import org.valkyrienskies.physics_api.RigidBodyReference
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Fails when an operation allocates more bytes on the heap than its budget, so allocations don't creep back into the
+ * paths that run every tick.
+ *
+ * Operations that return new objects by design have budgets a little above what they allocate when escape analysis
+ * doesn't remove anything, so the results don't depend on the JIT. Operations that are meant to be allocation free
+ * have a budget of 0. When a test fails, its message lists its operations from the largest allocator down.
+ */
+class TestAllocationBudgets {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private const val WARMUP_OPERATIONS = 20_000
+        private const val MEASURED_OPERATIONS = 20_000
+
+        private fun createBox(physicsWorld: PhysicsWorldReference, position: Vector3d): RigidBodyReference {
+            val body = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(position, Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorld, body.rigidBodyId, sparseUpdate)
+            body.isVoxelTerrainFullyLoaded = true
+            return body
+        }
+    }
+
+    private class Measurement(val name: String, val bytesPerOperation: Double, val budget: Long)
+
+    /**
+     * Measures the bytes allocated by the current thread per call of [operation], after warming it up so the JIT has
+     * compiled it.
+     */
+    private class AllocationMeter {
+        private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        private val measurements = ArrayList<Measurement>()
+
+        init {
+            assertTrue(threadMXBean.isThreadAllocatedMemorySupported, "The JVM can't measure allocations")
+            threadMXBean.isThreadAllocatedMemoryEnabled = true
+        }
+
+        private fun allocatedBytes(): Long = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+
+        fun measure(name: String, budget: Long, operations: Int = MEASURED_OPERATIONS, operation: () -> Unit) {
+            repeat(WARMUP_OPERATIONS) { operation() }
+            // Reading the counter can allocate, measure that on its own and subtract it
+            val overheadStart = allocatedBytes()
+            val overhead = allocatedBytes() - overheadStart
+            val start = allocatedBytes()
+            repeat(operations) { operation() }
+            val allocated = allocatedBytes() - start - overhead
+            measurements.add(Measurement(name, maxOf(0L, allocated).toDouble() / operations, budget))
+        }
+
+        /**
+         * Fails if any measurement went over its budget, with every measurement from the largest allocator down in the
+         * message.
+         */
+        fun assertWithinBudgets(title: String) {
+            // Leave a byte of slack for a stray allocation during the measurement, like a safepoint or class loading
+            assertTrue(measurements.none { it.bytesPerOperation > it.budget + 1.0 }) {
+                val report = StringBuilder("Over budget, allocations per operation, $title:")
+                for (measurement in measurements.sortedByDescending { it.bytesPerOperation }) {
+                    val marker = if (measurement.bytesPerOperation > measurement.budget + 1.0) "!" else " "
+                    report.append(String.format("%n%s %10.1f bytes (budget %6d)  %s", marker, measurement.bytesPerOperation,
+                        measurement.budget, measurement.name))
+                }
+                report.toString()
+            }
+        }
+    }
+
+    @Test
+    fun testEncoderAllocations() {
+        val meter = AllocationMeter()
+        val transform = RigidBodyTransform(Vector3d(1.0, 2.0, 3.0), Quaterniond().rotateY(0.5))
+        val encodedTransform = RigidBodyTransformEncoder.encodeRigidBodyTransform(transform)
+        val transformBuffer = ByteBuffer.wrap(encodedTransform).order(ByteOrder.LITTLE_ENDIAN)
+        val transformOutput = DoubleArray(7)
+        val inertiaData = RigidBodyInertiaData(2.0, Matrix3d())
+        val encodedInertiaData = RigidBodyInertiaDataEncoder.encodeRigidBodyInertiaData(inertiaData)
+
+        val sparse = SparseVoxelShapeUpdate(0, 0, 0, true)
+        for (i in 0 until 16) sparse.addUpdate(i, 0, 0, KrunchVoxelStates.SOLID_STATE)
+        val sparseUpdates = arrayOf(VoxelRigidBodyShapeUpdates(1, arrayOf<IVoxelShapeUpdate>(sparse)))
+        val denseUpdates = arrayOf(VoxelRigidBodyShapeUpdates(1, arrayOf<IVoxelShapeUpdate>(DenseVoxelShapeUpdate(0, 0, 0, true))))
+        val encodedSparse = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(sparseUpdates)
+        val cursor = EncodedVoxelShapeUpdatesCursor()
+        val visitor = VoxelRigidBodyShapeUpdatesEncoder.EncodedVoxelShapeUpdateHeaderVisitor { _, _, _, _, _, _, _ -> }
+
+        meter.measure("RigidBodyTransformEncoder.encodeRigidBodyTransform", 160) {
+            RigidBodyTransformEncoder.encodeRigidBodyTransform(transform)
+        }
+        meter.measure("RigidBodyTransformEncoder.decodeRigidBodyTransform(byte[])", 256) {
+            RigidBodyTransformEncoder.decodeRigidBodyTransform(encodedTransform)
+        }
+        meter.measure("RigidBodyTransformEncoder.decodeRigidBodyTransform(ByteBuffer, double[], int)", 0) {
+            transformBuffer.clear()
+            RigidBodyTransformEncoder.decodeRigidBodyTransform(transformBuffer, transformOutput, 0)
+        }
+        meter.measure("RigidBodyInertiaDataEncoder.encodeRigidBodyInertiaData", 192) {
+            RigidBodyInertiaDataEncoder.encodeRigidBodyInertiaData(inertiaData)
+        }
+        meter.measure("RigidBodyInertiaDataEncoder.decodeRigidBodyInertiaData", 256) {
+            RigidBodyInertiaDataEncoder.decodeRigidBodyInertiaData(encodedInertiaData)
+        }
+        meter.measure("VoxelRigidBodyShapeUpdatesEncoder.encode sparse", 192) {
+            VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(sparseUpdates)
+        }
+        meter.measure("VoxelRigidBodyShapeUpdatesEncoder.encode dense", 4232, operations = 2_000) {
+            VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(denseUpdates)
+        }
+        meter.measure("VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders", 64) {
+            VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encodedSparse, visitor)
+        }
+        meter.measure("EncodedVoxelShapeUpdatesCursor walk", 192) {
+            cursor.reset(encodedSparse)
+            while (cursor.nextRigidBody()) {
+                while (cursor.nextUpdate()) {
+                    for (i in 0 until cursor.sparseUpdateCount) cursor.getSparseVoxelState(i)
+                }
+            }
+        }
+        meter.assertWithinBudgets("encoders")
+    }
+
+    @Test
+    fun testRigidBodyAccessorAllocations() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        try {
+            val meter = AllocationMeter()
+            val rigidBody = createBox(physicsWorld, Vector3d(0.0, 10.0, 0.0)) as KrunchNativeRigidBodyReference
+            val transform = rigidBody.rigidBodyTransform
+            val inertiaData = rigidBody.inertiaData
+            val zero = Vector3d()
+            val offset = Vector3d(0.5, 0.5, 0.5)
+            val force = Vector3d(0.0, 1.0, 0.0)
+            val transformOutput = DoubleArray(7)
+            val aabbOutput = DoubleArray(6)
+            val aabb = AABBd()
+            val voxelShapeAABB = AABBi()
+
+            meter.measure("getRigidBodyId", 0) { rigidBody.rigidBodyId }
+            meter.measure("hasBeenDeleted", 0) { rigidBody.hasBeenDeleted() }
+            meter.measure("isStatic", 0) { rigidBody.isStatic }
+            meter.measure("setStatic", 0) { rigidBody.isStatic = false }
+            meter.measure("getDynamicFrictionCoefficient", 0) { rigidBody.dynamicFrictionCoefficient }
+            meter.measure("setDynamicFrictionCoefficient", 0) { rigidBody.dynamicFrictionCoefficient = 0.5 }
+            meter.measure("getStaticFrictionCoefficient", 0) { rigidBody.staticFrictionCoefficient }
+            meter.measure("setStaticFrictionCoefficient", 0) { rigidBody.staticFrictionCoefficient = 0.5 }
+            meter.measure("getRestitutionCoefficient", 0) { rigidBody.restitutionCoefficient }
+            meter.measure("setRestitutionCoefficient", 0) { rigidBody.restitutionCoefficient = 0.1 }
+            meter.measure("getCollisionShapeScaling", 0) { rigidBody.collisionShapeScaling }
+            meter.measure("setCollisionShapeScaling", 0) { rigidBody.collisionShapeScaling = 1.0 }
+            meter.measure("isVoxelTerrainFullyLoaded", 0) { rigidBody.isVoxelTerrainFullyLoaded }
+            meter.measure("setVoxelTerrainFullyLoaded", 0) { rigidBody.isVoxelTerrainFullyLoaded = true }
+            meter.measure("isSleeping", 0) { rigidBody.isSleeping }
+            meter.measure("getCollisionShapeOffset", 64) { rigidBody.collisionShapeOffset }
+            meter.measure("setCollisionShapeOffset", 0) { rigidBody.collisionShapeOffset = offset }
+            meter.measure("getVelocity", 64) { rigidBody.velocity }
+            meter.measure("setVelocity", 0) { rigidBody.velocity = zero }
+            meter.measure("getOmega", 64) { rigidBody.omega }
+            meter.measure("setOmega", 0) { rigidBody.omega = zero }
+            meter.measure("getRigidBodyTransform", 320) { rigidBody.rigidBodyTransform }
+            meter.measure("getRigidBodyTransform(double[], int)", 0) { rigidBody.getRigidBodyTransform(transformOutput, 0) }
+            meter.measure("setRigidBodyTransform", 160) { rigidBody.rigidBodyTransform = transform }
+            meter.measure("getInertiaData", 320) { rigidBody.inertiaData }
+            meter.measure("setInertiaData", 192) { rigidBody.inertiaData = inertiaData }
+            meter.measure("getAABB(AABBd)", 72) { rigidBody.getAABB(aabb) }
+            meter.measure("getAABB(double[])", 0) { rigidBody.getAABB(aabbOutput) }
+            meter.measure("getVoxelShapeAABB", 48) { rigidBody.getVoxelShapeAABB(voxelShapeAABB) }
+            meter.measure("getVoxelState", 0) { rigidBody.getVoxelState(0, 0, 0) }
+            meter.measure("addInvariantForceToNextPhysTick", 0) { rigidBody.addInvariantForceToNextPhysTick(force) }
+            meter.measure("addInvariantTorqueToNextPhysTick", 0) { rigidBody.addInvariantTorqueToNextPhysTick(force) }
+            meter.measure("addRotDependentForceToNextPhysTick", 0) { rigidBody.addRotDependentForceToNextPhysTick(force) }
+            meter.measure("addRotDependentTorqueToNextPhysTick", 0) { rigidBody.addRotDependentTorqueToNextPhysTick(force) }
+            meter.measure("addInvariantForceAtPosToNextPhysTick", 0, operations = 2_000) {
+                rigidBody.addInvariantForceAtPosToNextPhysTick(offset, force)
+            }
+            meter.assertWithinBudgets("rigid body accessors")
+        } finally {
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testTickLoopAllocations() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val history = KrunchTransformHistory(physicsWorld, 64, 32)
+        val notifier = KrunchTransformChangeNotifier(physicsWorld) { _, _, _ -> }
+        try {
+            val meter = AllocationMeter()
+            val ground = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            ground.isStatic = true
+            ground.inertiaData = generateUnitInertiaData()
+            val groundUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            for (x in 0 until 16) for (z in 0 until 16) groundUpdate.addUpdate(x, 0, z, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorld, ground.rigidBodyId, groundUpdate)
+            ground.isVoxelTerrainFullyLoaded = true
+
+            // An array rather than a list, iterating a list allocates an iterator when it isn't optimized away
+            val bodies = Array(32) { createBox(physicsWorld, Vector3d((it % 8) * 2.0, 2.0 + (it / 8) * 2.0, 4.0)) as KrunchNativeRigidBodyReference }
+            for (body in bodies) {
+                history.track(body)
+                notifier.subscribe(body, 0.01, 0.01)
+            }
+            val gravity = Vector3d(0.0, -10.0, 0.0)
+            val transformOutput = DoubleArray(7)
+
+            // What a game does every tick: tick, then read back the transform of every body
+            meter.measure("tick with 32 bodies, history and change notifications", 0, operations = 500) {
+                physicsWorld.tick(gravity, 1.0 / 60.0, true)
+                for (body in bodies) body.getRigidBodyTransform(transformOutput, 0)
+            }
+            meter.assertWithinBudgets("tick loop")
+        } finally {
+            notifier.close()
+            history.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Matrix3d
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyInertiaData
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+
+class TestBlueprintCache {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun createShapeUpdates(): Array<IVoxelShapeUpdate> {
+            val denseUpdate = DenseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            for (i in 0 until 4096) denseUpdate.voxelDataRaw[i] = KrunchVoxelStates.AIR_STATE
+            denseUpdate.voxelDataRaw[1 or (3 shl 4) or (2 shl 8)] = KrunchVoxelStates.SOLID_STATE
+            val sparseUpdate = SparseVoxelShapeUpdate(1, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(4, 5, 6, KrunchVoxelStates.WATER_STATE)
+            return arrayOf(denseUpdate, sparseUpdate)
+        }
+    }
+
+    @Test
+    fun testSpawnCopies() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        try {
+            val cache = KrunchBlueprintCache<String>(Long.MAX_VALUE)
+            val inertiaData = RigidBodyInertiaData(0.25, Matrix3d().identity())
+            cache.put("ship", Vector3i(), Vector3i(31, 15, 15), createShapeUpdates(), inertiaData, Vector3d(0.5, 0.5, 0.5))
+            val blueprint = cache.get("ship")!!
+
+            val copies = blueprint.spawnCopies(physicsWorld, 3, 0, totalVoxelRegion)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            for (copy in copies) {
+                copy as KrunchNativeRigidBodyReference
+                assertEquals(KrunchVoxelStates.SOLID_STATE, copy.getVoxelState(1, 2, 3).toByte())
+                assertEquals(KrunchVoxelStates.AIR_STATE, copy.getVoxelState(0, 0, 0).toByte())
+                assertEquals(KrunchVoxelStates.WATER_STATE, copy.getVoxelState(20, 5, 6).toByte())
+                assertEquals(0.25, copy.inertiaData.invMass)
+                assertEquals(Vector3d(0.5, 0.5, 0.5), copy.collisionShapeOffset)
+            }
+
+            // Blueprints can also fill bodies that already exist
+            val existing = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(31, 15, 15), totalVoxelRegion)
+            blueprint.queueVoxelShapeUpdates(physicsWorld, existing.rigidBodyId)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(KrunchVoxelStates.SOLID_STATE, (existing as KrunchNativeRigidBodyReference).getVoxelState(1, 2, 3).toByte())
+        } finally {
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testLeastRecentlyUsedEviction() {
+        val inertiaData = KrunchTestUtils.generateUnitInertiaData()
+        val cache = KrunchBlueprintCache<String>(Long.MAX_VALUE)
+        val a = cache.put("a", Vector3i(), Vector3i(), createShapeUpdates(), inertiaData, Vector3d())
+        // Room for two blueprints
+        cache.maxCachedBytes = a.encodedSize * 2L
+        cache.put("b", Vector3i(), Vector3i(), createShapeUpdates(), inertiaData, Vector3d())
+        assertEquals(2, cache.blueprintCount)
+        assertEquals(a.encodedSize * 2L, cache.cachedBytes)
+
+        // Using a makes b the least recently used
+        assertSame(a, cache.get("a"))
+        cache.put("c", Vector3i(), Vector3i(), createShapeUpdates(), inertiaData, Vector3d())
+        assertNull(cache.get("b"))
+        assertNotNull(cache.get("a"))
+        assertNotNull(cache.get("c"))
+        assertEquals(1L, cache.evictions)
+        assertEquals(3L, cache.hits)
+        assertEquals(1L, cache.misses)
+
+        // Replacing a blueprint doesn't count it twice
+        cache.put("c", Vector3i(), Vector3i(), createShapeUpdates(), inertiaData, Vector3d())
+        assertEquals(2, cache.blueprintCount)
+        assertEquals(a.encodedSize * 2L, cache.cachedBytes)
+    }
+}
@@ -0,0 +1,125 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import kotlin.random.Random
+
+class TestChunkSectionConverter {
+    companion object {
+        val voxelStates = mapOf(
+            "air" to KrunchVoxelStates.AIR_STATE,
+            "cave_air" to KrunchVoxelStates.AIR_STATE,
+            "stone" to KrunchVoxelStates.SOLID_STATE,
+            "dirt" to KrunchVoxelStates.SOLID_STATE,
+            "water" to KrunchVoxelStates.WATER_STATE,
+            "lava" to KrunchVoxelStates.LAVA_STATE
+        )
+
+        fun packIndices(indices: IntArray, bitsPerEntry: Int): LongArray {
+            val indicesPerLong = 64 / bitsPerEntry
+            val data = LongArray((4096 + indicesPerLong - 1) / indicesPerLong)
+            for (i in 0 until 4096) {
+                data[i / indicesPerLong] = data[i / indicesPerLong] or
+                    (indices[i].toLong() shl ((i % indicesPerLong) * bitsPerEntry))
+            }
+            return data
+        }
+    }
+
+    /**
+     * Test that unpacking matches looking up every block on its own, for bit widths that do and don't divide 64.
+     */
+    @Test
+    fun testConvertMatchesPerBlockLookup() {
+        val lookups = HashMap<String, Int>()
+        val converter = KrunchChunkSectionConverter<String> {
+            lookups.merge(it, 1, Int::plus)
+            voxelStates.getValue(it)
+        }
+        val palette = arrayOf("air", "stone", "water", "lava", "dirt")
+        val random = Random(42)
+
+        for (bitsPerEntry in intArrayOf(3, 4, 5, 8, 15)) {
+            val indices = IntArray(4096) { random.nextInt(palette.size) }
+            val update = converter.convertSection(
+                1, 2, 3, palette, palette.size, packIndices(indices, bitsPerEntry), bitsPerEntry, true
+            ) as DenseVoxelShapeUpdate
+
+            assertEquals(1, update.regionX)
+            assertEquals(2, update.regionY)
+            assertEquals(3, update.regionZ)
+            assertTrue(update.runImmediately)
+            val expected = ByteArray(4096) { voxelStates.getValue(palette[indices[it]]) }
+            assertArrayEquals(expected, update.voxelDataRaw)
+        }
+        // The palette is only translated once
+        assertEquals(palette.associateWith { 1 }, lookups)
+    }
+
+    @Test
+    fun testAirAndUniformSections() {
+        val converter = KrunchChunkSectionConverter<String> { voxelStates.getValue(it) }
+
+        // Every palette entry is air
+        val airPalette = arrayOf("air", "cave_air")
+        val airUpdate = converter.convertSection(
+            0, 0, 0, airPalette, 2, packIndices(IntArray(4096) { it % 2 }, 1), 1, false
+        )
+        assertEquals(EmptyVoxelShapeUpdate(0, 0, 0, false, true), airUpdate)
+
+        // Palette has solid entries, but no block uses them
+        val mixedPalette = arrayOf("air", "stone")
+        val unusedUpdate = converter.convertSection(
+            0, 1, 0, mixedPalette, 2, packIndices(IntArray(4096), 4), 4, false
+        )
+        assertEquals(EmptyVoxelShapeUpdate(0, 1, 0, false, true), unusedUpdate)
+
+        // Different block states that all map to solid
+        val solidPalette = arrayOf("stone", "dirt")
+        val solidUpdate = converter.convertSection(
+            0, 2, 0, solidPalette, 2, LongArray(0), 0, false
+        ) as DenseVoxelShapeUpdate
+        assertArrayEquals(ByteArray(4096) { KrunchVoxelStates.SOLID_STATE }, solidUpdate.voxelDataRaw)
+    }
+
+    /**
+     * Test that a palette that grows after being cached is translated again.
+     */
+    @Test
+    fun testPaletteGrowth() {
+        val converter = KrunchChunkSectionConverter<String> { voxelStates.getValue(it) }
+        val palette = arrayOf("air", "stone", "")
+
+        val indices = IntArray(4096) { it % 2 }
+        converter.convertSection(0, 0, 0, palette, 2, packIndices(indices, 4), 4, false)
+
+        palette[2] = "water"
+        indices[7] = 2
+        val update = converter.convertSection(0, 0, 0, palette, 3, packIndices(indices, 4), 4, false) as DenseVoxelShapeUpdate
+        assertEquals(KrunchVoxelStates.WATER_STATE, update.voxelDataRaw[7])
+        assertEquals(KrunchVoxelStates.SOLID_STATE, update.voxelDataRaw[5])
+    }
+
+    @Test
+    fun testParallelBatchMatchesSequential() {
+        val converter = KrunchChunkSectionConverter<String> { voxelStates.getValue(it) }
+        converter.parallelThreshold = 1
+        val palette = arrayOf("air", "stone", "water", "lava")
+        val random = Random(7)
+
+        // Every 8th section is all air
+        val sections = Array(64) { sectionIndex ->
+            val indices = IntArray(4096) { random.nextInt(if (sectionIndex % 8 == 0) 1 else palette.size) }
+            KrunchPalettedSection(sectionIndex, 0, 0, palette, palette.size, packIndices(indices, 2), 2)
+        }
+        val sequential = converter.convertSections(sections, false)
+        val parallel = converter.convertSections(sections, true)
+
+        assertEquals(sequential.toList(), parallel.toList())
+    }
+}
@@ -0,0 +1,208 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.RigidBodyReference
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+
+class TestConnectivityTracker {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun setVoxels(physicsWorld: PhysicsWorldReference, rigidBody: RigidBodyReference, voxels: List<Vector3i>, state: Byte) {
+            val update = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            for (voxel in voxels) update.addUpdate(voxel.x, voxel.y, voxel.z, state)
+            physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(update))))
+        }
+    }
+
+    @Test
+    fun testBrokenBarSplits() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchConnectivityTracker(physicsWorld)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            tracker.track(rigidBody)
+            setVoxels(physicsWorld, rigidBody, (0 until 10).map { Vector3i(it, 2, 5) }, KrunchVoxelStates.SOLID_STATE)
+            assertTrue(tracker.update().isEmpty())
+
+            setVoxels(physicsWorld, rigidBody, listOf(Vector3i(3, 2, 5)), KrunchVoxelStates.AIR_STATE)
+            val components = tracker.update()
+            assertEquals(1, components.size)
+            val piece = components[0]
+            assertEquals(rigidBody.rigidBodyId, piece.rigidBodyId)
+            assertEquals(3, piece.voxelCount)
+            assertEquals(Vector3i(0, 2, 5), piece.min)
+            assertEquals(Vector3i(2, 2, 5), piece.max)
+            assertEquals(1L, tracker.localSearches)
+            assertEquals(0L, tracker.fullRecomputes)
+            assertEquals(1L, tracker.splits)
+
+            // Move the piece to its own body
+            val newBody = physicsWorld.createVoxelRigidBody(0, piece.min, piece.max, totalVoxelRegion)
+            physicsWorld.queueVoxelShapeUpdates(arrayOf(
+                VoxelRigidBodyShapeUpdates(newBody.rigidBodyId, piece.createShapeUpdates()),
+                VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, piece.createRemovalShapeUpdates())
+            ))
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            newBody as KrunchNativeRigidBodyReference
+            rigidBody as KrunchNativeRigidBodyReference
+            for (x in 0 until 3) {
+                assertEquals(KrunchVoxelStates.SOLID_STATE, newBody.getVoxelState(x, 2, 5).toByte())
+                assertEquals(KrunchVoxelStates.AIR_STATE, rigidBody.getVoxelState(x, 2, 5).toByte())
+            }
+            assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(4, 2, 5).toByte())
+            // Removing the piece doesn't split anything else
+            assertTrue(tracker.update().isEmpty())
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testBrokenRingStaysConnected() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchConnectivityTracker(physicsWorld)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            tracker.track(rigidBody)
+            val ring = ArrayList<Vector3i>()
+            for (x in 0 until 8) for (z in 0 until 8) {
+                if (x == 0 || x == 7 || z == 0 || z == 7) ring.add(Vector3i(x, 0, z))
+            }
+            setVoxels(physicsWorld, rigidBody, ring, KrunchVoxelStates.SOLID_STATE)
+
+            setVoxels(physicsWorld, rigidBody, listOf(Vector3i(3, 0, 0)), KrunchVoxelStates.AIR_STATE)
+            assertTrue(tracker.update().isEmpty())
+            assertEquals(1L, tracker.localSearches)
+
+            // A second cut splits the ring in two, and the smaller side is reported
+            setVoxels(physicsWorld, rigidBody, listOf(Vector3i(0, 0, 5)), KrunchVoxelStates.AIR_STATE)
+            val components = tracker.update()
+            assertEquals(1, components.size)
+            // (0, 0, 0) to (2, 0, 0), and (0, 0, 1) to (0, 0, 4)
+            assertEquals(7, components[0].voxelCount)
+            assertEquals(0L, tracker.fullRecomputes)
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that a larger piece that runs out of voxels first, because it was searched from two sides, still stays in
+     * the body.
+     */
+    @Test
+    fun testLargestPieceStaysWhenItFinishesFirst() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchConnectivityTracker(physicsWorld)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            tracker.track(rigidBody)
+            val voxels = ArrayList<Vector3i>()
+            // The larger piece is two slabs below and above (8, 8, 8), joined at a far corner, 169 voxels
+            for (x in 2..8) for (z in 5..8) {
+                for (y in 5..7) voxels.add(Vector3i(x, y, z))
+                for (y in 9..11) voxels.add(Vector3i(x, y, z))
+            }
+            voxels.add(Vector3i(2, 8, 5))
+            // The smaller piece is a plate next to (8, 8, 8), 112 voxels, searched from one side only
+            for (x in 9..15) for (z in 0..15) voxels.add(Vector3i(x, 8, z))
+            voxels.add(Vector3i(8, 8, 8))
+            setVoxels(physicsWorld, rigidBody, voxels, KrunchVoxelStates.SOLID_STATE)
+
+            setVoxels(physicsWorld, rigidBody, listOf(Vector3i(8, 8, 8)), KrunchVoxelStates.AIR_STATE)
+            val components = tracker.update()
+            assertEquals(1, components.size)
+            assertEquals(112, components[0].voxelCount)
+            assertEquals(Vector3i(9, 8, 0), components[0].min)
+            assertEquals(Vector3i(15, 8, 15), components[0].max)
+            assertEquals(0L, tracker.fullRecomputes)
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testFullRecomputeWhenSearchIsTooLarge() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchConnectivityTracker(physicsWorld)
+        try {
+            tracker.maxSearchVoxels = 4
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            tracker.track(rigidBody)
+            setVoxels(physicsWorld, rigidBody, (0 until 16).map { Vector3i(it, 0, 0) }, KrunchVoxelStates.SOLID_STATE)
+            // A separate piece that was never attached is found by the full recompute too
+            setVoxels(physicsWorld, rigidBody, listOf(Vector3i(0, 10, 0)), KrunchVoxelStates.SOLID_STATE)
+
+            setVoxels(physicsWorld, rigidBody, listOf(Vector3i(9, 0, 0)), KrunchVoxelStates.AIR_STATE)
+            val components = tracker.update()
+            assertEquals(1L, tracker.fullRecomputes)
+            // The largest piece, (0, 0, 0) to (8, 0, 0), stays in the body
+            assertEquals(listOf(1, 6), components.map { it.voxelCount }.sorted())
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testShipyardCoordinates() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchConnectivityTracker(physicsWorld)
+        try {
+            // Shipyard coordinates are millions of blocks out, past where 24 bits would wrap
+            val baseX = 12_000_000
+            val baseZ = -12_000_000
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(baseX, 0, baseZ), Vector3i(baseX + 15, 15, baseZ + 15),
+                AABBi(baseX - 128, -128, baseZ - 128, baseX + 127, 127, baseZ + 127))
+            tracker.track(rigidBody)
+            val update = SparseVoxelShapeUpdate(baseX shr 4, 0, baseZ shr 4, runImmediately = true)
+            for (x in 0 until 10) update.addUpdate(x, 2, 5, KrunchVoxelStates.SOLID_STATE)
+            physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(update))))
+            assertTrue(tracker.update().isEmpty())
+
+            val removal = SparseVoxelShapeUpdate(baseX shr 4, 0, baseZ shr 4, runImmediately = true)
+            removal.addUpdate(3, 2, 5, KrunchVoxelStates.AIR_STATE)
+            physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(removal))))
+            val components = tracker.update()
+            assertEquals(1, components.size)
+            assertEquals(3, components[0].voxelCount)
+            assertEquals(Vector3i(baseX, 2, baseZ + 5), components[0].min)
+            assertEquals(Vector3i(baseX + 2, 2, baseZ + 5), components[0].max)
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testOutOfRangeCoordinatesThrow() {
+        assertThrows(IllegalArgumentException::class.java) { KrunchVoxelComponent.pack(1 shl 25, 0, 0) }
+        assertThrows(IllegalArgumentException::class.java) { KrunchVoxelComponent.pack(0, 2048, 0) }
+        val packed = KrunchVoxelComponent.pack((1 shl 25) - 1, -2048, -(1 shl 25))
+        assertEquals((1 shl 25) - 1, KrunchVoxelComponent.unpackX(packed))
+        assertEquals(-2048, KrunchVoxelComponent.unpackY(packed))
+        assertEquals(-(1 shl 25), KrunchVoxelComponent.unpackZ(packed))
+    }
+}
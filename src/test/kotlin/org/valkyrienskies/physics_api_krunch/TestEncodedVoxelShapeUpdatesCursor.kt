@@ -0,0 +1,153 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+class TestEncodedVoxelShapeUpdatesCursor {
+
+    private fun createUpdates(): Array<VoxelRigidBodyShapeUpdates> {
+        val dense = DenseVoxelShapeUpdate(2, 3, 4, true)
+        dense.setVoxel(4, 5, 2, KrunchVoxelStates.SOLID_STATE)
+        dense.setVoxel(15, 15, 15, KrunchVoxelStates.SOLID_STATE)
+        val sparse = SparseVoxelShapeUpdate(5, -6, 7)
+        sparse.addUpdate(2, 6, 3, KrunchVoxelStates.SOLID_STATE)
+        sparse.addUpdate(3, 3, 15, KrunchVoxelStates.AIR_STATE)
+        val otherSparse = SparseVoxelShapeUpdate(-1, 0, 1, true)
+        otherSparse.addUpdate(0, 0, 7, KrunchVoxelStates.SOLID_STATE)
+        return arrayOf(
+            VoxelRigidBodyShapeUpdates(2, arrayOf<IVoxelShapeUpdate>(
+                EmptyVoxelShapeUpdate(1, 2, 3, runImmediately = true, true), dense, sparse
+            )),
+            VoxelRigidBodyShapeUpdates(15, arrayOf<IVoxelShapeUpdate>(otherSparse, DeleteVoxelShapeUpdate(8, 9, 10, false)))
+        )
+    }
+
+    /**
+     * Rebuilds the updates from the cursor, to compare them with the updates that were encoded.
+     */
+    private fun readAll(cursor: EncodedVoxelShapeUpdatesCursor): Array<VoxelRigidBodyShapeUpdates> {
+        val bodies = ArrayList<VoxelRigidBodyShapeUpdates>()
+        while (cursor.nextRigidBody()) {
+            val updates = ArrayList<IVoxelShapeUpdate>()
+            while (cursor.nextUpdate()) {
+                val x = cursor.regionX
+                val y = cursor.regionY
+                val z = cursor.regionZ
+                updates.add(when (cursor.updateType) {
+                    VoxelRigidBodyShapeUpdatesEncoder.EMPTY_UPDATE_TYPE ->
+                        EmptyVoxelShapeUpdate(x, y, z, cursor.runImmediately, cursor.overwriteExistingVoxels)
+                    VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE -> {
+                        val data = ByteArray(4096)
+                        cursor.copyDenseData(data, 0)
+                        assertEquals(4096, cursor.denseData.remaining())
+                        DenseVoxelShapeUpdate(x, y, z, cursor.runImmediately, data)
+                    }
+                    VoxelRigidBodyShapeUpdatesEncoder.SPARSE_UPDATE_TYPE -> {
+                        val sparse = SparseVoxelShapeUpdate(x, y, z, cursor.runImmediately)
+                        for (i in 0 until cursor.sparseUpdateCount) {
+                            sparse.addUpdate(cursor.getSparseVoxelX(i), cursor.getSparseVoxelY(i), cursor.getSparseVoxelZ(i),
+                                cursor.getSparseVoxelState(i))
+                        }
+                        sparse
+                    }
+                    else -> DeleteVoxelShapeUpdate(x, y, z, cursor.runImmediately)
+                })
+            }
+            bodies.add(VoxelRigidBodyShapeUpdates(cursor.rigidBodyId, updates.toTypedArray()))
+        }
+        return bodies.toTypedArray()
+    }
+
+    @Test
+    fun testWalksEverySource() {
+        val updates = createUpdates()
+        val encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(updates)
+        val cursor = EncodedVoxelShapeUpdatesCursor()
+
+        cursor.reset(encoded)
+        assertEquals(2, cursor.rigidBodyCount)
+        assertArrayEquals(updates, readAll(cursor))
+
+        // A direct buffer with the updates after some other data
+        val direct = ByteBuffer.allocateDirect(encoded.size + 10)
+        direct.position(10)
+        direct.put(encoded)
+        direct.position(10)
+        cursor.reset(direct)
+        assertArrayEquals(updates, readAll(cursor))
+        assertEquals(10, direct.position())
+
+        val file = Files.createTempFile("voxel-updates", ".bin")
+        try {
+            Files.write(file, encoded)
+            cursor.reset(EncodedVoxelShapeUpdatesCursor.mapFile(file))
+            assertArrayEquals(updates, readAll(cursor))
+        } finally {
+            Files.deleteIfExists(file)
+        }
+    }
+
+    @Test
+    fun testSkipsUnreadUpdates() {
+        val encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(createUpdates())
+        val cursor = EncodedVoxelShapeUpdatesCursor()
+        cursor.reset(encoded)
+
+        assertTrue(cursor.nextRigidBody())
+        assertEquals(3, cursor.updateCount)
+        assertTrue(cursor.nextUpdate())
+        assertTrue(cursor.nextUpdate())
+        assertEquals(VoxelRigidBodyShapeUpdatesEncoder.DENSE_UPDATE_TYPE, cursor.updateType)
+        assertEquals(KrunchVoxelStates.SOLID_STATE, cursor.getDenseVoxelState(4 or (2 shl 4) or (5 shl 8)))
+        assertEquals(KrunchVoxelStates.AIR_STATE, cursor.getDenseVoxelState(0))
+        assertThrows(IllegalStateException::class.java) { cursor.sparseUpdateCount }
+
+        // The sparse update of the first body is skipped
+        assertTrue(cursor.nextRigidBody())
+        assertEquals(15, cursor.rigidBodyId)
+        assertThrows(IllegalStateException::class.java) { cursor.regionX }
+        assertTrue(cursor.nextUpdate())
+        assertEquals(1, cursor.sparseUpdateCount)
+        assertEquals(7 shl 4, cursor.getSparseVoxelIndex(0))
+        assertFalse(cursor.nextRigidBody())
+    }
+
+    /**
+     * The header visitor is built on the cursor, and has to work when a visitor visits another array.
+     */
+    @Test
+    fun testHeaderVisitor() {
+        val encoded = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(createUpdates())
+        val headers = ArrayList<String>()
+        val nestedHeaders = ArrayList<String>()
+        VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encoded) { rigidBodyId, updateType, x, y, z, runImmediately, overwrite ->
+            headers.add("$rigidBodyId $updateType $x $y $z $runImmediately ${overwrite && updateType == VoxelRigidBodyShapeUpdatesEncoder.EMPTY_UPDATE_TYPE}")
+            if (headers.size == 1) {
+                VoxelRigidBodyShapeUpdatesEncoder.visitEncodedVoxelShapeUpdateHeaders(encoded) { nestedId, _, _, _, _, _, _ ->
+                    nestedHeaders.add("$nestedId")
+                }
+            }
+        }
+        assertEquals(listOf(
+            "2 0 1 2 3 true true",
+            "2 1 2 3 4 true false",
+            "2 2 5 -6 7 false false",
+            "15 2 -1 0 1 true false",
+            "15 3 8 9 10 false false"
+        ), headers)
+        assertEquals(listOf("2", "2", "2", "15", "15"), nestedHeaders)
+    }
+}
@@ -3,6 +3,8 @@ package org.valkyrienskies.physics_api_krunch
 import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Test
 import org.valkyrienskies.physics_api.voxel_updates.*
+import java.util.concurrent.ForkJoinPool
+import kotlin.random.Random
 
 class TestEncodingVoxelRigidBodyShapeUpdates {
 
@@ -132,4 +134,79 @@ class TestEncodingVoxelRigidBodyShapeUpdates {
         assertArrayEquals(overallUpdatesArray, decoded)
     }
 
+    private fun randomUpdate(random: Random): IVoxelShapeUpdate {
+        val x = random.nextInt(-50, 50)
+        val y = random.nextInt(-4, 20)
+        val z = random.nextInt(-50, 50)
+        return when (random.nextInt(4)) {
+            0 -> EmptyVoxelShapeUpdate(x, y, z, random.nextBoolean(), random.nextBoolean())
+            1 -> {
+                val dense = DenseVoxelShapeUpdate(x, y, z, random.nextBoolean())
+                repeat(100) { dense.setVoxel(random.nextInt(16), random.nextInt(16), random.nextInt(16), KrunchVoxelStates.SOLID_STATE) }
+                dense
+            }
+            2 -> {
+                val sparse = SparseVoxelShapeUpdate(x, y, z, random.nextBoolean())
+                repeat(random.nextInt(50)) { sparse.addUpdate(random.nextInt(16), random.nextInt(16), random.nextInt(16), KrunchVoxelStates.SOLID_STATE) }
+                sparse
+            }
+            else -> DeleteVoxelShapeUpdate(x, y, z, random.nextBoolean())
+        }
+    }
+
+    @Test
+    fun testParallelEncodingMatchesSerial() {
+        val random = Random(3)
+        // Some bodies have no updates, which the parallel encoder has to skip over
+        val bodies = Array(500) { bodyIndex ->
+            val updates = Array(random.nextInt(0, 8)) { randomUpdate(random) }
+            VoxelRigidBodyShapeUpdates(bodyIndex * 7, updates)
+        }
+
+        val serial = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(bodies)
+        val pool = ForkJoinPool(4)
+        try {
+            // Below the threshold the calling thread encodes everything
+            assertArrayEquals(serial, VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(bodies, pool, Int.MAX_VALUE))
+            assertArrayEquals(serial, VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(bodies, pool, 0))
+            assertArrayEquals(serial, VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(bodies, pool))
+            assertArrayEquals(
+                VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(arrayOf()),
+                VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(arrayOf(), pool, 0)
+            )
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    @Test
+    fun testParallelEncodingSplitsOneBody() {
+        val random = Random(4)
+        // A single body with thousands of sections, like a large ship being loaded, is still split across the pool
+        val bodies = arrayOf(VoxelRigidBodyShapeUpdates(3, Array(3000) { randomUpdate(random) }))
+
+        val serial = VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(bodies)
+        val pool = ForkJoinPool(4)
+        try {
+            assertArrayEquals(serial, VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(bodies, pool, 0))
+            // Small bodies around it, and one body with a single update
+            val mixed = arrayOf(
+                VoxelRigidBodyShapeUpdates(1, arrayOf()),
+                bodies[0],
+                VoxelRigidBodyShapeUpdates(5, arrayOf(randomUpdate(random))),
+                VoxelRigidBodyShapeUpdates(6, arrayOf())
+            )
+            assertArrayEquals(
+                VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(mixed),
+                VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(mixed, pool, 0)
+            )
+            val single = arrayOf(VoxelRigidBodyShapeUpdates(9, arrayOf(randomUpdate(random))))
+            assertArrayEquals(
+                VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(single),
+                VoxelRigidBodyShapeUpdatesEncoder.encodeVoxelRigidBodyShapeUpdatesArray(single, pool, 0)
+            )
+        } finally {
+            pool.shutdown()
+        }
+    }
 }
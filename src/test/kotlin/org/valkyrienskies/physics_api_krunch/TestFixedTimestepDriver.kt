@@ -0,0 +1,110 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sin
+
+class TestFixedTimestepDriver {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+    }
+
+    @Test
+    fun testFixedTicksFromVariableFrames() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val driver = KrunchFixedTimestepDriver(physicsWorldReference, 0.05)
+
+            assertEquals(2, driver.update(0.12))
+            assertEquals(0.4, driver.alpha, 1e-9)
+            assertEquals(0, driver.update(0.02))
+            assertEquals(1, driver.update(0.02))
+            assertEquals(3L, driver.ticks)
+
+            // A very long frame only runs [maxTicksPerUpdate] ticks, and doesn't carry the rest over
+            driver.maxTicksPerUpdate = 3
+            assertEquals(3, driver.update(10.0))
+            assertTrue(driver.alpha <= 1.0)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that poses are interpolated between, and extrapolated past, the last two ticks.
+     */
+    @Test
+    fun testInterpolatedPoses() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val driver = KrunchFixedTimestepDriver(physicsWorldReference, 0.05)
+
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(0.0, 10.0, 0.0), Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            body.isVoxelTerrainFullyLoaded = true
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+            driver.resetInterpolation(body.rigidBodyId)
+
+            body.omega = Vector3d(0.0, 2.0, 0.0)
+            driver.update(0.05)
+            val previousY = body.rigidBodyTransform.position.y()
+            driver.update(0.05)
+            val current = body.rigidBodyTransform
+
+            val position = Vector3d()
+            val rotation = Quaterniond()
+
+            assertTrue(driver.getPose(body.rigidBodyId, 0.0, position, rotation))
+            assertEquals(previousY, position.y, 1e-9)
+            assertTrue(driver.getPose(body.rigidBodyId, 1.0, position, rotation))
+            assertEquals(current.position.y(), position.y, 1e-9)
+            assertEquals(current.rotation.y(), rotation.y, 1e-9)
+            assertEquals(current.rotation.w(), rotation.w, 1e-9)
+
+            assertTrue(driver.getPose(body.rigidBodyId, 0.5, position, rotation))
+            assertEquals((previousY + current.position.y()) / 2.0, position.y, 1e-9)
+            assertEquals(1.0, rotation.x * rotation.x + rotation.y * rotation.y + rotation.z * rotation.z + rotation.w * rotation.w, 1e-9)
+
+            // The body spins at a constant rate, so the slerped angle is halfway between the ticks' angles
+            val currentAngle = 2.0 * Math.atan2(current.rotation.y(), current.rotation.w())
+            val halfwayAngle = 2.0 * Math.atan2(rotation.y, rotation.w)
+            val tickAngle = 2.0 * 0.05
+            assertEquals(currentAngle - tickAngle / 2.0, halfwayAngle, 1e-3)
+
+            // Extrapolating one tick ahead continues the spin
+            assertTrue(driver.getPose(body.rigidBodyId, 2.0, position, rotation))
+            val extrapolatedAngle = currentAngle + tickAngle
+            assertEquals(sin(extrapolatedAngle / 2.0), abs(rotation.y), 1e-3)
+            assertEquals(cos(extrapolatedAngle / 2.0), abs(rotation.w), 1e-3)
+
+            physicsWorldReference.deleteRigidBody(body.rigidBodyId)
+            assertFalse(driver.getPose(body.rigidBodyId, 0.5, position, rotation))
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+}
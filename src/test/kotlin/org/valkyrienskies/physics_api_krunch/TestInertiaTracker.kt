@@ -0,0 +1,194 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Matrix3d
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+import kotlin.random.Random
+
+class TestInertiaTracker {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+    }
+
+    @Test
+    fun testInertiaDataIsFlushedOncePerTick() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchInertiaTracker(physicsWorld)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            tracker.track(rigidBody)
+            assertNull(tracker.getInertiaData(rigidBody.rigidBodyId))
+
+            // Several edits between flushes only set the inertia data once
+            KrunchTestUtils.setBlock(physicsWorld, rigidBody.rigidBodyId, Vector3i(0, 0, 0), KrunchVoxelStates.SOLID_STATE)
+            KrunchTestUtils.setBlock(physicsWorld, rigidBody.rigidBodyId, Vector3i(2, 0, 0), KrunchVoxelStates.SOLID_STATE)
+            KrunchTestUtils.setBlock(physicsWorld, rigidBody.rigidBodyId, Vector3i(2, 0, 0), KrunchVoxelStates.WATER_STATE)
+            KrunchTestUtils.setBlock(physicsWorld, rigidBody.rigidBodyId, Vector3i(2, 0, 0), KrunchVoxelStates.SOLID_STATE)
+            tracker.flush()
+            assertEquals(1L, tracker.inertiaDataUpdates)
+            tracker.flush()
+            assertEquals(1L, tracker.inertiaDataUpdates)
+
+            // Two unit voxels 2 apart along x
+            assertEquals(0.5, rigidBody.inertiaData.invMass, 1e-12)
+            assertEquals(Vector3d(-1.0, 0.0, 0.0), rigidBody.collisionShapeOffset)
+            val invMOI = rigidBody.inertiaData.invMOI
+            assertEquals(1.0 / (2.0 / 6.0), invMOI.m00(), 1e-9)
+            assertEquals(1.0 / (2.0 + 2.0 / 6.0), invMOI.m11(), 1e-9)
+            assertEquals(1.0 / (2.0 + 2.0 / 6.0), invMOI.m22(), 1e-9)
+            assertEquals(0.0, invMOI.m01(), 1e-9)
+
+            // Removing every voxel leaves the last inertia data in place
+            val delete = DeleteVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(delete))))
+            tracker.flush()
+            assertEquals(0.0, tracker.getMass(rigidBody.rigidBodyId))
+            assertFalse(tracker.getCenterOfMass(rigidBody.rigidBodyId, Vector3d()))
+            assertEquals(0.5, rigidBody.inertiaData.invMass, 1e-12)
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testIncrementalMatchesFullRecompute() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchInertiaTracker(physicsWorld)
+        try {
+            tracker.setVoxelMass(KrunchVoxelStates.WATER_STATE, 0.25)
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(31, 15, 15), totalVoxelRegion)
+            tracker.track(rigidBody)
+            val voxels = HashMap<Vector3i, Byte>()
+            val random = Random(1234)
+
+            val dense = DenseVoxelShapeUpdate(1, 0, 0, runImmediately = true)
+            for (i in 0 until 4096) {
+                val state = if (random.nextInt(3) == 0) KrunchVoxelStates.SOLID_STATE else KrunchVoxelStates.AIR_STATE
+                dense.voxelDataRaw[i] = state
+                voxels[Vector3i(16 + (i and 15), i shr 8, (i shr 4) and 15)] = state
+            }
+            physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(dense))))
+
+            repeat(20) {
+                val sparse = SparseVoxelShapeUpdate(random.nextInt(2), 0, 0, runImmediately = true)
+                repeat(50) {
+                    val x = random.nextInt(16)
+                    val y = random.nextInt(16)
+                    val z = random.nextInt(16)
+                    val state = random.nextInt(3).toByte()
+                    sparse.addUpdate(x, y, z, state)
+                    voxels[Vector3i(sparse.regionX * 16 + x, y, z)] = state
+                }
+                physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(sparse))))
+            }
+            // Water gets heavier after the voxels were sent
+            tracker.setVoxelMass(KrunchVoxelStates.WATER_STATE, 0.5)
+            tracker.flush()
+
+            // Recompute from scratch
+            var mass = 0.0
+            val com = Vector3d()
+            for ((pos, state) in voxels) {
+                val voxelMass = tracker.getVoxelMass(state)
+                mass += voxelMass
+                com.add(pos.x * voxelMass, pos.y * voxelMass, pos.z * voxelMass)
+            }
+            com.set(com.x / mass, com.y / mass, com.z / mass)
+            val moi = Matrix3d(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0)
+            for ((pos, state) in voxels) {
+                val m = tracker.getVoxelMass(state)
+                val x = pos.x - com.x
+                val y = pos.y - com.y
+                val z = pos.z - com.z
+                moi.m00 += m * (y * y + z * z + 1.0 / 6.0)
+                moi.m11 += m * (x * x + z * z + 1.0 / 6.0)
+                moi.m22 += m * (x * x + y * y + 1.0 / 6.0)
+                moi.m01 -= m * x * y
+                moi.m02 -= m * x * z
+                moi.m12 -= m * y * z
+            }
+            moi.m10 = moi.m01
+            moi.m20 = moi.m02
+            moi.m21 = moi.m12
+            val expectedInvMOI = Matrix3d(moi).invert()
+
+            assertEquals(mass, tracker.getMass(rigidBody.rigidBodyId), 1e-9)
+            val trackedCom = Vector3d()
+            tracker.getCenterOfMass(rigidBody.rigidBodyId, trackedCom)
+            KrunchTestUtils.assertVecNearlyEquals(com, trackedCom, 1e-9)
+            val inertiaData = rigidBody.inertiaData
+            assertEquals(1.0 / mass, inertiaData.invMass, 1e-12)
+            KrunchTestUtils.assertVecNearlyEquals(Vector3d(com).negate(), rigidBody.collisionShapeOffset, 1e-9)
+            val invMOI = inertiaData.invMOI
+            assertEquals(expectedInvMOI.m00(), invMOI.m00(), 1e-9)
+            assertEquals(expectedInvMOI.m11(), invMOI.m11(), 1e-9)
+            assertEquals(expectedInvMOI.m22(), invMOI.m22(), 1e-9)
+            assertEquals(expectedInvMOI.m01(), invMOI.m01(), 1e-9)
+            assertEquals(expectedInvMOI.m02(), invMOI.m02(), 1e-9)
+            assertEquals(expectedInvMOI.m12(), invMOI.m12(), 1e-9)
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testShipyardCoordinatesKeepPrecision() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val tracker = KrunchInertiaTracker(physicsWorld)
+        try {
+            // The same shape near the origin and millions of blocks out, where absolute moments would cancel
+            val baseX = 12_000_000
+            val baseZ = -12_000_000
+            val near = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            val far = physicsWorld.createVoxelRigidBody(0, Vector3i(baseX, 0, baseZ), Vector3i(baseX + 15, 15, baseZ + 15),
+                AABBi(baseX - 128, -128, baseZ - 128, baseX + 127, 127, baseZ + 127))
+            tracker.track(near)
+            tracker.track(far)
+            for ((rigidBody, x, z) in listOf(Triple(near, 0, 0), Triple(far, baseX, baseZ))) {
+                val update = SparseVoxelShapeUpdate(x shr 4, 0, z shr 4, runImmediately = true)
+                for (i in 0 until 10) update.addUpdate(i, 2, 5, KrunchVoxelStates.SOLID_STATE)
+                update.addUpdate(0, 3, 5, KrunchVoxelStates.SOLID_STATE)
+                physicsWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.rigidBodyId, arrayOf<IVoxelShapeUpdate>(update))))
+            }
+            tracker.flush()
+
+            val nearCom = Vector3d()
+            val farCom = Vector3d()
+            tracker.getCenterOfMass(near.rigidBodyId, nearCom)
+            tracker.getCenterOfMass(far.rigidBodyId, farCom)
+            KrunchTestUtils.assertVecNearlyEquals(nearCom.add(baseX.toDouble(), 0.0, baseZ.toDouble()), farCom, 1e-6)
+            val nearInvMOI = near.inertiaData.invMOI
+            val farInvMOI = far.inertiaData.invMOI
+            assertEquals(nearInvMOI.m00(), farInvMOI.m00(), 1e-12)
+            assertEquals(nearInvMOI.m11(), farInvMOI.m11(), 1e-12)
+            assertEquals(nearInvMOI.m22(), farInvMOI.m22(), 1e-12)
+            assertEquals(nearInvMOI.m01(), farInvMOI.m01(), 1e-12)
+            assertEquals(nearInvMOI.m02(), farInvMOI.m02(), 1e-12)
+            assertEquals(nearInvMOI.m12(), farInvMOI.m12(), 1e-12)
+        } finally {
+            tracker.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.joml.primitives.AABBic
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertNotEquals
 import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
 import org.valkyrienskies.physics_api.RigidBodyInertiaData
@@ -154,4 +156,41 @@ class TestPhysicsWorld {
             physicsWorldReference.deletePhysicsWorldResources()
         }
     }
+
+    /**
+     * Test that the physics world tracks the canonical reference of every live rigid body.
+     */
+    @Test
+    fun testRigidBodyRegistry() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+
+        val bodies = (0 until 5).map {
+            physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+        }
+        try {
+            assertEquals(5, physicsWorldReference.rigidBodyCount)
+            for (body in bodies) {
+                assertSame(body, physicsWorldReference.getRigidBody(body.rigidBodyId))
+                assertEquals(body, KrunchNativeRigidBodyReference(physicsWorldReference, body.rigidBodyId))
+            }
+            assertNotEquals(bodies[0], bodies[1])
+
+            physicsWorldReference.deleteRigidBody(bodies[1].rigidBodyId)
+            assertNull(physicsWorldReference.getRigidBody(bodies[1].rigidBodyId))
+            assertTrue(bodies[1].hasBeenDeleted())
+            assertEquals(4, physicsWorldReference.rigidBodyCount)
+
+            val iterated = HashSet<Int>()
+            for (i in 0 until physicsWorldReference.rigidBodyCount) {
+                iterated.add(physicsWorldReference.getRigidBodyAt(i).rigidBodyId)
+            }
+            assertEquals(setOf(0, 2, 3, 4).map { bodies[it].rigidBodyId }.toSet(), iterated)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+
+        assertEquals(0, physicsWorldReference.rigidBodyCount)
+        assertNull(physicsWorldReference.getRigidBody(bodies[0].rigidBodyId))
+        assertTrue(bodies.all { it.hasBeenDeleted() })
+    }
 }
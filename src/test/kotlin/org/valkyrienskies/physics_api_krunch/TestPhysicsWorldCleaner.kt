@@ -0,0 +1,60 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+
+class TestPhysicsWorldCleaner {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+    }
+
+    @Test
+    fun testDeletedWorldsAreCountedAsExplicitlyFreed() {
+        val liveBefore = KrunchBootstrap.getLiveWorldCount()
+        val freedBefore = KrunchBootstrap.getExplicitlyFreedWorldCount()
+
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        assertEquals(liveBefore + 1, KrunchBootstrap.getLiveWorldCount())
+
+        physicsWorld.deletePhysicsWorldResources()
+        // Deleting twice doesn't free it twice
+        physicsWorld.deletePhysicsWorldResources()
+        assertEquals(liveBefore, KrunchBootstrap.getLiveWorldCount())
+        assertEquals(freedBefore + 1, KrunchBootstrap.getExplicitlyFreedWorldCount())
+    }
+
+    @Test
+    fun testCollectedWorldsAreFreed() {
+        val liveBefore = KrunchBootstrap.getLiveWorldCount()
+        val leakedBefore = KrunchBootstrap.getLeakedWorldCount()
+
+        KrunchBootstrap.setWorldLeakTrackingEnabled(true)
+        try {
+            createAndForgetWorld()
+        } finally {
+            KrunchBootstrap.setWorldLeakTrackingEnabled(false)
+        }
+
+        // Collections aren't guaranteed to happen, so keep asking for one for a while
+        val deadline = System.currentTimeMillis() + 10_000
+        while (KrunchBootstrap.getLeakedWorldCount() == leakedBefore && System.currentTimeMillis() < deadline) {
+            System.gc()
+            Thread.sleep(10)
+        }
+        assertTrue(KrunchBootstrap.getLeakedWorldCount() > leakedBefore)
+        assertTrue(KrunchBootstrap.getLiveWorldCount() <= liveBefore)
+    }
+
+    /**
+     * Creates a world in its own frame, so nothing references it after this returns.
+     */
+    private fun createAndForgetWorld() {
+        KrunchBootstrap.createKrunchPhysicsWorld()
+    }
+}
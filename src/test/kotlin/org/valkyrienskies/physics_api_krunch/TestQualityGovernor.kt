@@ -0,0 +1,122 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Vector3d
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+
+class TestQualityGovernor {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+    }
+
+    @Test
+    fun testDowngradeAndUpgradeWithHysteresis() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld()
+        try {
+            val governor = KrunchQualityGovernor(physicsWorldReference, KrunchPhysicsWorldSettings())
+            governor.setBounds(10, 30, 1, 3, 32, 64)
+            governor.qualityLevels = 2
+            governor.tickBudgetNanos = 10_000_000L
+            governor.smoothingFactor = 1.0
+            governor.downgradeAfterTicks = 3
+            governor.upgradeAfterTicks = 10
+
+            // Starts at the level closest to the default 20 sub-steps, the minimum of 1 iteration is raised to the 2 the
+            // JACOBI solver needs
+            assertEquals(1, governor.qualityLevel)
+            assertEquals(20, governor.settings.subSteps)
+            assertEquals(3, governor.settings.iterations)
+            assertEquals(48, governor.settings.maxVoxelShapeCollisionPoints)
+            val initiallyApplied = governor.settingsApplied
+
+            // Over budget, but not for long enough
+            repeat(2) { governor.recordTickTime(20_000_000L) }
+            assertEquals(1, governor.qualityLevel)
+            governor.recordTickTime(20_000_000L)
+            assertEquals(0, governor.qualityLevel)
+            assertEquals(10, governor.settings.subSteps)
+            assertEquals(2, governor.settings.iterations)
+            assertEquals(32, governor.settings.maxVoxelShapeCollisionPoints)
+            assertEquals(1L, governor.downgrades)
+            assertEquals(initiallyApplied + 1, governor.settingsApplied)
+
+            // Between the upgrade threshold and the budget nothing changes
+            repeat(100) { governor.recordTickTime(8_000_000L) }
+            assertEquals(0, governor.qualityLevel)
+            assertEquals(initiallyApplied + 1, governor.settingsApplied)
+
+            // Well under budget upgrades, one level at a time
+            repeat(10) { governor.recordTickTime(1_000_000L) }
+            assertEquals(1, governor.qualityLevel)
+            repeat(100) { governor.recordTickTime(1_000_000L) }
+            assertEquals(2, governor.qualityLevel)
+            assertEquals(30, governor.settings.subSteps)
+            assertEquals(2L, governor.upgrades)
+            assertEquals(initiallyApplied + 3, governor.settingsApplied)
+
+            // The governed settings are accepted by Krunch
+            governor.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that a level change that doesn't change any value doesn't call setSettings.
+     */
+    @Test
+    fun testOnlyAppliesChangedSettings() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld()
+        try {
+            val governor = KrunchQualityGovernor(physicsWorldReference, KrunchPhysicsWorldSettings())
+            governor.setBounds(20, 20, 2, 2, 64, 64)
+            val applied = governor.settingsApplied
+            governor.qualityLevel = 0
+            governor.qualityLevel = governor.qualityLevels
+            assertEquals(applied, governor.settingsApplied)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testStartsWithTheCallersSettings() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld()
+        try {
+            val initialSettings = KrunchPhysicsWorldSettings(subSteps = 24, iterations = 4, maxVoxelShapeCollisionPoints = 64)
+            val governor = KrunchQualityGovernor(physicsWorldReference, initialSettings)
+            assertEquals(governor.qualityLevels, governor.qualityLevel)
+            assertEquals(24, governor.settings.subSteps)
+            assertEquals(4, governor.settings.iterations)
+            assertEquals(64, governor.settings.maxVoxelShapeCollisionPoints)
+            assertEquals(1L, governor.settingsApplied)
+
+            // The lowest level stays in the range of the JACOBI solver
+            governor.qualityLevel = 0
+            assertEquals(8, governor.settings.subSteps)
+            assertEquals(2, governor.settings.iterations)
+            assertEquals(16, governor.settings.maxVoxelShapeCollisionPoints)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testGaussSeidelCanGoDownToOneIteration() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld()
+        try {
+            val initialSettings = KrunchPhysicsWorldSettings(solverType = SolverType.GAUSS_SEIDEL)
+            val governor = KrunchQualityGovernor(physicsWorldReference, initialSettings)
+            governor.setBounds(10, 30, 1, 3, 32, 64)
+            governor.qualityLevel = 0
+            assertEquals(1, governor.settings.iterations)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+}
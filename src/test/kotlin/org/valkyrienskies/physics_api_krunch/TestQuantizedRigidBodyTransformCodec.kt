@@ -0,0 +1,139 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import kotlin.math.abs
+import kotlin.math.acos
+import kotlin.math.min
+import kotlin.random.Random
+
+class TestQuantizedRigidBodyTransformCodec {
+
+    private fun randomTransforms(random: Random, count: Int): DoubleArray {
+        val transforms = DoubleArray(count * 7)
+        for (i in 0 until count) {
+            transforms[i * 7] = random.nextDouble(-1000.0, 1000.0)
+            transforms[i * 7 + 1] = random.nextDouble(-1000.0, 1000.0)
+            transforms[i * 7 + 2] = random.nextDouble(-1000.0, 1000.0)
+            val rotation = Quaterniond(random.nextDouble(-1.0, 1.0), random.nextDouble(-1.0, 1.0),
+                random.nextDouble(-1.0, 1.0), random.nextDouble(-1.0, 1.0)).normalize()
+            transforms[i * 7 + 3] = rotation.x
+            transforms[i * 7 + 4] = rotation.y
+            transforms[i * 7 + 5] = rotation.z
+            transforms[i * 7 + 6] = rotation.w
+        }
+        return transforms
+    }
+
+    private fun rotationAngleBetween(a: DoubleArray, aOffset: Int, b: DoubleArray, bOffset: Int): Double {
+        var dot = 0.0
+        for (i in 3 until 7) dot += a[aOffset + i] * b[bOffset + i]
+        return 2.0 * acos(min(1.0, abs(dot)))
+    }
+
+    @Test
+    fun testQuantizationErrorBounds() {
+        val count = 1000
+        val random = Random(1)
+        val transforms = randomTransforms(random, count)
+        val ids = IntArray(count) { it }
+        val codec = QuantizedRigidBodyTransformCodec(1024.0, 15)
+        codec.setOrigin(10.0, 20.0, 30.0)
+
+        val sent = QuantizedRigidBodyTransformCodec.Snapshot()
+        val size = codec.encode(ids, transforms, count, null, sent)
+        val received = QuantizedRigidBodyTransformCodec.Snapshot()
+        codec.decode(codec.buffer.copyOf(size), 0, size, null, received)
+        assertEquals(count, received.size())
+        // Even without a baseline this is much smaller than the doubles sent to Krunch
+        assertTrue(size < count * RigidBodyTransformEncoder.RIGID_BODY_TRANSFORM_BYTES_SIZE / 3)
+
+        val decoded = DoubleArray(7)
+        val sentDecoded = DoubleArray(7)
+        for (i in 0 until count) {
+            assertEquals(i, received.getRigidBodyId(i))
+            codec.getTransform(received, i, decoded, 0)
+            codec.getTransform(sent, i, sentDecoded, 0)
+            // The receiver decodes exactly what the sender quantized
+            assertArrayEquals(sentDecoded, decoded)
+            for (axis in 0 until 3) {
+                assertEquals(transforms[i * 7 + axis], decoded[axis], 0.5 / 1024.0 + 1e-9)
+            }
+            // 15 bits per component keeps rotations within about a hundredth of a degree
+            assertTrue(rotationAngleBetween(transforms, i * 7, decoded, 0) < 2e-4)
+        }
+    }
+
+    @Test
+    fun testDeltaAgainstBaseline() {
+        val count = 1000
+        val random = Random(2)
+        val transforms = randomTransforms(random, count)
+        val ids = IntArray(count) { it * 3 + 7 }
+        val sender = QuantizedRigidBodyTransformCodec()
+        val receiver = QuantizedRigidBodyTransformCodec()
+
+        val senderBaseline = QuantizedRigidBodyTransformCodec.Snapshot()
+        val receiverBaseline = QuantizedRigidBodyTransformCodec.Snapshot()
+        val firstSize = sender.encode(ids, transforms, count, null, senderBaseline)
+        receiver.decode(sender.buffer.copyOf(firstSize), 0, firstSize, null, receiverBaseline)
+
+        // Most bodies are at rest, every tenth one moves and turns a little
+        for (i in 0 until count step 10) {
+            transforms[i * 7] += 0.5
+            transforms[i * 7 + 1] -= 0.05
+            val rotation = Quaterniond(transforms[i * 7 + 3], transforms[i * 7 + 4], transforms[i * 7 + 5], transforms[i * 7 + 6])
+            rotation.rotateY(0.01)
+            transforms[i * 7 + 3] = rotation.x
+            transforms[i * 7 + 4] = rotation.y
+            transforms[i * 7 + 5] = rotation.z
+            transforms[i * 7 + 6] = rotation.w
+        }
+        val sent = QuantizedRigidBodyTransformCodec.Snapshot()
+        val size = sender.encode(ids, transforms, count, senderBaseline, sent)
+        assertTrue(size * 10 < count * RigidBodyTransformEncoder.RIGID_BODY_TRANSFORM_BYTES_SIZE, "Encoded $size bytes")
+
+        val received = QuantizedRigidBodyTransformCodec.Snapshot()
+        receiver.decode(sender.buffer.copyOf(size), 0, size, receiverBaseline, received)
+        val decoded = DoubleArray(7)
+        val sentDecoded = DoubleArray(7)
+        for (i in 0 until count) {
+            assertEquals(ids[i], received.getRigidBodyId(i))
+            receiver.getTransform(received, i, decoded, 0)
+            sender.getTransform(sent, i, sentDecoded, 0)
+            assertArrayEquals(sentDecoded, decoded)
+            assertEquals(transforms[i * 7], decoded[0], 0.5 / 1024.0 + 1e-9)
+            assertTrue(rotationAngleBetween(transforms, i * 7, decoded, 0) < 2e-4)
+        }
+    }
+
+    @Test
+    fun testLargestComponentChangeAgainstBaseline() {
+        val codec = QuantizedRigidBodyTransformCodec()
+        val ids = intArrayOf(5)
+        // w is the largest component, then z is
+        val before = doubleArrayOf(1.0, 2.0, 3.0, 0.0, 0.0, 0.6, 0.8)
+        val after = doubleArrayOf(1.0, 2.0, 3.0, 0.0, 0.0, 0.8, 0.6)
+
+        val baseline = QuantizedRigidBodyTransformCodec.Snapshot()
+        codec.encode(ids, before, 1, null, baseline)
+        val sent = QuantizedRigidBodyTransformCodec.Snapshot()
+        val size = codec.encode(ids, after, 1, baseline, sent)
+        val received = QuantizedRigidBodyTransformCodec.Snapshot()
+        codec.decode(codec.buffer.copyOf(size), 0, size, baseline, received)
+
+        val decoded = DoubleArray(7)
+        codec.getTransform(received, 0, decoded, 0)
+        assertTrue(rotationAngleBetween(after, 0, decoded, 0) < 2e-4)
+        assertEquals(3.0, decoded[2], 0.5 / 1024.0)
+
+        // Keeping a copy of a snapshot as the baseline
+        val copy = QuantizedRigidBodyTransformCodec.Snapshot()
+        copy.set(received)
+        assertEquals(0, copy.indexOf(5))
+        assertEquals(-1, copy.indexOf(6))
+    }
+}
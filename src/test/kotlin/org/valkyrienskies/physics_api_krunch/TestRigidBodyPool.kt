@@ -0,0 +1,129 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+
+class TestRigidBodyPool {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+    }
+
+    @Test
+    fun testReleasedBodiesAreReused() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val pool = KrunchRigidBodyPool(physicsWorld)
+        try {
+            val rigidBody = pool.acquire(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion) as KrunchNativeRigidBodyReference
+            KrunchTestUtils.setBlock(physicsWorld, rigidBody.rigidBodyId, Vector3i(1, 2, 3), KrunchVoxelStates.SOLID_STATE)
+            KrunchTestUtils.setBlock(physicsWorld, rigidBody.rigidBodyId, Vector3i(20, 2, 3), KrunchVoxelStates.SOLID_STATE)
+            rigidBody.rigidBodyTransform = RigidBodyTransform(Vector3d(1.0, 2.0, 3.0), Quaterniond())
+            rigidBody.velocity = Vector3d(1.0, 0.0, 0.0)
+            rigidBody.restitutionCoefficient = 0.9
+            rigidBody.isVoxelTerrainFullyLoaded = true
+            assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(20, 2, 3).toByte())
+
+            pool.release(rigidBody)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertTrue(pool.isParked(rigidBody))
+            assertEquals(1, pool.parkedBodyCount)
+            assertTrue(rigidBody.isStatic)
+            assertEquals(pool.parkingPosition, rigidBody.rigidBodyTransform.position)
+            assertEquals(Vector3d(), rigidBody.velocity)
+            // Every section it had was deleted
+            assertNotEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(1, 2, 3).toByte())
+            assertNotEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(20, 2, 3).toByte())
+
+            // Different regions need a new body
+            val other = pool.acquire(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            assertNotEquals(rigidBody.rigidBodyId, other.rigidBodyId)
+            assertEquals(2L, pool.createdBodies)
+
+            val reused = pool.acquire(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            assertSame(rigidBody, reused)
+            assertFalse(pool.isParked(reused))
+            assertFalse(reused.isStatic)
+            assertEquals(other.restitutionCoefficient, reused.restitutionCoefficient)
+            assertEquals(1L, pool.reusedBodies)
+            assertEquals(0, pool.parkedBodyCount)
+            assertEquals(2, (physicsWorld as KrunchNativePhysicsWorldReference).rigidBodyCount)
+        } finally {
+            pool.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testPoolSizeCapAndIdleTimeout() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val pool = KrunchRigidBodyPool(physicsWorld)
+        try {
+            pool.maxParkedBodies = 1
+            pool.idleTimeoutTicks = 10
+            val a = pool.acquire(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            val b = pool.acquire(0, Vector3i(), Vector3i(), totalVoxelRegion)
+
+            pool.release(a)
+            // The pool is full, so b is deleted
+            pool.release(b)
+            assertTrue(b.hasBeenDeleted())
+            assertFalse(a.hasBeenDeleted())
+            assertEquals(1, pool.parkedBodyCount)
+            assertEquals(1L, pool.deletedBodies)
+
+            repeat(10) { pool.update() }
+            assertFalse(a.hasBeenDeleted())
+            pool.update()
+            assertTrue(a.hasBeenDeleted())
+            assertEquals(0, pool.parkedBodyCount)
+            assertEquals(2L, pool.deletedBodies)
+            assertEquals(0, (physicsWorld as KrunchNativePhysicsWorldReference).rigidBodyCount)
+        } finally {
+            pool.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testEmptyShapesAreForgotten() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val pool = KrunchRigidBodyPool(physicsWorld)
+        try {
+            pool.idleTimeoutTicks = 10
+            val bodies = (0 until 3).map { pool.acquire(0, Vector3i(), Vector3i(it, it, it), totalVoxelRegion) }
+            bodies.forEach { pool.release(it) }
+            assertEquals(3, pool.parkedShapeCount)
+
+            // Reusing the only parked body of a shape forgets the shape
+            pool.acquire(0, Vector3i(), Vector3i(0, 0, 0), totalVoxelRegion)
+            assertEquals(2, pool.parkedShapeCount)
+            // So does deleting it while it's parked
+            physicsWorld.deleteRigidBody(bodies[1].rigidBodyId)
+            assertEquals(1, pool.parkedShapeCount)
+            // And it timing out
+            repeat(11) { pool.update() }
+            assertEquals(0, pool.parkedBodyCount)
+            assertEquals(0, pool.parkedShapeCount)
+        } finally {
+            pool.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+}
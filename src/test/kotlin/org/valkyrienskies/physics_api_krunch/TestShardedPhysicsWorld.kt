@@ -0,0 +1,149 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+import java.util.concurrent.Executors
+
+class TestShardedPhysicsWorld {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun createBox(shardedWorld: KrunchShardedPhysicsWorld, position: Vector3d): KrunchShardedRigidBody {
+            val box = shardedWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            shardedWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(box.handleId, arrayOf<IVoxelShapeUpdate>(sparseUpdate))))
+            box.rigidBody.rigidBodyTransform = RigidBodyTransform(position, Quaterniond())
+            box.rigidBody.inertiaData = KrunchTestUtils.generateUnitInertiaData()
+            box.rigidBody.isVoxelTerrainFullyLoaded = true
+            return box
+        }
+    }
+
+    @Test
+    fun testClustersMergeAndSplit() {
+        val executor = Executors.newFixedThreadPool(1)
+        val shardedWorld = KrunchShardedPhysicsWorld(2, executor, KrunchPhysicsWorldSettings())
+        try {
+            shardedWorld.margin = 2.0
+            shardedWorld.velocityLookAheadTime = 1.0
+            val a = createBox(shardedWorld, Vector3d(0.0, 0.0, 0.0))
+            val b = createBox(shardedWorld, Vector3d(1000.0, 0.0, 0.0))
+            val c = createBox(shardedWorld, Vector3d(3.0, 0.0, 0.0))
+            // Apply the voxels
+            shardedWorld.tick(Vector3d(), 1.0, false)
+
+            // {a, c} and {b} are far apart, so they're split between the shards
+            shardedWorld.updateShards()
+            assertEquals(2, shardedWorld.clusterCount)
+            assertEquals(a.shard, c.shard)
+            assertNotEquals(a.shard, b.shard)
+            val migrations = shardedWorld.migrations
+
+            // b is moving fast towards a, so it joins the cluster before it gets close
+            b.rigidBody.rigidBodyTransform = RigidBodyTransform(Vector3d(20.0, 0.0, 0.0), Quaterniond())
+            b.rigidBody.velocity = Vector3d(-20.0, 0.0, 0.0)
+            assertEquals(1, shardedWorld.updateShards())
+            assertEquals(1, shardedWorld.clusterCount)
+            assertEquals(a.shard, b.shard)
+            assertEquals(3, shardedWorld.getShardLoad(a.shard))
+            assertEquals(migrations + 1, shardedWorld.migrations)
+            // b kept its state when it moved
+            assertEquals(Vector3d(-20.0, 0.0, 0.0), b.rigidBody.velocity)
+            assertEquals(Vector3d(20.0, 0.0, 0.0), b.rigidBody.rigidBodyTransform.position)
+
+            // b stops and moves away again, so its cluster is moved to the empty shard
+            b.rigidBody.velocity = Vector3d()
+            b.rigidBody.rigidBodyTransform = RigidBodyTransform(Vector3d(-500.0, 0.0, 0.0), Quaterniond())
+            assertEquals(1, shardedWorld.updateShards())
+            assertEquals(2, shardedWorld.clusterCount)
+            assertEquals(a.shard, c.shard)
+            assertNotEquals(a.shard, b.shard)
+            assertEquals(1, shardedWorld.getShardLoad(b.shard))
+        } finally {
+            shardedWorld.deletePhysicsWorldResources()
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testShardsTickInParallel() {
+        val executor = Executors.newFixedThreadPool(3)
+        val shardedWorld = KrunchShardedPhysicsWorld(4, executor, KrunchPhysicsWorldSettings())
+        try {
+            val boxes = (0 until 8).map { createBox(shardedWorld, Vector3d(it * 1000.0, 0.0, 0.0)) }
+            shardedWorld.tick(Vector3d(), 1.0, false)
+            shardedWorld.updateShards()
+            assertEquals(8, shardedWorld.clusterCount)
+            for (shard in 0 until shardedWorld.shardCount) {
+                assertEquals(2, shardedWorld.getShardLoad(shard))
+            }
+
+            for (box in boxes) box.rigidBody.velocity = Vector3d(0.0, 0.0, 1.0)
+            repeat(60) { shardedWorld.tick(Vector3d(), 1.0 / 60.0, true) }
+            for ((i, box) in boxes.withIndex()) {
+                val position = box.rigidBody.rigidBodyTransform.position
+                assertEquals(i * 1000.0, position.x(), 1e-6)
+                assertEquals(1.0, position.z(), 1e-6)
+            }
+        } finally {
+            shardedWorld.deletePhysicsWorldResources()
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testMovedBodiesKeepQueuedVoxelsAndListenersStayOnTheTickingThread() {
+        val executor = Executors.newFixedThreadPool(3)
+        val shardedWorld = KrunchShardedPhysicsWorld(4, executor, KrunchPhysicsWorldSettings())
+        try {
+            // All in one cluster, and moved together before the tick that applies their voxels
+            val boxes = (0 until 4).map { createBox(shardedWorld, Vector3d(it * 2.0, 0.0, 0.0)) }
+            assertEquals(3, shardedWorld.updateShards())
+            val shard = boxes[0].shard
+            assertEquals(4, shardedWorld.getShardLoad(shard))
+
+            // The other shards get a box each, so they're ticked on the executor
+            for (i in 1 until 4) createBox(shardedWorld, Vector3d(i * 1000.0, 0.0, 0.0))
+            val tickingThreads = ArrayList<Thread>()
+            val listener = object : KrunchPhysicsWorldListener {
+                override fun onPhysicsWorldTicked() {
+                    tickingThreads.add(Thread.currentThread())
+                }
+            }
+            for (i in 0 until shardedWorld.shardCount) {
+                (shardedWorld.getPhysicsWorld(i) as KrunchNativePhysicsWorldReference).addListener(listener)
+            }
+            shardedWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(List(4) { Thread.currentThread() }, tickingThreads)
+
+            for (box in boxes) {
+                val rigidBody = box.rigidBody as KrunchNativeRigidBodyReference
+                assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(0, 0, 0).toByte())
+                assertSame(shardedWorld.getPhysicsWorld(shard), rigidBody.physicsWorldReference)
+            }
+        } finally {
+            shardedWorld.deletePhysicsWorldResources()
+            executor.shutdown()
+        }
+    }
+}
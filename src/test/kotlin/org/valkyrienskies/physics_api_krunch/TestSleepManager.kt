@@ -0,0 +1,175 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyReference
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+
+class TestSleepManager {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun createBox(physicsWorldReference: KrunchNativePhysicsWorldReference, position: Vector3d): RigidBodyReference {
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(position, Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+            body.isVoxelTerrainFullyLoaded = true
+            return body
+        }
+
+        private fun createGround(physicsWorldReference: KrunchNativePhysicsWorldReference): RigidBodyReference {
+            val ground = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            ground.rigidBodyTransform = RigidBodyTransform(Vector3d(), Quaterniond())
+            ground.isStatic = true
+            ground.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            for (x in 0 until 16) for (z in 0 until 16) sparseUpdate.addUpdate(x, 0, z, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, ground.rigidBodyId, sparseUpdate)
+            ground.isVoxelTerrainFullyLoaded = true
+            return ground
+        }
+    }
+
+    @Test
+    fun testRestingBodyFallsAsleepAndWakesOnForce() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            createGround(physicsWorldReference)
+            val body = createBox(physicsWorldReference, Vector3d(4.0, 2.0, 4.0))
+
+            val sleepManager = KrunchSleepManager(physicsWorldReference)
+            sleepManager.sleepWindowTicks = 30
+            sleepManager.addBody(body)
+
+            for (i in 0 until 180) {
+                physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+                sleepManager.update()
+            }
+
+            assertTrue(sleepManager.isSleeping(body.rigidBodyId))
+            assertTrue(KrunchBootstrap.isRigidBodySleeping(body))
+            assertTrue(body.isStatic)
+            assertEquals(1, sleepManager.sleepingBodyCount)
+            assertEquals(0, sleepManager.awakeBodyCount)
+            val restingY = body.rigidBodyTransform.position.y()
+            assertEquals(1.0, restingY, 1e-2)
+
+            // A zero force doesn't wake the body
+            body.addInvariantForceToNextPhysTick(Vector3d())
+            assertTrue(sleepManager.isSleeping(body.rigidBodyId))
+
+            body.addInvariantForceToNextPhysTick(Vector3d(0.0, 1000.0, 0.0))
+            assertFalse(sleepManager.isSleeping(body.rigidBodyId))
+            assertFalse(body.isStatic)
+            physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+            assertTrue(body.rigidBodyTransform.position.y() > restingY)
+            assertEquals(1L, sleepManager.wakes)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that a falling body wakes the sleeping body it lands on, and that voxel updates wake sleeping bodies.
+     */
+    @Test
+    fun testWakeOnOverlapAndVoxelUpdates() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val ground = createGround(physicsWorldReference)
+            val bottom = createBox(physicsWorldReference, Vector3d(4.0, 1.0, 4.0))
+
+            val sleepManager = KrunchSleepManager(physicsWorldReference)
+            sleepManager.sleepWindowTicks = 10
+            sleepManager.addBody(bottom)
+            for (i in 0 until 60) {
+                physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+                sleepManager.update()
+            }
+            assertTrue(sleepManager.isSleeping(bottom.rigidBodyId))
+
+            val top = createBox(physicsWorldReference, Vector3d(4.0, 4.0, 4.0))
+            sleepManager.addBody(top)
+            var woken = false
+            for (i in 0 until 60) {
+                physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+                sleepManager.update()
+                woken = woken || !sleepManager.isSleeping(bottom.rigidBodyId)
+            }
+            assertTrue(woken)
+            // The top body came to rest on the bottom one
+            assertEquals(2.0, top.rigidBodyTransform.position.y(), 5e-2)
+
+            for (i in 0 until 60) {
+                physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+                sleepManager.update()
+            }
+            assertEquals(2, sleepManager.sleepingBodyCount)
+
+            // Removing the ground under the bodies wakes them
+            val removeGround = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            removeGround.addUpdate(4, 0, 4, KrunchVoxelStates.AIR_STATE)
+            sendSparseUpdate(physicsWorldReference, ground.rigidBodyId, removeGround)
+            assertEquals(0, sleepManager.sleepingBodyCount)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that deleting or teleporting a body wakes the sleeping bodies resting on it.
+     */
+    @Test
+    fun testRemovingSupportWakesRestingBodies() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            createGround(physicsWorldReference)
+            val sleepManager = KrunchSleepManager(physicsWorldReference)
+            sleepManager.sleepWindowTicks = 10
+
+            // Two stacks of two boxes
+            val bottoms = arrayOf(Vector3d(4.0, 1.0, 4.0), Vector3d(10.0, 1.0, 10.0)).map { createBox(physicsWorldReference, it) }
+            val tops = arrayOf(Vector3d(4.0, 2.0, 4.0), Vector3d(10.0, 2.0, 10.0)).map { createBox(physicsWorldReference, it) }
+            (bottoms + tops).forEach { sleepManager.addBody(it) }
+            for (i in 0 until 120) {
+                physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+                sleepManager.update()
+            }
+            assertEquals(4, sleepManager.sleepingBodyCount)
+
+            // Deleting a body wakes the body on top of it, but not the other stack
+            physicsWorldReference.deleteRigidBody(bottoms[0].rigidBodyId)
+            assertFalse(sleepManager.isSleeping(tops[0].rigidBodyId))
+            assertTrue(sleepManager.isSleeping(tops[1].rigidBodyId))
+            assertEquals(2, sleepManager.sleepingBodyCount)
+
+            // So does teleporting it away
+            bottoms[1].rigidBodyTransform = RigidBodyTransform(Vector3d(100.0, 1.0, 100.0), Quaterniond())
+            assertFalse(sleepManager.isSleeping(tops[1].rigidBodyId))
+            assertEquals(0, sleepManager.sleepingBodyCount)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.RigidBodyReference
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class TestStateHasher {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun createBox(physicsWorld: PhysicsWorldReference, position: Vector3d): RigidBodyReference {
+            val body = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(position, Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorld, body.rigidBodyId, sparseUpdate)
+            body.isVoxelTerrainFullyLoaded = true
+            return body
+        }
+
+        /**
+         * Drops three boxes for 20 ticks, nudging the second box at [nudgeTick] if it's not negative.
+         */
+        private fun simulate(nudgeTick: Int): KrunchStateDigestLog {
+            val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+            try {
+                val bodies = (0 until 3).map { createBox(physicsWorld, Vector3d(it * 5.0, 10.0, 0.0)) }
+                val log = KrunchStateDigestLog()
+                val hasher = KrunchStateHasher(physicsWorld, log)
+                hasher.isRecordBodyDigests = true
+                for (i in 1..20) {
+                    if (i == nudgeTick) bodies[1].velocity = Vector3d(1e-9, 0.0, 0.0)
+                    physicsWorld.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+                }
+                assertEquals(20L, hasher.tick)
+                hasher.close()
+                return log
+            } finally {
+                physicsWorld.deletePhysicsWorldResources()
+            }
+        }
+    }
+
+    @Test
+    fun testIdenticalRunsMatch() {
+        val first = simulate(-1)
+        val second = simulate(-1)
+        assertEquals(20, first.size())
+        assertNull(KrunchStateDigestLog.findFirstDivergence(first, second))
+        // The state changes every tick
+        assertNotEquals(first.getDigest(0), first.getDigest(1))
+    }
+
+    @Test
+    fun testFindsFirstDivergenceAndBody() {
+        val expected = simulate(-1)
+        val nudged = simulate(8)
+
+        // Round trip one log, as if it was recorded by another process
+        val bytes = ByteArrayOutputStream()
+        nudged.writeTo(bytes)
+        val read = KrunchStateDigestLog.readFrom(ByteArrayInputStream(bytes.toByteArray()))
+        assertEquals(nudged.size(), read.size())
+        assertEquals(nudged.getDigest(10), read.getDigest(10))
+
+        val divergence = KrunchStateDigestLog.findFirstDivergence(expected, read)
+        assertNotNull(divergence)
+        // The nudge is applied before tick 8
+        assertEquals(8L, divergence!!.tick)
+        assertEquals(7, expected.indexOfTick(8L))
+        assertEquals(expected.getDigest(7), divergence.digestA)
+        assertEquals(1, divergence.differingRigidBodyIds.size)
+
+        // Without body digests the tick is still found
+        val worldOnly = KrunchStateDigestLog()
+        for (i in 0 until expected.size()) worldOnly.add(expected.getTick(i), expected.getDigest(i), null, null, 0)
+        val worldOnlyDivergence = KrunchStateDigestLog.findFirstDivergence(worldOnly, read)
+        assertEquals(8L, worldOnlyDivergence!!.tick)
+        assertArrayEquals(IntArray(0), worldOnlyDivergence.differingRigidBodyIds)
+    }
+}
@@ -0,0 +1,274 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+import java.util.concurrent.RejectedExecutionException
+
+class TestTerrainStreamer {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        /**
+         * Terrain that is solid below y = 0, and air above it.
+         */
+        val flatTerrainProvider = KrunchTerrainSectionProvider { _, x, y, z ->
+            if (y >= 0) {
+                EmptyVoxelShapeUpdate(x, y, z, runImmediately = false, overwriteExistingVoxels = true)
+            } else {
+                DenseVoxelShapeUpdate(x, y, z, false, ByteArray(4096) { KrunchVoxelStates.SOLID_STATE })
+            }
+        }
+    }
+
+    /**
+     * Test that a body waits for its terrain to be streamed in, and then lands on it.
+     */
+    @Test
+    fun testBodyLandsOnStreamedTerrain() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(
+                0,
+                Vector3i(Int.MIN_VALUE, -64, Int.MIN_VALUE),
+                Vector3i(Int.MAX_VALUE, 255, Int.MAX_VALUE),
+                totalVoxelRegion
+            )
+            terrainBody.isStatic = true
+
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(0.5, 5.0, 0.5), Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+
+            // Run the provider on the calling thread so the test is deterministic
+            val streamer = KrunchTerrainStreamer(physicsWorldReference, flatTerrainProvider) { it.run() }
+            streamer.setTerrainBody(0, terrainBody, -4, 15)
+            streamer.trackBody(body, 0)
+
+            // Nothing has been sent yet, so the body must not move
+            assertFalse(streamer.isSectionLoaded(0, 0, -1, 0))
+            assertEquals(0.0, streamer.getCoverage(body.rigidBodyId))
+
+            for (i in 0 until 120) {
+                streamer.update(1.0 / 60.0)
+                physicsWorldReference.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+            }
+
+            assertTrue(streamer.isSectionLoaded(0, 0, -1, 0))
+            assertEquals(1.0, streamer.getCoverage(body.rigidBodyId))
+            assertTrue(body.isVoxelTerrainFullyLoaded)
+            // The body should be resting on top of the terrain
+            assertEquals(0.0, body.rigidBodyTransform.position.y(), 1e-2)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that sections are sent within the per-tick budget, and that the body stays frozen until they are.
+     */
+    @Test
+    fun testSectionsPerTickBudget() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(
+                0,
+                Vector3i(Int.MIN_VALUE, -64, Int.MIN_VALUE),
+                Vector3i(Int.MAX_VALUE, 255, Int.MAX_VALUE),
+                totalVoxelRegion
+            )
+            terrainBody.isStatic = true
+
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(0.5, 5.0, 0.5), Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            // Bodies without voxels have no AABB, so the streamer would skip them
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+
+            val streamer = KrunchTerrainStreamer(physicsWorldReference, flatTerrainProvider) { it.run() }
+            streamer.setTerrainBody(0, terrainBody, -4, 15)
+            streamer.trackBody(body, 0)
+            streamer.maxSectionsPerTick = 1
+
+            // The first update only requests sections, following updates send at most one section each
+            streamer.update(1.0 / 60.0)
+            assertEquals(0L, streamer.sectionsSent)
+            streamer.update(1.0 / 60.0)
+            assertEquals(1L, streamer.sectionsSent)
+            assertFalse(body.isVoxelTerrainFullyLoaded)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that sections the provider doesn't have aren't requested again every tick.
+     */
+    @Test
+    fun testMissedSectionsAreRemembered() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(
+                0,
+                Vector3i(Int.MIN_VALUE, -64, Int.MIN_VALUE),
+                Vector3i(Int.MAX_VALUE, 255, Int.MAX_VALUE),
+                totalVoxelRegion
+            )
+            terrainBody.isStatic = true
+
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(0.5, 5.0, 0.5), Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+
+            var requests = 0
+            val streamer = KrunchTerrainStreamer(physicsWorldReference, { _, _, _, _ -> requests++; null }) { it.run() }
+            streamer.setTerrainBody(0, terrainBody, -4, 15)
+            streamer.trackBody(body, 0)
+
+            streamer.update(1.0 / 60.0)
+            val sweptSections = requests
+            assertTrue(sweptSections > 0)
+            repeat(10) { streamer.update(1.0 / 60.0) }
+            assertEquals(sweptSections, requests)
+            assertEquals(sweptSections, streamer.missedSectionCount)
+            assertFalse(body.isVoxelTerrainFullyLoaded)
+
+            // Sections the game says are available are requested again
+            streamer.markSectionAvailable(0, 0, -1, 0)
+            streamer.update(1.0 / 60.0)
+            assertEquals(sweptSections + 1, requests)
+
+            // So are the sections of a body that moved to different sections
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(100.5, 5.0, 0.5), Quaterniond())
+            streamer.update(1.0 / 60.0)
+            assertTrue(requests > sweptSections + 1)
+
+            // And every section once the miss expires
+            val beforeExpiry = requests
+            streamer.missRetryTicks = 5
+            // Misses are recorded the update after they're requested
+            repeat(6) { streamer.update(1.0 / 60.0) }
+            assertTrue(requests > beforeExpiry)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that missed sections a body keeps sweeping aren't retried just because it sweeps a few new ones.
+     */
+    @Test
+    fun testMissesAreOnlyRetriedWhenNewlySwept() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(
+                0,
+                Vector3i(Int.MIN_VALUE, -64, Int.MIN_VALUE),
+                Vector3i(Int.MAX_VALUE, 255, Int.MAX_VALUE),
+                totalVoxelRegion
+            )
+            terrainBody.isStatic = true
+
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(0.5, 5.0, 0.5), Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+
+            var requests = 0
+            val streamer = KrunchTerrainStreamer(physicsWorldReference, { _, _, _, _ -> requests++; null }) { it.run() }
+            streamer.setTerrainBody(0, terrainBody, -4, 15)
+            streamer.trackBody(body, 0)
+
+            streamer.update(1.0 / 60.0)
+            streamer.update(1.0 / 60.0)
+            val sweptSections = requests
+            assertTrue(sweptSections > 0)
+
+            // Moving fast enough to sweep one more column of sections only requests the new column
+            body.velocity = Vector3d(48.0, 0.0, 0.0)
+            streamer.update(1.0 / 60.0)
+            assertTrue(requests > sweptSections)
+            assertTrue(requests - sweptSections < sweptSections)
+            val afterNewColumn = requests
+            streamer.update(1.0 / 60.0)
+            assertEquals(afterNewColumn, requests)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that a request the executor rejects isn't left in flight.
+     */
+    @Test
+    fun testRejectedRequestsAreRolledBack() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(
+                0,
+                Vector3i(Int.MIN_VALUE, -64, Int.MIN_VALUE),
+                Vector3i(Int.MAX_VALUE, 255, Int.MAX_VALUE),
+                totalVoxelRegion
+            )
+            terrainBody.isStatic = true
+
+            val body = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(Vector3d(0.5, 5.0, 0.5), Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorldReference, body.rigidBodyId, sparseUpdate)
+
+            var rejecting = true
+            val streamer = KrunchTerrainStreamer(physicsWorldReference, flatTerrainProvider) {
+                if (rejecting) throw RejectedExecutionException()
+                it.run()
+            }
+            streamer.setTerrainBody(0, terrainBody, -4, 15)
+            streamer.trackBody(body, 0)
+
+            assertThrows(RejectedExecutionException::class.java) { streamer.update(1.0 / 60.0) }
+            assertEquals(0, streamer.requestsInFlight)
+
+            // The rejected section is requested again once the executor accepts tasks
+            rejecting = false
+            streamer.update(1.0 / 60.0)
+            streamer.update(1.0 / 60.0)
+            assertTrue(streamer.isSectionLoaded(0, 0, -1, 0))
+            assertEquals(0, streamer.requestsInFlight)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+}
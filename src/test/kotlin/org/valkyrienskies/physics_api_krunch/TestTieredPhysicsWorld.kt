@@ -0,0 +1,192 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Matrix3d
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyInertiaData
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+
+class TestTieredPhysicsWorld {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+    }
+
+    @Test
+    fun testMigrationPreservesRigidBodyState() {
+        val tieredWorld = KrunchTieredPhysicsWorld(1)
+        try {
+            val rigidBody = tieredWorld.createVoxelRigidBody(0, 0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(1, 2, 3, KrunchVoxelStates.SOLID_STATE)
+            sparseUpdate.addUpdate(4, 5, 6, KrunchVoxelStates.WATER_STATE)
+            val denseUpdate = DenseVoxelShapeUpdate(1, 0, 0, runImmediately = true)
+            for (i in 0 until 4096) denseUpdate.voxelDataRaw[i] = KrunchVoxelStates.SOLID_STATE
+            tieredWorld.queueVoxelShapeUpdates(
+                arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.handleId, arrayOf<IVoxelShapeUpdate>(sparseUpdate, denseUpdate)))
+            )
+            // Tick the physics worlds to apply the queued voxel shape updates
+            tieredWorld.tick(Vector3d(), 1.0, false)
+
+            val original = rigidBody.rigidBody
+            original.rigidBodyTransform = RigidBodyTransform(Vector3d(1.0, 2.0, 3.0), Quaterniond().rotateY(0.5))
+            original.inertiaData = RigidBodyInertiaData(0.4, Matrix3d().identity())
+            original.velocity = Vector3d(4.0, 5.0, 6.0)
+            original.omega = Vector3d(0.1, 0.2, 0.3)
+            original.staticFrictionCoefficient = 0.7
+            original.dynamicFrictionCoefficient = 0.6
+            original.restitutionCoefficient = 0.25
+            original.collisionShapeOffset = Vector3d(0.5, 0.5, 0.5)
+            original.collisionShapeScaling = 2.0
+            original.isVoxelTerrainFullyLoaded = true
+
+            tieredWorld.migrate(rigidBody, 1)
+            tieredWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(1, rigidBody.tier)
+            assertEquals(1L, tieredWorld.migrations)
+            assertTrue(original.hasBeenDeleted())
+            assertSame(rigidBody, tieredWorld.getRigidBody(rigidBody.handleId))
+
+            val migrated = rigidBody.rigidBody
+            assertNotSame(original, migrated)
+            assertSame(tieredWorld.getPhysicsWorld(1), migrated.physicsWorldReference)
+            assertEquals(Vector3d(1.0, 2.0, 3.0), migrated.rigidBodyTransform.position)
+            assertEquals(0.4, migrated.inertiaData.invMass)
+            assertEquals(Vector3d(4.0, 5.0, 6.0), migrated.velocity)
+            assertEquals(Vector3d(0.1, 0.2, 0.3), migrated.omega)
+            assertEquals(0.7, migrated.staticFrictionCoefficient)
+            assertEquals(0.6, migrated.dynamicFrictionCoefficient)
+            assertEquals(0.25, migrated.restitutionCoefficient)
+            assertEquals(Vector3d(0.5, 0.5, 0.5), migrated.collisionShapeOffset)
+            assertEquals(2.0, migrated.collisionShapeScaling)
+            assertTrue(migrated.isVoxelTerrainFullyLoaded)
+            assertVoxelStatesEqual(migrated as KrunchNativeRigidBodyReference)
+
+            // Voxel updates sent by handle id go to the new tier
+            val removeUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            removeUpdate.addUpdate(1, 2, 3, KrunchVoxelStates.AIR_STATE)
+            tieredWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.handleId, arrayOf<IVoxelShapeUpdate>(removeUpdate))))
+            tieredWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(KrunchVoxelStates.AIR_STATE, migrated.getVoxelState(1, 2, 3).toByte())
+        } finally {
+            tieredWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testMigrationKeepsQueuedVoxelUpdates() {
+        val tieredWorld = KrunchTieredPhysicsWorld(2)
+        try {
+            val rigidBody = tieredWorld.createVoxelRigidBody(0, 0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(1, 2, 3, KrunchVoxelStates.SOLID_STATE)
+            sparseUpdate.addUpdate(4, 5, 6, KrunchVoxelStates.WATER_STATE)
+            val denseUpdate = DenseVoxelShapeUpdate(1, 0, 0, runImmediately = true)
+            for (i in 0 until 4096) denseUpdate.voxelDataRaw[i] = KrunchVoxelStates.SOLID_STATE
+            tieredWorld.queueVoxelShapeUpdates(
+                arrayOf(VoxelRigidBodyShapeUpdates(rigidBody.handleId, arrayOf<IVoxelShapeUpdate>(sparseUpdate, denseUpdate)))
+            )
+
+            // Migrated twice before the updates were applied by a tick, the voxels still end up in the last tier
+            tieredWorld.migrate(rigidBody, 1)
+            tieredWorld.migrate(rigidBody, 2)
+            tieredWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(2, rigidBody.tier)
+            assertVoxelStatesEqual(rigidBody.rigidBody as KrunchNativeRigidBodyReference)
+        } finally {
+            tieredWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    private fun assertVoxelStatesEqual(rigidBody: KrunchNativeRigidBodyReference) {
+        assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(1, 2, 3).toByte())
+        assertEquals(KrunchVoxelStates.WATER_STATE, rigidBody.getVoxelState(4, 5, 6).toByte())
+        assertEquals(KrunchVoxelStates.AIR_STATE, rigidBody.getVoxelState(0, 0, 0).toByte())
+        assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(16, 0, 0).toByte())
+        assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(31, 15, 15).toByte())
+        assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(20, 7, 9).toByte())
+        assertEquals(KrunchVoxelStates.AIR_STATE, rigidBody.getVoxelState(32, 0, 0).toByte())
+    }
+
+    @Test
+    fun testTiersFollowObserverDistance() {
+        val tieredWorld = KrunchTieredPhysicsWorld(1)
+        try {
+            tieredWorld.setTierDistances(50.0)
+            tieredWorld.hysteresis = 0.1
+
+            // Terrain is in every tier
+            val ground = tieredWorld.createSharedVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            val groundUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            for (x in 0 until 16) for (z in 0 until 16) groundUpdate.addUpdate(x, 0, z, KrunchVoxelStates.SOLID_STATE)
+            tieredWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(ground.handleId, arrayOf<IVoxelShapeUpdate>(groundUpdate))))
+            tieredWorld.tick(Vector3d(), 1.0, false)
+            for (tier in 0 until tieredWorld.tierCount) {
+                ground.getRigidBody(tier).isStatic = true
+                ground.getRigidBody(tier).isVoxelTerrainFullyLoaded = true
+            }
+
+            val box = tieredWorld.createVoxelRigidBody(0, 0, Vector3i(), Vector3i(), totalVoxelRegion)
+            val boxUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            boxUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            tieredWorld.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(box.handleId, arrayOf<IVoxelShapeUpdate>(boxUpdate))))
+            tieredWorld.tick(Vector3d(), 1.0, false)
+            box.rigidBody.rigidBodyTransform = RigidBodyTransform(Vector3d(4.0, 3.0, 4.0), Quaterniond())
+            box.rigidBody.inertiaData = KrunchTestUtils.generateUnitInertiaData()
+            box.rigidBody.isVoxelTerrainFullyLoaded = true
+
+            assertEquals(0, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 4.0))))
+            assertEquals(0, box.tier)
+            // Past the tier distance, but within the hysteresis
+            assertEquals(0, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 57.0))))
+            assertEquals(0, box.tier)
+            assertEquals(1, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 60.0), Vector3d(1000.0, 0.0, 0.0))))
+            assertEquals(1, box.tier)
+
+            // The box lands on the copy of the ground in the low fidelity tier
+            repeat(120) { tieredWorld.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true) }
+            assertEquals(1.0, box.rigidBody.rigidBodyTransform.position.y(), 5e-2)
+
+            assertEquals(1, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 40.0))))
+            assertEquals(0, box.tier)
+            assertEquals(1.0, box.rigidBody.rigidBodyTransform.position.y(), 5e-2)
+
+            // Pinned rigid bodies stay in their tier
+            tieredWorld.setPinnedTier(box, 1)
+            assertEquals(1, box.tier)
+            assertEquals(0, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 4.0))))
+            assertEquals(1, box.tier)
+            tieredWorld.setPinnedTier(box, KrunchTieredPhysicsWorld.NOT_PINNED)
+            assertEquals(1, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 4.0))))
+            assertEquals(0, box.tier)
+
+            // A tier that doesn't exist throws without pinning the body
+            assertThrows(IllegalArgumentException::class.java) { tieredWorld.setPinnedTier(box, 5) }
+            assertEquals(KrunchTieredPhysicsWorld.NOT_PINNED, box.pinnedTier)
+            assertEquals(0, tieredWorld.updateTiers(listOf(Vector3d(4.0, 0.0, 4.0))))
+            assertEquals(0, box.tier)
+        } finally {
+            tieredWorld.deletePhysicsWorldResources()
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.RigidBodyReference
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+
+class TestTransformChangeNotifier {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun createBox(physicsWorld: PhysicsWorldReference, position: Vector3d): RigidBodyReference {
+            val body = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(position, Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorld, body.rigidBodyId, sparseUpdate)
+            body.isVoxelTerrainFullyLoaded = true
+            return body
+        }
+    }
+
+    private class RecordingCallback : KrunchTransformChangeNotifier.Callback {
+        val reported = ArrayList<List<Int>>()
+        val lastTransforms = HashMap<Int, DoubleArray>()
+
+        override fun onRigidBodiesMoved(rigidBodyIds: IntArray, transforms: DoubleArray, count: Int) {
+            reported.add(rigidBodyIds.copyOf(count).toList())
+            for (i in 0 until count) lastTransforms[rigidBodyIds[i]] = transforms.copyOfRange(i * 7, i * 7 + 7)
+        }
+    }
+
+    @Test
+    fun testOnlyBodiesPastTheirThresholdsAreReported() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val callback = RecordingCallback()
+        val notifier = KrunchTransformChangeNotifier(physicsWorld, callback)
+        try {
+            val bodyA = createBox(physicsWorld, Vector3d(0.0, 0.0, 0.0))
+            val bodyB = createBox(physicsWorld, Vector3d(10.0, 0.0, 0.0))
+            val bodyC = createBox(physicsWorld, Vector3d(20.0, 0.0, 0.0))
+            notifier.subscribe(bodyA, 0.1, 0.1)
+            notifier.subscribe(bodyB, 0.1, 0.1)
+            notifier.subscribe(bodyC, 0.1, 0.1)
+            assertEquals(3, notifier.subscriptionCount)
+
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertTrue(callback.reported.isEmpty())
+
+            // Small movements add up until they pass the threshold
+            bodyA.rigidBodyTransform = RigidBodyTransform(Vector3d(0.06, 0.0, 0.0), Quaterniond())
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertTrue(callback.reported.isEmpty())
+            bodyA.rigidBodyTransform = RigidBodyTransform(Vector3d(0.12, 0.0, 0.0), Quaterniond())
+            bodyB.rigidBodyTransform = RigidBodyTransform(Vector3d(10.0, 0.0, 0.0), Quaterniond().rotateY(0.3))
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(listOf(listOf(bodyA.rigidBodyId, bodyB.rigidBodyId)), callback.reported)
+            assertEquals(0.12, callback.lastTransforms[bodyA.rigidBodyId]!![0], 1e-9)
+            val reportedRotation = callback.lastTransforms[bodyB.rigidBodyId]!!
+            assertEquals(Quaterniond().rotateY(0.3).y, reportedRotation[4], 1e-9)
+
+            val reportedTransform = DoubleArray(7)
+            assertTrue(notifier.getReportedTransform(bodyA.rigidBodyId, reportedTransform, 0))
+            assertEquals(0.12, reportedTransform[0], 1e-9)
+
+            // Nothing moved since the last report
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(1, callback.reported.size)
+
+            // Deleting a body swaps another subscription into its slot
+            physicsWorld.deleteRigidBody(bodyA.rigidBodyId)
+            assertFalse(notifier.isSubscribed(bodyA.rigidBodyId))
+            assertEquals(2, notifier.subscriptionCount)
+            bodyC.rigidBodyTransform = RigidBodyTransform(Vector3d(20.0, 1.0, 0.0), Quaterniond())
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(listOf(bodyC.rigidBodyId), callback.reported.last())
+            assertEquals(1.0, callback.lastTransforms[bodyC.rigidBodyId]!![1], 1e-9)
+        } finally {
+            notifier.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testSleepingBodiesAreSkipped() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val callback = RecordingCallback()
+        val notifier = KrunchTransformChangeNotifier(physicsWorld, callback)
+        try {
+            val falling = createBox(physicsWorld, Vector3d(0.0, 50.0, 0.0))
+            val sleeping = createBox(physicsWorld, Vector3d(10.0, 50.0, 0.0))
+            sleeping.isStatic = true
+            (sleeping as KrunchNativeRigidBodyReference).isSleeping = true
+            notifier.subscribe(falling, 0.5, 0.1)
+            notifier.subscribe(sleeping, 0.5, 0.1)
+
+            for (i in 0 until 60) {
+                physicsWorld.tick(Vector3d(0.0, -10.0, 0.0), 1.0 / 60.0, true)
+            }
+            // Falls 5 meters in a second, reported roughly every half meter
+            assertTrue(callback.reported.size in 5..10, "Reported ${callback.reported.size} times")
+            assertTrue(callback.reported.all { it == listOf(falling.rigidBodyId) })
+            assertEquals(60L, notifier.comparisons)
+            assertEquals(callback.reported.size.toLong(), notifier.reports)
+        } finally {
+            notifier.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+}
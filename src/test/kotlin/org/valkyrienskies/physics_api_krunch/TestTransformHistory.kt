@@ -0,0 +1,128 @@
+package org.valkyrienskies.physics_api_krunch
+
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBd
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.RigidBodyReference
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.generateUnitInertiaData
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendSparseUpdate
+
+class TestTransformHistory {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun createBox(physicsWorld: PhysicsWorldReference, position: Vector3d): RigidBodyReference {
+            val body = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            body.rigidBodyTransform = RigidBodyTransform(position, Quaterniond())
+            body.inertiaData = generateUnitInertiaData()
+            val sparseUpdate = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            sparseUpdate.addUpdate(0, 0, 0, KrunchVoxelStates.SOLID_STATE)
+            sendSparseUpdate(physicsWorld, body.rigidBodyId, sparseUpdate)
+            body.isVoxelTerrainFullyLoaded = true
+            return body
+        }
+    }
+
+    @Test
+    fun testPoseAtInterpolatesRecordedTicks() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val history = KrunchTransformHistory(physicsWorld, 4, 8)
+        try {
+            val body = createBox(physicsWorld, Vector3d())
+            history.track(body)
+            val startTick = history.currentTick
+            // Move 1 meter along x and turn 0.1 radians every tick
+            for (i in 1..10) {
+                body.rigidBodyTransform = RigidBodyTransform(Vector3d(i.toDouble(), 0.0, 0.0), Quaterniond().rotateY(0.1 * i))
+                physicsWorld.tick(Vector3d(), 1.0, false)
+            }
+            assertEquals(startTick + 10, history.currentTick)
+            // Only the last 8 ticks are kept
+            assertEquals(history.currentTick - 7, history.getOldestTick(body.rigidBodyId))
+
+            val pose = DoubleArray(7)
+            val tick = (startTick + 5).toDouble()
+            assertTrue(history.poseAt(body.rigidBodyId, tick, pose, 0))
+            assertEquals(5.0, pose[0], 1e-9)
+            assertEquals(Quaterniond().rotateY(0.5).y, pose[4], 1e-9)
+
+            assertTrue(history.poseAt(body.rigidBodyId, tick + 0.5, pose, 0))
+            assertEquals(5.5, pose[0], 1e-9)
+            assertEquals(Quaterniond().rotateY(0.55).y, pose[4], 1e-4)
+            assertEquals(1.0, pose[3] * pose[3] + pose[4] * pose[4] + pose[5] * pose[5] + pose[6] * pose[6], 1e-9)
+
+            assertFalse(history.poseAt(body.rigidBodyId, (startTick + 1).toDouble(), pose, 0))
+            assertFalse(history.poseAt(body.rigidBodyId, history.currentTick + 0.5, pose, 0))
+            assertFalse(history.poseAt(body.rigidBodyId + 1, tick, pose, 0))
+
+            val aabb = AABBd()
+            assertTrue(history.getAABBAt(body.rigidBodyId, startTick + 5, aabb))
+            assertEquals(5.0, (aabb.minX + aabb.maxX) / 2.0, 1e-6)
+        } finally {
+            history.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testHistoricalOverlapQuery() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val history = KrunchTransformHistory(physicsWorld, 2, 16)
+        try {
+            val moving = createBox(physicsWorld, Vector3d())
+            val still = createBox(physicsWorld, Vector3d(0.0, 10.0, 0.0))
+            history.track(moving)
+            history.track(still)
+            assertThrows(IllegalStateException::class.java) {
+                history.track(createBox(physicsWorld, Vector3d(0.0, 20.0, 0.0)))
+            }
+            val startTick = history.currentTick
+            for (i in 1..5) {
+                moving.rigidBodyTransform = RigidBodyTransform(Vector3d(i * 3.0, 0.0, 0.0), Quaterniond())
+                physicsWorld.tick(Vector3d(), 1.0, false)
+            }
+
+            val found = IntArrayList()
+            val box = AABBd(5.8, -0.2, -0.2, 6.2, 0.2, 0.2)
+            assertEquals(1, history.queryOverlapping(startTick + 2, box, found))
+            assertEquals(moving.rigidBodyId, found.getInt(0))
+            assertEquals(0, history.queryOverlapping(startTick + 3, box, found))
+            assertEquals(0, history.queryOverlapping(history.currentTick + 1, box, found))
+
+            val above = AABBd(-1.0, 9.0, -1.0, 1.0, 11.0, 1.0)
+            assertEquals(1, history.queryOverlapping(startTick + 4, above, found))
+            assertEquals(still.rigidBodyId, found.getInt(0))
+
+            // Deleting a tracked body frees its slot for another body
+            physicsWorld.deleteRigidBody(still.rigidBodyId)
+            assertFalse(history.isTracked(still.rigidBodyId))
+            val replacement = createBox(physicsWorld, Vector3d(0.0, 30.0, 0.0))
+            history.track(replacement)
+            assertEquals(history.currentTick, history.getOldestTick(replacement.rigidBodyId))
+            assertEquals(0, history.queryOverlapping(startTick + 4, above, found))
+        } finally {
+            history.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.PhysicsWorldReference
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.KrunchVoxelStates
+import org.valkyrienskies.physics_api.voxel_updates.SparseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+class TestVoxelIngestionPipeline {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+
+        private fun setVoxel(rigidBodyId: Int, x: Int, y: Int, z: Int, state: Byte): Array<VoxelRigidBodyShapeUpdates> {
+            val update = SparseVoxelShapeUpdate(0, 0, 0, runImmediately = true)
+            update.addUpdate(x, y, z, state)
+            return arrayOf(VoxelRigidBodyShapeUpdates(rigidBodyId, arrayOf<IVoxelShapeUpdate>(update)))
+        }
+    }
+
+    /**
+     * Runs submitted tasks only when the test asks it to.
+     */
+    private class ManualExecutor : Executor {
+        val tasks = ArrayList<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+    }
+
+    /**
+     * Counts the batches it was given decoded, which the pipeline should never cause.
+     */
+    private class DecodeCountingInertiaTracker(physicsWorld: PhysicsWorldReference) : KrunchInertiaTracker(physicsWorld) {
+        var decodedBatches = 0
+
+        override fun onVoxelShapeUpdatesQueued(updates: Array<VoxelRigidBodyShapeUpdates>) {
+            decodedBatches++
+            super.onVoxelShapeUpdatesQueued(updates)
+        }
+    }
+
+    private class DecodeCountingConnectivityTracker(physicsWorld: PhysicsWorldReference) :
+        KrunchConnectivityTracker(physicsWorld) {
+        var decodedBatches = 0
+
+        override fun onVoxelShapeUpdatesQueued(updates: Array<VoxelRigidBodyShapeUpdates>) {
+            decodedBatches++
+            super.onVoxelShapeUpdatesQueued(updates)
+        }
+    }
+
+    @Test
+    fun testTrackersDontDecodeFlushedBatches() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val executor = ManualExecutor()
+        val pipeline = KrunchVoxelIngestionPipeline(physicsWorld, executor)
+        val inertiaTracker = DecodeCountingInertiaTracker(physicsWorld)
+        val connectivityTracker = DecodeCountingConnectivityTracker(physicsWorld)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+                as KrunchNativeRigidBodyReference
+            inertiaTracker.track(rigidBody)
+            connectivityTracker.track(rigidBody)
+            for (x in 0 until 3) {
+                pipeline.submit(setVoxel(rigidBody.rigidBodyId, x, 0, 0, KrunchVoxelStates.SOLID_STATE))
+            }
+            executor.tasks.forEach { it.run() }
+            assertEquals(3, pipeline.flush())
+
+            // The trackers still saw the voxels, without decoding them
+            assertEquals(0, inertiaTracker.decodedBatches)
+            assertEquals(0, connectivityTracker.decodedBatches)
+            assertEquals(3.0, inertiaTracker.getMass(rigidBody.rigidBodyId), 1e-9)
+            assertEquals(3L, inertiaTracker.voxelChanges)
+
+            // Breaking the middle voxel splits the bar, which the connectivity tracker can only see if it has all three
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 1, 0, 0, KrunchVoxelStates.AIR_STATE))
+            executor.tasks.last().run()
+            assertEquals(1, pipeline.flush())
+            assertTrue(connectivityTracker.update().isNotEmpty())
+            assertEquals(0, connectivityTracker.decodedBatches)
+            assertEquals(2.0, inertiaTracker.getMass(rigidBody.rigidBodyId), 1e-9)
+        } finally {
+            connectivityTracker.close()
+            inertiaTracker.close()
+            pipeline.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testFlushAndFenceDontDecode() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        val executor = ManualExecutor()
+        val pipeline = KrunchVoxelIngestionPipeline(physicsWorld, executor)
+        // Listeners that don't care about voxel updates
+        val driver = KrunchFixedTimestepDriver(physicsWorld, 1.0 / 60.0)
+        val stateHasher = KrunchStateHasher(physicsWorld, null)
+        val transformHistory = KrunchTransformHistory(physicsWorld, 16, 4)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+                as KrunchNativeRigidBodyReference
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 1, 1, 1, KrunchVoxelStates.SOLID_STATE))
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 2, 2, 2, KrunchVoxelStates.SOLID_STATE))
+            executor.tasks.forEach { it.run() }
+            assertEquals(2, pipeline.flush())
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 3, 3, 3, KrunchVoxelStates.SOLID_STATE))
+            assertEquals(1, pipeline.fence())
+
+            assertEquals(0L, physicsWorld.encodedBatchesDecoded)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(3, 3, 3).toByte())
+        } finally {
+            transformHistory.close()
+            stateHasher.close()
+            driver.close()
+            pipeline.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testEncodedBatchesAreDecodedOnceForListenersThatNeedThem() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        val executor = ManualExecutor()
+        val pipeline = KrunchVoxelIngestionPipeline(physicsWorld, executor)
+        val decodedUpdates = ArrayList<Array<VoxelRigidBodyShapeUpdates>>()
+        val listener = object : KrunchPhysicsWorldListener {
+            override fun onVoxelShapeUpdatesQueued(updates: Array<VoxelRigidBodyShapeUpdates>) {
+                decodedUpdates.add(updates)
+            }
+        }
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+                as KrunchNativeRigidBodyReference
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 1, 1, 1, KrunchVoxelStates.SOLID_STATE))
+            executor.tasks.last().run()
+            assertEquals(1, pipeline.flush())
+            // Nothing needed the batch decoded
+            assertEquals(0L, physicsWorld.encodedBatchesDecoded)
+
+            // Two listeners that only take decoded updates share one decode
+            physicsWorld.addListener(listener)
+            physicsWorld.addListener(listener)
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 2, 2, 2, KrunchVoxelStates.SOLID_STATE))
+            executor.tasks.last().run()
+            assertEquals(1, pipeline.flush())
+            assertEquals(1L, physicsWorld.encodedBatchesDecoded)
+            assertEquals(2, decodedUpdates.size)
+            assertTrue(decodedUpdates[0] === decodedUpdates[1])
+            assertEquals(rigidBody.rigidBodyId, decodedUpdates[0][0].rigidBodyId)
+        } finally {
+            pipeline.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testBatchesAreSentInSubmissionOrder() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val executor = ManualExecutor()
+        val pipeline = KrunchVoxelIngestionPipeline(physicsWorld, executor)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+                as KrunchNativeRigidBodyReference
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 1, 1, 1, KrunchVoxelStates.SOLID_STATE))
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 1, 1, 1, KrunchVoxelStates.AIR_STATE))
+            pipeline.submit(setVoxel(rigidBody.rigidBodyId, 2, 2, 2, KrunchVoxelStates.SOLID_STATE))
+            assertEquals(3, pipeline.pendingBatchCount)
+
+            // The second batch finished first, but it can't be sent before the first one
+            executor.tasks[1].run()
+            assertEquals(0, pipeline.flush())
+            executor.tasks[0].run()
+            assertEquals(2, pipeline.flush())
+            assertEquals(1, pipeline.pendingBatchCount)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(KrunchVoxelStates.AIR_STATE, rigidBody.getVoxelState(1, 1, 1).toByte())
+            assertEquals(KrunchVoxelStates.AIR_STATE, rigidBody.getVoxelState(2, 2, 2).toByte())
+
+            // The fence encodes the batch the executor never got to
+            assertEquals(1, pipeline.fence())
+            assertEquals(1L, pipeline.batchesEncodedByFence)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(2, 2, 2).toByte())
+
+            // The executor running it late does nothing
+            executor.tasks[2].run()
+            assertEquals(0, pipeline.flush())
+            assertEquals(3L, pipeline.batchesSent)
+        } finally {
+            pipeline.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+
+    @Test
+    fun testFenceWaitsForBackgroundEncoding() {
+        val physicsWorld = KrunchBootstrap.createKrunchPhysicsWorld()
+        val executor = Executors.newFixedThreadPool(2)
+        val pipeline = KrunchVoxelIngestionPipeline(physicsWorld, executor)
+        try {
+            val rigidBody = physicsWorld.createVoxelRigidBody(0, Vector3i(), Vector3i(15, 15, 15), totalVoxelRegion)
+                as KrunchNativeRigidBodyReference
+            for (x in 0 until 16) {
+                pipeline.submit(setVoxel(rigidBody.rigidBodyId, x, 0, 0, KrunchVoxelStates.SOLID_STATE))
+            }
+            pipeline.fence()
+            assertEquals(0, pipeline.pendingBatchCount)
+            assertEquals(16L, pipeline.batchesSent)
+            physicsWorld.tick(Vector3d(), 1.0, false)
+            for (x in 0 until 16) {
+                assertEquals(KrunchVoxelStates.SOLID_STATE, rigidBody.getVoxelState(x, 0, 0).toByte())
+            }
+        } finally {
+            executor.shutdown()
+            pipeline.close()
+            physicsWorld.deletePhysicsWorldResources()
+        }
+    }
+}
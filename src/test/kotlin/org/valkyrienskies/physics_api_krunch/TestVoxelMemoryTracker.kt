@@ -0,0 +1,143 @@
+package org.valkyrienskies.physics_api_krunch
+
+import org.joml.Quaterniond
+import org.joml.Vector3d
+import org.joml.Vector3i
+import org.joml.primitives.AABBi
+import org.joml.primitives.AABBic
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.valkyrienskies.physics_api.RigidBodyTransform
+import org.valkyrienskies.physics_api.voxel_updates.DeleteVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.DenseVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.EmptyVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.IVoxelShapeUpdate
+import org.valkyrienskies.physics_api.voxel_updates.VoxelRigidBodyShapeUpdates
+import org.valkyrienskies.physics_api_krunch.KrunchNativeRigidBodyReference.VOXEL_STATE_UNLOADED
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendDeleteUpdate
+import org.valkyrienskies.physics_api_krunch.KrunchTestUtils.sendDenseUpdate
+
+class TestVoxelMemoryTracker {
+    companion object {
+        @BeforeAll
+        @JvmStatic
+        fun loadNativeBinaries() {
+            KrunchBootstrap.loadNativeBinaries()
+        }
+
+        val totalVoxelRegion: AABBic = AABBi(-128, -128, -128, 127, 127, 127)
+    }
+
+    @Test
+    fun testResidentSectionAccounting() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val tracker = KrunchVoxelMemoryTracker(physicsWorldReference)
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(0, Vector3i(-1000), Vector3i(1000), totalVoxelRegion)
+
+            val emptyUpdates = Array<IVoxelShapeUpdate>(10) { EmptyVoxelShapeUpdate(it, 0, 0, false, true) }
+            physicsWorldReference.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(terrainBody.rigidBodyId, emptyUpdates)))
+            assertEquals(10L, tracker.residentSections)
+            assertEquals(10L * KrunchVoxelMemoryTracker.ESTIMATED_EMPTY_SECTION_BYTES, tracker.residentBytes)
+
+            // Replacing an empty section with a dense one changes its estimate, but not the section count
+            sendDenseUpdate(physicsWorldReference, terrainBody.rigidBodyId, DenseVoxelShapeUpdate(0, 0, 0, true))
+            assertEquals(10, tracker.getResidentSections(terrainBody.rigidBodyId))
+            assertEquals(
+                9L * KrunchVoxelMemoryTracker.ESTIMATED_EMPTY_SECTION_BYTES + KrunchVoxelMemoryTracker.ESTIMATED_DENSE_SECTION_BYTES,
+                tracker.getResidentBytes(terrainBody.rigidBodyId)
+            )
+
+            sendDeleteUpdate(physicsWorldReference, terrainBody.rigidBodyId, DeleteVoxelShapeUpdate(0, 0, 0, true))
+            assertEquals(9L, tracker.residentSections)
+            assertFalse(tracker.isSectionResident(terrainBody.rigidBodyId, 0, 0, 0))
+
+            physicsWorldReference.deleteRigidBody(terrainBody.rigidBodyId)
+            assertEquals(0L, tracker.residentSections)
+            assertEquals(0L, tracker.residentBytes)
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that going over budget evicts the sections farthest from dynamic bodies, and keeps the ones close to them.
+     */
+    @Test
+    fun testEvictFarSections() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val tracker = KrunchVoxelMemoryTracker(physicsWorldReference)
+            tracker.relevanceRadius = 1
+
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(0, Vector3i(-1000), Vector3i(1000), totalVoxelRegion)
+            terrainBody.isStatic = true
+            tracker.setEvictable(terrainBody.rigidBodyId, true)
+
+            val dynamicBody = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+            dynamicBody.rigidBodyTransform = RigidBodyTransform(Vector3d(8.0, 8.0, 8.0), Quaterniond())
+            tracker.addDynamicBody(dynamicBody)
+
+            // Load a row of 20 sections going away from the dynamic body
+            val emptyUpdates = Array<IVoxelShapeUpdate>(20) { EmptyVoxelShapeUpdate(it, 0, 0, false, true) }
+            physicsWorldReference.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(terrainBody.rigidBodyId, emptyUpdates)))
+            physicsWorldReference.tick(Vector3d(), 1.0, false)
+
+            tracker.maxResidentBytes = 10L * KrunchVoxelMemoryTracker.ESTIMATED_EMPTY_SECTION_BYTES
+            tracker.evictionTargetFraction = 1.0
+            tracker.update()
+            physicsWorldReference.tick(Vector3d(), 1.0, false)
+
+            assertEquals(10L, tracker.residentSections)
+            assertEquals(10L, tracker.evictedSections)
+            // The closest sections survive, the farthest are gone from Krunch too
+            assertTrue(tracker.isSectionResident(terrainBody.rigidBodyId, 0, 0, 0))
+            assertTrue(tracker.isSectionResident(terrainBody.rigidBodyId, 9, 0, 0))
+            assertFalse(tracker.isSectionResident(terrainBody.rigidBodyId, 10, 0, 0))
+            assertEquals(VOXEL_STATE_UNLOADED, terrainBody.getVoxelState(19 * 16, 0, 0))
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+
+    /**
+     * Test that sections within the relevance radius of any dynamic body are never evicted, even over budget.
+     */
+    @Test
+    fun testKeepSectionsNearEveryDynamicBody() {
+        val physicsWorldReference = KrunchBootstrap.createKrunchPhysicsWorld() as KrunchNativePhysicsWorldReference
+        try {
+            val tracker = KrunchVoxelMemoryTracker(physicsWorldReference)
+            tracker.relevanceRadius = 1
+
+            val terrainBody = physicsWorldReference.createVoxelRigidBody(0, Vector3i(-1000), Vector3i(1000), totalVoxelRegion)
+            terrainBody.isStatic = true
+            tracker.setEvictable(terrainBody.rigidBodyId, true)
+
+            // Two bodies in the first section and one in the last
+            for (x in listOf(4.0, 12.0, 19 * 16 + 8.0)) {
+                val dynamicBody = physicsWorldReference.createVoxelRigidBody(0, Vector3i(), Vector3i(), totalVoxelRegion)
+                dynamicBody.rigidBodyTransform = RigidBodyTransform(Vector3d(x, 8.0, 8.0), Quaterniond())
+                tracker.addDynamicBody(dynamicBody)
+            }
+
+            val emptyUpdates = Array<IVoxelShapeUpdate>(20) { EmptyVoxelShapeUpdate(it, 0, 0, false, true) }
+            physicsWorldReference.queueVoxelShapeUpdates(arrayOf(VoxelRigidBodyShapeUpdates(terrainBody.rigidBodyId, emptyUpdates)))
+            physicsWorldReference.tick(Vector3d(), 1.0, false)
+
+            tracker.maxResidentBytes = 0L
+            tracker.update()
+            physicsWorldReference.tick(Vector3d(), 1.0, false)
+
+            assertEquals(4L, tracker.residentSections)
+            for (x in listOf(0, 1, 18, 19)) assertTrue(tracker.isSectionResident(terrainBody.rigidBodyId, x, 0, 0))
+            assertFalse(tracker.isSectionResident(terrainBody.rigidBodyId, 2, 0, 0))
+            assertFalse(tracker.isSectionResident(terrainBody.rigidBodyId, 17, 0, 0))
+        } finally {
+            physicsWorldReference.deletePhysicsWorldResources()
+        }
+    }
+}